@@ -0,0 +1,59 @@
+package com.sach429.booking.benchmark;
+
+import com.sach429.booking.controller.exception.handler.BookingExceptionHandler;
+import com.sach429.booking.exception.*;
+import com.sach429.booking.metrics.BookingMetrics;
+import com.sach429.booking.types.BookingError;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BookingExceptionHandlerBenchmark {
+    private BookingExceptionHandler bookingExceptionHandler;
+    private BookingCreationException dateNotAvailable;
+    private BookingModifyException alreadyInProgress;
+    private BookingModifyException unexpected;
+    private WebRequest webRequest;
+
+    @Setup
+    public void setup() {
+        webRequest = new ServletWebRequest(new MockHttpServletRequest());
+        bookingExceptionHandler = new BookingExceptionHandler(new BookingMetrics(new SimpleMeterRegistry()));
+        dateNotAvailable = new BookingCreationException(new BookingValidationException(new BookingDateNotAvailableException("Booking dates are not available")));
+        alreadyInProgress = new BookingModifyException(new BookingValidationException(new BookingAlreadyInProgressException("Booking is already in progress and cannot be modified")));
+        unexpected = new BookingModifyException("BookingId: 1 was modified concurrently, please retry");
+    }
+
+    @Benchmark
+    public ResponseEntity<BookingError> handleDateNotAvailable() {
+        return bookingExceptionHandler.handleBookingException(dateNotAvailable, webRequest);
+    }
+
+    @Benchmark
+    public ResponseEntity<BookingError> handleAlreadyInProgress() {
+        return bookingExceptionHandler.handleBookingException(alreadyInProgress, webRequest);
+    }
+
+    @Benchmark
+    public ResponseEntity<BookingError> handleUnexpected() {
+        return bookingExceptionHandler.handleBookingException(unexpected, webRequest);
+    }
+
+    @Benchmark
+    public BookingModifyException createAndHandleAlreadyInProgress() {
+        BookingModifyException bookingModifyException = new BookingModifyException(new BookingValidationException(new BookingAlreadyInProgressException("Booking is already in progress and cannot be modified")));
+        bookingExceptionHandler.handleBookingException(bookingModifyException, webRequest);
+        return bookingModifyException;
+    }
+}
@@ -0,0 +1,58 @@
+package com.sach429.booking.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.BookingHistory;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BookingSerializationBenchmark {
+    @Param({"0", "10", "100"})
+    public int historySize;
+
+    private ObjectMapper objectMapper;
+    private Booking booking;
+    private List<BookingHistory> bookingHistory;
+
+    @Setup
+    public void setup() {
+        objectMapper = new ObjectMapper().findAndRegisterModules().disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        booking = booking(1L);
+        bookingHistory = new ArrayList<>();
+        for (int i = 0; i < historySize; i++) {
+            Booking previousVersion = booking(i);
+            bookingHistory.add(new BookingHistory(1L, previousVersion.getLastUpdateTimestamp().plusMinutes(1L), previousVersion));
+        }
+        booking.setPreviousVersion(historySize == 0 ? null : bookingHistory.get(historySize - 1).getBooking());
+    }
+
+    @Benchmark
+    public byte[] serializeBooking() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(booking);
+    }
+
+    @Benchmark
+    public byte[] serializeBookingHistory() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(bookingHistory);
+    }
+
+    private static Booking booking(long offset) {
+        LocalDate fromDate = LocalDate.of(2020, 12, 10).plusDays(offset);
+        Booking booking = new Booking(1L, "fname", "lname", "email", fromDate, fromDate.plusDays(2L), Booking.BookingStatus.CONFIRMED);
+        booking.setLastUpdateTimestamp(LocalDateTime.of(2020, 12, 1, 10, 0).plusMinutes(offset));
+        return booking;
+    }
+}
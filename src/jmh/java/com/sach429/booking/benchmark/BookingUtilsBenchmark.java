@@ -0,0 +1,29 @@
+package com.sach429.booking.benchmark;
+
+import com.sach429.booking.utils.BookingUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BookingUtilsBenchmark {
+    private final String stringDate = "2020-12-10";
+    private final LocalDate fromDate = LocalDate.of(2020, 12, 10);
+    private final LocalDate toDate = LocalDate.of(2020, 12, 12);
+
+    @Benchmark
+    public LocalDate convertStringToLocalDate() {
+        return BookingUtils.convertStringToLocalDate(stringDate);
+    }
+
+    @Benchmark
+    public int[] getEpochDaysBetween() {
+        return BookingUtils.getEpochDaysBetween(fromDate, toDate);
+    }
+}
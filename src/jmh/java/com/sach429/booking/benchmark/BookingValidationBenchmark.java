@@ -0,0 +1,75 @@
+package com.sach429.booking.benchmark;
+
+import com.sach429.booking.availability.AccountStays;
+import com.sach429.booking.model.ValidationResult;
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import com.sach429.booking.service.BookingAccountService;
+import com.sach429.booking.service.BookingValidationService;
+import com.sach429.booking.types.BookingCreate;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BookingValidationBenchmark {
+    private BookingValidationService bookingValidationService;
+    private BookingValidationService accountIntervalValidationService;
+    private BookingCreate validBookingCreate;
+    private BookingCreate invalidBookingCreate;
+
+    @Setup
+    public void setup() {
+        BookingConfigurationProperties bookingConfigurationProperties = new BookingConfigurationProperties();
+        bookingConfigurationProperties.setMaxDaysInAdvance(30);
+        bookingConfigurationProperties.setMinDaysInAdvance(1);
+        bookingConfigurationProperties.setMaxDuration(3);
+        bookingValidationService = new BookingValidationService(null, bookingConfigurationProperties, new BookingAccountService(null, bookingConfigurationProperties));
+        BookingConfigurationProperties accountIntervalProperties = new BookingConfigurationProperties();
+        accountIntervalProperties.setMaxDaysInAdvance(30);
+        accountIntervalProperties.setMinDaysInAdvance(1);
+        accountIntervalProperties.setMaxDuration(3);
+        accountIntervalProperties.setMinIntervalPerAccount(1);
+//        an account with a long history of stays, indexed as it would be after its first booking
+        BookingAccountService bookingAccountService = new BookingAccountService(null, accountIntervalProperties);
+        AccountStays accountStays = AccountStays.EMPTY;
+        long today = LocalDate.now().toEpochDay();
+        for (int i = 0; i < 1000; i++) {
+            accountStays = accountStays.with(i, today - 3000 + i * 3, today - 3000 + i * 3);
+        }
+        bookingAccountService.putStays("email", accountStays);
+        accountIntervalValidationService = new BookingValidationService(null, accountIntervalProperties, bookingAccountService);
+        validBookingCreate = bookingCreate(LocalDate.now().plusDays(2L).toString(), LocalDate.now().plusDays(4L).toString());
+        invalidBookingCreate = bookingCreate(LocalDate.now().plusDays(2L).toString(), "2020-12-33");
+    }
+
+    @Benchmark
+    public ValidationResult validDates() {
+        return bookingValidationService.validateBookingRequest(validBookingCreate);
+    }
+
+    @Benchmark
+    public ValidationResult validDatesWithAccountInterval() {
+        return accountIntervalValidationService.validateBookingRequest(validBookingCreate);
+    }
+
+    @Benchmark
+    public ValidationResult invalidDates() {
+        return bookingValidationService.validateBookingRequest(invalidBookingCreate);
+    }
+
+    private static BookingCreate bookingCreate(String fromDate, String toDate) {
+        BookingCreate bookingCreate = new BookingCreate();
+        bookingCreate.setFirstName("fname");
+        bookingCreate.setLastName("lname");
+        bookingCreate.setEmail("email");
+        bookingCreate.setFromDate(fromDate);
+        bookingCreate.setToDate(toDate);
+        return bookingCreate;
+    }
+}
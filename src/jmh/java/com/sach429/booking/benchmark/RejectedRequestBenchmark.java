@@ -0,0 +1,111 @@
+package com.sach429.booking.benchmark;
+
+import com.sach429.booking.availability.DateClaim;
+import com.sach429.booking.controller.exception.handler.BookingExceptionHandler;
+import com.sach429.booking.exception.BookingCreationException;
+import com.sach429.booking.metrics.BookingMetrics;
+import com.sach429.booking.model.Booking;
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import com.sach429.booking.service.BookingAccountService;
+import com.sach429.booking.service.BookingAvailabilityService;
+import com.sach429.booking.service.BookingPersistenceService;
+import com.sach429.booking.service.BookingService;
+import com.sach429.booking.service.BookingValidationService;
+import com.sach429.booking.types.BookingCreate;
+import com.sach429.booking.types.BookingError;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A rejected create request from the service call to the mapped error response, for invalid dates, for
+ * dates taken in the database and for dates claimed by a request still in flight. Run with {@code -prof gc} to compare {@code gc.alloc.rate.norm}, the bytes
+ * allocated per rejected request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RejectedRequestBenchmark {
+    private BookingService bookingService;
+    private BookingAvailabilityService bookingAvailabilityService;
+    private DateClaim heldClaim;
+    private BookingExceptionHandler bookingExceptionHandler;
+    private BookingCreate invalidDates;
+    private BookingCreate takenDates;
+    private BookingCreate claimedDates;
+    private WebRequest webRequest;
+
+    @Setup
+    public void setup() {
+        BookingConfigurationProperties bookingConfigurationProperties = new BookingConfigurationProperties();
+        bookingConfigurationProperties.setMaxDaysInAdvance(30);
+        bookingConfigurationProperties.setMinDaysInAdvance(1);
+        bookingConfigurationProperties.setMaxDuration(3);
+        BookingMetrics bookingMetrics = new BookingMetrics(new SimpleMeterRegistry());
+        DuplicateKeyException duplicateKeyException = new DuplicateKeyException("duplicate key");
+        BookingPersistenceService bookingPersistenceService = new BookingPersistenceService(null, null, null, null, null, null, null) {
+            @Override
+            public Booking createBooking(BookingCreate bookingCreate) {
+                throw duplicateKeyException;
+            }
+        };
+        bookingAvailabilityService = new BookingAvailabilityService(null, bookingConfigurationProperties);
+        BookingValidationService bookingValidationService = new BookingValidationService(bookingPersistenceService, bookingConfigurationProperties, new BookingAccountService(null, bookingConfigurationProperties));
+        bookingService = new BookingService(bookingPersistenceService, bookingValidationService, bookingAvailabilityService, null, bookingConfigurationProperties, bookingMetrics);
+        webRequest = new ServletWebRequest(new MockHttpServletRequest());
+        bookingExceptionHandler = new BookingExceptionHandler(bookingMetrics);
+        invalidDates = bookingCreate(LocalDate.now().plusDays(2L).toString(), "2020-12-33");
+        takenDates = bookingCreate(LocalDate.now().plusDays(2L).toString(), LocalDate.now().plusDays(3L).toString());
+        claimedDates = bookingCreate(LocalDate.now().plusDays(5L).toString(), LocalDate.now().plusDays(6L).toString());
+        heldClaim = bookingAvailabilityService.claimDates(Booking.DEFAULT_SITE_ID, LocalDate.now().plusDays(6L), LocalDate.now().plusDays(6L));
+    }
+
+    @TearDown
+    public void tearDown() {
+        heldClaim.close();
+    }
+
+    @Benchmark
+    public ResponseEntity<BookingError> rejectInvalidDates() {
+        return reject(invalidDates);
+    }
+
+    @Benchmark
+    public ResponseEntity<BookingError> rejectTakenDates() {
+        return reject(takenDates);
+    }
+
+    @Benchmark
+    public ResponseEntity<BookingError> rejectClaimedDates() {
+        return reject(claimedDates);
+    }
+
+    private ResponseEntity<BookingError> reject(BookingCreate bookingCreate) {
+        try {
+            bookingService.createBooking(bookingCreate);
+            throw new IllegalStateException("Booking request was not rejected");
+        } catch (BookingCreationException e) {
+            return bookingExceptionHandler.handleBookingException(e, webRequest);
+        }
+    }
+
+    private static BookingCreate bookingCreate(String fromDate, String toDate) {
+        BookingCreate bookingCreate = new BookingCreate();
+        bookingCreate.setFirstName("fname");
+        bookingCreate.setLastName("lname");
+        bookingCreate.setEmail("email");
+        bookingCreate.setFromDate(fromDate);
+        bookingCreate.setToDate(toDate);
+        return bookingCreate;
+    }
+}
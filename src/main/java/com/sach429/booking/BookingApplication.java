@@ -3,24 +3,57 @@ package com.sach429.booking;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DuplicateKeyException;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
 import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.BookingHistory;
+import com.sach429.booking.model.CalendarDay;
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import com.sach429.booking.repository.ReactiveBookingRepository;
+import com.sach429.booking.service.BookingCalendarService;
 import org.bson.Document;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.FilterType;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
 
 import javax.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @SpringBootApplication
-@EnableMongoRepositories
+@EnableMongoRepositories(excludeFilters = @ComponentScan.Filter(type = FilterType.ASSIGNABLE_TYPE, classes = ReactiveBookingRepository.class))
 public class BookingApplication {
 
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    private static final long HISTORY_SWEEP_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1L);
+
+    private static final String SWEEP_COLLECTION = "bookingSweeps";
+
+    private static final String HISTORY_SWEEP = "bookingHistory";
+
+    private static final String SWEPT_UNTIL = "sweptUntil";
+
+    private static final String DAYS_INDEX = "days_1_bookingStatus_1";
+
+    private static final String SITE_DAYS_INDEX = "siteId_1_days_1_bookingStatus_1";
+
     private final MongoTemplate mongoTemplate;
+    private final BookingConfigurationProperties bookingConfigurationProperties;
 
-    BookingApplication(MongoTemplate mongoTemplate) {
+    BookingApplication(MongoTemplate mongoTemplate, BookingConfigurationProperties bookingConfigurationProperties) {
         this.mongoTemplate = mongoTemplate;
+        this.bookingConfigurationProperties = bookingConfigurationProperties;
     }
 
     public static void main(String[] args) {
@@ -30,14 +63,169 @@ public class BookingApplication {
     @PostConstruct
     public void initCollections() {
         MongoCollection<Document> collection = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Booking.class));
+        migrateDaysToEpochDays(collection);
+        migrateChangeHistory(collection);
+        saveMissingBookingHistory(collection);
+        migrateSiteIds(collection);
+        if (bookingConfigurationProperties.getConflictEngine() == BookingConfigurationProperties.ConflictEngine.CALENDAR) {
+            dropIndexes(collection, DAYS_INDEX, SITE_DAYS_INDEX);
+            fillCalendar(collection);
+            releaseDaysOfCancelledBookings(collection);
+        }
         try {
-            collection.createIndex(new BasicDBObject().append("days", 1).append("bookingStatus", 1), new IndexOptions().unique(true).partialFilterExpression(new BasicDBObject().append("bookingStatus", Booking.BookingStatus.CONFIRMED.name())));
+            if (bookingConfigurationProperties.getConflictEngine() == BookingConfigurationProperties.ConflictEngine.INDEX) {
+                collection.createIndex(new BasicDBObject().append("siteId", 1).append("days", 1).append("bookingStatus", 1), new IndexOptions().name(SITE_DAYS_INDEX).unique(true).partialFilterExpression(new BasicDBObject().append("bookingStatus", Booking.BookingStatus.CONFIRMED.name())));
+//                only dropped once the index per site is in place, so confirmed bookings are never without one
+                dropIndexes(collection, DAYS_INDEX);
+            }
             collection.createIndex(new BasicDBObject().append("bookingId", 1), new IndexOptions().unique(true));
             collection.createIndex(new BasicDBObject().append("email", 1));
-            collection.createIndex(new BasicDBObject().append("bookingStatus", 1));
+            collection.createIndex(new BasicDBObject().append("siteId", 1).append("fromDate", 1).append("toDate", 1));
+            collection.createIndex(new BasicDBObject().append("bookingStatus", 1).append("fromDate", 1).append("toDate", 1));
             collection.createIndex(new BasicDBObject().append("fromDate", 1).append("toDate", 1));
+//                only changed bookings are indexed, for the history sweep
+            collection.createIndex(new BasicDBObject().append("lastUpdateTimestamp", 1), new IndexOptions().partialFilterExpression(new BasicDBObject().append("previousVersion", new BasicDBObject().append("$exists", true))));
+            mongoTemplate.getCollection(mongoTemplate.getCollectionName(BookingHistory.class))
+                    .createIndex(new BasicDBObject().append("bookingId", 1).append("changedAt", 1));
         } catch (DuplicateKeyException e) {
             // ignore
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Rewrites {@code days} stored as {@code yyyy-MM-dd} strings, on the booking and in its change history,
+     * to epoch day integers. Documents that are already migrated do not match the filter.
+     */
+    private void migrateDaysToEpochDays(MongoCollection<Document> collection) {
+        Document historyDays = new Document("$map", new Document("input", new Document("$ifNull", Arrays.asList("$changeHistory", Collections.emptyList())))
+                .append("as", "history")
+                .append("in", new Document("$mergeObjects", Arrays.asList("$$history", new Document("days", toEpochDays("$$history.days"))))));
+        collection.updateMany(new Document("$or", Arrays.asList(new Document("days", new Document("$type", "string")), new Document("changeHistory.days", new Document("$type", "string")))),
+                Collections.singletonList(new Document("$set", new Document("days", toEpochDays("$days")).append("changeHistory", historyDays))));
+    }
+
+    /**
+     * Moves the change history embedded in bookings written before it got its own collection to
+     * {@code bookingHistory}. A version was replaced when the next one was written, the last one when the booking
+     * itself was. Entries get an id from the booking id and their position, so an interrupted run can repeat.
+     */
+    private void migrateChangeHistory(MongoCollection<Document> collection) {
+        Document hasChangeHistory = new Document("changeHistory", new Document("$exists", true));
+        collection.aggregate(Arrays.asList(
+                new Document("$match", hasChangeHistory),
+                new Document("$project", new Document("bookingId", 1).append("lastUpdateTimestamp", 1)
+                        .append("changeHistory", 1).append("version", "$changeHistory")),
+                new Document("$unwind", new Document("path", "$version").append("includeArrayIndex", "index")),
+                new Document("$project", new Document("_id", new Document("bookingId", "$bookingId").append("index", "$index"))
+                        .append("bookingId", 1)
+                        .append("changedAt", new Document("$ifNull", Arrays.asList(
+                                new Document("$arrayElemAt", Arrays.asList("$changeHistory.lastUpdateTimestamp", new Document("$add", Arrays.asList("$index", 1)))),
+                                "$lastUpdateTimestamp")))
+                        .append("booking", "$version")),
+                new Document("$merge", new Document("into", mongoTemplate.getCollectionName(BookingHistory.class))
+                        .append("on", "_id").append("whenMatched", "keepExisting").append("whenNotMatched", "insert"))))
+                .toCollection();
+        collection.updateMany(hasChangeHistory, new Document("$unset", new Document("changeHistory", "")));
+    }
+
+    /**
+     * Saves the history entry of the last change of every booking whose entry was lost, a write of the history
+     * that failed after the change was committed; the version the change replaced is still on the booking.
+     * Changes of the last minute are left alone, the instance that made them may still be saving their entry. Only
+     * changes made since the last sweep of any instance are looked at, so a sweep costs as much as the changes
+     * since, not the whole history; the first sweep goes through every changed booking once. An entry is only
+     * lost for good when its booking changed again before this ran.
+     */
+    private void saveMissingBookingHistory(MongoCollection<Document> collection) {
+        String bookingHistory = mongoTemplate.getCollectionName(BookingHistory.class);
+        MongoCollection<Document> sweeps = mongoTemplate.getCollection(SWEEP_COLLECTION);
+        Document lastSweep = sweeps.find(new Document("_id", HISTORY_SWEEP)).first();
+        Date sweptUntil = new Date(System.currentTimeMillis() - HISTORY_SWEEP_DELAY_MILLIS);
+        Document changedAt = new Document("$lt", sweptUntil);
+        if (lastSweep != null && lastSweep.getDate(SWEPT_UNTIL) != null) {
+            changedAt.append("$gte", lastSweep.getDate(SWEPT_UNTIL));
+        }
+        collection.aggregate(Arrays.asList(
+                new Document("$match", new Document("previousVersion", new Document("$exists", true)).append("lastUpdateTimestamp", changedAt)),
+                new Document("$lookup", new Document("from", bookingHistory)
+                        .append("localField", "bookingId").append("foreignField", "bookingId").append("as", "saved")),
+                new Document("$match", new Document("$expr", new Document("$not", Collections.singletonList(
+                        new Document("$in", Arrays.asList("$lastUpdateTimestamp", "$saved.changedAt")))))),
+                new Document("$project", new Document("_id", 0).append("bookingId", 1)
+                        .append("changedAt", "$lastUpdateTimestamp").append("booking", "$previousVersion")),
+                new Document("$merge", new Document("into", bookingHistory).append("whenNotMatched", "insert"))))
+                .toCollection();
+        sweeps.updateOne(new Document("_id", HISTORY_SWEEP), new Document("$max", new Document(SWEPT_UNTIL, sweptUntil)), new UpdateOptions().upsert(true));
+    }
+
+    /**
+     * Puts bookings written before there was more than one site on site 0.
+     */
+    private void migrateSiteIds(MongoCollection<Document> collection) {
+        collection.updateMany(new Document("siteId", new Document("$exists", false)), new Document("$set", new Document("siteId", Booking.DEFAULT_SITE_ID)));
+    }
+
+    /**
+     * The calendar engine keeps bookings apart by itself, the unique index would only add a write per day. The
+     * index on days alone predates sites and would keep bookings of different sites off the same day.
+     */
+    private void dropIndexes(MongoCollection<Document> collection, String... names) {
+        for (Document index : collection.listIndexes()) {
+            if (Arrays.asList(names).contains(index.getString("name"))) {
+                collection.dropIndex(index.getString("name"));
+            }
+        }
+    }
+
+    /**
+     * Gives every day of a confirmed booking on its site to that booking in the {@code calendar} collection, for
+     * bookings written while the index engine was in use. Days that already have a document are left as they are,
+     * so the calendar has to be dropped when switching back to it from the index engine. Past days are not filled,
+     * the calendar service prunes them.
+     */
+    private void fillCalendar(MongoCollection<Document> collection) {
+        int today = Math.toIntExact(LocalDate.now().toEpochDay());
+        collection.aggregate(Arrays.asList(
+                new Document("$match", new Document("bookingStatus", Booking.BookingStatus.CONFIRMED.name()).append("days", new Document("$gte", today))),
+                new Document("$unwind", "$days"),
+                new Document("$match", new Document("days", new Document("$gte", today))),
+                new Document("$project", new Document("_id", new Document("siteId", "$siteId").append("day", "$days")).append("bookingId", 1)),
+                new Document("$merge", new Document("into", mongoTemplate.getCollectionName(CalendarDay.class))
+                        .append("on", "_id").append("whenMatched", "keepExisting").append("whenNotMatched", "insert"))))
+                .toCollection();
+    }
+
+    /**
+     * Gives back the days of the {@code calendar} collection still held by a cancelled booking, which a release
+     * that failed after a cancel or a failed modify left behind. A cancelled booking never holds days again, so
+     * this is safe while other instances take requests; days held by a booking that was never written are left
+     * alone, they cannot be told apart from a create still in flight. Past days are pruned by the calendar
+     * service and not looked at, so the sweep covers the bookable days of every site only.
+     */
+    private void releaseDaysOfCancelledBookings(MongoCollection<Document> collection) {
+        MongoCollection<Document> calendar = mongoTemplate.getCollection(mongoTemplate.getCollectionName(CalendarDay.class));
+        List<UpdateOneModel<Document>> releases = new ArrayList<>();
+        for (Document heldDay : calendar.aggregate(Arrays.asList(
+                new Document("$match", new Document("bookingId", new Document("$ne", null))
+                        .append(BookingCalendarService.ID + "." + BookingCalendarService.DAY, new Document("$gte", Math.toIntExact(LocalDate.now().toEpochDay())))),
+                new Document("$lookup", new Document("from", collection.getNamespace().getCollectionName())
+                        .append("localField", "bookingId").append("foreignField", "bookingId").append("as", "holder")),
+                new Document("$match", new Document("holder.bookingStatus", Booking.BookingStatus.CANCELLED.name())),
+                new Document("$project", new Document("bookingId", 1))))) {
+            releases.add(new UpdateOneModel<>(new Document("_id", heldDay.get("_id")).append("bookingId", heldDay.get("bookingId")),
+                    new Document("$set", new Document("bookingId", null))));
+        }
+        if (!releases.isEmpty()) {
+            calendar.bulkWrite(releases, new BulkWriteOptions().ordered(false));
+        }
+    }
+
+    private static Document toEpochDays(String daysExpression) {
+        Document epochDay = new Document("$toInt", new Document("$divide", Arrays.asList(
+                new Document("$toLong", new Document("$dateFromString", new Document("dateString", "$$day").append("format", "%Y-%m-%d").append("timezone", "UTC"))),
+                MILLIS_PER_DAY)));
+        return new Document("$map", new Document("input", new Document("$ifNull", Arrays.asList(daysExpression, Collections.emptyList())))
+                .append("as", "day")
+                .append("in", new Document("$cond", Arrays.asList(new Document("$eq", Arrays.asList(new Document("$type", "$$day"), "string")), epochDay, "$$day"))));
+    }
+}
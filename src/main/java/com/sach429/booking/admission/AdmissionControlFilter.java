@@ -0,0 +1,136 @@
+package com.sach429.booking.admission;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sach429.booking.controller.exception.handler.BookingExceptionHandler;
+import com.sach429.booking.exception.BookingErrorCode;
+import com.sach429.booking.metrics.BookingMetrics;
+import com.sach429.booking.types.ErrorType;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+/**
+ * Admits a request only when its client has a token left, reads and writes drawing on separate budgets, and
+ * answers everything else with a 429 and a {@code Retry-After} before the request reaches a controller. Every
+ * request is charged to its client address, the API key or else the email it names are not authenticated and
+ * only add a budget of their own on top, so a client cannot get a fresh budget by changing them. A request one
+ * budget rejects is not charged to the other. The client address is the remote address, unless that is one of the
+ * trusted proxies: then it is the last address in {@code X-Forwarded-For} not added by a trusted proxy, as the
+ * ones before it are whatever the client sent. The body is not read, so a rejection costs no parsing and no I/O.
+ */
+public class AdmissionControlFilter extends OncePerRequestFilter {
+    public static final String API_KEY_HEADER = "X-API-Key";
+    public static final String READ = "read";
+    public static final String WRITE = "write";
+    public static final String API_KEY = "api-key";
+    public static final String EMAIL = "email";
+    public static final String REMOTE_ADDRESS = "remote-address";
+    public static final String FORWARDED_FOR_HEADER = "X-Forwarded-For";
+
+    private final TokenBucketTable readBuckets;
+    private final TokenBucketTable writeBuckets;
+    private final BookingMetrics bookingMetrics;
+    private final LongSupplier clock;
+    private final Set<String> trustedProxies;
+    private final byte[] rejectionBody;
+
+    public AdmissionControlFilter(TokenBucketTable readBuckets, TokenBucketTable writeBuckets, BookingMetrics bookingMetrics, LongSupplier clock,
+                                  Set<String> trustedProxies) {
+        this.readBuckets = readBuckets;
+        this.writeBuckets = writeBuckets;
+        this.bookingMetrics = bookingMetrics;
+        this.clock = clock;
+        this.trustedProxies = trustedProxies;
+        this.rejectionBody = toRejectionBody();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        boolean read = HttpMethod.GET.matches(request.getMethod()) || HttpMethod.HEAD.matches(request.getMethod());
+        TokenBucketTable buckets = read ? readBuckets : writeBuckets;
+        long now = clock.getAsLong();
+        String client = REMOTE_ADDRESS;
+        String addressKey = "a:" + getClientAddress(request);
+        long retryAfterMillis = buckets.tryAcquire(addressKey, now);
+        if (retryAfterMillis == 0L) {
+            String apiKey = request.getHeader(API_KEY_HEADER);
+            String email = request.getParameter(EMAIL);
+            if (StringUtils.isNotBlank(apiKey)) {
+                client = API_KEY;
+                retryAfterMillis = buckets.tryAcquire("k:" + apiKey, now);
+            } else if (StringUtils.isNotBlank(email)) {
+                client = EMAIL;
+                retryAfterMillis = buckets.tryAcquire("e:" + email, now);
+            }
+            if (retryAfterMillis != 0L) {
+                buckets.refund(addressKey);
+            }
+        }
+        if (retryAfterMillis == 0L) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        bookingMetrics.admissionRejected(read ? READ : WRITE, client);
+        response.setStatus(BookingErrorCode.TOO_MANY_REQUESTS.getStatus().value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1L, (retryAfterMillis + 999L) / 1000L)));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setContentLength(rejectionBody.length);
+        response.getOutputStream().write(rejectionBody);
+    }
+
+    /**
+     * The remote address, or behind trusted proxies the address the first of them was reached from. Without a
+     * forwarded address from a trusted proxy, the proxy itself is the client.
+     */
+    String getClientAddress(HttpServletRequest request) {
+        String address = request.getRemoteAddr();
+        if (!trustedProxies.contains(address)) {
+            return address;
+        }
+        List<String> hops = new ArrayList<>();
+        Enumeration<String> forwardedFor = request.getHeaders(FORWARDED_FOR_HEADER);
+        while (forwardedFor != null && forwardedFor.hasMoreElements()) {
+            for (String hop : StringUtils.split(forwardedFor.nextElement(), ',')) {
+                if (StringUtils.isNotBlank(hop)) {
+                    hops.add(hop.trim());
+                }
+            }
+        }
+        for (int i = hops.size() - 1; i >= 0; i--) {
+            address = hops.get(i);
+            if (!trustedProxies.contains(address)) {
+                return address;
+            }
+        }
+        return address;
+    }
+
+    /**
+     * Every rejection sends the same body, it is serialized once.
+     */
+    private static byte[] toRejectionBody() {
+        ErrorType errorType = new ErrorType();
+        errorType.setCode(BookingErrorCode.TOO_MANY_REQUESTS.name());
+        errorType.setDescription(BookingErrorCode.TOO_MANY_REQUESTS.getDescription());
+        try {
+            return new ObjectMapper().writeValueAsBytes(BookingExceptionHandler.toBookingError(null, Collections.singletonList(errorType)));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Rejection body cannot be serialized", e);
+        }
+    }
+}
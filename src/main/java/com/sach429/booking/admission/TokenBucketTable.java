@@ -0,0 +1,100 @@
+package com.sach429.booking.admission;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets keyed by the exact client, so no two clients ever share a budget. A bucket packs the milliseconds
+ * since the table was created at its last refill in the high 40 bits and its tokens, in thousandths, in the low
+ * 24 bits, and is updated with a single compare and set, so taking a token takes no lock. A bucket left idle long
+ * enough to be full again is dropped, a new one starts full as well; beyond {@code maxClients} the least used
+ * buckets are dropped early, so the table never grows with the number of clients.
+ */
+public class TokenBucketTable {
+    private static final int TOKEN_BITS = 24;
+    private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+    private static final long MILLI_TOKENS_PER_TOKEN = 1000L;
+    private static final long MIN_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(1L);
+    public static final int MAX_CAPACITY = (int) (TOKEN_MASK / MILLI_TOKENS_PER_TOKEN);
+
+    private final Cache<Object, AtomicLong> buckets;
+    private final long capacityMilliTokens;
+    private final long milliTokensPerMilli;
+    private final long baseMillis;
+
+    /**
+     * The capacity is the burst a client can send after being idle, the rate the tokens added to its bucket every
+     * second.
+     */
+    public TokenBucketTable(int maxClients, int capacity, int tokensPerSecond, long nowMillis) {
+        if (maxClients <= 0 || capacity <= 0 || tokensPerSecond <= 0) {
+            throw new IllegalArgumentException("Token bucket clients, capacity and rate have to be positive");
+        }
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Token bucket capacity cannot be more than " + MAX_CAPACITY);
+        }
+        this.capacityMilliTokens = capacity * MILLI_TOKENS_PER_TOKEN;
+        this.milliTokensPerMilli = tokensPerSecond;
+        this.baseMillis = nowMillis - 1;
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxClients)
+                .expireAfterAccess(Math.max(capacityMilliTokens / milliTokensPerMilli, MIN_IDLE_MILLIS), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Takes a token from the bucket of the key. Returns zero when a token was taken, otherwise the milliseconds
+     * until the bucket has one again.
+     */
+    public long tryAcquire(Object key, long nowMillis) {
+        AtomicLong bucket = buckets.get(key, k -> new AtomicLong());
+        long now = Math.max(nowMillis - baseMillis, 1L);
+        while (true) {
+            long current = bucket.get();
+            long tokens;
+            long refilledAt = current >>> TOKEN_BITS;
+            if (current == 0L) {
+//                never used, starts full
+                tokens = capacityMilliTokens;
+            } else if (now > refilledAt) {
+                long elapsed = now - refilledAt;
+                tokens = elapsed >= capacityMilliTokens / milliTokensPerMilli ? capacityMilliTokens
+                        : Math.min(capacityMilliTokens, (current & TOKEN_MASK) + elapsed * milliTokensPerMilli);
+            } else {
+//                another request refilled it in the same or a later millisecond
+                tokens = current & TOKEN_MASK;
+                now = refilledAt;
+            }
+            if (tokens < MILLI_TOKENS_PER_TOKEN) {
+                return (MILLI_TOKENS_PER_TOKEN - tokens + milliTokensPerMilli - 1) / milliTokensPerMilli;
+            }
+            if (bucket.compareAndSet(current, now << TOKEN_BITS | tokens - MILLI_TOKENS_PER_TOKEN)) {
+                return 0L;
+            }
+        }
+    }
+
+    /**
+     * Gives back a token taken from the bucket of the key, for a request another bucket rejected. A bucket that is
+     * gone or still full is left as it is, it is full either way.
+     */
+    public void refund(Object key) {
+        AtomicLong bucket = buckets.getIfPresent(key);
+        if (bucket == null) {
+            return;
+        }
+        while (true) {
+            long current = bucket.get();
+            if (current == 0L) {
+                return;
+            }
+            long tokens = Math.min(capacityMilliTokens, (current & TOKEN_MASK) + MILLI_TOKENS_PER_TOKEN);
+            if (bucket.compareAndSet(current, current & ~TOKEN_MASK | tokens)) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.sach429.booking.availability;
+
+import java.util.Arrays;
+
+/**
+ * Immutable, sorted stays of one account. Each stay is packed into a long, first epoch day in the high and
+ * last epoch day in the low 32 bits, so the stays sort by first day and a conflict is found with a binary
+ * search and a scan bounded by the longest stay, without boxing. Updates return a copy.
+ */
+public final class AccountStays {
+    public static final AccountStays EMPTY = new AccountStays(new long[0], new long[0], 0);
+    public static final long NO_CONFLICT = -1L;
+    private static final long LOW_MASK = 0xFFFFFFFFL;
+
+    private final long[] stays;
+    private final long[] bookingIds;
+    private final int maxStayDays;
+
+    private AccountStays(long[] stays, long[] bookingIds, int maxStayDays) {
+        this.stays = stays;
+        this.bookingIds = bookingIds;
+        this.maxStayDays = maxStayDays;
+    }
+
+    public int size() {
+        return stays.length;
+    }
+
+    /**
+     * The stays with the given booking holding {@code fromEpochDay} to {@code toEpochDay} inclusive, replacing
+     * the stay it held before if any.
+     */
+    public AccountStays with(long bookingId, long fromEpochDay, long toEpochDay) {
+        AccountStays remaining = without(bookingId);
+        long stay = pack(fromEpochDay, toEpochDay);
+        int position = Arrays.binarySearch(remaining.stays, stay);
+        int index = position >= 0 ? position : -position - 1;
+        long[] newStays = new long[remaining.stays.length + 1];
+        long[] newBookingIds = new long[newStays.length];
+        System.arraycopy(remaining.stays, 0, newStays, 0, index);
+        System.arraycopy(remaining.bookingIds, 0, newBookingIds, 0, index);
+        newStays[index] = stay;
+        newBookingIds[index] = bookingId;
+        System.arraycopy(remaining.stays, index, newStays, index + 1, remaining.stays.length - index);
+        System.arraycopy(remaining.bookingIds, index, newBookingIds, index + 1, remaining.bookingIds.length - index);
+        return new AccountStays(newStays, newBookingIds, Math.max(remaining.maxStayDays, (int) (toEpochDay - fromEpochDay + 1)));
+    }
+
+    public AccountStays without(long bookingId) {
+        for (int i = 0; i < bookingIds.length; i++) {
+            if (bookingIds[i] == bookingId) {
+                long[] newStays = new long[stays.length - 1];
+                long[] newBookingIds = new long[newStays.length];
+                System.arraycopy(stays, 0, newStays, 0, i);
+                System.arraycopy(bookingIds, 0, newBookingIds, 0, i);
+                System.arraycopy(stays, i + 1, newStays, i, newStays.length - i);
+                System.arraycopy(bookingIds, i + 1, newBookingIds, i, newBookingIds.length - i);
+                return new AccountStays(newStays, newBookingIds, maxStayDays);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Returns the booking id of a stay, other than the excluded booking's, that starts or ends less than
+     * {@code minIntervalDays} days from the given one, or {@link #NO_CONFLICT}.
+     */
+    public long findConflict(long fromEpochDay, long toEpochDay, int minIntervalDays, long excludedBookingId) {
+//        only stays starting before toEpochDay + minIntervalDays can be too close, the first of them is found by binary search
+        int position = Arrays.binarySearch(stays, (toEpochDay + minIntervalDays) << 32);
+        int end = position >= 0 ? position : -position - 1;
+        for (int i = end - 1; i >= 0; i--) {
+            long stayFrom = stays[i] >>> 32;
+            if (stayFrom + maxStayDays - 1 <= fromEpochDay - minIntervalDays) {
+//                no stay starting this early is long enough to reach into the interval
+                break;
+            }
+            if (bookingIds[i] != excludedBookingId && fromEpochDay - (stays[i] & LOW_MASK) < minIntervalDays) {
+                return bookingIds[i];
+            }
+        }
+        return NO_CONFLICT;
+    }
+
+    private static long pack(long fromEpochDay, long toEpochDay) {
+        return fromEpochDay << 32 | toEpochDay & LOW_MASK;
+    }
+}
@@ -0,0 +1,118 @@
+package com.sach429.booking.availability;
+
+import java.util.Arrays;
+
+/**
+ * Day indexed bitmap of booked days for a rolling window starting at the current day.
+ * Bit i of the bitmap represents the epoch day {@code baseEpochDay + i}; the base is kept
+ * aligned to a word boundary so that rolling the window forward is a plain word shift.
+ * Writers are serialized and publish a fresh {@link AvailabilitySnapshot} after every change.
+ * Days that fall outside the tracked window are reported as not available.
+ */
+public class AvailabilityCalendar {
+    private static final int WORD_SHIFT = 6;
+    private static final int BIT_MASK = 63;
+
+    private final long[] words;
+    private long baseEpochDay;
+    private long version;
+    private volatile AvailabilitySnapshot snapshot;
+
+    public AvailabilityCalendar(int windowDays, long todayEpochDay) {
+        if (windowDays <= 0) {
+            throw new IllegalArgumentException("Availability window has to be positive");
+        }
+        this.words = new long[(windowDays >>> WORD_SHIFT) + 2];
+        this.baseEpochDay = alignToWord(todayEpochDay);
+        publish();
+    }
+
+    public AvailabilitySnapshot snapshot() {
+        return snapshot;
+    }
+
+    public long getBaseEpochDay() {
+        return snapshot.getBaseEpochDay();
+    }
+
+    public int getCapacityDays() {
+        return words.length << WORD_SHIFT;
+    }
+
+    public void advanceTo(long todayEpochDay) {
+        long newBaseEpochDay = alignToWord(todayEpochDay);
+        if (newBaseEpochDay <= snapshot.getBaseEpochDay()) {
+            return;
+        }
+        synchronized (this) {
+            long shift = (newBaseEpochDay - baseEpochDay) >>> WORD_SHIFT;
+            if (shift <= 0) {
+                return;
+            }
+            if (shift >= words.length) {
+                Arrays.fill(words, 0L);
+            } else {
+                int wordShift = (int) shift;
+                System.arraycopy(words, wordShift, words, 0, words.length - wordShift);
+                Arrays.fill(words, words.length - wordShift, words.length, 0L);
+            }
+            baseEpochDay = newBaseEpochDay;
+            publish();
+        }
+    }
+
+    public boolean isAvailable(long fromEpochDay, long toEpochDay) {
+        return snapshot.isAvailable(fromEpochDay, toEpochDay);
+    }
+
+    public synchronized void book(long fromEpochDay, long toEpochDay) {
+        updateRange(fromEpochDay, toEpochDay, true);
+        publish();
+    }
+
+    public synchronized void release(long fromEpochDay, long toEpochDay) {
+        updateRange(fromEpochDay, toEpochDay, false);
+        publish();
+    }
+
+    public synchronized void rebook(long oldFromEpochDay, long oldToEpochDay, long newFromEpochDay, long newToEpochDay) {
+        updateRange(oldFromEpochDay, oldToEpochDay, false);
+        updateRange(newFromEpochDay, newToEpochDay, true);
+        publish();
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(words, 0L);
+        publish();
+    }
+
+    private void updateRange(long fromEpochDay, long toEpochDay, boolean booked) {
+        long from = Math.max(fromEpochDay, baseEpochDay);
+        long to = Math.min(toEpochDay, baseEpochDay + getCapacityDays() - 1);
+        if (from > to) {
+            return;
+        }
+        int fromIndex = (int) (from - baseEpochDay);
+        int toIndex = (int) (to - baseEpochDay);
+        int fromWord = fromIndex >>> WORD_SHIFT;
+        int toWord = toIndex >>> WORD_SHIFT;
+        for (int i = fromWord; i <= toWord; i++) {
+            long mask = -1L;
+            if (i == fromWord) {
+                mask &= -1L << (fromIndex & BIT_MASK);
+            }
+            if (i == toWord) {
+                mask &= -1L >>> (BIT_MASK - (toIndex & BIT_MASK));
+            }
+            words[i] = booked ? words[i] | mask : words[i] & ~mask;
+        }
+    }
+
+    private void publish() {
+        snapshot = new AvailabilitySnapshot(words.clone(), baseEpochDay, ++version, System.currentTimeMillis());
+    }
+
+    private static long alignToWord(long epochDay) {
+        return epochDay & ~((long) BIT_MASK);
+    }
+}
@@ -0,0 +1,70 @@
+package com.sach429.booking.availability;
+
+/**
+ * Immutable copy of the availability bitmap published by {@link AvailabilityCalendar} after every mutation.
+ * Readers only ever dereference the current snapshot so lookups take no locks.
+ */
+public final class AvailabilitySnapshot {
+    private static final int WORD_SHIFT = 6;
+    private static final int BIT_MASK = 63;
+
+    private final long[] words;
+    private final long baseEpochDay;
+    private final long version;
+    private final long lastModifiedMillis;
+
+    AvailabilitySnapshot(long[] words, long baseEpochDay, long version, long lastModifiedMillis) {
+        this.words = words;
+        this.baseEpochDay = baseEpochDay;
+        this.version = version;
+        this.lastModifiedMillis = lastModifiedMillis;
+    }
+
+    public long getBaseEpochDay() {
+        return baseEpochDay;
+    }
+
+    public long getLastEpochDay() {
+        return baseEpochDay + ((long) words.length << WORD_SHIFT) - 1;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getLastModifiedMillis() {
+        return lastModifiedMillis;
+    }
+
+    public boolean isBooked(long epochDay) {
+        if (epochDay < baseEpochDay || epochDay > getLastEpochDay()) {
+            return false;
+        }
+        int index = (int) (epochDay - baseEpochDay);
+        return (words[index >>> WORD_SHIFT] & (1L << (index & BIT_MASK))) != 0L;
+    }
+
+    public boolean isAvailable(long fromEpochDay, long toEpochDay) {
+        if (fromEpochDay > toEpochDay || fromEpochDay < baseEpochDay || toEpochDay > getLastEpochDay()) {
+            return false;
+        }
+        int fromIndex = (int) (fromEpochDay - baseEpochDay);
+        int toIndex = (int) (toEpochDay - baseEpochDay);
+        int fromWord = fromIndex >>> WORD_SHIFT;
+        int toWord = toIndex >>> WORD_SHIFT;
+        long firstMask = -1L << (fromIndex & BIT_MASK);
+        long lastMask = -1L >>> (BIT_MASK - (toIndex & BIT_MASK));
+        if (fromWord == toWord) {
+            return (words[fromWord] & firstMask & lastMask) == 0L;
+        }
+        if ((words[fromWord] & firstMask) != 0L) {
+            return false;
+        }
+        for (int i = fromWord + 1; i < toWord; i++) {
+            if (words[i] != 0L) {
+                return false;
+            }
+        }
+        return (words[toWord] & lastMask) == 0L;
+    }
+}
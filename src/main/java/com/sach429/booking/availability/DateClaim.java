@@ -0,0 +1,28 @@
+package com.sach429.booking.availability;
+
+/**
+ * Days held in a {@link DateClaimTable} by one request. Closing the claim releases the days it still holds;
+ * closing it more than once is harmless.
+ */
+public final class DateClaim implements AutoCloseable {
+    public static final DateClaim NONE = new DateClaim(null, 0L, -1L, 0);
+
+    private final DateClaimTable dateClaimTable;
+    private final long fromEpochDay;
+    private final long toEpochDay;
+    private final int token;
+
+    DateClaim(DateClaimTable dateClaimTable, long fromEpochDay, long toEpochDay, int token) {
+        this.dateClaimTable = dateClaimTable;
+        this.fromEpochDay = fromEpochDay;
+        this.toEpochDay = toEpochDay;
+        this.token = token;
+    }
+
+    @Override
+    public void close() {
+        if (dateClaimTable != null) {
+            dateClaimTable.release(fromEpochDay, toEpochDay, token);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.sach429.booking.availability;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per day slots of tentative claims held by requests that are about to persist a booking on this node.
+ * A day is claimed with a single compare and set on its slot, so requests for disjoint days never contend
+ * and a request for a day already claimed is rejected before it reaches the database. A slot holds the
+ * claimed epoch day and the token of its claim; slots are reused in a ring of {@code capacityDays}, and a
+ * day whose slot is held for a different day is left unclaimed for the unique index to arbitrate.
+ * Claims are advisory: they only cover requests in flight on this node, the unique days index stays the
+ * source of truth.
+ */
+public class DateClaimTable {
+    private static final long FREE = 0L;
+
+    private final AtomicLongArray slots;
+    private final AtomicInteger tokens = new AtomicInteger();
+
+    public DateClaimTable(int capacityDays) {
+        if (capacityDays <= 0) {
+            throw new IllegalArgumentException("Date claim capacity has to be positive");
+        }
+        this.slots = new AtomicLongArray(capacityDays);
+    }
+
+    public int getCapacityDays() {
+        return slots.length();
+    }
+
+    /**
+     * Claims every day from {@code fromEpochDay} to {@code toEpochDay} inclusive. Returns null, with nothing
+     * left claimed, when any of the days is already claimed.
+     */
+    public DateClaim claim(long fromEpochDay, long toEpochDay) {
+        int token = nextToken();
+        for (long day = fromEpochDay; day <= toEpochDay; day++) {
+            int index = index(day);
+            long claim = encode(day, token);
+            while (true) {
+                long current = slots.get(index);
+                if (current == FREE) {
+                    if (slots.compareAndSet(index, FREE, claim)) {
+                        break;
+                    }
+                } else if (dayOf(current) == day) {
+                    release(fromEpochDay, day - 1, token);
+                    return null;
+                } else {
+                    break;
+                }
+            }
+        }
+        return new DateClaim(this, fromEpochDay, toEpochDay, token);
+    }
+
+    public boolean isClaimed(long epochDay) {
+        long current = slots.get(index(epochDay));
+        return current != FREE && dayOf(current) == epochDay;
+    }
+
+    void release(long fromEpochDay, long toEpochDay, int token) {
+        for (long day = fromEpochDay; day <= toEpochDay; day++) {
+            slots.compareAndSet(index(day), encode(day, token), FREE);
+        }
+    }
+
+    private int nextToken() {
+        int token;
+        do {
+            token = tokens.incrementAndGet();
+        } while (token == 0);
+        return token;
+    }
+
+    private int index(long epochDay) {
+        return (int) Math.floorMod(epochDay, (long) slots.length());
+    }
+
+    private static long encode(long epochDay, int token) {
+        return (epochDay << Integer.SIZE) | (token & 0xFFFFFFFFL);
+    }
+
+    private static long dayOf(long claim) {
+        return claim >> Integer.SIZE;
+    }
+}
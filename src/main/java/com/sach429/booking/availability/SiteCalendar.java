@@ -0,0 +1,183 @@
+package com.sach429.booking.availability;
+
+import java.util.Arrays;
+
+/**
+ * Booked days of every site transposed to one word per day for each group of 64 sites: bit j of a group's word
+ * for a day is set when site {@code 64 * group + j} is booked that day. The sites free for a whole stay are found
+ * by OR-ing the words of its days, 64 sites per operation, instead of asking the calendar of every site.
+ * Each group has its own lock and publishes an immutable copy of its days after every change like
+ * {@link AvailabilityCalendar} does, so writers only wait for writers of the same group and readers never wait.
+ * The window starts at the current day; days outside it have no free site.
+ */
+public class SiteCalendar {
+    public static final int MAX_SITES = 4096;
+    private static final int WORD_SHIFT = 6;
+    private static final int BIT_MASK = 63;
+
+    private final int sites;
+    private final SiteGroup[] groups;
+
+    public SiteCalendar(int sites, int windowDays, long todayEpochDay) {
+        if (sites <= 0 || sites > MAX_SITES) {
+            throw new IllegalArgumentException("Sites have to be between 1 and " + MAX_SITES);
+        }
+        if (windowDays <= 0) {
+            throw new IllegalArgumentException("Availability window has to be positive");
+        }
+        this.sites = sites;
+        this.groups = new SiteGroup[((sites - 1) >>> WORD_SHIFT) + 1];
+        for (int i = 0; i < groups.length; i++) {
+            int groupSites = Math.min(BIT_MASK + 1, sites - (i << WORD_SHIFT));
+            groups[i] = new SiteGroup(windowDays, todayEpochDay, -1L >>> (BIT_MASK + 1 - groupSites));
+        }
+    }
+
+    public int getSites() {
+        return sites;
+    }
+
+    public void advanceTo(long todayEpochDay) {
+        for (SiteGroup group : groups) {
+            group.advanceTo(todayEpochDay);
+        }
+    }
+
+    public void book(int siteId, long fromEpochDay, long toEpochDay) {
+        groups[siteId >>> WORD_SHIFT].update(bit(siteId), fromEpochDay, toEpochDay, true);
+    }
+
+    public void release(int siteId, long fromEpochDay, long toEpochDay) {
+        groups[siteId >>> WORD_SHIFT].update(bit(siteId), fromEpochDay, toEpochDay, false);
+    }
+
+    /**
+     * Moves a stay to other days or another site. Within a group both changes are published together; across
+     * groups the stay is released before it is booked again, a reader in between sees neither.
+     */
+    public void rebook(int oldSiteId, long oldFromEpochDay, long oldToEpochDay, int newSiteId, long newFromEpochDay, long newToEpochDay) {
+        SiteGroup oldGroup = groups[oldSiteId >>> WORD_SHIFT];
+        SiteGroup newGroup = groups[newSiteId >>> WORD_SHIFT];
+        if (oldGroup == newGroup) {
+            oldGroup.rebook(bit(oldSiteId), oldFromEpochDay, oldToEpochDay, bit(newSiteId), newFromEpochDay, newToEpochDay);
+        } else {
+            oldGroup.update(bit(oldSiteId), oldFromEpochDay, oldToEpochDay, false);
+            newGroup.update(bit(newSiteId), newFromEpochDay, newToEpochDay, true);
+        }
+    }
+
+    public void clear() {
+        for (SiteGroup group : groups) {
+            group.clear();
+        }
+    }
+
+    /**
+     * The sites that are not booked on any day from the first to the last, in ascending order.
+     */
+    public int[] freeSites(long fromEpochDay, long toEpochDay) {
+        int[] freeSites = new int[sites];
+        int count = 0;
+        for (int i = 0; i < groups.length; i++) {
+            long free = groups[i].freeSites(fromEpochDay, toEpochDay);
+            while (free != 0L) {
+                freeSites[count++] = (i << WORD_SHIFT) + Long.numberOfTrailingZeros(free);
+                free &= free - 1;
+            }
+        }
+        return Arrays.copyOf(freeSites, count);
+    }
+
+    private static long bit(int siteId) {
+        return 1L << (siteId & BIT_MASK);
+    }
+
+    /**
+     * Up to 64 sites, one word per day of the window starting at {@code baseEpochDay}.
+     */
+    private static final class SiteGroup {
+        private final long[] days;
+        private final long sitesMask;
+        private long baseEpochDay;
+        private volatile Snapshot snapshot;
+
+        private SiteGroup(int windowDays, long todayEpochDay, long sitesMask) {
+            this.days = new long[windowDays];
+            this.sitesMask = sitesMask;
+            this.baseEpochDay = todayEpochDay;
+            publish();
+        }
+
+        private void advanceTo(long todayEpochDay) {
+            if (todayEpochDay <= snapshot.baseEpochDay) {
+                return;
+            }
+            synchronized (this) {
+                long shift = todayEpochDay - baseEpochDay;
+                if (shift <= 0) {
+                    return;
+                }
+                if (shift >= days.length) {
+                    Arrays.fill(days, 0L);
+                } else {
+                    int dayShift = (int) shift;
+                    System.arraycopy(days, dayShift, days, 0, days.length - dayShift);
+                    Arrays.fill(days, days.length - dayShift, days.length, 0L);
+                }
+                baseEpochDay = todayEpochDay;
+                publish();
+            }
+        }
+
+        private synchronized void update(long bit, long fromEpochDay, long toEpochDay, boolean booked) {
+            updateRange(bit, fromEpochDay, toEpochDay, booked);
+            publish();
+        }
+
+        private synchronized void rebook(long oldBit, long oldFromEpochDay, long oldToEpochDay, long newBit, long newFromEpochDay, long newToEpochDay) {
+            updateRange(oldBit, oldFromEpochDay, oldToEpochDay, false);
+            updateRange(newBit, newFromEpochDay, newToEpochDay, true);
+            publish();
+        }
+
+        private synchronized void clear() {
+            Arrays.fill(days, 0L);
+            publish();
+        }
+
+        private long freeSites(long fromEpochDay, long toEpochDay) {
+            Snapshot current = snapshot;
+            if (fromEpochDay > toEpochDay || fromEpochDay < current.baseEpochDay || toEpochDay >= current.baseEpochDay + current.days.length) {
+                return 0L;
+            }
+            long booked = 0L;
+            for (int i = (int) (fromEpochDay - current.baseEpochDay), to = (int) (toEpochDay - current.baseEpochDay); i <= to; i++) {
+                booked |= current.days[i];
+            }
+            return ~booked & sitesMask;
+        }
+
+        private void updateRange(long bit, long fromEpochDay, long toEpochDay, boolean booked) {
+            long from = Math.max(fromEpochDay, baseEpochDay);
+            long to = Math.min(toEpochDay, baseEpochDay + days.length - 1);
+            for (long day = from; day <= to; day++) {
+                int index = (int) (day - baseEpochDay);
+                days[index] = booked ? days[index] | bit : days[index] & ~bit;
+            }
+        }
+
+        private void publish() {
+            snapshot = new Snapshot(days.clone(), baseEpochDay);
+        }
+    }
+
+    private static final class Snapshot {
+        private final long[] days;
+        private final long baseEpochDay;
+
+        private Snapshot(long[] days, long baseEpochDay) {
+            this.days = days;
+            this.baseEpochDay = baseEpochDay;
+        }
+    }
+}
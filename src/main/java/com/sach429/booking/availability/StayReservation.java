@@ -0,0 +1,42 @@
+package com.sach429.booking.availability;
+
+/**
+ * A stay held for an account by one request until its booking is written, so concurrent requests of the account
+ * are checked against it. Closing the reservation drops the stay; closing it more than once is harmless. A
+ * refused reservation holds nothing and names the booking it conflicts with, a negative id for a stay held by
+ * another request still in flight.
+ */
+public final class StayReservation implements AutoCloseable {
+    public static final StayReservation NONE = new StayReservation(AccountStays.NO_CONFLICT, null);
+
+    private final long conflict;
+    private final Runnable release;
+
+    private StayReservation(long conflict, Runnable release) {
+        this.conflict = conflict;
+        this.release = release;
+    }
+
+    public static StayReservation reserved(Runnable release) {
+        return new StayReservation(AccountStays.NO_CONFLICT, release);
+    }
+
+    public static StayReservation refused(long conflict) {
+        return new StayReservation(conflict, null);
+    }
+
+    public boolean isReserved() {
+        return conflict == AccountStays.NO_CONFLICT;
+    }
+
+    public long getConflict() {
+        return conflict;
+    }
+
+    @Override
+    public void close() {
+        if (release != null) {
+            release.run();
+        }
+    }
+}
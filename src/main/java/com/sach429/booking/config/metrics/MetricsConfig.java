@@ -0,0 +1,16 @@
+package com.sach429.booking.config.metrics;
+
+import com.sach429.booking.service.BookingCacheService;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder bookingCacheMetrics(BookingCacheService bookingCacheService) {
+        return meterRegistry -> CaffeineCacheMetrics.monitor(meterRegistry, bookingCacheService.getCache(), "bookings");
+    }
+}
@@ -1,5 +1,8 @@
 package com.sach429.booking.config.mongo;
 
+import com.mongodb.MongoClientOptions;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.mongodb.MongoMetricsCommandListener;
 import org.bson.BsonTimestamp;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -19,6 +22,13 @@ public class MongoConfig {
         return new MongoCustomConversions(Collections.singletonList(new DateTimeReadConverter()));
     }
 
+    @Bean
+    public MongoClientOptions mongoClientOptions(MeterRegistry meterRegistry) {
+        return MongoClientOptions.builder()
+                .addCommandListener(new MongoMetricsCommandListener(meterRegistry))
+                .build();
+    }
+
     static class DateTimeReadConverter implements Converter<BsonTimestamp, LocalDateTime> {
 
         @Override
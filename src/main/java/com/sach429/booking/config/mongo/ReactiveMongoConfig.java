@@ -0,0 +1,53 @@
+package com.sach429.booking.config.mongo;
+
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import com.sach429.booking.repository.ReactiveBookingRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.mongodb.MongoMetricsCommandListener;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.mongodb.repository.config.EnableReactiveMongoRepositories;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Reactive stack, enabled by the {@code reactive} profile: booking requests are served by WebFlux on Netty
+ * event loops over the reactive Mongo driver. Tomcat stays on the classpath for the servlet stack, so the
+ * Netty server factory is declared here to keep it from being picked.
+ */
+@Configuration
+@Profile("reactive")
+@EnableReactiveMongoRepositories(basePackageClasses = ReactiveBookingRepository.class,
+        includeFilters = @ComponentScan.Filter(type = FilterType.ASSIGNABLE_TYPE, classes = ReactiveBookingRepository.class))
+public class ReactiveMongoConfig {
+    private final BookingConfigurationProperties bookingConfigurationProperties;
+
+    ReactiveMongoConfig(BookingConfigurationProperties bookingConfigurationProperties) {
+        this.bookingConfigurationProperties = bookingConfigurationProperties;
+    }
+
+    /**
+     * Reactive bookings are kept apart by the unique index only.
+     */
+    @PostConstruct
+    public void validate() {
+        if (bookingConfigurationProperties.getConflictEngine() != BookingConfigurationProperties.ConflictEngine.INDEX) {
+            throw new IllegalArgumentException("The reactive stack only supports the index conflict engine");
+        }
+    }
+
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoMetricsCustomizer(MeterRegistry meterRegistry) {
+        return builder -> builder.addCommandListener(new MongoMetricsCommandListener(meterRegistry));
+    }
+}
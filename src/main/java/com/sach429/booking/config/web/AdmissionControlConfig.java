@@ -0,0 +1,43 @@
+package com.sach429.booking.config.web;
+
+import com.sach429.booking.admission.AdmissionControlFilter;
+import com.sach429.booking.admission.TokenBucketTable;
+import com.sach429.booking.metrics.BookingMetrics;
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+
+import java.util.HashSet;
+
+/**
+ * Puts {@link AdmissionControlFilter} in front of the booking endpoints when {@code booking.config.admission-enabled}
+ * is set. It runs first so a rejected request costs as little as possible; actuator endpoints are not limited.
+ */
+@Configuration
+@Profile("!reactive")
+@ConditionalOnProperty(prefix = "booking.config", name = "admission-enabled", havingValue = "true")
+@Log4j2
+public class AdmissionControlConfig {
+
+    @Bean
+    public FilterRegistrationBean<AdmissionControlFilter> admissionControlFilter(BookingConfigurationProperties bookingConfigurationProperties, BookingMetrics bookingMetrics) {
+        long now = System.currentTimeMillis();
+        TokenBucketTable readBuckets = new TokenBucketTable(bookingConfigurationProperties.getAdmissionMaxClients(),
+                bookingConfigurationProperties.getReadBurst(), bookingConfigurationProperties.getReadRequestsPerSecond(), now);
+        TokenBucketTable writeBuckets = new TokenBucketTable(bookingConfigurationProperties.getAdmissionMaxClients(),
+                bookingConfigurationProperties.getWriteBurst(), bookingConfigurationProperties.getWriteRequestsPerSecond(), now);
+        FilterRegistrationBean<AdmissionControlFilter> registration = new FilterRegistrationBean<>(
+                new AdmissionControlFilter(readBuckets, writeBuckets, bookingMetrics, System::currentTimeMillis,
+                        new HashSet<>(bookingConfigurationProperties.getAdmissionTrustedProxies())));
+        registration.addUrlPatterns("/bookings", "/bookings/*", "/bookings:batch", "/bookings:cancel", "/availability", "/availability/*");
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        log.info("Admitting {} reads and {} writes per second per client", bookingConfigurationProperties.getReadRequestsPerSecond(),
+                bookingConfigurationProperties.getWriteRequestsPerSecond());
+        return registration;
+    }
+}
@@ -0,0 +1,72 @@
+package com.sach429.booking.config.web;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves servlet requests, and the streamed responses they hand off, on virtual threads when
+ * {@code booking.config.virtual-threads} is set, so a request blocked on Mongo parks a virtual thread instead
+ * of holding one of Tomcat's worker threads. The application is still built for Java 8, the executor is
+ * looked up reflectively and needs a Java 21 or later runtime.
+ */
+@Configuration
+@Profile("!reactive")
+@ConditionalOnProperty(prefix = "booking.config", name = "virtual-threads", havingValue = "true")
+@Log4j2
+public class VirtualThreadConfig implements WebMvcConfigurer, DisposableBean {
+    private static final String NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = "newVirtualThreadPerTaskExecutor";
+
+    private final ExecutorService virtualThreadExecutor = newVirtualThreadPerTaskExecutor();
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        log.info("Serving requests on virtual threads");
+        return protocolHandler -> protocolHandler.setExecutor(virtualThreadExecutor);
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(new ConcurrentTaskExecutor(virtualThreadExecutor));
+    }
+
+    @Override
+    public void destroy() {
+        virtualThreadExecutor.shutdown();
+    }
+
+    public static boolean isSupported() {
+        return getFactoryMethod() != null;
+    }
+
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        Method factoryMethod = getFactoryMethod();
+        if (factoryMethod == null) {
+            throw new IllegalStateException("Virtual threads need a Java 21 or later runtime, running on " + System.getProperty("java.version"));
+        }
+        try {
+            return (ExecutorService) factoryMethod.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual thread executor cannot be created", e);
+        }
+    }
+
+    private static Method getFactoryMethod() {
+        try {
+            return Executors.class.getMethod(NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -1,69 +1,204 @@
 package com.sach429.booking.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.sach429.booking.exception.BookingCreationException;
+import com.sach429.booking.exception.BookingDatesInvalidException;
 import com.sach429.booking.exception.BookingModifyException;
 import com.sach429.booking.exception.BookingNotFoundException;
+import com.sach429.booking.exception.BookingSiteNotFoundException;
+import com.sach429.booking.model.Availability;
 import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.BookingBatchResult;
+import com.sach429.booking.model.BookingHistory;
+import com.sach429.booking.model.SiteAvailability;
 import com.sach429.booking.service.BookingService;
+import com.sach429.booking.types.BookingBatchCancel;
+import com.sach429.booking.types.BookingBatchCreate;
 import com.sach429.booking.types.BookingCreate;
 import com.sach429.booking.types.BookingModify;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.apache.logging.log4j.CloseableThreadContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.CacheControl;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.lang.NonNull;
 import org.springframework.lang.Nullable;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
 
 @RestController
+@Profile("!reactive")
 @Log4j2
 @RequiredArgsConstructor
 public class BookingController {
 
-    public static final ThreadLocal<String> transactionId = new ThreadLocal<>();
+    public static final String TRANSACTION_ID = BookingController.class.getName() + ".transactionId";
+
+    /**
+     * Key of the transaction id in the log context of a bookings stream, which is written on an async thread
+     * after the request thread returned.
+     */
+    public static final String TRANSACTION_ID_LOG_KEY = "transactionId";
 
     private final BookingService bookingService;
 
+    private final ObjectMapper objectMapper;
+
     @GetMapping(path = "/bookings", produces = MediaType.APPLICATION_JSON_VALUE)
-    public List<Booking> getAllBookings(@Nullable @RequestParam("email") String email, @Nullable @RequestParam("fromDate") String fromDate, @Nullable @RequestParam("toDate") String toDate, @Nullable @RequestParam("status") Booking.BookingStatus status) throws BookingNotFoundException {
+    public List<Booking> getAllBookings(@Nullable @RequestParam("email") String email, @Nullable @RequestParam("siteId") Integer siteId, @Nullable @RequestParam("fromDate") String fromDate, @Nullable @RequestParam("toDate") String toDate, @Nullable @RequestParam("status") Booking.BookingStatus status,
+                                        @Nullable @RequestParam("afterBookingId") Long afterBookingId, @Nullable @RequestParam("limit") Integer limit, WebRequest webRequest) throws BookingNotFoundException {
         try {
-            BookingController.transactionId.set(bookingService.getTransactionId());
-            return bookingService.getBookings(email, fromDate, toDate, status);
+            setTransactionId(webRequest);
+            return bookingService.getBookings(email, siteId, fromDate, toDate, status, afterBookingId, limit);
         } catch (Exception e) {
             throw log.throwing(new BookingNotFoundException(e));
         }
     }
 
+    @GetMapping(path = "/bookings", params = "stream=true", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllBookings(@Nullable @RequestParam("email") String email, @Nullable @RequestParam("siteId") Integer siteId, @Nullable @RequestParam("fromDate") String fromDate, @Nullable @RequestParam("toDate") String toDate, @Nullable @RequestParam("status") Booking.BookingStatus status,
+                                                                   WebRequest webRequest) {
+        String transactionId = setTransactionId(webRequest);
+        ObjectWriter objectWriter = objectMapper.writerFor(Booking.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        StreamingResponseBody body = outputStream -> {
+            try (CloseableThreadContext.Instance logContext = CloseableThreadContext.put(TRANSACTION_ID_LOG_KEY, transactionId);
+                 Stream<Booking> bookings = bookingService.streamBookings(email, siteId, fromDate, toDate, status);
+                 JsonGenerator jsonGenerator = objectMapper.getFactory().createGenerator(outputStream)
+                         .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT)) {
+                jsonGenerator.writeStartArray();
+                Iterator<Booking> iterator = bookings.iterator();
+                while (iterator.hasNext()) {
+                    objectWriter.writeValue(jsonGenerator, iterator.next());
+                }
+                jsonGenerator.writeEndArray();
+            } catch (IOException | RuntimeException e) {
+//                the status is sent already, the array is left open and the response aborted so the client cannot take what it got for all bookings
+                log.error("Streaming bookings failed, transactionId: {}", transactionId, e);
+                throw e;
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
     @GetMapping(path = "/bookings/{bookingId}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public Booking getBooking(@Nullable @PathVariable("bookingId") Long bookingId) throws BookingNotFoundException {
+    public Booking getBooking(@Nullable @PathVariable("bookingId") Long bookingId, WebRequest webRequest) throws BookingNotFoundException {
         try {
-            BookingController.transactionId.set(bookingService.getTransactionId());
+            setTransactionId(webRequest);
             return bookingService.getBooking(bookingId);
         } catch (BookingNotFoundException e) {
-            throw log.throwing(new BookingNotFoundException(e));
+            throw log.throwing(e);
+        }
+    }
+
+    @GetMapping(path = "/bookings/{bookingId}/history", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<BookingHistory> getBookingHistory(@NonNull @PathVariable("bookingId") Long bookingId, WebRequest webRequest) throws BookingNotFoundException {
+        try {
+            setTransactionId(webRequest);
+            return bookingService.getBookingHistory(bookingId);
+        } catch (BookingNotFoundException e) {
+            throw log.throwing(e);
+        }
+    }
+
+    @GetMapping(path = "/availability", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Availability> getAvailability(@Nullable @RequestParam("siteId") Integer siteId, @Nullable @RequestParam("fromDate") String fromDate, @Nullable @RequestParam("toDate") String toDate,
+                                                        WebRequest webRequest) throws BookingDatesInvalidException, BookingSiteNotFoundException {
+        try {
+            setTransactionId(webRequest);
+            Availability availability = bookingService.getAvailability(siteId, fromDate, toDate);
+            String eTag = "\"" + availability.getVersion() + "-" + availability.getLastModifiedMillis() + "\"";
+            if (webRequest.checkNotModified(eTag, availability.getLastModifiedMillis())) {
+                return null;
+            }
+            return ResponseEntity.ok()
+                    .eTag(eTag)
+                    .lastModified(availability.getLastModifiedMillis())
+                    .cacheControl(CacheControl.noCache())
+                    .body(availability);
+        } catch (BookingDatesInvalidException | BookingSiteNotFoundException e) {
+            throw log.throwing(e);
+        }
+    }
+
+    @GetMapping(path = "/availability/sites", produces = MediaType.APPLICATION_JSON_VALUE)
+    public SiteAvailability getFreeSites(@Nullable @RequestParam("fromDate") String fromDate, @Nullable @RequestParam("toDate") String toDate, WebRequest webRequest) throws BookingDatesInvalidException {
+        try {
+            setTransactionId(webRequest);
+            return bookingService.getFreeSites(fromDate, toDate);
+        } catch (BookingDatesInvalidException e) {
+            throw log.throwing(e);
         }
     }
 
     @PostMapping(path = "/bookings", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
-    public Booking createBooking(@Validated @RequestBody BookingCreate bookingCreate) throws BookingCreationException {
+    public Booking createBooking(@Validated @RequestBody BookingCreate bookingCreate, WebRequest webRequest) throws BookingCreationException {
         try {
-            BookingController.transactionId.set(bookingService.getTransactionId());
+            setTransactionId(webRequest);
             return bookingService.createBooking(bookingCreate);
+        } catch (BookingCreationException e) {
+            throw log.throwing(e);
         } catch (Exception e) {
             throw log.throwing(new BookingCreationException(e));
         }
     }
 
     @PutMapping(path = "/bookings/{bookingId}", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
-    public Booking modifyBooking(@Validated @RequestBody BookingModify bookingModify, @NonNull @PathVariable("bookingId") Long bookingId) throws BookingModifyException {
+    public Booking modifyBooking(@Validated @RequestBody BookingModify bookingModify, @NonNull @PathVariable("bookingId") Long bookingId, WebRequest webRequest) throws BookingModifyException {
         try {
-            BookingController.transactionId.set(bookingService.getTransactionId());
+            setTransactionId(webRequest);
             return bookingService.modifyBooking(bookingModify, bookingId);
+        } catch (BookingModifyException e) {
+            throw log.throwing(e);
+        } catch (Exception e) {
+            throw log.throwing(new BookingModifyException(e));
+        }
+    }
+
+    @PostMapping(path = "/bookings:batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<BookingBatchResult> createBookings(@Validated @RequestBody BookingBatchCreate bookingBatchCreate, WebRequest webRequest) throws BookingCreationException {
+        try {
+            setTransactionId(webRequest);
+            return bookingService.createBookings(bookingBatchCreate.getBookings());
+        } catch (BookingCreationException e) {
+            throw log.throwing(e);
+        } catch (Exception e) {
+            throw log.throwing(new BookingCreationException(e));
+        }
+    }
+
+    @PostMapping(path = "/bookings:cancel", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<BookingBatchResult> cancelBookings(@Validated @RequestBody BookingBatchCancel bookingBatchCancel, WebRequest webRequest) throws BookingModifyException {
+        try {
+            setTransactionId(webRequest);
+            return bookingService.cancelBookings(bookingBatchCancel.getBookings());
+        } catch (BookingModifyException e) {
+            throw log.throwing(e);
         } catch (Exception e) {
             throw log.throwing(new BookingModifyException(e));
         }
     }
 
+    /**
+     * The transaction id is kept as a request attribute rather than a thread local, so it lives exactly as long
+     * as the request whichever thread, platform or virtual, serves it.
+     */
+    private String setTransactionId(WebRequest webRequest) {
+        String transactionId = bookingService.getTransactionId();
+        webRequest.setAttribute(TRANSACTION_ID, transactionId, RequestAttributes.SCOPE_REQUEST);
+        return transactionId;
+    }
+
 }
@@ -0,0 +1,143 @@
+package com.sach429.booking.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.sach429.booking.model.Availability;
+import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.BookingHistory;
+import com.sach429.booking.model.SiteAvailability;
+import com.sach429.booking.service.ReactiveBookingService;
+import com.sach429.booking.types.BookingCreate;
+import com.sach429.booking.types.BookingModify;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * WebFlux mirror of {@link BookingController} for the {@code reactive} profile. Handlers run on the event loop
+ * and return as soon as the Mongo call is issued. The transaction id travels as an exchange attribute
+ * instead of a thread local, since a request may resume on any event loop thread.
+ */
+@RestController
+@Profile("reactive")
+@Log4j2
+@RequiredArgsConstructor
+public class ReactiveBookingController {
+
+    public static final String TRANSACTION_ID = ReactiveBookingController.class.getName() + ".transactionId";
+
+    private static final byte[] ARRAY_START = {'['};
+    private static final byte[] ARRAY_END = {']'};
+    private static final byte[] SEPARATOR = {','};
+
+    private final ReactiveBookingService reactiveBookingService;
+
+    private final ObjectMapper objectMapper;
+
+    @GetMapping(path = "/bookings", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Flux<Booking> getAllBookings(@Nullable @RequestParam("email") String email, @Nullable @RequestParam("siteId") Integer siteId, @Nullable @RequestParam("fromDate") String fromDate, @Nullable @RequestParam("toDate") String toDate, @Nullable @RequestParam("status") Booking.BookingStatus status,
+                                        @Nullable @RequestParam("afterBookingId") Long afterBookingId, @Nullable @RequestParam("limit") Integer limit, ServerWebExchange exchange) {
+        setTransactionId(exchange);
+        return reactiveBookingService.getBookings(email, siteId, fromDate, toDate, status, afterBookingId, limit);
+    }
+
+    /**
+     * Writes the bookings as one JSON array, serializing each booking into its own buffer as it arrives from
+     * the cursor. The JSON encoder would collect the whole result before writing for this media type.
+     */
+    @GetMapping(path = "/bookings", params = "stream=true", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Flux<DataBuffer>> streamAllBookings(@Nullable @RequestParam("email") String email, @Nullable @RequestParam("siteId") Integer siteId, @Nullable @RequestParam("fromDate") String fromDate, @Nullable @RequestParam("toDate") String toDate, @Nullable @RequestParam("status") Booking.BookingStatus status,
+                                                              ServerWebExchange exchange) {
+        setTransactionId(exchange);
+        ObjectWriter objectWriter = objectMapper.writerFor(Booking.class);
+        DataBufferFactory bufferFactory = exchange.getResponse().bufferFactory();
+        AtomicBoolean first = new AtomicBoolean(true);
+        Flux<DataBuffer> bookings = reactiveBookingService.streamBookings(email, siteId, fromDate, toDate, status)
+                .map(booking -> {
+                    try {
+                        byte[] json = objectWriter.writeValueAsBytes(booking);
+                        DataBuffer dataBuffer = bufferFactory.allocateBuffer(json.length + 1);
+                        if (!first.compareAndSet(true, false)) {
+                            dataBuffer.write(SEPARATOR);
+                        }
+                        return dataBuffer.write(json);
+                    } catch (JsonProcessingException e) {
+                        throw Exceptions.propagate(e);
+                    }
+                });
+        Flux<DataBuffer> body = Flux.concat(Mono.fromCallable(() -> bufferFactory.wrap(ARRAY_START)), bookings, Mono.fromCallable(() -> bufferFactory.wrap(ARRAY_END)));
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    @GetMapping(path = "/bookings/{bookingId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<Booking> getBooking(@Nullable @PathVariable("bookingId") Long bookingId, ServerWebExchange exchange) {
+        setTransactionId(exchange);
+        return reactiveBookingService.getBooking(bookingId).doOnError(log::throwing);
+    }
+
+    @GetMapping(path = "/bookings/{bookingId}/history", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<List<BookingHistory>> getBookingHistory(@NonNull @PathVariable("bookingId") Long bookingId, ServerWebExchange exchange) {
+        setTransactionId(exchange);
+        return reactiveBookingService.getBookingHistory(bookingId).doOnError(log::throwing);
+    }
+
+    @GetMapping(path = "/availability", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<Availability>> getAvailability(@Nullable @RequestParam("siteId") Integer siteId, @Nullable @RequestParam("fromDate") String fromDate, @Nullable @RequestParam("toDate") String toDate,
+                                                              ServerWebExchange exchange) {
+        setTransactionId(exchange);
+        return reactiveBookingService.getAvailability(siteId, fromDate, toDate)
+                .flatMap(availability -> {
+                    String eTag = "\"" + availability.getVersion() + "-" + availability.getLastModifiedMillis() + "\"";
+                    if (exchange.checkNotModified(eTag, Instant.ofEpochMilli(availability.getLastModifiedMillis()))) {
+                        return Mono.empty();
+                    }
+                    return Mono.just(ResponseEntity.ok()
+                            .eTag(eTag)
+                            .lastModified(availability.getLastModifiedMillis())
+                            .cacheControl(CacheControl.noCache())
+                            .body(availability));
+                })
+                .doOnError(log::throwing);
+    }
+
+    @GetMapping(path = "/availability/sites", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<SiteAvailability> getFreeSites(@Nullable @RequestParam("fromDate") String fromDate, @Nullable @RequestParam("toDate") String toDate, ServerWebExchange exchange) {
+        setTransactionId(exchange);
+        return reactiveBookingService.getFreeSites(fromDate, toDate).doOnError(log::throwing);
+    }
+
+    @PostMapping(path = "/bookings", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<Booking> createBooking(@Validated @RequestBody BookingCreate bookingCreate, ServerWebExchange exchange) {
+        setTransactionId(exchange);
+        return reactiveBookingService.createBooking(bookingCreate).doOnError(log::throwing);
+    }
+
+    @PutMapping(path = "/bookings/{bookingId}", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<Booking> modifyBooking(@Validated @RequestBody BookingModify bookingModify, @NonNull @PathVariable("bookingId") Long bookingId, ServerWebExchange exchange) {
+        setTransactionId(exchange);
+        return reactiveBookingService.modifyBooking(bookingModify, bookingId).doOnError(log::throwing);
+    }
+
+    private void setTransactionId(ServerWebExchange exchange) {
+        exchange.getAttributes().put(TRANSACTION_ID, reactiveBookingService.getTransactionId());
+    }
+
+}
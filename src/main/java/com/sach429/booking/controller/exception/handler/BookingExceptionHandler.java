@@ -1,10 +1,13 @@
 package com.sach429.booking.controller.exception.handler;
 
 import com.sach429.booking.controller.BookingController;
-import com.sach429.booking.exception.*;
+import com.sach429.booking.exception.BookingErrorCode;
+import com.sach429.booking.exception.BookingException;
+import com.sach429.booking.metrics.BookingMetrics;
 import com.sach429.booking.types.BookingError;
 import com.sach429.booking.types.ErrorType;
-import org.apache.commons.lang3.exception.ExceptionUtils;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -12,140 +15,86 @@ import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 @RestControllerAdvice
+@Profile("!reactive")
+@Log4j2
 public class BookingExceptionHandler extends ResponseEntityExceptionHandler {
+    private final BookingMetrics bookingMetrics;
 
-    @ExceptionHandler(BookingCreationException.class)
-    public ResponseEntity<BookingError> handleBookingCreationException(BookingCreationException bookingCreationException) {
-        BookingValidationException rootCause = ExceptionUtils.throwableOfThrowable(bookingCreationException, BookingValidationException.class);
-        if (rootCause != null) {
-            return handleBookingValidationException(rootCause);
-        }
-        BookingError bookingError = new BookingError();
-        bookingError.setTransactionId(BookingController.transactionId.get());
-        ErrorType errorType = new ErrorType();
-        errorType.setDescription(bookingCreationException.getMessage());
-        bookingError.setErrors(Collections.singletonList(errorType));
-        return new ResponseEntity<>(bookingError, HttpStatus.INTERNAL_SERVER_ERROR);
-    }
-
-    public ResponseEntity<BookingError> handleBookingValidationException(BookingValidationException bookingValidationException) {
-        BookingDateNotAvailableException bookingDateNotAvailableException = ExceptionUtils.throwableOfThrowable(bookingValidationException, BookingDateNotAvailableException.class);
-        if (bookingDateNotAvailableException != null) {
-            return handleBookingDateNotAvailable(bookingDateNotAvailableException);
-        }
-        BookingDatesInvalidException bookingDatesInvalidException = ExceptionUtils.throwableOfThrowable(bookingValidationException, BookingDatesInvalidException.class);
-        if (bookingDatesInvalidException != null) {
-            return handleBookingDatesInvalid(bookingDatesInvalidException);
-        }
-        BookingNotFoundException BookingNotFoundException = ExceptionUtils.throwableOfThrowable(bookingValidationException, BookingNotFoundException.class);
-        if (BookingNotFoundException != null) {
-            return handleBookingNotFoundException(BookingNotFoundException);
-        }
-        BookingAlreadyCancelledException bookingAlreadyCancelledException = ExceptionUtils.throwableOfThrowable(bookingValidationException, BookingAlreadyCancelledException.class);
-        if (bookingAlreadyCancelledException != null) {
-            return handleBookingAlreadyCancelled(bookingAlreadyCancelledException);
-        }
-        BookingAlreadyInProgressException bookingAlreadyInProgressException = ExceptionUtils.throwableOfThrowable(bookingValidationException, BookingAlreadyInProgressException.class);
-        if (bookingAlreadyInProgressException != null) {
-            return handleBookingAlreadyInProgress(bookingAlreadyInProgressException);
-        }
-        BookingError bookingError = new BookingError();
-        bookingError.setTransactionId(BookingController.transactionId.get());
-        ErrorType errorType = new ErrorType();
-        errorType.setDescription(bookingValidationException.getMessage());
-        bookingError.setErrors(Collections.singletonList(errorType));
-        return new ResponseEntity<>(bookingError, HttpStatus.BAD_REQUEST);
+    public BookingExceptionHandler(BookingMetrics bookingMetrics) {
+        this.bookingMetrics = bookingMetrics;
     }
 
-    @ExceptionHandler(BookingAlreadyInProgressException.class)
-    public ResponseEntity<BookingError> handleBookingAlreadyInProgress(BookingAlreadyInProgressException bookingAlreadyInProgressException) {
-        BookingError bookingError = new BookingError();
-        bookingError.setTransactionId(BookingController.transactionId.get());
-        ErrorType errorType = new ErrorType();
-        errorType.setDescription(bookingAlreadyInProgressException.getMessage());
-        bookingError.setErrors(Collections.singletonList(errorType));
-        return new ResponseEntity<>(bookingError, HttpStatus.BAD_REQUEST);
+    @ExceptionHandler(BookingException.class)
+    public ResponseEntity<BookingError> handleBookingException(BookingException bookingException, WebRequest webRequest) {
+        String transactionId = getTransactionId(webRequest);
+        logUnexpectedCause(bookingException, transactionId);
+        return respond(toBookingError(transactionId, Collections.singletonList(toErrorType(bookingException))), bookingException.getErrorCode());
     }
 
-    @ExceptionHandler(BookingAlreadyCancelledException.class)
-    public ResponseEntity<BookingError> handleBookingAlreadyCancelled(BookingAlreadyCancelledException bookingAlreadyCancelledException) {
-        BookingError bookingError = new BookingError();
-        bookingError.setTransactionId(BookingController.transactionId.get());
-        ErrorType errorType = new ErrorType();
-        errorType.setDescription(bookingAlreadyCancelledException.getMessage());
-        bookingError.setErrors(Collections.singletonList(errorType));
-        return new ResponseEntity<>(bookingError, HttpStatus.BAD_REQUEST);
+    @Override
+    protected ResponseEntity<Object> handleMethodArgumentNotValid(MethodArgumentNotValidException ex, HttpHeaders headers, HttpStatus status, WebRequest request) {
+        return respond(toBookingError(getTransactionId(request), toErrorTypes(ex.getBindingResult())), BookingErrorCode.REQUEST_INVALID);
     }
 
-    @ExceptionHandler(BookingDatesInvalidException.class)
-    public ResponseEntity<BookingError> handleBookingDatesInvalid(BookingDatesInvalidException bookingDatesInvalidException) {
+    public static BookingError toBookingError(String transactionId, List<ErrorType> errors) {
         BookingError bookingError = new BookingError();
-        bookingError.setTransactionId(BookingController.transactionId.get());
-        ErrorType errorType = new ErrorType();
-        errorType.setDescription(bookingDatesInvalidException.getMessage());
-        bookingError.setErrors(Collections.singletonList(errorType));
-        return new ResponseEntity<>(bookingError, HttpStatus.BAD_REQUEST);
-
+        bookingError.setTransactionId(transactionId);
+        bookingError.setErrors(errors);
+        return bookingError;
     }
 
-    @ExceptionHandler(BookingDateNotAvailableException.class)
-    public ResponseEntity<BookingError> handleBookingDateNotAvailable(BookingDateNotAvailableException bookingDateNotAvailableException) {
-        BookingError bookingError = new BookingError();
-        bookingError.setTransactionId(BookingController.transactionId.get());
-        ErrorType errorType = new ErrorType();
-        errorType.setDescription(bookingDateNotAvailableException.getMessage());
-        bookingError.setErrors(Collections.singletonList(errorType));
-        return new ResponseEntity<>(bookingError, HttpStatus.BAD_REQUEST);
+    /**
+     * A cause that is not a booking exception is a failure the client only sees as the code's description, it is
+     * logged here with the transaction id instead.
+     */
+    public static void logUnexpectedCause(BookingException bookingException, String transactionId) {
+        Throwable cause = bookingException.getCause();
+        if (cause != null && !(cause instanceof BookingException)) {
+            log.error("Request with transactionId: {} failed with {}", transactionId, bookingException.getErrorCode(), cause);
+        }
     }
 
-    @ExceptionHandler(BookingModifyException.class)
-    public ResponseEntity<BookingError> handleBookingModifyException(BookingModifyException bookingModifyException) {
-        BookingValidationException bookingValidationException = ExceptionUtils.throwableOfThrowable(bookingModifyException, BookingValidationException.class);
-        if (bookingValidationException != null) {
-            return handleBookingValidationException(bookingValidationException);
-        }
-        BookingError bookingError = new BookingError();
-        bookingError.setTransactionId(BookingController.transactionId.get());
+    public static ErrorType toErrorType(BookingException bookingException) {
+        BookingErrorCode errorCode = bookingException.getErrorCode();
         ErrorType errorType = new ErrorType();
-        errorType.setDescription(bookingModifyException.getMessage());
-        bookingError.setErrors(Collections.singletonList(errorType));
-        return new ResponseEntity<>(bookingError, HttpStatus.INTERNAL_SERVER_ERROR);
+        errorType.setCode(errorCode.name());
+        errorType.setDescription(Optional.ofNullable(bookingException.getMessage()).orElseGet(errorCode::getDescription));
+        return errorType;
     }
 
-    @Override
-    protected ResponseEntity<Object> handleMethodArgumentNotValid(MethodArgumentNotValidException ex, HttpHeaders headers, HttpStatus status, WebRequest request) {
-        BookingError bookingError = new BookingError();
-        bookingError.setTransactionId(BookingController.transactionId.get());
-        bookingError.setErrors(new ArrayList<>());
-        Optional.of(ex.getBindingResult())
+    public static List<ErrorType> toErrorTypes(BindingResult bindingResult) {
+        return Optional.ofNullable(bindingResult)
                 .map(BindingResult::getFieldErrors)
                 .orElseGet(ArrayList::new)
                 .stream()
                 .filter(Objects::nonNull)
-                .forEach(fieldError -> {
+                .map(fieldError -> {
                     ErrorType errorType = new ErrorType();
+                    errorType.setCode(BookingErrorCode.REQUEST_INVALID.name());
                     errorType.setDescription(fieldError.getField() + " " + fieldError.getDefaultMessage());
-                    bookingError.getErrors().add(errorType);
-                });
-        return new ResponseEntity<>(bookingError, HttpStatus.BAD_REQUEST);
+                    return errorType;
+                })
+                .collect(Collectors.toList());
     }
 
-    @ExceptionHandler(BookingNotFoundException.class)
-    public ResponseEntity<BookingError> handleBookingNotFoundException(BookingNotFoundException bookingCreationException) {
-        BookingError bookingError = new BookingError();
-        bookingError.setTransactionId(BookingController.transactionId.get());
-        ErrorType errorType = new ErrorType();
-        errorType.setDescription(bookingCreationException.getMessage());
-        bookingError.setErrors(Collections.singletonList(errorType));
-        return new ResponseEntity<>(bookingError, HttpStatus.NOT_FOUND);
+    private static String getTransactionId(WebRequest webRequest) {
+        return (String) webRequest.getAttribute(BookingController.TRANSACTION_ID, RequestAttributes.SCOPE_REQUEST);
+    }
+
+    private <T> ResponseEntity<T> respond(T body, BookingErrorCode errorCode) {
+        bookingMetrics.error(errorCode);
+        return new ResponseEntity<>(body, errorCode.getStatus());
     }
 }
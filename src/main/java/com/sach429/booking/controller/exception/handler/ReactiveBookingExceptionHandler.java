@@ -0,0 +1,48 @@
+package com.sach429.booking.controller.exception.handler;
+
+import com.sach429.booking.controller.ReactiveBookingController;
+import com.sach429.booking.exception.BookingErrorCode;
+import com.sach429.booking.exception.BookingException;
+import com.sach429.booking.metrics.BookingMetrics;
+import com.sach429.booking.types.BookingError;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.bind.support.WebExchangeBindException;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.util.Collections;
+
+/**
+ * Error mapping of {@link BookingExceptionHandler} for the {@code reactive} profile, reading the transaction id
+ * from the exchange.
+ */
+@RestControllerAdvice
+@Profile("reactive")
+public class ReactiveBookingExceptionHandler {
+    private final BookingMetrics bookingMetrics;
+
+    public ReactiveBookingExceptionHandler(BookingMetrics bookingMetrics) {
+        this.bookingMetrics = bookingMetrics;
+    }
+
+    @ExceptionHandler(BookingException.class)
+    public ResponseEntity<BookingError> handleBookingException(BookingException bookingException, ServerWebExchange exchange) {
+        String transactionId = exchange.getAttribute(ReactiveBookingController.TRANSACTION_ID);
+        BookingExceptionHandler.logUnexpectedCause(bookingException, transactionId);
+        return respond(BookingExceptionHandler.toBookingError(transactionId,
+                Collections.singletonList(BookingExceptionHandler.toErrorType(bookingException))), bookingException.getErrorCode());
+    }
+
+    @ExceptionHandler(WebExchangeBindException.class)
+    public ResponseEntity<BookingError> handleWebExchangeBindException(WebExchangeBindException webExchangeBindException, ServerWebExchange exchange) {
+        return respond(BookingExceptionHandler.toBookingError(exchange.getAttribute(ReactiveBookingController.TRANSACTION_ID),
+                BookingExceptionHandler.toErrorTypes(webExchangeBindException.getBindingResult())), BookingErrorCode.REQUEST_INVALID);
+    }
+
+    private ResponseEntity<BookingError> respond(BookingError bookingError, BookingErrorCode errorCode) {
+        bookingMetrics.error(errorCode);
+        return new ResponseEntity<>(bookingError, errorCode.getStatus());
+    }
+}
@@ -1,15 +1,15 @@
 package com.sach429.booking.exception;
 
-public class BookingAlreadyCancelledException extends Exception {
+public class BookingAlreadyCancelledException extends BookingException {
     public BookingAlreadyCancelledException(String message) {
-        super(message);
+        super(BookingErrorCode.BOOKING_NOT_CONFIRMED, message);
     }
 
     public BookingAlreadyCancelledException(String message, Throwable cause) {
-        super(message, cause);
+        super(BookingErrorCode.BOOKING_NOT_CONFIRMED, message, cause);
     }
 
     public BookingAlreadyCancelledException(Throwable cause) {
-        super(cause);
+        super(BookingErrorCode.BOOKING_NOT_CONFIRMED, cause);
     }
 }
@@ -1,15 +1,15 @@
 package com.sach429.booking.exception;
 
-public class BookingAlreadyInProgressException extends Exception {
+public class BookingAlreadyInProgressException extends BookingException {
     public BookingAlreadyInProgressException(String message) {
-        super(message);
+        super(BookingErrorCode.BOOKING_IN_PROGRESS, message);
     }
 
     public BookingAlreadyInProgressException(String message, Throwable cause) {
-        super(message, cause);
+        super(BookingErrorCode.BOOKING_IN_PROGRESS, message, cause);
     }
 
     public BookingAlreadyInProgressException(Throwable cause) {
-        super(cause);
+        super(BookingErrorCode.BOOKING_IN_PROGRESS, cause);
     }
 }
@@ -1,15 +1,19 @@
 package com.sach429.booking.exception;
 
-public class BookingCreationException extends Exception {
+public class BookingCreationException extends BookingException {
     public BookingCreationException(String message) {
-        super(message);
+        super(BookingErrorCode.CREATION_FAILED, message);
     }
 
     public BookingCreationException(String message, Throwable cause) {
-        super(message, cause);
+        super(BookingErrorCode.CREATION_FAILED, message, cause);
     }
 
     public BookingCreationException(Throwable cause) {
-        super(cause);
+        super(BookingErrorCode.CREATION_FAILED, cause);
+    }
+
+    public BookingCreationException(BookingErrorCode errorCode, String message) {
+        super(errorCode, message);
     }
 }
@@ -1,15 +1,15 @@
 package com.sach429.booking.exception;
 
-public class BookingDateNotAvailableException extends Exception {
+public class BookingDateNotAvailableException extends BookingException {
     public BookingDateNotAvailableException(String message) {
-        super(message);
+        super(BookingErrorCode.DATES_NOT_AVAILABLE, message);
     }
 
     public BookingDateNotAvailableException(String message, Throwable cause) {
-        super(message, cause);
+        super(BookingErrorCode.DATES_NOT_AVAILABLE, message, cause);
     }
 
     public BookingDateNotAvailableException(Throwable cause) {
-        super(cause);
+        super(BookingErrorCode.DATES_NOT_AVAILABLE, cause);
     }
 }
@@ -1,15 +1,15 @@
 package com.sach429.booking.exception;
 
-public class BookingDatesInvalidException extends Exception {
+public class BookingDatesInvalidException extends BookingException {
     public BookingDatesInvalidException(String message) {
-        super(message);
+        super(BookingErrorCode.DATES_INVALID, message);
     }
 
     public BookingDatesInvalidException(String message, Throwable cause) {
-        super(message, cause);
+        super(BookingErrorCode.DATES_INVALID, message, cause);
     }
 
     public BookingDatesInvalidException(Throwable cause) {
-        super(cause);
+        super(BookingErrorCode.DATES_INVALID, cause);
     }
 }
@@ -0,0 +1,41 @@
+package com.sach429.booking.exception;
+
+import org.springframework.http.HttpStatus;
+
+public enum BookingErrorCode {
+    REQUEST_INVALID(HttpStatus.BAD_REQUEST, "Booking request is not valid"),
+    VALIDATION_FAILED(HttpStatus.BAD_REQUEST, "Booking validation failed"),
+    FROM_DATE_FORMAT_INVALID(HttpStatus.BAD_REQUEST, "FromDate format is not valid"),
+    TO_DATE_FORMAT_INVALID(HttpStatus.BAD_REQUEST, "ToDate format is not valid"),
+    DATES_INVALID(HttpStatus.BAD_REQUEST, "Booking dates are not valid"),
+    DATES_NOT_IN_RANGE(HttpStatus.BAD_REQUEST, "Booking Dates not in range"),
+    MODIFY_DATES_REQUIRED(HttpStatus.BAD_REQUEST, "FromDate and ToDate are required for modify request"),
+    CANCELLATION_REASON_REQUIRED(HttpStatus.BAD_REQUEST, "Cancellation reason is required for cancel request"),
+    DATES_NOT_AVAILABLE(HttpStatus.BAD_REQUEST, "Booking dates not available"),
+    SITE_NOT_FOUND(HttpStatus.BAD_REQUEST, "Campsite does not exist"),
+    ACCOUNT_INTERVAL_NOT_MET(HttpStatus.BAD_REQUEST, "Booking is too close to another booking of the same account"),
+    BOOKING_NOT_CONFIRMED(HttpStatus.BAD_REQUEST, "Only confirmed booking can be modified"),
+    BOOKING_IN_PROGRESS(HttpStatus.BAD_REQUEST, "Booking is already in progress and cannot be modified"),
+    BOOKING_NOT_FOUND(HttpStatus.NOT_FOUND, "Booking cannot be found"),
+    BATCH_TOO_LARGE(HttpStatus.BAD_REQUEST, "Batch request has too many bookings"),
+    TOO_MANY_REQUESTS(HttpStatus.TOO_MANY_REQUESTS, "Too many requests, retry later"),
+    MODIFIED_CONCURRENTLY(HttpStatus.CONFLICT, "Booking was modified concurrently, please retry"),
+    CREATION_FAILED(HttpStatus.INTERNAL_SERVER_ERROR, "Booking cannot be created"),
+    MODIFY_FAILED(HttpStatus.INTERNAL_SERVER_ERROR, "Booking cannot be modified");
+
+    private final HttpStatus status;
+    private final String description;
+
+    BookingErrorCode(HttpStatus status, String description) {
+        this.status = status;
+        this.description = description;
+    }
+
+    public HttpStatus getStatus() {
+        return status;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,30 @@
+package com.sach429.booking.exception;
+
+/**
+ * Base of the booking domain exceptions. They are expected failures, mostly rejected requests, so they
+ * carry a {@link BookingErrorCode} instead of a stack trace. Wrapping another booking exception adopts its
+ * code and message, so the outermost exception is all an error mapper needs to look at. Any other cause is kept
+ * for the logs only, the message is then the generic description of the code, so its details never reach clients.
+ */
+public abstract class BookingException extends Exception {
+    private final BookingErrorCode errorCode;
+
+    protected BookingException(BookingErrorCode errorCode, String message) {
+        this(errorCode, message, null);
+    }
+
+    protected BookingException(BookingErrorCode errorCode, String message, Throwable cause) {
+        super(message, cause, false, false);
+        this.errorCode = errorCode;
+    }
+
+    protected BookingException(BookingErrorCode errorCode, Throwable cause) {
+        this(cause instanceof BookingException ? ((BookingException) cause).getErrorCode() : errorCode,
+                cause instanceof BookingException ? cause.getMessage() : errorCode.getDescription(),
+                cause);
+    }
+
+    public BookingErrorCode getErrorCode() {
+        return errorCode;
+    }
+}
@@ -1,15 +1,19 @@
 package com.sach429.booking.exception;
 
-public class BookingModifyException extends Exception {
+public class BookingModifyException extends BookingException {
     public BookingModifyException(String message) {
-        super(message);
+        super(BookingErrorCode.MODIFY_FAILED, message);
     }
 
     public BookingModifyException(String message, Throwable cause) {
-        super(message, cause);
+        super(BookingErrorCode.MODIFY_FAILED, message, cause);
     }
 
     public BookingModifyException(Throwable cause) {
-        super(cause);
+        super(BookingErrorCode.MODIFY_FAILED, cause);
+    }
+
+    public BookingModifyException(BookingErrorCode errorCode, String message) {
+        super(errorCode, message);
     }
 }
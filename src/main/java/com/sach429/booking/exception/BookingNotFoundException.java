@@ -1,15 +1,15 @@
 package com.sach429.booking.exception;
 
-public class BookingNotFoundException extends Exception {
+public class BookingNotFoundException extends BookingException {
     public BookingNotFoundException(String message) {
-        super(message);
+        super(BookingErrorCode.BOOKING_NOT_FOUND, message);
     }
 
     public BookingNotFoundException(String message, Throwable cause) {
-        super(message, cause);
+        super(BookingErrorCode.BOOKING_NOT_FOUND, message, cause);
     }
 
     public BookingNotFoundException(Throwable cause) {
-        super(cause);
+        super(BookingErrorCode.BOOKING_NOT_FOUND, cause);
     }
 }
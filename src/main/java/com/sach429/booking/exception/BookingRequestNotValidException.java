@@ -1,15 +1,15 @@
 package com.sach429.booking.exception;
 
-public class BookingRequestNotValidException extends Exception {
+public class BookingRequestNotValidException extends BookingException {
     public BookingRequestNotValidException(String message) {
-        super(message);
+        super(BookingErrorCode.REQUEST_INVALID, message);
     }
 
     public BookingRequestNotValidException(String message, Throwable cause) {
-        super(message, cause);
+        super(BookingErrorCode.REQUEST_INVALID, message, cause);
     }
 
     public BookingRequestNotValidException(Throwable cause) {
-        super(cause);
+        super(BookingErrorCode.REQUEST_INVALID, cause);
     }
 }
@@ -0,0 +1,7 @@
+package com.sach429.booking.exception;
+
+public class BookingSiteNotFoundException extends BookingException {
+    public BookingSiteNotFoundException(String message) {
+        super(BookingErrorCode.SITE_NOT_FOUND, message);
+    }
+}
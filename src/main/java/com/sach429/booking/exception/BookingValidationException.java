@@ -1,15 +1,19 @@
 package com.sach429.booking.exception;
 
-public class BookingValidationException extends Exception {
+public class BookingValidationException extends BookingException {
     public BookingValidationException(String message) {
-        super(message);
+        super(BookingErrorCode.VALIDATION_FAILED, message);
     }
 
     public BookingValidationException(String message, Throwable cause) {
-        super(message, cause);
+        super(BookingErrorCode.VALIDATION_FAILED, message, cause);
     }
 
     public BookingValidationException(Throwable cause) {
-        super(cause);
+        super(BookingErrorCode.VALIDATION_FAILED, cause);
+    }
+
+    public BookingValidationException(BookingErrorCode errorCode, String message) {
+        super(errorCode, message);
     }
 }
@@ -0,0 +1,122 @@
+package com.sach429.booking.metrics;
+
+import com.sach429.booking.exception.BookingErrorCode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ * Timers for the stages of each booking operation and counters for the errors they end in. Stage timers
+ * publish percentile histograms so latency percentiles can be aggregated across instances.
+ */
+@Component
+public class BookingMetrics {
+    public static final String STAGE_TIMER = "booking.stage";
+    public static final String ERROR_COUNTER = "booking.errors";
+    public static final String CONTENTION_COUNTER = "booking.contention";
+    public static final String ADMISSION_REJECTION_COUNTER = "booking.admission.rejections";
+    public static final String BUDGET = "budget";
+    public static final String CLIENT = "client";
+    public static final String OPERATION = "operation";
+    public static final String STAGE = "stage";
+    public static final String OUTCOME = "outcome";
+    public static final String CREATE = "create";
+    public static final String MODIFY = "modify";
+    public static final String CANCEL = "cancel";
+    public static final String BATCH_CREATE = "batch-create";
+    public static final String BATCH_CANCEL = "batch-cancel";
+    public static final String GET = "get";
+    public static final String SEARCH = "search";
+    public static final String HISTORY = "history";
+    public static final String VALIDATION = "validation";
+    public static final String PERSISTENCE = "persistence";
+    public static final String ID_BLOCK_ALLOCATION = "id-block-allocation";
+    private static final String SUCCESS = "success";
+    private static final String ERROR = "error";
+
+    private final MeterRegistry meterRegistry;
+
+    public BookingMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public <T, E extends Exception> T record(String operation, String stage, Stage<T, E> callable) throws E {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = ERROR;
+        try {
+            T result = callable.call();
+            outcome = SUCCESS;
+            return result;
+        } finally {
+            sample.stop(stageTimer(operation, stage, outcome));
+        }
+    }
+
+    /**
+     * Times a non blocking stage from subscription until it completes or fails, a cancelled stage counts as failed.
+     */
+    public <T> Mono<T> record(String operation, String stage, Mono<T> mono) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return mono.doFinally(signalType -> sample.stop(stageTimer(operation, stage, signalType == SignalType.ON_COMPLETE ? SUCCESS : ERROR)));
+        });
+    }
+
+    public <E extends Exception> void run(String operation, String stage, VoidStage<E> runnable) throws E {
+        record(operation, stage, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    public void contention(String operation) {
+        Counter.builder(CONTENTION_COUNTER)
+                .description("Requests rejected because the booking dates were taken concurrently")
+                .tag(OPERATION, operation)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    public void admissionRejected(String budget, String client) {
+        Counter.builder(ADMISSION_REJECTION_COUNTER)
+                .description("Requests rejected because their client ran out of tokens")
+                .tag(BUDGET, budget)
+                .tag(CLIENT, client)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    public void error(BookingErrorCode errorCode) {
+        Counter.builder(ERROR_COUNTER)
+                .tag("code", errorCode.name())
+                .tag("status", String.valueOf(errorCode.getStatus().value()))
+                .register(meterRegistry)
+                .increment();
+    }
+
+    public MeterRegistry getMeterRegistry() {
+        return meterRegistry;
+    }
+
+    private Timer stageTimer(String operation, String stage, String outcome) {
+        return Timer.builder(STAGE_TIMER)
+                .tag(OPERATION, operation)
+                .tag(STAGE, stage)
+                .tag(OUTCOME, outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    @FunctionalInterface
+    public interface Stage<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    @FunctionalInterface
+    public interface VoidStage<E extends Exception> {
+        void run() throws E;
+    }
+}
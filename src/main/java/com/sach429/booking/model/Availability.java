@@ -0,0 +1,34 @@
+package com.sach429.booking.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@RequiredArgsConstructor
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder(
+        alphabetic = true
+)
+public class Availability {
+    @JsonProperty
+    private final LocalDate fromDate;
+
+    @JsonProperty
+    private final LocalDate toDate;
+
+    @JsonProperty
+    private final List<LocalDate> availableDates;
+
+    @JsonIgnore
+    private final long version;
+
+    @JsonIgnore
+    private final long lastModifiedMillis;
+}
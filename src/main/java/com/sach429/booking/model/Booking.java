@@ -1,5 +1,6 @@
 package com.sach429.booking.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
@@ -9,7 +10,6 @@ import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.List;
 
 @Document(collection = "bookings")
 @RequiredArgsConstructor
@@ -19,6 +19,8 @@ import java.util.List;
         alphabetic = true
 )
 public class Booking {
+    public static final int DEFAULT_SITE_ID = 0;
+
     @JsonProperty
     private final Long bookingId;
 
@@ -40,14 +42,26 @@ public class Booking {
     @JsonProperty
     private final BookingStatus bookingStatus;
 
+    /**
+     * The campsite booked, bookings written before there was more than one site are on site 0.
+     */
+    @JsonProperty
+    private Integer siteId;
+
     @JsonProperty
     private String cancellationReason;
 
-    private List<String> days;
+    @JsonIgnore
+    private int[] days;
 
     private LocalDateTime lastUpdateTimestamp;
 
-    private List<Booking> changeHistory;
+    /**
+     * The state the last modify or cancel replaced, written by the same update and overwritten by the next one, so
+     * the document stays a fixed size. It is only read to record the change in the booking history.
+     */
+    @JsonIgnore
+    private Booking previousVersion;
 
     public enum BookingStatus {
         CANCELLED, CONFIRMED
@@ -0,0 +1,53 @@
+package com.sach429.booking.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.sach429.booking.exception.BookingErrorCode;
+import com.sach429.booking.types.ErrorType;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Optional;
+
+/**
+ * Outcome of one item of a batch request: the booking it created or cancelled, or the error that rejected it.
+ * The index is the position of the item in the request.
+ */
+@RequiredArgsConstructor
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({"index", "booking", "error"})
+public class BookingBatchResult {
+    @JsonProperty
+    private final int index;
+
+    @JsonProperty
+    private final Booking booking;
+
+    @JsonProperty
+    private final ErrorType error;
+
+    public static BookingBatchResult success(int index, Booking booking) {
+        return new BookingBatchResult(index, booking, null);
+    }
+
+    public static BookingBatchResult failure(int index, BookingErrorCode errorCode, String message) {
+        ErrorType errorType = new ErrorType();
+        errorType.setCode(errorCode.name());
+        errorType.setDescription(Optional.ofNullable(message).orElseGet(errorCode::getDescription));
+        return new BookingBatchResult(index, null, errorType);
+    }
+
+    public static BookingBatchResult failure(int index, ValidationResult validationResult) {
+        return failure(index, validationResult.getErrorCode(), validationResult.getMessage());
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    public boolean isFailedWith(BookingErrorCode errorCode) {
+        return error != null && errorCode.name().equals(error.getCode());
+    }
+}
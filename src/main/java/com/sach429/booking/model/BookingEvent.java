@@ -0,0 +1,31 @@
+package com.sach429.booking.model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+/**
+ * A committed change to the bookings collection, read from its change stream and published to in-process
+ * listeners. The days are the epoch days the booking holds after a create or modify and the days it gave up
+ * on a cancel. A {@link Type#RESET} event carries no booking: the stream could not be resumed and listeners
+ * have to rebuild their state from the collection.
+ */
+@Getter
+@ToString
+@RequiredArgsConstructor
+public final class BookingEvent {
+    private static final int[] NO_DAYS = new int[0];
+
+    private final Type type;
+    private final Long bookingId;
+    private final Booking booking;
+    private final int[] days;
+
+    public static BookingEvent reset() {
+        return new BookingEvent(Type.RESET, null, null, NO_DAYS);
+    }
+
+    public enum Type {
+        CREATED, MODIFIED, CANCELLED, RESET
+    }
+}
@@ -0,0 +1,32 @@
+package com.sach429.booking.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * A version of a booking that a modify or cancel replaced, stored apart from the booking in the append-only
+ * {@code bookingHistory} collection. The change timestamp is when the version was replaced.
+ */
+@Document(collection = "bookingHistory")
+@RequiredArgsConstructor
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder(
+        alphabetic = true
+)
+public class BookingHistory {
+    @JsonProperty
+    private final Long bookingId;
+
+    @JsonProperty
+    private final LocalDateTime changedAt;
+
+    @JsonProperty
+    private final Booking booking;
+}
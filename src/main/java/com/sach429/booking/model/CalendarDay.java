@@ -0,0 +1,32 @@
+package com.sach429.booking.model;
+
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * A day of a site in the {@code calendar} collection, keyed by the site and its epoch day, held by the confirmed
+ * booking of that site covering it. A day no booking holds has no owner, or no document at all until it is
+ * first booked.
+ */
+@Document(collection = "calendar")
+@RequiredArgsConstructor
+@Data
+public class CalendarDay {
+    @Id
+    private final SiteDay id;
+
+    private final Long bookingId;
+
+    /**
+     * The id of a calendar day. Ids are matched as whole documents, so the site always comes before the day.
+     */
+    @RequiredArgsConstructor
+    @Data
+    public static class SiteDay {
+        private final Integer siteId;
+
+        private final Integer day;
+    }
+}
@@ -0,0 +1,29 @@
+package com.sach429.booking.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+
+import java.time.LocalDate;
+
+/**
+ * The sites free on every day from the first to the last, in ascending order.
+ */
+@RequiredArgsConstructor
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder(
+        alphabetic = true
+)
+public class SiteAvailability {
+    @JsonProperty
+    private final LocalDate fromDate;
+
+    @JsonProperty
+    private final LocalDate toDate;
+
+    @JsonProperty
+    private final int[] availableSiteIds;
+}
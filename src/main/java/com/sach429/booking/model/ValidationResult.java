@@ -0,0 +1,53 @@
+package com.sach429.booking.model;
+
+import com.sach429.booking.exception.BookingErrorCode;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Outcome of validating a booking request. Rejections with the default description of their
+ * {@link BookingErrorCode} are shared instances, so a rejected request allocates nothing here.
+ */
+public final class ValidationResult {
+    private static final ValidationResult VALID = new ValidationResult(null, null);
+    private static final Map<BookingErrorCode, ValidationResult> INVALID = new EnumMap<>(BookingErrorCode.class);
+
+    static {
+        for (BookingErrorCode errorCode : BookingErrorCode.values()) {
+            INVALID.put(errorCode, new ValidationResult(errorCode, errorCode.getDescription()));
+        }
+    }
+
+    private final BookingErrorCode errorCode;
+    private final String message;
+
+    private ValidationResult(BookingErrorCode errorCode, String message) {
+        this.errorCode = errorCode;
+        this.message = message;
+    }
+
+    public static ValidationResult valid() {
+        return VALID;
+    }
+
+    public static ValidationResult invalid(BookingErrorCode errorCode) {
+        return INVALID.get(errorCode);
+    }
+
+    public static ValidationResult invalid(BookingErrorCode errorCode, String message) {
+        return new ValidationResult(errorCode, message);
+    }
+
+    public boolean isValid() {
+        return errorCode == null;
+    }
+
+    public BookingErrorCode getErrorCode() {
+        return errorCode;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
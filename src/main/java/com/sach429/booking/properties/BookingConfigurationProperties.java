@@ -1,5 +1,7 @@
 package com.sach429.booking.properties;
 
+import com.sach429.booking.admission.TokenBucketTable;
+import com.sach429.booking.availability.SiteCalendar;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -7,6 +9,8 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
 
 @Getter
 @Setter
@@ -17,7 +21,26 @@ public class BookingConfigurationProperties {
     private Integer maxDaysInAdvance;
     private Integer minDaysInAdvance;
     private Integer maxDuration;
-    private Integer minIntervalPerAccount;
+    private Integer sites = 1;
+    private Integer minIntervalPerAccount = 0;
+    private Integer bookingIdBlockSize = 1;
+    private Integer nodeId = 0;
+    private Integer bookingCacheMaxSize = 10000;
+    private Integer bookingCacheExpireAfterWriteSeconds = 300;
+    private Integer maxBookingsPageSize = 100;
+    private Integer bookingsQueryTtlMillis = 0;
+    private Integer maxBatchSize = 100;
+    private Boolean virtualThreads = false;
+    private Boolean changeStreamEnabled = false;
+    private Integer resumeTokenFlushMillis = 1000;
+    private Boolean admissionEnabled = false;
+    private Integer admissionMaxClients = 65536;
+    private Integer readRequestsPerSecond = 20;
+    private Integer readBurst = 40;
+    private Integer writeRequestsPerSecond = 2;
+    private Integer writeBurst = 5;
+    private List<String> admissionTrustedProxies = new ArrayList<>();
+    private ConflictEngine conflictEngine = ConflictEngine.INDEX;
 
     @PostConstruct
     public void validate() {
@@ -30,5 +53,49 @@ public class BookingConfigurationProperties {
         if (this.maxDuration <= 0) {
             throw new IllegalArgumentException("Max duration has to be positive");
         }
+        if (this.sites <= 0 || this.sites > SiteCalendar.MAX_SITES) {
+            throw new IllegalArgumentException("Sites have to be between 1 and " + SiteCalendar.MAX_SITES);
+        }
+        if (this.minIntervalPerAccount < 0) {
+            throw new IllegalArgumentException("Min interval per account cannot be negative");
+        }
+        if (this.bookingIdBlockSize <= 0) {
+            throw new IllegalArgumentException("Booking id block size has to be positive");
+        }
+        if (this.nodeId < 0 || this.nodeId > 1023) {
+            throw new IllegalArgumentException("Node id has to be between 0 and 1023");
+        }
+        if (this.bookingCacheMaxSize < 0 || this.bookingCacheExpireAfterWriteSeconds < 0) {
+            throw new IllegalArgumentException("Booking cache size and expiry cannot be negative");
+        }
+        if (this.maxBookingsPageSize <= 0) {
+            throw new IllegalArgumentException("Max bookings page size has to be positive");
+        }
+        if (this.bookingsQueryTtlMillis < 0) {
+            throw new IllegalArgumentException("Bookings query ttl cannot be negative");
+        }
+        if (this.maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Max batch size has to be positive");
+        }
+        if (this.resumeTokenFlushMillis < 0) {
+            throw new IllegalArgumentException("Resume token flush interval cannot be negative");
+        }
+        if (this.admissionMaxClients <= 0 || this.readRequestsPerSecond <= 0 || this.writeRequestsPerSecond <= 0) {
+            throw new IllegalArgumentException("Admission max clients and request rates have to be positive");
+        }
+        if (this.readBurst <= 0 || this.readBurst > TokenBucketTable.MAX_CAPACITY || this.writeBurst <= 0 || this.writeBurst > TokenBucketTable.MAX_CAPACITY) {
+            throw new IllegalArgumentException("Admission bursts have to be between 1 and " + TokenBucketTable.MAX_CAPACITY);
+        }
+        if (this.conflictEngine == null) {
+            throw new IllegalArgumentException("Conflict engine has to be index or calendar");
+        }
+    }
+
+    /**
+     * How two confirmed bookings are kept off the same day: by the unique index on the days of bookings, or by
+     * claiming each day in the {@code calendar} collection before the booking is written.
+     */
+    public enum ConflictEngine {
+        INDEX, CALENDAR
     }
 }
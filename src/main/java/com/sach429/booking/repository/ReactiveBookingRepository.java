@@ -0,0 +1,16 @@
+package com.sach429.booking.repository;
+
+import com.sach429.booking.model.Booking;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+@Repository
+public interface ReactiveBookingRepository extends ReactiveCrudRepository<Booking, ObjectId> {
+
+    @Query(value = "{'bookingId':?0}", fields = "{previousVersion:0, days:0}")
+    Mono<Booking> getBookingByBookingId(Long id);
+
+}
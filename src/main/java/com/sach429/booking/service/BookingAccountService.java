@@ -0,0 +1,173 @@
+package com.sach429.booking.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sach429.booking.availability.AccountStays;
+import com.sach429.booking.availability.StayReservation;
+import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.BookingEvent;
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index of the confirmed stays of each account, by email, for checking the minimum interval between the stays
+ * of one account without a query per booking. An account missing from the index is loaded with one query on
+ * the email index; accounts already indexed are kept current by the bookings changed on this node and by the
+ * booking events of other nodes, and expire like cached bookings in case events are off. Stays of requests still
+ * in flight on this node are held apart from the index as reservations, which never expire.
+ */
+@Service
+public class BookingAccountService {
+    private final MongoTemplate mongoTemplate;
+    private final BookingConfigurationProperties bookingConfigurationProperties;
+    private final Cache<String, AccountStays> accountStays;
+    private final ConcurrentMap<String, AccountStays> reservedStays = new ConcurrentHashMap<>();
+    private final AtomicLong lastReservationId = new AtomicLong(AccountStays.NO_CONFLICT);
+
+    public BookingAccountService(MongoTemplate mongoTemplate, BookingConfigurationProperties bookingConfigurationProperties) {
+        this.mongoTemplate = mongoTemplate;
+        this.bookingConfigurationProperties = bookingConfigurationProperties;
+        this.accountStays = Caffeine.newBuilder()
+                .maximumSize(bookingConfigurationProperties.getBookingCacheMaxSize())
+                .expireAfterWrite(bookingConfigurationProperties.getBookingCacheExpireAfterWriteSeconds(), TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Whether {@code booking.config.min-interval-per-account} is set, zero leaves the stays of an account unchecked.
+     */
+    public boolean isEnabled() {
+        return bookingConfigurationProperties.getMinIntervalPerAccount() > 0;
+    }
+
+    public int getMinIntervalDays() {
+        return bookingConfigurationProperties.getMinIntervalPerAccount();
+    }
+
+    public AccountStays getStays(String email) {
+        return accountStays.get(email, key -> toStays(mongoTemplate.find(getStaysQuery(key), Booking.class)));
+    }
+
+    public AccountStays getStaysIfPresent(String email) {
+        return accountStays.getIfPresent(email);
+    }
+
+    public void putStays(String email, AccountStays stays) {
+        accountStays.put(email, stays);
+    }
+
+    /**
+     * Checks the stay against the stays of the account and the stays reserved by its requests in flight, and
+     * reserves it when it is far enough from all of them, in one atomic update of the account's reservations, so
+     * two requests of one account never both pass. A modified booking is not compared with itself. The booking
+     * is indexed once written, before its reservation is closed, so the stay is never unchecked in between. An
+     * account missing from the index is loaded before the update rather than in it, so no query runs while the
+     * reservations are locked; an account evicted again before the update is loaded once more.
+     */
+    public StayReservation reserveStay(String email, Long bookingId, long fromEpochDay, long toEpochDay) {
+//        reservations take ids below NO_CONFLICT, so they never clash with a booking id
+        long reservationId = lastReservationId.decrementAndGet();
+        long excludedBookingId = bookingId == null ? AccountStays.NO_CONFLICT : bookingId;
+        int minIntervalDays = getMinIntervalDays();
+        long[] conflict = {AccountStays.NO_CONFLICT};
+        boolean[] checked = {false};
+        while (!checked[0]) {
+            loadStays(email);
+            reservedStays.compute(email, (key, reserved) -> {
+                AccountStays stays = getStaysIfPresent(key);
+                if (stays == null) {
+                    return reserved;
+                }
+                checked[0] = true;
+                AccountStays current = reserved == null ? AccountStays.EMPTY : reserved;
+                conflict[0] = current.findConflict(fromEpochDay, toEpochDay, minIntervalDays, excludedBookingId);
+                if (conflict[0] == AccountStays.NO_CONFLICT) {
+                    conflict[0] = stays.findConflict(fromEpochDay, toEpochDay, minIntervalDays, excludedBookingId);
+                }
+                return conflict[0] == AccountStays.NO_CONFLICT ? current.with(reservationId, fromEpochDay, toEpochDay) : reserved;
+            });
+        }
+        if (conflict[0] != AccountStays.NO_CONFLICT) {
+            return StayReservation.refused(conflict[0]);
+        }
+        return StayReservation.reserved(() -> reservedStays.computeIfPresent(email, (key, reserved) -> {
+            AccountStays remaining = reserved.without(reservationId);
+            return remaining.size() == 0 ? null : remaining;
+        }));
+    }
+
+    private void loadStays(String email) {
+        if (getStaysIfPresent(email) == null) {
+            putStays(email, toStays(mongoTemplate.find(getStaysQuery(email), Booking.class)));
+        }
+    }
+
+    /**
+     * The confirmed bookings of an account that can still be too close to a new stay: the ones that have not
+     * ended more than the minimum interval ago.
+     */
+    Query getStaysQuery(String email) {
+        Query query = Query.query(Criteria.where(BookingPersistenceService.EMAIL).is(email)
+                .and(BookingPersistenceService.BOOKING_STATUS).is(Booking.BookingStatus.CONFIRMED)
+                .and(BookingPersistenceService.TO_DATE).gte(LocalDate.now().minusDays(bookingConfigurationProperties.getMinIntervalPerAccount())));
+        query.fields().include(BookingPersistenceService.BOOKING_ID).include(BookingPersistenceService.FROM_DATE).include(BookingPersistenceService.TO_DATE);
+        return query;
+    }
+
+    AccountStays toStays(List<Booking> bookings) {
+        AccountStays stays = AccountStays.EMPTY;
+        for (Booking booking : bookings) {
+            if (booking.getBookingId() != null && booking.getFromDate() != null && booking.getToDate() != null) {
+                stays = stays.with(booking.getBookingId(), booking.getFromDate().toEpochDay(), booking.getToDate().toEpochDay());
+            }
+        }
+        return stays;
+    }
+
+    /**
+     * Only accounts already indexed are updated, an account loaded later reads the change from the collection.
+     */
+    public void bookingConfirmed(Booking booking) {
+        if (booking == null || booking.getEmail() == null || booking.getBookingId() == null || booking.getFromDate() == null || booking.getToDate() == null) {
+            return;
+        }
+        accountStays.asMap().computeIfPresent(booking.getEmail(),
+                (email, stays) -> stays.with(booking.getBookingId(), booking.getFromDate().toEpochDay(), booking.getToDate().toEpochDay()));
+    }
+
+    public void bookingCancelled(Booking booking) {
+        if (booking == null || booking.getEmail() == null || booking.getBookingId() == null) {
+            return;
+        }
+        accountStays.asMap().computeIfPresent(booking.getEmail(), (email, stays) -> stays.without(booking.getBookingId()));
+    }
+
+    @EventListener
+    public void onBookingEvent(BookingEvent bookingEvent) {
+        switch (bookingEvent.getType()) {
+            case CREATED:
+            case MODIFIED:
+                bookingConfirmed(bookingEvent.getBooking());
+                break;
+            case CANCELLED:
+                bookingCancelled(bookingEvent.getBooking());
+                break;
+            case RESET:
+                accountStays.invalidateAll();
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.sach429.booking.service;
+
+import com.sach429.booking.availability.AvailabilityCalendar;
+import com.sach429.booking.availability.AvailabilitySnapshot;
+import com.sach429.booking.availability.DateClaim;
+import com.sach429.booking.availability.DateClaimTable;
+import com.sach429.booking.availability.SiteCalendar;
+import com.sach429.booking.model.Availability;
+import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.BookingEvent;
+import com.sach429.booking.model.SiteAvailability;
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import com.sach429.booking.utils.BookingUtils;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Availability is kept per site: every site has its own calendar and date claims, so requests for different sites
+ * never wait on each other. The site calendar holds the same booked days transposed, one bit per site, to find
+ * the sites free for a stay without going through every site's calendar.
+ */
+@Service
+@Log4j2
+public class BookingAvailabilityService {
+    private final MongoTemplate mongoTemplate;
+    private final BookingConfigurationProperties bookingConfigurationProperties;
+    private final AvailabilityCalendar[] availabilityCalendars;
+    private final DateClaimTable[] dateClaimTables;
+    private final SiteCalendar siteCalendar;
+    private final Map<Long, ConfirmedStay> confirmedStays = new ConcurrentHashMap<>();
+    private final AtomicLong confirmedStaysPrunedOn = new AtomicLong();
+
+    public BookingAvailabilityService(MongoTemplate mongoTemplate, BookingConfigurationProperties bookingConfigurationProperties) {
+        this.mongoTemplate = mongoTemplate;
+        this.bookingConfigurationProperties = bookingConfigurationProperties;
+        int windowDays = bookingConfigurationProperties.getMaxDaysInAdvance() + bookingConfigurationProperties.getMaxDuration();
+        long todayEpochDay = LocalDate.now().toEpochDay();
+        int sites = bookingConfigurationProperties.getSites();
+        this.availabilityCalendars = new AvailabilityCalendar[sites];
+        this.dateClaimTables = new DateClaimTable[sites];
+        for (int siteId = 0; siteId < sites; siteId++) {
+            availabilityCalendars[siteId] = new AvailabilityCalendar(windowDays, todayEpochDay);
+            dateClaimTables[siteId] = new DateClaimTable(availabilityCalendars[siteId].getCapacityDays());
+        }
+        this.siteCalendar = new SiteCalendar(sites, windowDays, todayEpochDay);
+    }
+
+    @PostConstruct
+    public void loadConfirmedBookings() {
+        LocalDate today = LocalDate.now();
+        Query query = Query.query(Criteria.where(BookingPersistenceService.BOOKING_STATUS).is(Booking.BookingStatus.CONFIRMED)
+                .and(BookingPersistenceService.TO_DATE).gte(today));
+        query.fields().include(BookingPersistenceService.BOOKING_ID).include(BookingPersistenceService.FROM_DATE).include(BookingPersistenceService.TO_DATE)
+                .include(BookingPersistenceService.DAYS).include(BookingPersistenceService.SITE_ID);
+        List<Booking> bookings = mongoTemplate.find(query, Booking.class);
+        bookings.forEach(this::bookingConfirmed);
+        log.info("Loaded {} confirmed bookings into availability calendars of {} sites", bookings.size(), availabilityCalendars.length);
+    }
+
+    public boolean isAvailable(int siteId, LocalDate fromDate, LocalDate toDate) {
+        if (!isSite(siteId)) {
+            return false;
+        }
+        availabilityCalendars[siteId].advanceTo(LocalDate.now().toEpochDay());
+        return availabilityCalendars[siteId].isAvailable(fromDate.toEpochDay(), toDate.toEpochDay());
+    }
+
+    /**
+     * Tentatively claims the dates of the site for a booking about to be persisted, returns null when a request
+     * in flight on this node already claimed any of them. The claim has to be closed once the booking is
+     * persisted or failed.
+     */
+    public DateClaim claimDates(int siteId, LocalDate fromDate, LocalDate toDate) {
+        if (fromDate == null || toDate == null || !isSite(siteId)) {
+            return DateClaim.NONE;
+        }
+        return dateClaimTables[siteId].claim(fromDate.toEpochDay(), toDate.toEpochDay());
+    }
+
+    public Availability getAvailability(int siteId, LocalDate fromDate, LocalDate toDate) {
+        LocalDate today = LocalDate.now();
+        AvailabilityCalendar availabilityCalendar = availabilityCalendars[siteId];
+        availabilityCalendar.advanceTo(today.toEpochDay());
+        AvailabilitySnapshot snapshot = availabilityCalendar.snapshot();
+        long from = Math.max(fromDate.toEpochDay(), getFirstBookableDay(today));
+        long to = Math.min(toDate.toEpochDay(), Math.min(getLastBookableDay(today), snapshot.getLastEpochDay()));
+        List<LocalDate> availableDates = new ArrayList<>();
+        for (long day = from; day <= to; day++) {
+            if (!snapshot.isBooked(day)) {
+                availableDates.add(LocalDate.ofEpochDay(day));
+            }
+        }
+        long startOfToday = today.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return new Availability(fromDate, toDate, availableDates, snapshot.getVersion(), Math.max(snapshot.getLastModifiedMillis(), startOfToday));
+    }
+
+    /**
+     * The sites free on every day of the stay, none when any of its days cannot be booked.
+     */
+    public SiteAvailability getFreeSites(LocalDate fromDate, LocalDate toDate) {
+        LocalDate today = LocalDate.now();
+        if (fromDate.toEpochDay() < getFirstBookableDay(today) || toDate.toEpochDay() > getLastBookableDay(today)) {
+            return new SiteAvailability(fromDate, toDate, new int[0]);
+        }
+        siteCalendar.advanceTo(today.toEpochDay());
+        return new SiteAvailability(fromDate, toDate, siteCalendar.freeSites(fromDate.toEpochDay(), toDate.toEpochDay()));
+    }
+
+    public void bookingConfirmed(Booking booking) {
+        if (booking == null || booking.getFromDate() == null || booking.getToDate() == null) {
+            return;
+        }
+        int siteId = BookingUtils.getSiteId(booking);
+        if (!isSite(siteId)) {
+            return;
+        }
+        book(siteId, booking.getFromDate().toEpochDay(), booking.getToDate().toEpochDay());
+        trackConfirmedStay(booking.getBookingId(), siteId, getDays(booking));
+    }
+
+    public void bookingModified(Booking oldBooking, Booking newBooking) {
+        if (oldBooking == null || newBooking == null) {
+            return;
+        }
+        int oldSiteId = BookingUtils.getSiteId(oldBooking);
+        int newSiteId = BookingUtils.getSiteId(newBooking);
+        if (!isSite(oldSiteId) || !isSite(newSiteId)) {
+            return;
+        }
+        rebook(oldSiteId, oldBooking.getFromDate().toEpochDay(), oldBooking.getToDate().toEpochDay(),
+                newSiteId, newBooking.getFromDate().toEpochDay(), newBooking.getToDate().toEpochDay());
+        trackConfirmedStay(newBooking.getBookingId(), newSiteId, getDays(newBooking));
+    }
+
+    public void bookingCancelled(Booking booking) {
+        if (booking == null || booking.getFromDate() == null || booking.getToDate() == null) {
+            return;
+        }
+        int siteId = BookingUtils.getSiteId(booking);
+        if (!isSite(siteId)) {
+            return;
+        }
+        release(siteId, booking.getFromDate().toEpochDay(), booking.getToDate().toEpochDay());
+        if (booking.getBookingId() != null) {
+            confirmedStays.remove(booking.getBookingId());
+        }
+    }
+
+    /**
+     * Applies booking changes made on any node to the calendars. The site and days each confirmed booking holds
+     * are tracked here because a modify event only carries the new ones. Events arrive in commit order, so
+     * replaying a change this node already applied, or one it is about to overwrite, leaves the calendars where
+     * the last committed change put them.
+     */
+    @EventListener
+    public void onBookingEvent(BookingEvent bookingEvent) {
+        int[] days = bookingEvent.getDays();
+        if (bookingEvent.getType() == BookingEvent.Type.RESET) {
+            for (AvailabilityCalendar availabilityCalendar : availabilityCalendars) {
+                availabilityCalendar.clear();
+            }
+            siteCalendar.clear();
+            confirmedStays.clear();
+            loadConfirmedBookings();
+            return;
+        }
+        if (days.length == 0) {
+            return;
+        }
+        int siteId = bookingEvent.getBooking() == null ? Booking.DEFAULT_SITE_ID : BookingUtils.getSiteId(bookingEvent.getBooking());
+        if (!isSite(siteId)) {
+            log.warn("Booking {} is on site {}, only {} sites are configured", bookingEvent.getBookingId(), siteId, availabilityCalendars.length);
+            return;
+        }
+        switch (bookingEvent.getType()) {
+            case CREATED:
+                book(siteId, days[0], days[days.length - 1]);
+                trackConfirmedStay(bookingEvent.getBookingId(), siteId, days);
+                break;
+            case MODIFIED:
+                ConfirmedStay previousStay = confirmedStays.get(bookingEvent.getBookingId());
+                if (previousStay == null) {
+                    book(siteId, days[0], days[days.length - 1]);
+                } else {
+                    rebook(previousStay.siteId, previousStay.getFirstDay(), previousStay.getLastDay(), siteId, days[0], days[days.length - 1]);
+                }
+                trackConfirmedStay(bookingEvent.getBookingId(), siteId, days);
+                break;
+            case CANCELLED:
+                release(siteId, days[0], days[days.length - 1]);
+                confirmedStays.remove(bookingEvent.getBookingId());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void book(int siteId, long fromEpochDay, long toEpochDay) {
+        advanceTo(siteId);
+        availabilityCalendars[siteId].book(fromEpochDay, toEpochDay);
+        siteCalendar.book(siteId, fromEpochDay, toEpochDay);
+    }
+
+    private void release(int siteId, long fromEpochDay, long toEpochDay) {
+        advanceTo(siteId);
+        availabilityCalendars[siteId].release(fromEpochDay, toEpochDay);
+        siteCalendar.release(siteId, fromEpochDay, toEpochDay);
+    }
+
+    private void rebook(int oldSiteId, long oldFromEpochDay, long oldToEpochDay, int newSiteId, long newFromEpochDay, long newToEpochDay) {
+        advanceTo(oldSiteId);
+        if (oldSiteId == newSiteId) {
+            availabilityCalendars[newSiteId].rebook(oldFromEpochDay, oldToEpochDay, newFromEpochDay, newToEpochDay);
+        } else {
+            advanceTo(newSiteId);
+            availabilityCalendars[oldSiteId].release(oldFromEpochDay, oldToEpochDay);
+            availabilityCalendars[newSiteId].book(newFromEpochDay, newToEpochDay);
+        }
+        siteCalendar.rebook(oldSiteId, oldFromEpochDay, oldToEpochDay, newSiteId, newFromEpochDay, newToEpochDay);
+    }
+
+    private void advanceTo(int siteId) {
+        long todayEpochDay = LocalDate.now().toEpochDay();
+        availabilityCalendars[siteId].advanceTo(todayEpochDay);
+        siteCalendar.advanceTo(todayEpochDay);
+    }
+
+    private boolean isSite(int siteId) {
+        return siteId >= 0 && siteId < availabilityCalendars.length;
+    }
+
+    private long getFirstBookableDay(LocalDate today) {
+        return today.toEpochDay() + bookingConfigurationProperties.getMinDaysInAdvance();
+    }
+
+    private long getLastBookableDay(LocalDate today) {
+        return today.toEpochDay() + bookingConfigurationProperties.getMaxDaysInAdvance() + bookingConfigurationProperties.getMaxDuration() - 1;
+    }
+
+    private void trackConfirmedStay(Long bookingId, int siteId, int[] days) {
+        if (bookingId == null || days.length == 0) {
+            return;
+        }
+        confirmedStays.put(bookingId, new ConfirmedStay(siteId, days));
+        pruneConfirmedStays();
+    }
+
+    /**
+     * Drops the stays that ended before today, once a day with the first stay tracked on it, rather than going
+     * through every stay on each change.
+     */
+    private void pruneConfirmedStays() {
+        long today = LocalDate.now().toEpochDay();
+        long prunedOn = confirmedStaysPrunedOn.get();
+        if (prunedOn < today && confirmedStaysPrunedOn.compareAndSet(prunedOn, today)) {
+            confirmedStays.values().removeIf(confirmedStay -> confirmedStay.getLastDay() < today);
+        }
+    }
+
+    private static int[] getDays(Booking booking) {
+        return booking.getDays() != null ? booking.getDays() : BookingUtils.getEpochDaysBetween(booking.getFromDate(), booking.getToDate());
+    }
+
+    private static final class ConfirmedStay {
+        private final int siteId;
+        private final int[] days;
+
+        private ConfirmedStay(int siteId, int[] days) {
+            this.siteId = siteId;
+            this.days = days;
+        }
+
+        private int getFirstDay() {
+            return days[0];
+        }
+
+        private int getLastDay() {
+            return days[days.length - 1];
+        }
+    }
+}
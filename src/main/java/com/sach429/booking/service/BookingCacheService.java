@@ -0,0 +1,92 @@
+package com.sach429.booking.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.BookingEvent;
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import com.sach429.booking.utils.SingleFlight;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+@Component
+public class BookingCacheService {
+    private static final long MAX_BOOKINGS_QUERY_RESULTS = 1000L;
+    private final Cache<Long, Booking> bookingCache;
+    private final SingleFlight<List<Object>, List<Booking>> bookingsQueries;
+
+    public BookingCacheService(BookingConfigurationProperties bookingConfigurationProperties) {
+        this.bookingCache = Caffeine.newBuilder()
+                .maximumSize(bookingConfigurationProperties.getBookingCacheMaxSize())
+                .expireAfterWrite(bookingConfigurationProperties.getBookingCacheExpireAfterWriteSeconds(), TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        this.bookingsQueries = new SingleFlight<>(bookingConfigurationProperties.getBookingsQueryTtlMillis(), MAX_BOOKINGS_QUERY_RESULTS);
+    }
+
+    public Booking get(Long bookingId, Function<Long, Booking> loader) {
+        return bookingCache.get(bookingId, loader);
+    }
+
+    /**
+     * Identical bookings queries running at the same time share one load, keyed by their normalized parameters.
+     * The result is shared by every caller and must not be modified.
+     */
+    public List<Booking> getBookings(List<Object> queryKey, Supplier<List<Booking>> loader) {
+        return bookingsQueries.get(queryKey, loader);
+    }
+
+    public int getBookingsQueriesWaiting() {
+        return bookingsQueries.getWaiting();
+    }
+
+    public void put(Booking booking) {
+        if (booking != null && booking.getBookingId() != null) {
+            bookingCache.put(booking.getBookingId(), booking);
+        }
+    }
+
+    public void invalidate(Long bookingId) {
+        bookingCache.invalidate(bookingId);
+    }
+
+    /**
+     * Keeps the cache coherent with writes made on other nodes; a reset drops everything. Events can arrive after
+     * this node cached a later version, its own write, so a cached booking is only replaced by a version updated
+     * after it and dropped when the two cannot be ordered. Bookings not cached are left to be read when needed.
+     */
+    @EventListener
+    public void onBookingEvent(BookingEvent bookingEvent) {
+        if (bookingEvent.getType() == BookingEvent.Type.RESET) {
+            bookingCache.invalidateAll();
+            return;
+        }
+        Booking booking = bookingEvent.getBooking();
+        if (booking == null || booking.getBookingId() == null) {
+            return;
+        }
+        bookingCache.asMap().computeIfPresent(booking.getBookingId(), (bookingId, cached) -> {
+            LocalDateTime changedAt = booking.getLastUpdateTimestamp();
+            LocalDateTime cachedAt = cached.getLastUpdateTimestamp();
+            if (changedAt == null || cachedAt == null) {
+                return null;
+            }
+            return changedAt.isAfter(cachedAt) ? booking : cached;
+        });
+    }
+
+    public CacheStats getStats() {
+        return bookingCache.stats();
+    }
+
+    public Cache<Long, Booking> getCache() {
+        return bookingCache;
+    }
+}
@@ -0,0 +1,246 @@
+package com.sach429.booking.service;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.CalendarDay;
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import com.sach429.booking.utils.BookingUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.sach429.booking.service.BookingPersistenceService.BOOKING_ID;
+import static com.sach429.booking.service.BookingPersistenceService.SITE_ID;
+
+/**
+ * Keeps confirmed bookings of a site off each other's days through the {@code calendar} collection when
+ * {@code booking.config.conflict-engine=calendar}. Before a booking is written every day it covers on its site is
+ * claimed with an upsert that only matches a day no other booking holds, all days of a request in one unordered
+ * bulk write, so a day held by another booking fails on its id without the booking being written. Days are keyed
+ * by site, so bookings of different sites never claim the same document. A booking that loses any day gives back
+ * the ones it got. With the index engine nothing is claimed or released.
+ */
+@Service
+@Log4j2
+@RequiredArgsConstructor
+public class BookingCalendarService {
+    public static final String ID = "_id";
+    public static final String DAY = "day";
+    private static final int DUPLICATE_KEY = 11000;
+    private final MongoTemplate mongoTemplate;
+    private final BookingConfigurationProperties bookingConfigurationProperties;
+    private final AtomicLong prunedBeforeEpochDay = new AtomicLong();
+
+    public boolean isEnabled() {
+        return bookingConfigurationProperties.getConflictEngine() == BookingConfigurationProperties.ConflictEngine.CALENDAR;
+    }
+
+    /**
+     * Deletes the days before today. No booking claims or gives back a past day any more, so the calendar only
+     * keeps the days still bookable and does not grow with time. Runs on startup and then with the first claim of
+     * every day; a failure is logged and the days are deleted the next day.
+     */
+    @PostConstruct
+    public void prunePastDays() {
+        long today = LocalDate.now().toEpochDay();
+        long prunedBefore = prunedBeforeEpochDay.get();
+        if (!isEnabled() || prunedBefore >= today || !prunedBeforeEpochDay.compareAndSet(prunedBefore, today)) {
+            return;
+        }
+        try {
+            mongoTemplate.execute(CalendarDay.class, collection -> collection.deleteMany(getPastDaysFilter(today)));
+        } catch (RuntimeException e) {
+            log.warn("Calendar days before {} could not be deleted", LocalDate.ofEpochDay(today), e);
+        }
+    }
+
+    /**
+     * Matches the calendar days before the given one on every site.
+     */
+    public static Document getPastDaysFilter(long epochDay) {
+        return new Document(ID + "." + DAY, new Document("$lt", Math.toIntExact(epochDay)));
+    }
+
+    /**
+     * Claims the days of the site for the booking, days it holds already are claimed again without effect.
+     * Returns false when another booking holds any of them; the booking then holds the days it held before only.
+     * The held days are the ones the booking holds on the same site.
+     */
+    public boolean claimDays(Long bookingId, int siteId, int[] days, int[] heldDays) {
+        if (!isEnabled()) {
+            return true;
+        }
+        prunePastDays();
+        boolean claimed;
+        try {
+            claimed = bulkClaim(Collections.singletonList(new SiteDays(bookingId, siteId, days))).isEmpty();
+        } catch (RuntimeException e) {
+            releaseDays(bookingId, siteId, daysNotIn(days, heldDays));
+            throw e;
+        }
+        if (!claimed) {
+            releaseDays(bookingId, siteId, daysNotIn(days, heldDays));
+        }
+        return claimed;
+    }
+
+    /**
+     * Claims the days of every new booking in one bulk write and returns the bookings that lost a day to another
+     * booking, their other days are released again. Any other failure releases the days of all the bookings
+     * and is thrown.
+     */
+    public Set<Long> claimDays(List<Booking> bookings) {
+        if (!isEnabled()) {
+            return Collections.emptySet();
+        }
+        prunePastDays();
+        List<SiteDays> claims = toSiteDays(bookings);
+        Set<Long> conflicting;
+        try {
+            conflicting = bulkClaim(claims);
+        } catch (RuntimeException e) {
+            bulkRelease(claims);
+            throw e;
+        }
+        if (!conflicting.isEmpty()) {
+            List<SiteDays> compensations = new ArrayList<>(conflicting.size());
+            claims.stream().filter(claim -> conflicting.contains(claim.bookingId)).forEach(compensations::add);
+            bulkRelease(compensations);
+        }
+        return conflicting;
+    }
+
+    private Set<Long> bulkClaim(List<SiteDays> siteDays) {
+        List<UpdateOneModel<Document>> claims = new ArrayList<>();
+        List<Long> claimants = new ArrayList<>();
+        for (SiteDays claim : siteDays) {
+            for (int day : claim.days) {
+                claims.add(new UpdateOneModel<>(new Document(ID, toId(claim.siteId, day)).append(BOOKING_ID, new Document("$in", Arrays.asList(null, claim.bookingId))),
+                        new Document("$set", new Document(BOOKING_ID, claim.bookingId)), new UpdateOptions().upsert(true)));
+                claimants.add(claim.bookingId);
+            }
+        }
+        if (claims.isEmpty()) {
+            return Collections.emptySet();
+        }
+        List<BulkWriteError> writeErrors = mongoTemplate.execute(CalendarDay.class, collection -> {
+            try {
+                collection.bulkWrite(claims, new BulkWriteOptions().ordered(false));
+                return Collections.<BulkWriteError>emptyList();
+            } catch (MongoBulkWriteException e) {
+                if (e.getWriteErrors().isEmpty() || e.getWriteErrors().stream().anyMatch(writeError -> writeError.getCode() != DUPLICATE_KEY)) {
+                    throw e;
+                }
+//                the day exists and another booking holds it, so the upsert tried to insert it again
+                return e.getWriteErrors();
+            }
+        });
+        Set<Long> conflicting = new HashSet<>();
+        for (BulkWriteError writeError : writeErrors) {
+            conflicting.add(claimants.get(writeError.getIndex()));
+        }
+        return conflicting;
+    }
+
+    public void releaseDays(Long bookingId, int siteId, int[] days) {
+        if (isEnabled()) {
+            bulkRelease(Collections.singletonList(new SiteDays(bookingId, siteId, days)));
+        }
+    }
+
+    /**
+     * Gives back the days of the bookings on their sites, the days of bookings read without them are taken from
+     * their dates.
+     */
+    public void releaseDays(List<Booking> bookings) {
+        if (isEnabled()) {
+            bulkRelease(toSiteDays(bookings));
+        }
+    }
+
+    /**
+     * Gives back the days each booking holds among the given ones, days held by another booking are left alone.
+     * A failure is logged rather than thrown, the change it follows is already committed or failed; the days
+     * stay held by the booking until they are released again.
+     */
+    private void bulkRelease(List<SiteDays> siteDays) {
+        List<UpdateManyModel<Document>> releases = new ArrayList<>(siteDays.size());
+        for (SiteDays release : siteDays) {
+            if (release.days != null && release.days.length > 0) {
+                List<Document> ids = new ArrayList<>(release.days.length);
+                for (int day : release.days) {
+                    ids.add(toId(release.siteId, day));
+                }
+                releases.add(new UpdateManyModel<>(new Document(ID, new Document("$in", ids)).append(BOOKING_ID, release.bookingId),
+                        new Document("$set", new Document(BOOKING_ID, null))));
+            }
+        }
+        if (releases.isEmpty()) {
+            return;
+        }
+        try {
+            mongoTemplate.execute(CalendarDay.class, collection -> collection.bulkWrite(releases, new BulkWriteOptions().ordered(false)));
+        } catch (RuntimeException e) {
+            log.error("Calendar days of bookings {} could not be released", siteDays.stream().map(release -> release.bookingId).collect(Collectors.toList()), e);
+        }
+    }
+
+    /**
+     * The id of the calendar document of a day of a site, fields in the order {@link CalendarDay.SiteDay} is
+     * written in.
+     */
+    public static Document toId(int siteId, int day) {
+        return new Document(SITE_ID, siteId).append(DAY, day);
+    }
+
+    /**
+     * The days that are in the first array and not in the second.
+     */
+    public static int[] daysNotIn(int[] days, int[] excludedDays) {
+        if (excludedDays == null || excludedDays.length == 0) {
+            return days;
+        }
+        int[] sortedExcludedDays = excludedDays.clone();
+        Arrays.sort(sortedExcludedDays);
+        return Arrays.stream(days).filter(day -> Arrays.binarySearch(sortedExcludedDays, day) < 0).toArray();
+    }
+
+    private static List<SiteDays> toSiteDays(List<Booking> bookings) {
+        List<SiteDays> siteDays = new ArrayList<>(bookings.size());
+        for (Booking booking : bookings) {
+            siteDays.add(new SiteDays(booking.getBookingId(), BookingUtils.getSiteId(booking), BookingUtils.getDays(booking)));
+        }
+        return siteDays;
+    }
+
+    private static final class SiteDays {
+        private final Long bookingId;
+        private final int siteId;
+        private final int[] days;
+
+        private SiteDays(Long bookingId, int siteId, int[] days) {
+            this.bookingId = bookingId;
+            this.siteId = siteId;
+            this.days = days;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.sach429.booking.service;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.BookingEvent;
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import com.sach429.booking.utils.BookingUtils;
+import lombok.extern.log4j.Log4j2;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tails the change stream of the bookings collection and republishes every create, modify and cancel,
+ * whichever node wrote it, as a {@link BookingEvent} to in-process listeners. The resume token of the last
+ * event handled is saved per node, at most once per {@code booking.config.resume-token-flush-millis}, so a
+ * restarted node replays what it missed; listeners have to tolerate seeing an event twice. Change streams
+ * need a replica set, the listener only runs when {@code booking.config.change-stream-enabled} is set.
+ */
+@Service
+@ConditionalOnProperty(prefix = "booking.config", name = "change-stream-enabled", havingValue = "true")
+@Log4j2
+public class BookingChangeStreamService {
+    public static final String RESUME_TOKEN_COLLECTION = "bookingChangeStreamTokens";
+    public static final String RESUME_TOKEN = "resumeToken";
+    private static final String ID = "_id";
+    private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+    private static final long RETRY_DELAY_MILLIS = 1000L;
+    private static final List<Bson> PIPELINE = Arrays.asList(
+            Aggregates.match(Filters.in("operationType", OperationType.INSERT.getValue(), OperationType.UPDATE.getValue(), OperationType.REPLACE.getValue())),
+            Aggregates.project(Projections.exclude("fullDocument." + BookingPersistenceService.PREVIOUS_VERSION, "updateDescription.updatedFields." + BookingPersistenceService.PREVIOUS_VERSION)));
+
+    private final MongoTemplate mongoTemplate;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private final String streamId;
+    private final long resumeTokenFlushMillis;
+    private final ExecutorService listenerExecutor;
+    private volatile boolean running;
+    private BsonDocument resumeToken;
+    private BsonDocument savedResumeToken;
+    private long lastSaveMillis;
+
+    public BookingChangeStreamService(MongoTemplate mongoTemplate, ApplicationEventPublisher applicationEventPublisher, BookingConfigurationProperties bookingConfigurationProperties) {
+        this.mongoTemplate = mongoTemplate;
+        this.applicationEventPublisher = applicationEventPublisher;
+        this.streamId = "bookings-node-" + bookingConfigurationProperties.getNodeId();
+        this.resumeTokenFlushMillis = bookingConfigurationProperties.getResumeTokenFlushMillis();
+        this.listenerExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "booking-change-stream");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts listening once the application is ready, so every {@code @EventListener} is registered by then.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        resumeToken = loadResumeToken();
+        savedResumeToken = resumeToken;
+        running = true;
+        listenerExecutor.execute(this::listen);
+        log.info("Listening to booking changes {}", resumeToken == null ? "from now on" : "from the saved resume token");
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        listenerExecutor.shutdown();
+        listenerExecutor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private void listen() {
+        boolean resetPending = false;
+        while (running) {
+            try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = openCursor()) {
+                if (resetPending) {
+//                    the new stream is open, so listeners rebuilding now miss nothing written while they reload
+                    publish(BookingEvent.reset());
+                    resetPending = false;
+                }
+                while (running) {
+                    ChangeStreamDocument<Document> change = cursor.tryNext();
+                    if (change != null) {
+                        UpdateDescription updateDescription = change.getUpdateDescription();
+                        publish(toEvent(change.getOperationType(), change.getFullDocument(), updateDescription == null ? null : updateDescription.getUpdatedFields()));
+                    }
+                    if (cursor.getResumeToken() != null) {
+                        resumeToken = cursor.getResumeToken();
+                    }
+                    saveResumeToken(false);
+                }
+            } catch (MongoException e) {
+                if (e.getCode() == CHANGE_STREAM_HISTORY_LOST) {
+//                    the saved position fell off the oplog, listeners cannot catch up event by event
+                    log.warn("Booking change stream cannot be resumed, restarting from now on", e);
+                    resumeToken = null;
+                    resetPending = true;
+                } else if (running && !pause(e)) {
+                    break;
+                }
+            } catch (RuntimeException e) {
+                if (running && !pause(e)) {
+                    break;
+                }
+            }
+        }
+        saveResumeToken(true);
+    }
+
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> openCursor() {
+        ChangeStreamIterable<Document> changeStream = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Booking.class))
+                .watch(PIPELINE)
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .maxAwaitTime(1, TimeUnit.SECONDS);
+        if (resumeToken != null) {
+            changeStream = changeStream.resumeAfter(resumeToken);
+        }
+        return changeStream.cursor();
+    }
+
+    private boolean pause(RuntimeException e) {
+        log.warn("Booking change stream failed, resuming in {} ms", RETRY_DELAY_MILLIS, e);
+        try {
+            Thread.sleep(RETRY_DELAY_MILLIS);
+            return true;
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void publish(BookingEvent bookingEvent) {
+        if (bookingEvent == null) {
+            return;
+        }
+        try {
+            applicationEventPublisher.publishEvent(bookingEvent);
+        } catch (RuntimeException e) {
+            log.error("Booking event listener failed on {}", bookingEvent, e);
+        }
+    }
+
+    /**
+     * Maps a change to the event listeners see, or null for changes they do not care about, like an update that
+     * only touches the timestamp or a booking deleted before its full document could be looked up.
+     */
+    BookingEvent toEvent(OperationType operationType, Document fullDocument, BsonDocument updatedFields) {
+        Booking booking = fullDocument == null ? null : mongoTemplate.getConverter().read(Booking.class, fullDocument);
+        if (booking == null || booking.getBookingId() == null) {
+            return null;
+        }
+        switch (operationType) {
+            case INSERT:
+                return new BookingEvent(BookingEvent.Type.CREATED, booking.getBookingId(), booking, BookingUtils.getDays(booking));
+            case UPDATE:
+                if (updatedFields == null) {
+                    return null;
+                }
+                if (isCancelled(updatedFields.get(BookingPersistenceService.BOOKING_STATUS))) {
+                    return new BookingEvent(BookingEvent.Type.CANCELLED, booking.getBookingId(), booking, BookingUtils.getDays(booking));
+                }
+                boolean siteMoved = updatedFields.isNumber(BookingPersistenceService.SITE_ID);
+                boolean daysChanged = updatedFields.isArray(BookingPersistenceService.DAYS);
+                if (!siteMoved && !daysChanged) {
+                    return null;
+                }
+//                the looked up document may already carry a later change, the site and days updated are the ones to use
+                if (siteMoved) {
+                    booking.setSiteId(updatedFields.getNumber(BookingPersistenceService.SITE_ID).intValue());
+                }
+                return new BookingEvent(BookingEvent.Type.MODIFIED, booking.getBookingId(), booking,
+                        daysChanged ? toDays(updatedFields.getArray(BookingPersistenceService.DAYS)) : BookingUtils.getDays(booking));
+            case REPLACE:
+                return new BookingEvent(booking.getBookingStatus() == Booking.BookingStatus.CANCELLED ? BookingEvent.Type.CANCELLED : BookingEvent.Type.MODIFIED,
+                        booking.getBookingId(), booking, BookingUtils.getDays(booking));
+            default:
+                return null;
+        }
+    }
+
+    BsonDocument loadResumeToken() {
+        BsonDocument saved = getResumeTokenCollection().withDocumentClass(BsonDocument.class).find(new Document(ID, streamId)).first();
+        return saved == null || !saved.isDocument(RESUME_TOKEN) ? null : saved.getDocument(RESUME_TOKEN);
+    }
+
+    void saveResumeToken(boolean force) {
+        long now = System.currentTimeMillis();
+        if (resumeToken == null || resumeToken.equals(savedResumeToken) || (!force && now - lastSaveMillis < resumeTokenFlushMillis)) {
+            return;
+        }
+        try {
+            getResumeTokenCollection().replaceOne(new Document(ID, streamId),
+                    new Document(ID, streamId).append(RESUME_TOKEN, resumeToken).append(BookingPersistenceService.LAST_UPDATE_TIMESTAMP, new Date(now)),
+                    new ReplaceOptions().upsert(true));
+            savedResumeToken = resumeToken;
+            lastSaveMillis = now;
+        } catch (RuntimeException e) {
+            log.warn("Booking change stream resume token could not be saved", e);
+        }
+    }
+
+    void setResumeToken(BsonDocument resumeToken) {
+        this.resumeToken = resumeToken;
+    }
+
+    private MongoCollection<Document> getResumeTokenCollection() {
+        return mongoTemplate.getCollection(RESUME_TOKEN_COLLECTION);
+    }
+
+    private static boolean isCancelled(BsonValue bookingStatus) {
+        return bookingStatus != null && bookingStatus.isString() && Booking.BookingStatus.CANCELLED.name().equals(bookingStatus.asString().getValue());
+    }
+
+    private static int[] toDays(BsonArray bsonArray) {
+        int[] days = new int[bsonArray.size()];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = bsonArray.get(i).asNumber().intValue();
+        }
+        return days;
+    }
+}
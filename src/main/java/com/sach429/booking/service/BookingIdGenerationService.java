@@ -1,6 +1,8 @@
 package com.sach429.booking.service;
 
-import lombok.RequiredArgsConstructor;
+import com.sach429.booking.metrics.BookingMetrics;
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import lombok.extern.log4j.Log4j2;
 import org.bson.Document;
 import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
@@ -8,15 +10,120 @@ import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Component;
 
-@RequiredArgsConstructor
+import javax.annotation.PreDestroy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out booking ids from blocks reserved with a single {@code $inc} on the booking sequence.
+ * The next block is fetched in the background once the current one is running low. Switching blocks takes a
+ * {@link ReentrantLock} rather than a monitor, so a virtual thread waiting for a block is not pinned to its carrier.
+ */
 @Component
+@Log4j2
 public class BookingIdGenerationService {
-    private final MongoTemplate mongoTemplate;
     public static final String BOOKING_ID = "bookingId";
+    public static final String BOOKING_SEQUENCE = "bookingSequence";
+    private final MongoTemplate mongoTemplate;
+    private final BookingMetrics bookingMetrics;
+    private final int blockSize;
+    private final int prefetchThreshold;
+    private final ExecutorService prefetchExecutor;
+    private final AtomicReference<IdBlock> currentBlock = new AtomicReference<>(new IdBlock(1L, 0L));
+    private final ReentrantLock blockLock = new ReentrantLock();
+    private CompletableFuture<IdBlock> nextBlock;
+
+    public BookingIdGenerationService(MongoTemplate mongoTemplate, BookingConfigurationProperties bookingConfigurationProperties, BookingMetrics bookingMetrics) {
+        this.mongoTemplate = mongoTemplate;
+        this.bookingMetrics = bookingMetrics;
+        this.blockSize = bookingConfigurationProperties.getBookingIdBlockSize();
+        this.prefetchThreshold = blockSize / 4;
+        this.prefetchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "booking-id-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 
     public Long generateBookingId() {
+        while (true) {
+            IdBlock block = currentBlock.get();
+            long id = block.next.getAndIncrement();
+            if (id <= block.last) {
+                if (block.last - id == prefetchThreshold) {
+                    prefetchNextBlock();
+                }
+                return id;
+            }
+            blockLock.lock();
+            try {
+                if (currentBlock.get() == block) {
+                    currentBlock.set(takeNextBlock());
+                }
+            } finally {
+                blockLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Reserves {@code count} consecutive ids for a batch with one {@code $inc} of its own, leaving the block
+     * single ids are handed out from untouched. Returns the first id of the range.
+     */
+    public long generateBookingIds(int count) {
+        return allocateBlock(count).next.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    private void prefetchNextBlock() {
+        blockLock.lock();
+        try {
+            if (nextBlock == null) {
+                nextBlock = CompletableFuture.supplyAsync(() -> allocateBlock(blockSize), prefetchExecutor);
+            }
+        } finally {
+            blockLock.unlock();
+        }
+    }
+
+    private IdBlock takeNextBlock() {
+        CompletableFuture<IdBlock> prefetched = nextBlock;
+        nextBlock = null;
+        if (prefetched != null) {
+            try {
+                return prefetched.join();
+            } catch (CompletionException e) {
+                log.warn("Booking id block prefetch failed, allocating synchronously", e.getCause());
+            }
+        }
+        return allocateBlock(blockSize);
+    }
+
+    private IdBlock allocateBlock(int size) {
         Update update = new Update();
-        update.inc(BOOKING_ID);
-        return mongoTemplate.findAndModify(new Query(), update, FindAndModifyOptions.options().returnNew(true).upsert(true), Document.class, "bookingSequence").get(BOOKING_ID, Long.class);
+        update.inc(BOOKING_ID, (long) size);
+        long last = bookingMetrics.record(BookingMetrics.CREATE, BookingMetrics.ID_BLOCK_ALLOCATION,
+                () -> mongoTemplate.findAndModify(new Query(), update, FindAndModifyOptions.options().returnNew(true).upsert(true), Document.class, BOOKING_SEQUENCE))
+                .get(BOOKING_ID, Number.class).longValue();
+        return new IdBlock(last - size + 1, last);
+    }
+
+    private static final class IdBlock {
+        private final AtomicLong next;
+        private final long last;
+
+        private IdBlock(long first, long last) {
+            this.next = new AtomicLong(first);
+            this.last = last;
+        }
     }
 }
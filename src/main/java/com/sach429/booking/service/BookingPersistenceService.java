@@ -1,30 +1,56 @@
 package com.sach429.booking.service;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.sach429.booking.exception.BookingErrorCode;
 import com.sach429.booking.exception.BookingNotFoundException;
 import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.BookingBatchResult;
+import com.sach429.booking.model.BookingHistory;
 import com.sach429.booking.repository.BookingRepository;
+import com.sach429.booking.types.BookingCancel;
 import com.sach429.booking.types.BookingCreate;
 import com.sach429.booking.types.BookingModify;
 import com.sach429.booking.utils.BookingUtils;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
 import org.apache.commons.lang3.StringUtils;
+import org.bson.BsonArray;
+import org.bson.BsonInt32;
+import org.bson.BsonValue;
 import org.bson.Document;
-import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.StreamUtils;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 @Service
+@Log4j2
 @RequiredArgsConstructor
 public class    BookingPersistenceService {
     public static final String YYYY_MM_DD = "yyyy-MM-dd";
@@ -34,99 +60,442 @@ public class    BookingPersistenceService {
     public static final String BOOKING_STATUS = "bookingStatus";
     public static final String BOOKING_ID = "bookingId";
     public static final String EMAIL = "email";
+    public static final String SITE_ID = "siteId";
     public static final String CANCELLATION_REASON = "cancellationReason";
     public static final String LAST_UPDATE_TIMESTAMP = "lastUpdateTimestamp";
+    public static final String PREVIOUS_VERSION = "previousVersion";
+    public static final String CHANGED_AT = "changedAt";
+    private static final int DUPLICATE_KEY = 11000;
     private final BookingRepository bookingRepository;
     private final MongoTemplate mongoTemplate;
     private final BookingIdGenerationService bookingIdGenerationService;
+    private final BookingAvailabilityService bookingAvailabilityService;
+    private final BookingCacheService bookingCacheService;
+    private final BookingAccountService bookingAccountService;
+    private final BookingCalendarService bookingCalendarService;
 
     public Booking getBooking(Long id) throws BookingNotFoundException {
-        return Optional.ofNullable(bookingRepository.getBookingByBookingId(id)).orElseThrow(() -> new BookingNotFoundException("BookingId: " + id + " cannot be found"));
+        return Optional.ofNullable(findBooking(id)).orElseThrow(() -> new BookingNotFoundException("BookingId: " + id + " cannot be found"));
     }
 
-    public List<Booking> getBookings(com.sach429.booking.model.Booking booking) {
-        Criteria criteria = new Criteria();
-        if (StringUtils.isNoneBlank(booking.getEmail())) {
-            criteria.andOperator(Criteria.where(EMAIL).is(booking.getEmail()));
+    public Booking findBooking(Long id) {
+        return bookingCacheService.get(id, bookingRepository::getBookingByBookingId);
+    }
+
+    /**
+     * Pages of bookings are loaded once for all identical queries in flight, the page returned is shared.
+     */
+    public List<Booking> getBookings(Booking booking, Long afterBookingId, int limit) {
+        List<Object> queryKey = Arrays.asList(booking.getEmail(), booking.getSiteId(), booking.getFromDate(), booking.getToDate(), booking.getBookingStatus(), afterBookingId, limit);
+        return bookingCacheService.getBookings(queryKey,
+                () -> Collections.unmodifiableList(mongoTemplate.find(getBookingsPageQuery(booking, afterBookingId, limit), Booking.class)));
+    }
+
+    public Stream<Booking> streamBookings(Booking booking) {
+        return StreamUtils.createStreamFromIterator(mongoTemplate.stream(getBookingsQuery(booking).with(Sort.by(BOOKING_ID)), Booking.class));
+    }
+
+    Query getBookingsPageQuery(Booking booking, Long afterBookingId, int limit) {
+        Query query = getBookingsQuery(booking);
+        if (afterBookingId != null) {
+            query.addCriteria(Criteria.where(BOOKING_ID).gt(afterBookingId));
         }
-        if (booking.getBookingStatus() != null) {
-            criteria.andOperator(Criteria.where(BOOKING_STATUS).is(booking.getBookingStatus()));
+        return query.with(Sort.by(BOOKING_ID)).limit(limit);
+    }
+
+    Query getBookingsQuery(Booking booking) {
+        Query query = new Query();
+        if (StringUtils.isNotBlank(booking.getEmail())) {
+            query.addCriteria(Criteria.where(EMAIL).is(booking.getEmail()));
         }
-        if (booking.getBookingStatus() != null) {
-            criteria.andOperator(Criteria.where(FROM_DATE).gte(booking.getToDate()));
+        if (booking.getSiteId() != null) {
+            query.addCriteria(Criteria.where(SITE_ID).is(booking.getSiteId()));
         }
         if (booking.getBookingStatus() != null) {
-            criteria.andOperator(Criteria.where(TO_DATE).lte(booking.getFromDate()));
+            query.addCriteria(Criteria.where(BOOKING_STATUS).is(booking.getBookingStatus()));
         }
-        Query query = new Query();
-        query.addCriteria(criteria);
-        return mongoTemplate.find(query, Booking.class);
+        if (booking.getFromDate() != null) {
+            query.addCriteria(Criteria.where(FROM_DATE).gte(booking.getFromDate()));
+        }
+        if (booking.getToDate() != null) {
+            query.addCriteria(Criteria.where(TO_DATE).lte(booking.getToDate()));
+        }
+        query.fields().exclude(PREVIOUS_VERSION).exclude(DAYS);
+        return query;
     }
 
+    /**
+     * With the calendar engine the days are claimed first, a day held by another booking is reported like the
+     * unique index reports it, and the days are released again when the booking cannot be written.
+     */
     public Booking createBooking(BookingCreate bookingCreate) {
-        Long bookingId = bookingIdGenerationService.generateBookingId();
+        Booking booking = newBooking(bookingCreate);
+        if (!bookingCalendarService.claimDays(booking.getBookingId(), booking.getSiteId(), booking.getDays(), null)) {
+            throw new DuplicateKeyException("Days of booking " + booking.getBookingId() + " are held by another booking");
+        }
+        try {
+            bookingRepository.save(booking);
+        } catch (RuntimeException e) {
+            bookingCalendarService.releaseDays(booking.getBookingId(), booking.getSiteId(), booking.getDays());
+            throw e;
+        }
+        bookingCreated(booking);
+        return booking;
+    }
+
+    /**
+     * With the calendar engine the new days are claimed before the update and the days the booking no longer
+     * covers are released after it; the claimed days it does not hold are released again when nothing was
+     * modified. A booking that cannot be modified claims nothing, the update does not match it anyway.
+     * The update then always sets the site the days were claimed on, the one requested or else the current one.
+     */
+    public Booking updateBooking(BookingModify bookingModify, Long bookingId) {
+        Document changes = getUpdateChanges(bookingModify);
+        int siteId = Booking.DEFAULT_SITE_ID;
+        int[] claimedDays = null;
+        if (bookingCalendarService.isEnabled()) {
+            Booking booking = bookingRepository.getBookingByBookingId(bookingId);
+            siteId = bookingModify.getSiteId() != null ? bookingModify.getSiteId() : booking == null ? Booking.DEFAULT_SITE_ID : BookingUtils.getSiteId(booking);
+            changes.append(SITE_ID, siteId);
+            if (isModifiable(booking)) {
+                claimedDays = claimNewDays(bookingId, siteId, bookingModify, booking);
+            }
+        }
+        Booking newBooking;
+        try {
+            newBooking = modifyConfirmedBookingWithHistory(bookingId, changes);
+        } catch (RuntimeException e) {
+            releaseUnheldDays(bookingId, siteId, claimedDays);
+            throw e;
+        }
+        if (newBooking == null) {
+            releaseUnheldDays(bookingId, siteId, claimedDays);
+        } else if (newBooking.getPreviousVersion() != null && newBooking.getPreviousVersion().getDays() != null) {
+            Booking previousVersion = newBooking.getPreviousVersion();
+            int previousSiteId = BookingUtils.getSiteId(previousVersion);
+            bookingCalendarService.releaseDays(bookingId, previousSiteId, previousSiteId == BookingUtils.getSiteId(newBooking)
+                    ? BookingCalendarService.daysNotIn(previousVersion.getDays(), newBooking.getDays()) : previousVersion.getDays());
+        }
+        bookingUpdated(bookingId, newBooking);
+        saveBookingHistory(Collections.singletonList(newBooking));
+        return newBooking;
+    }
+
+    /**
+     * Claims the requested days of the site and returns them. The current site and dates of the booking are read
+     * from the collection rather than the cache, a day it no longer holds is claimed again anyway. The repository
+     * reads bookings without their days, the days held are taken from the dates.
+     */
+    private int[] claimNewDays(Long bookingId, int siteId, BookingModify bookingModify, Booking booking) {
+        int[] days = BookingUtils.getEpochDaysBetween(BookingUtils.convertStringToLocalDate(bookingModify.getFromDate()), BookingUtils.convertStringToLocalDate(bookingModify.getToDate()));
+        int[] heldDays = BookingUtils.getSiteId(booking) != siteId ? null : BookingUtils.getDays(booking);
+        if (!bookingCalendarService.claimDays(bookingId, siteId, days, heldDays)) {
+            throw new DuplicateKeyException("Days of booking " + bookingId + " are held by another booking");
+        }
+        return days;
+    }
+
+    /**
+     * Gives back the claimed days the booking does not hold after a failed update. The booking is read again, it
+     * may have been cancelled or modified in the meantime; one that is not confirmed holds no days at all. Days a
+     * failure leaves held are released by the sweep on the next startup once the booking is cancelled.
+     */
+    private void releaseUnheldDays(Long bookingId, int siteId, int[] claimedDays) {
+        if (claimedDays == null) {
+            return;
+        }
+        Booking booking;
+        try {
+            booking = bookingRepository.getBookingByBookingId(bookingId);
+        } catch (RuntimeException e) {
+            log.error("Calendar days of booking {} could not be released", bookingId, e);
+            return;
+        }
+        boolean holdsDays = booking != null && booking.getBookingStatus() == Booking.BookingStatus.CONFIRMED && BookingUtils.getSiteId(booking) == siteId;
+        bookingCalendarService.releaseDays(bookingId, siteId, holdsDays ? BookingCalendarService.daysNotIn(claimedDays, BookingUtils.getDays(booking)) : claimedDays);
+    }
+
+    /**
+     * Whether the conditional update of {@link #getModifyFilter(Long)} can match the booking.
+     */
+    private static boolean isModifiable(Booking booking) {
+        return booking != null && booking.getBookingStatus() == Booking.BookingStatus.CONFIRMED
+                && booking.getFromDate() != null && LocalDate.now().isBefore(booking.getFromDate());
+    }
+
+    public Booking cancelBooking(BookingModify bookingModify, Long bookingId) {
+        Booking newBooking = modifyConfirmedBookingWithHistory(bookingId, getCancelChanges(bookingModify));
+        if (newBooking != null) {
+            bookingCalendarService.releaseDays(bookingId, BookingUtils.getSiteId(newBooking), newBooking.getDays());
+        }
+        bookingCancelled(bookingId, newBooking);
+        saveBookingHistory(Collections.singletonList(newBooking));
+        return newBooking;
+    }
+
+    public List<BookingHistory> getBookingHistory(Long bookingId) {
+        return mongoTemplate.find(getBookingHistoryQuery(bookingId), BookingHistory.class);
+    }
+
+    Query getBookingHistoryQuery(Long bookingId) {
+        return Query.query(Criteria.where(BOOKING_ID).is(bookingId)).with(Sort.by(CHANGED_AT));
+    }
+
+    /**
+     * The history entry for the change that produced the given booking, null when there was no change.
+     */
+    BookingHistory newBookingHistory(Booking newBooking) {
+        if (newBooking == null || newBooking.getPreviousVersion() == null) {
+            return null;
+        }
+        return new BookingHistory(newBooking.getBookingId(), newBooking.getLastUpdateTimestamp(), newBooking.getPreviousVersion());
+    }
+
+    /**
+     * Appends the replaced versions to the booking history in one insert. The changes are committed by then,
+     * so a failure here is logged rather than failing the request; the replaced version stays on the booking
+     * until its next change and the history sweep on startup saves it from there. The history has a gap only
+     * when the booking changes again before the sweep runs.
+     */
+    private void saveBookingHistory(List<Booking> newBookings) {
+        List<BookingHistory> bookingHistory = newBookings.stream().map(this::newBookingHistory).filter(Objects::nonNull).collect(Collectors.toList());
+        if (bookingHistory.isEmpty()) {
+            return;
+        }
+        try {
+            mongoTemplate.insert(bookingHistory, BookingHistory.class);
+        } catch (RuntimeException e) {
+            log.warn("Booking history of {} changes could not be saved, left to the sweep on startup", bookingHistory.size(), e);
+        }
+    }
+
+    /**
+     * Inserts the bookings with ids taken from a single sequence increment in one unordered bulk write, so a
+     * booking losing its dates to the unique index does not hold back the others. With the calendar engine the
+     * days of all the bookings are claimed in one bulk write first and only the bookings that got all their days
+     * are inserted. Returns a result for every entry of the map, keyed by the same index.
+     */
+    public List<BookingBatchResult> createBookings(Map<Integer, BookingCreate> bookingCreates) {
+        long firstBookingId = bookingIdGenerationService.generateBookingIds(bookingCreates.size());
+        List<Integer> indexes = new ArrayList<>(bookingCreates.keySet());
+        List<Booking> bookings = new ArrayList<>(indexes.size());
+        for (Integer index : indexes) {
+            bookings.add(newBooking(firstBookingId + bookings.size(), bookingCreates.get(index)));
+        }
+        Set<Long> unclaimed = bookingCalendarService.claimDays(bookings);
+        List<Integer> inserted = new ArrayList<>(indexes.size());
+        List<InsertOneModel<Document>> inserts = new ArrayList<>(indexes.size());
+        for (int i = 0; i < bookings.size(); i++) {
+            if (!unclaimed.contains(bookings.get(i).getBookingId())) {
+                Document document = new Document();
+                mongoTemplate.getConverter().write(bookings.get(i), document);
+                inserted.add(i);
+                inserts.add(new InsertOneModel<>(document));
+            }
+        }
+        Map<Integer, BulkWriteError> writeErrors;
+        try {
+            writeErrors = inserts.isEmpty() ? Collections.emptyMap() : bulkWrite(inserts);
+        } catch (RuntimeException e) {
+            bookingCalendarService.releaseDays(inserted.stream().map(bookings::get).collect(Collectors.toList()));
+            throw e;
+        }
+        BookingBatchResult[] results = new BookingBatchResult[indexes.size()];
+        for (int i = 0; i < indexes.size(); i++) {
+            if (unclaimed.contains(bookings.get(i).getBookingId())) {
+                results[i] = BookingBatchResult.failure(indexes.get(i), BookingErrorCode.DATES_NOT_AVAILABLE, null);
+            }
+        }
+        List<Booking> notInserted = new ArrayList<>();
+        for (int position = 0; position < inserted.size(); position++) {
+            int i = inserted.get(position);
+            BulkWriteError writeError = writeErrors.get(position);
+            if (writeError == null) {
+                bookingCreated(bookings.get(i));
+                results[i] = BookingBatchResult.success(indexes.get(i), bookings.get(i));
+                continue;
+            }
+            notInserted.add(bookings.get(i));
+            if (writeError.getCode() == DUPLICATE_KEY) {
+                results[i] = BookingBatchResult.failure(indexes.get(i), BookingErrorCode.DATES_NOT_AVAILABLE, null);
+            } else {
+                results[i] = BookingBatchResult.failure(indexes.get(i), BookingErrorCode.CREATION_FAILED, writeError.getMessage());
+            }
+        }
+        bookingCalendarService.releaseDays(notInserted);
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Cancels the bookings with one unordered bulk write of the same conditional pipeline update a single cancel
+     * uses, then reads them back in one query. The whole batch is stamped with one update timestamp, which tells
+     * the bookings this batch cancelled apart from those another request got to first.
+     */
+    public List<BookingBatchResult> cancelBookings(Map<Integer, BookingCancel> bookingCancels) {
+        LocalDateTime cancelTimestamp = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        List<Integer> indexes = new ArrayList<>(bookingCancels.keySet());
+        List<UpdateOneModel<Document>> updates = new ArrayList<>(indexes.size());
+        for (Integer index : indexes) {
+            BookingCancel bookingCancel = bookingCancels.get(index);
+            updates.add(new UpdateOneModel<>(getModifyFilter(bookingCancel.getBookingId()), getModifyPipeline(getCancelChanges(bookingCancel.getReason(), cancelTimestamp))));
+        }
+        Map<Integer, BulkWriteError> writeErrors = bulkWrite(updates);
+        Map<Long, Booking> cancelled = findBookings(bookingCancels.values().stream().map(BookingCancel::getBookingId).collect(Collectors.toList()));
+        List<BookingBatchResult> results = new ArrayList<>(indexes.size());
+        List<Booking> cancelledByBatch = new ArrayList<>(indexes.size());
+        for (int i = 0; i < indexes.size(); i++) {
+            Long bookingId = bookingCancels.get(indexes.get(i)).getBookingId();
+            Booking booking = cancelled.get(bookingId);
+            BulkWriteError writeError = writeErrors.get(i);
+            if (writeError != null) {
+                results.add(BookingBatchResult.failure(indexes.get(i), BookingErrorCode.MODIFY_FAILED, writeError.getMessage()));
+            } else if (booking != null && booking.getBookingStatus() == Booking.BookingStatus.CANCELLED && cancelTimestamp.equals(booking.getLastUpdateTimestamp())) {
+                bookingCancelled(bookingId, booking);
+                cancelledByBatch.add(booking);
+                results.add(BookingBatchResult.success(indexes.get(i), booking));
+            } else if (booking != null && booking.getBookingStatus() == Booking.BookingStatus.CANCELLED) {
+                results.add(BookingBatchResult.failure(indexes.get(i), BookingErrorCode.BOOKING_NOT_CONFIRMED, null));
+            } else {
+                results.add(BookingBatchResult.failure(indexes.get(i), BookingErrorCode.MODIFIED_CONCURRENTLY, "BookingId: " + bookingId + " was modified concurrently, please retry"));
+            }
+        }
+        bookingCalendarService.releaseDays(cancelledByBatch);
+        saveBookingHistory(cancelledByBatch);
+        return results;
+    }
+
+    /**
+     * Loads the bookings with the given ids in one query, bypassing the cache, keyed by booking id. The version
+     * each booking replaced last is included for the history of batch changes.
+     */
+    public Map<Long, Booking> findBookings(Collection<Long> bookingIds) {
+        Query query = new Query(Criteria.where(BOOKING_ID).in(bookingIds));
+        query.fields().exclude(DAYS);
+        return mongoTemplate.find(query, Booking.class).stream()
+                .collect(Collectors.toMap(Booking::getBookingId, Function.identity(), (first, second) -> first));
+    }
+
+    /**
+     * Runs the writes unordered and returns the write errors by position; only a failure that is not tied to
+     * individual writes, such as a write concern error, is thrown.
+     */
+    private Map<Integer, BulkWriteError> bulkWrite(List<? extends WriteModel<Document>> writes) {
+        return mongoTemplate.execute(Booking.class, collection -> {
+            try {
+                collection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+                return Collections.<Integer, BulkWriteError>emptyMap();
+            } catch (MongoBulkWriteException e) {
+                if (e.getWriteErrors().isEmpty()) {
+                    throw e;
+                }
+                return e.getWriteErrors().stream().collect(Collectors.toMap(BulkWriteError::getIndex, Function.identity()));
+            }
+        });
+    }
+
+    Booking newBooking(BookingCreate bookingCreate) {
+        return newBooking(bookingIdGenerationService.generateBookingId(), bookingCreate);
+    }
+
+    private Booking newBooking(Long bookingId, BookingCreate bookingCreate) {
         LocalDate fromDate = BookingUtils.convertStringToLocalDate(bookingCreate.getFromDate());
         LocalDate toDate = BookingUtils.convertStringToLocalDate(bookingCreate.getToDate());
-        List<String> days = getListOfDaysBetweenFromAndToDate(fromDate, toDate);
+        int[] days = BookingUtils.getEpochDaysBetween(fromDate, toDate);
         Booking booking = new Booking(bookingId, bookingCreate.getFirstName(), bookingCreate.getLastName(), bookingCreate.getEmail(), fromDate, toDate, Booking.BookingStatus.CONFIRMED);
+        booking.setSiteId(bookingCreate.getSiteId() == null ? Booking.DEFAULT_SITE_ID : bookingCreate.getSiteId());
         booking.setDays(days);
         booking.setLastUpdateTimestamp(LocalDateTime.now());
-        bookingRepository.save(booking);
         return booking;
     }
 
-    private List<String> getListOfDaysBetweenFromAndToDate(LocalDate fromDate, LocalDate toDate) {
-        return IntStream.range(0, fromDate.until(toDate).getDays() + 1)
-                .boxed()
-                .map(fromDate::plusDays)
-                .map(date -> date.format(DateTimeFormatter.ofPattern(YYYY_MM_DD)))
-                .collect(Collectors.toList());
-    }
-
-    public Booking updateBooking(BookingModify bookingModify, Long bookingId) {
+    Document getUpdateChanges(BookingModify bookingModify) {
         LocalDate fromDate = BookingUtils.convertStringToLocalDate(bookingModify.getFromDate());
         LocalDate toDate = BookingUtils.convertStringToLocalDate(bookingModify.getToDate());
-        Update update = new Update()
-                .set(FROM_DATE, fromDate)
-                .set(TO_DATE, toDate)
-                .set(DAYS, getListOfDaysBetweenFromAndToDate(fromDate, toDate))
-                .set(LAST_UPDATE_TIMESTAMP, LocalDateTime.now());
-        Booking oldBooking = mongoTemplate.findAndModify(Query
-                        .query(Criteria
-                                .where(BOOKING_ID).
-                                        is(bookingId).andOperator(Criteria.where(BOOKING_STATUS).is(Booking.BookingStatus.CONFIRMED))),
-                update, FindAndModifyOptions.options().returnNew(false), Booking.class);
-        Optional.ofNullable(oldBooking).ifPresent(b -> b.setChangeHistory(null));
-        update = new Update().push("changeHistory", oldBooking);
-        return mongoTemplate.findAndModify(Query
-                        .query(Criteria
-                                .where(BOOKING_ID).
-                                        is(bookingId).andOperator(Criteria.where(BOOKING_STATUS).is(Booking.BookingStatus.CONFIRMED))),
-                update, FindAndModifyOptions.options().returnNew(true), Booking.class);
+        Document changes = new Document(FROM_DATE, fromDate)
+                .append(TO_DATE, toDate)
+                .append(DAYS, toBsonArray(BookingUtils.getEpochDaysBetween(fromDate, toDate)))
+                .append(LAST_UPDATE_TIMESTAMP, LocalDateTime.now());
+        if (bookingModify.getSiteId() != null) {
+            changes.append(SITE_ID, bookingModify.getSiteId());
+        }
+        return changes;
     }
 
-    public Booking cancelBooking(BookingModify bookingModify, Long bookingId) {
-        Update update = new Update()
-                .set(BOOKING_STATUS, Booking.BookingStatus.CANCELLED)
-                .set(CANCELLATION_REASON, bookingModify.getReason())
-                .set(LAST_UPDATE_TIMESTAMP, LocalDateTime.now());
-        Booking oldBooking = mongoTemplate.findAndModify(Query
-                        .query(Criteria
-                                .where(BOOKING_ID).
-                                        is(bookingId).andOperator(Criteria.where(BOOKING_STATUS).is(Booking.BookingStatus.CONFIRMED))),
-                update, FindAndModifyOptions.options().returnNew(false), Booking.class);
-        Optional.ofNullable(oldBooking).ifPresent(b -> b.setChangeHistory(null));
-        update = new Update().push("changeHistory", oldBooking);
-        return mongoTemplate.findAndModify(Query
-                        .query(Criteria
-                                .where(BOOKING_ID).
-                                        is(bookingId).andOperator(Criteria.where(BOOKING_STATUS).is(Booking.BookingStatus.CANCELLED))),
-                update, FindAndModifyOptions.options().returnNew(true), Booking.class);
-    }
-
-    public String getTransactionId() {
-        Update update = new Update();
-        update.inc(BOOKING_ID);
-        return "T" + mongoTemplate.findAndModify(new Query(), update, FindAndModifyOptions.options().returnNew(true).upsert(true), Document.class, "transactionSequence").get(BOOKING_ID, Long.class);
+    Document getCancelChanges(BookingModify bookingModify) {
+        return getCancelChanges(bookingModify.getReason(), LocalDateTime.now());
+    }
+
+    private Document getCancelChanges(String reason, LocalDateTime timestamp) {
+        return new Document(BOOKING_STATUS, Booking.BookingStatus.CANCELLED)
+                .append(CANCELLATION_REASON, reason)
+                .append(LAST_UPDATE_TIMESTAMP, timestamp);
+    }
+
+    void bookingCreated(Booking booking) {
+        bookingAvailabilityService.bookingConfirmed(booking);
+        bookingAccountService.bookingConfirmed(booking);
+        bookingCacheService.put(booking);
+    }
+
+    void bookingUpdated(Long bookingId, Booking newBooking) {
+        bookingAvailabilityService.bookingModified(getPreviousVersion(newBooking), newBooking);
+        bookingAccountService.bookingConfirmed(newBooking);
+        refreshCachedBooking(bookingId, newBooking);
+    }
+
+    void bookingCancelled(Long bookingId, Booking newBooking) {
+        bookingAvailabilityService.bookingCancelled(newBooking);
+        bookingAccountService.bookingCancelled(newBooking);
+        refreshCachedBooking(bookingId, newBooking);
+    }
+
+    /**
+     * Copies the current state of a confirmed booking into its previous version and applies the changes in a
+     * single pipeline update, so the version a change replaced is known exactly whoever made the change.
+     * The booking has to be confirmed and not yet started, otherwise nothing is modified and null is returned.
+     */
+    private Booking modifyConfirmedBookingWithHistory(Long bookingId, Document changes) {
+        Document updated = mongoTemplate.execute(Booking.class, collection -> collection
+                .findOneAndUpdate(getModifyFilter(bookingId), getModifyPipeline(changes), new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER)));
+        return readBooking(updated);
+    }
+
+    Document getModifyFilter(Long bookingId) {
+        return new Document(BOOKING_ID, bookingId)
+                .append(BOOKING_STATUS, Booking.BookingStatus.CONFIRMED.name())
+                .append(FROM_DATE, new Document("$gt", mongoTemplate.getConverter().convertToMongoType(LocalDate.now())));
+    }
+
+    List<Document> getModifyPipeline(Document changes) {
+        Document currentState = new Document("$arrayToObject", new Document("$filter", new Document("input", new Document("$objectToArray", "$$ROOT"))
+                .append("cond", new Document("$not", Collections.singletonList(new Document("$in", Arrays.asList("$$this.k", Arrays.asList("_id", "_class", PREVIOUS_VERSION))))))));
+        Document recordPreviousVersion = new Document(PREVIOUS_VERSION, currentState);
+        Document applyChanges = new Document();
+        changes.forEach((field, value) -> applyChanges.append(field, new Document("$literal", value instanceof BsonValue ? value : mongoTemplate.getConverter().convertToMongoType(value))));
+        return Arrays.asList(new Document("$set", recordPreviousVersion), new Document("$set", applyChanges));
+    }
+
+    Booking readBooking(Document document) {
+        return Optional.ofNullable(document).map(updated -> mongoTemplate.getConverter().read(Booking.class, updated)).orElse(null);
+    }
+
+    private static BsonArray toBsonArray(int[] days) {
+        BsonArray bsonArray = new BsonArray();
+        for (int day : days) {
+            bsonArray.add(new BsonInt32(day));
+        }
+        return bsonArray;
+    }
+
+    private void refreshCachedBooking(Long bookingId, Booking booking) {
+        if (booking != null) {
+            bookingCacheService.put(booking);
+        } else {
+            bookingCacheService.invalidate(bookingId);
+        }
+    }
+
+    private Booking getPreviousVersion(Booking booking) {
+        return booking == null ? null : booking.getPreviousVersion();
     }
 }
@@ -1,10 +1,23 @@
 package com.sach429.booking.service;
 
+import com.sach429.booking.availability.DateClaim;
+import com.sach429.booking.availability.StayReservation;
 import com.sach429.booking.exception.BookingCreationException;
 import com.sach429.booking.exception.BookingDateNotAvailableException;
+import com.sach429.booking.exception.BookingDatesInvalidException;
+import com.sach429.booking.exception.BookingErrorCode;
 import com.sach429.booking.exception.BookingModifyException;
 import com.sach429.booking.exception.BookingNotFoundException;
+import com.sach429.booking.exception.BookingSiteNotFoundException;
+import com.sach429.booking.metrics.BookingMetrics;
+import com.sach429.booking.model.Availability;
 import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.BookingBatchResult;
+import com.sach429.booking.model.BookingHistory;
+import com.sach429.booking.model.SiteAvailability;
+import com.sach429.booking.model.ValidationResult;
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import com.sach429.booking.types.BookingCancel;
 import com.sach429.booking.types.BookingCreate;
 import com.sach429.booking.types.BookingModify;
 import com.sach429.booking.utils.BookingUtils;
@@ -14,65 +27,295 @@ import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.sach429.booking.metrics.BookingMetrics.*;
 
 @Service
 @RequiredArgsConstructor
 public class BookingService {
     private final BookingPersistenceService bookingPersistenceService;
     private final BookingValidationService bookingValidationService;
+    private final BookingAvailabilityService bookingAvailabilityService;
+    private final TransactionIdGenerationService transactionIdGenerationService;
+    private final BookingConfigurationProperties bookingConfigurationProperties;
+    private final BookingMetrics bookingMetrics;
 
     public Booking getBooking(Long bookingId) throws BookingNotFoundException {
-        return Optional.ofNullable(bookingPersistenceService.getBooking(bookingId))
+        return Optional.ofNullable(bookingMetrics.record(GET, PERSISTENCE, () -> bookingPersistenceService.getBooking(bookingId)))
                 .orElseThrow(() -> new BookingNotFoundException("No matching booking Id: " + bookingId));
     }
 
-    public List<Booking> getBookings(String email, String fromDate, String toDate, Booking.BookingStatus status) {
-        LocalDate localFromDate = null;
-        try {
-            localFromDate = Optional.ofNullable(fromDate).map(BookingUtils::convertStringToLocalDate).orElse(null);
-        } catch (Exception e) {
-            return Collections.emptyList();
+    /**
+     * The versions of a booking its changes replaced, oldest first.
+     */
+    public List<BookingHistory> getBookingHistory(Long bookingId) throws BookingNotFoundException {
+        List<BookingHistory> bookingHistory = bookingMetrics.record(HISTORY, PERSISTENCE, () -> bookingPersistenceService.getBookingHistory(bookingId));
+        if (bookingHistory.isEmpty() && bookingPersistenceService.findBooking(bookingId) == null) {
+            throw new BookingNotFoundException("No matching booking Id: " + bookingId);
         }
-        LocalDate localToDate = null;
-        try {
-            localToDate = Optional.ofNullable(toDate).map(BookingUtils::convertStringToLocalDate).orElse(null);
-        } catch (Exception e) {
+        return bookingHistory;
+    }
+
+    public List<Booking> getBookings(String email, Integer siteId, String fromDate, String toDate, Booking.BookingStatus status, Long afterBookingId, Integer limit) {
+        Booking booking = getBookingsCriteria(email, siteId, fromDate, toDate, status);
+        if (booking == null) {
             return Collections.emptyList();
         }
-        return Optional.ofNullable(bookingPersistenceService.getBookings(new Booking(null, null, null, email, localFromDate, localToDate, status)))
+        int pageSize = getPageSize(limit);
+        return Optional.ofNullable(bookingMetrics.record(SEARCH, PERSISTENCE, () -> bookingPersistenceService.getBookings(booking, afterBookingId, pageSize)))
                 .orElseGet(ArrayList::new);
     }
 
+    public Stream<Booking> streamBookings(String email, Integer siteId, String fromDate, String toDate, Booking.BookingStatus status) {
+        Booking booking = getBookingsCriteria(email, siteId, fromDate, toDate, status);
+        if (booking == null) {
+            return Stream.empty();
+        }
+        return bookingPersistenceService.streamBookings(booking);
+    }
+
+    int getPageSize(Integer limit) {
+        int maxPageSize = bookingConfigurationProperties.getMaxBookingsPageSize();
+        return limit == null || limit <= 0 ? maxPageSize : Math.min(limit, maxPageSize);
+    }
+
+    Booking getBookingsCriteria(String email, Integer siteId, String fromDate, String toDate, Booking.BookingStatus status) {
+        LocalDate localFromDate = BookingUtils.parseLocalDate(fromDate);
+        if (fromDate != null && localFromDate == null) {
+            return null;
+        }
+        LocalDate localToDate = BookingUtils.parseLocalDate(toDate);
+        if (toDate != null && localToDate == null) {
+            return null;
+        }
+        Booking booking = new Booking(null, null, null, email, localFromDate, localToDate, status);
+        booking.setSiteId(siteId);
+        return booking;
+    }
+
+    public Availability getAvailability(Integer siteId, String fromDate, String toDate) throws BookingDatesInvalidException, BookingSiteNotFoundException {
+        ValidationResult validationResult = bookingValidationService.validateSite(siteId);
+        if (!validationResult.isValid()) {
+            throw new BookingSiteNotFoundException(validationResult.getMessage());
+        }
+        LocalDate localFromDate = fromDate == null ? LocalDate.now() : BookingUtils.parseLocalDate(fromDate);
+        if (localFromDate == null) {
+            throw new BookingDatesInvalidException("FromDate format is not valid");
+        }
+        LocalDate localToDate = toDate == null ? localFromDate.plusMonths(1) : BookingUtils.parseLocalDate(toDate);
+        if (localToDate == null) {
+            throw new BookingDatesInvalidException("ToDate format is not valid");
+        }
+        if (localFromDate.isAfter(localToDate)) {
+            throw new BookingDatesInvalidException("Availability Dates not in range");
+        }
+        return bookingAvailabilityService.getAvailability(siteId == null ? Booking.DEFAULT_SITE_ID : siteId, localFromDate, localToDate);
+    }
+
+    /**
+     * The sites free for the whole stay, found in the site calendar without a query.
+     */
+    public SiteAvailability getFreeSites(String fromDate, String toDate) throws BookingDatesInvalidException {
+        LocalDate localFromDate = BookingUtils.parseLocalDate(fromDate);
+        if (localFromDate == null) {
+            throw new BookingDatesInvalidException("FromDate format is not valid");
+        }
+        LocalDate localToDate = BookingUtils.parseLocalDate(toDate);
+        if (localToDate == null) {
+            throw new BookingDatesInvalidException("ToDate format is not valid");
+        }
+        if (localFromDate.isAfter(localToDate)) {
+            throw new BookingDatesInvalidException("Availability Dates not in range");
+        }
+        return bookingAvailabilityService.getFreeSites(localFromDate, localToDate);
+    }
+
     public Booking createBooking(BookingCreate bookingCreate) throws BookingCreationException {
+        ValidationResult validationResult;
+        StayReservation stayReservation;
         try {
-            bookingValidationService.validateBookingRequestIsValid(bookingCreate);
-            return bookingPersistenceService.createBooking(bookingCreate);
-        } catch (DuplicateKeyException e) {
-            throw new BookingCreationException(new BookingDateNotAvailableException("Booking dates not available"));
+            validationResult = bookingMetrics.record(CREATE, VALIDATION, () -> bookingValidationService.validateBookingRequest(bookingCreate));
+            stayReservation = validationResult.isValid() ? bookingValidationService.reserveAccountInterval(bookingCreate) : StayReservation.NONE;
         } catch (Exception e) {
             throw new BookingCreationException(e);
         }
+        try (StayReservation ignoredReservation = stayReservation) {
+            if (validationResult.isValid()) {
+                validationResult = bookingValidationService.validateAccountInterval(stayReservation);
+            }
+            if (!validationResult.isValid()) {
+                throw new BookingCreationException(validationResult.getErrorCode(), validationResult.getMessage());
+            }
+            DateClaim dateClaim = bookingAvailabilityService.claimDates(BookingUtils.getSiteId(bookingCreate), BookingUtils.parseLocalDate(bookingCreate.getFromDate()), BookingUtils.parseLocalDate(bookingCreate.getToDate()));
+            if (dateClaim == null) {
+//                another request on this node is persisting a booking for these dates, do not race it to the unique index
+                bookingMetrics.contention(CREATE);
+                throw new BookingCreationException(new BookingDateNotAvailableException(BookingErrorCode.DATES_NOT_AVAILABLE.getDescription()));
+            }
+            try (DateClaim ignored = dateClaim) {
+                return bookingMetrics.record(CREATE, PERSISTENCE, () -> bookingPersistenceService.createBooking(bookingCreate));
+            } catch (DuplicateKeyException e) {
+                bookingMetrics.contention(CREATE);
+                throw new BookingCreationException(BookingErrorCode.DATES_NOT_AVAILABLE, BookingErrorCode.DATES_NOT_AVAILABLE.getDescription());
+            } catch (Exception e) {
+                throw new BookingCreationException(e);
+            }
+        }
     }
 
     public Booking modifyBooking(BookingModify bookingModify, Long bookingId) throws BookingModifyException {
+        Booking booking;
+        String operation = bookingModify.getAction() == BookingModify.ActionType.CANCEL ? CANCEL : MODIFY;
+        ValidationResult validationResult;
+        StayReservation stayReservation;
+        try {
+            validationResult = bookingMetrics.record(operation, VALIDATION, () -> bookingValidationService.validateBookingRequest(bookingModify, bookingId));
+            stayReservation = validationResult.isValid() ? bookingValidationService.reserveAccountInterval(bookingModify, bookingId) : StayReservation.NONE;
+        } catch (Exception e) {
+            throw new BookingModifyException(e);
+        }
+        try (StayReservation ignoredReservation = stayReservation) {
+            if (validationResult.isValid()) {
+                validationResult = bookingValidationService.validateAccountInterval(stayReservation);
+            }
+            if (!validationResult.isValid()) {
+                throw new BookingModifyException(validationResult.getErrorCode(), validationResult.getMessage());
+            }
+            try {
+                if (bookingModify.getAction() == BookingModify.ActionType.MODIFY)
+                    booking = bookingMetrics.record(operation, PERSISTENCE, () -> bookingPersistenceService.updateBooking(bookingModify, bookingId));
+                else if (bookingModify.getAction() == BookingModify.ActionType.CANCEL)
+                    booking = bookingMetrics.record(operation, PERSISTENCE, () -> bookingPersistenceService.cancelBooking(bookingModify, bookingId));
+                else return null;
+            } catch (DuplicateKeyException e) {
+                bookingMetrics.contention(operation);
+                throw new BookingModifyException(BookingErrorCode.DATES_NOT_AVAILABLE, BookingErrorCode.DATES_NOT_AVAILABLE.getDescription());
+            } catch (Exception e) {
+                throw new BookingModifyException(e);
+            }
+        }
+        if (booking == null) {
+            throw getModifyFailure(bookingId);
+        }
+        return booking;
+    }
+
+    /**
+     * Validates and claims the dates of every booking in one pass, so bookings overlapping each other within the
+     * batch are rejected before anything is written, then persists the rest in one bulk write. Returns a result
+     * per booking in request order; only a failure of the whole batch is thrown.
+     */
+    public List<BookingBatchResult> createBookings(List<BookingCreate> bookingCreates) throws BookingCreationException {
+        if (bookingCreates.size() > bookingConfigurationProperties.getMaxBatchSize()) {
+            throw new BookingCreationException(BookingErrorCode.BATCH_TOO_LARGE, "Batch request cannot have more than " + bookingConfigurationProperties.getMaxBatchSize() + " bookings");
+        }
+        BookingBatchResult[] results = new BookingBatchResult[bookingCreates.size()];
+        Map<Integer, BookingCreate> accepted = new LinkedHashMap<>();
+        List<DateClaim> dateClaims = new ArrayList<>();
+        List<StayReservation> stayReservations = new ArrayList<>();
+        try {
+            bookingMetrics.run(BATCH_CREATE, VALIDATION, () -> {
+                for (int i = 0; i < bookingCreates.size(); i++) {
+                    BookingCreate bookingCreate = bookingCreates.get(i);
+                    ValidationResult validationResult = bookingValidationService.validateBookingRequest(bookingCreate);
+                    if (validationResult.isValid()) {
+//                        the bookings accepted earlier in the batch are reserved as well, so they are checked against each other
+                        StayReservation stayReservation = bookingValidationService.reserveAccountInterval(bookingCreate);
+                        stayReservations.add(stayReservation);
+                        validationResult = bookingValidationService.validateAccountInterval(stayReservation);
+                    }
+                    if (!validationResult.isValid()) {
+                        results[i] = BookingBatchResult.failure(i, validationResult);
+                        continue;
+                    }
+                    DateClaim dateClaim = bookingAvailabilityService.claimDates(BookingUtils.getSiteId(bookingCreate), BookingUtils.parseLocalDate(bookingCreate.getFromDate()), BookingUtils.parseLocalDate(bookingCreate.getToDate()));
+                    if (dateClaim == null) {
+                        bookingMetrics.contention(BATCH_CREATE);
+                        results[i] = BookingBatchResult.failure(i, BookingErrorCode.DATES_NOT_AVAILABLE, null);
+                        continue;
+                    }
+                    dateClaims.add(dateClaim);
+                    accepted.put(i, bookingCreate);
+                }
+            });
+            if (!accepted.isEmpty()) {
+                for (BookingBatchResult result : bookingMetrics.record(BATCH_CREATE, PERSISTENCE, () -> bookingPersistenceService.createBookings(accepted))) {
+                    if (result.isFailedWith(BookingErrorCode.DATES_NOT_AVAILABLE)) {
+                        bookingMetrics.contention(BATCH_CREATE);
+                    }
+                    results[result.getIndex()] = result;
+                }
+            }
+        } catch (Exception e) {
+            throw new BookingCreationException(e);
+        } finally {
+            dateClaims.forEach(DateClaim::close);
+            stayReservations.forEach(StayReservation::close);
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Loads every booking of the batch in one query to validate the cancellations, then cancels the valid ones
+     * in one bulk write. Returns a result per cancellation in request order; only a failure of the whole batch is thrown.
+     */
+    public List<BookingBatchResult> cancelBookings(List<BookingCancel> bookingCancels) throws BookingModifyException {
+        if (bookingCancels.size() > bookingConfigurationProperties.getMaxBatchSize()) {
+            throw new BookingModifyException(BookingErrorCode.BATCH_TOO_LARGE, "Batch request cannot have more than " + bookingConfigurationProperties.getMaxBatchSize() + " bookings");
+        }
+        BookingBatchResult[] results = new BookingBatchResult[bookingCancels.size()];
+        Map<Integer, BookingCancel> accepted = new LinkedHashMap<>();
         try {
-            bookingValidationService.validateBookingRequestIsValid(bookingModify, bookingId);
-            if (bookingModify.getAction() == BookingModify.ActionType.MODIFY)
-                return bookingPersistenceService.updateBooking(bookingModify, bookingId);
-            else if (bookingModify.getAction() == BookingModify.ActionType.CANCEL)
-                return bookingPersistenceService.cancelBooking(bookingModify, bookingId);
-            else return null;
-        } catch (DuplicateKeyException e) {
-            throw new BookingModifyException(new BookingDateNotAvailableException("Booking dates not available"));
+            bookingMetrics.run(BATCH_CANCEL, VALIDATION, () -> {
+                Map<Long, Booking> bookings = bookingPersistenceService.findBookings(bookingCancels.stream().map(BookingCancel::getBookingId).collect(Collectors.toSet()));
+                Set<Long> bookingIds = new HashSet<>();
+                for (int i = 0; i < bookingCancels.size(); i++) {
+                    BookingCancel bookingCancel = bookingCancels.get(i);
+                    ValidationResult validationResult = bookingValidationService.validateBookingRequest(bookingCancel);
+                    if (validationResult.isValid() && !bookingIds.add(bookingCancel.getBookingId())) {
+                        validationResult = ValidationResult.invalid(BookingErrorCode.REQUEST_INVALID, "BookingId: " + bookingCancel.getBookingId() + " appears more than once in the batch");
+                    }
+                    if (validationResult.isValid()) {
+                        validationResult = bookingValidationService.validateBookingIsConfirmedAndNotInProgress(bookings.get(bookingCancel.getBookingId()), bookingCancel.getBookingId());
+                    }
+                    if (validationResult.isValid()) {
+                        accepted.put(i, bookingCancel);
+                    } else {
+                        results[i] = BookingBatchResult.failure(i, validationResult);
+                    }
+                }
+            });
+            if (!accepted.isEmpty()) {
+                for (BookingBatchResult result : bookingMetrics.record(BATCH_CANCEL, PERSISTENCE, () -> bookingPersistenceService.cancelBookings(accepted))) {
+                    results[result.getIndex()] = result;
+                }
+            }
         } catch (Exception e) {
             throw new BookingModifyException(e);
         }
+        return Arrays.asList(results);
+    }
+
+    private BookingModifyException getModifyFailure(Long bookingId) {
+//        the conditional update did not match, find out whether the booking is missing, cancelled or in progress
+        ValidationResult validationResult = bookingValidationService.validateBookingIsConfirmedAndNotInProgress(bookingId);
+        if (!validationResult.isValid()) {
+            return new BookingModifyException(validationResult.getErrorCode(), validationResult.getMessage());
+        }
+        return new BookingModifyException(BookingErrorCode.MODIFIED_CONCURRENTLY, "BookingId: " + bookingId + " was modified concurrently, please retry");
     }
 
     public String getTransactionId() {
-        return bookingPersistenceService.getTransactionId();
+        return transactionIdGenerationService.generateTransactionId();
     }
 }
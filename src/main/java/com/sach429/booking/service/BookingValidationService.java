@@ -1,8 +1,11 @@
 package com.sach429.booking.service;
 
-import com.sach429.booking.exception.*;
+import com.sach429.booking.availability.StayReservation;
+import com.sach429.booking.exception.BookingErrorCode;
 import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.ValidationResult;
 import com.sach429.booking.properties.BookingConfigurationProperties;
+import com.sach429.booking.types.BookingCancel;
 import com.sach429.booking.types.BookingCreate;
 import com.sach429.booking.types.BookingModify;
 import com.sach429.booking.utils.BookingUtils;
@@ -11,76 +14,142 @@ import org.apache.commons.lang3.StringUtils;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
-import java.util.Optional;
 
 @Service
 @RequiredArgsConstructor
 public class BookingValidationService {
     private final BookingPersistenceService bookingPersistenceService;
     private final BookingConfigurationProperties bookingConfigurationProperties;
+    private final BookingAccountService bookingAccountService;
 
-    public void validateBookingExists(Long bookingId) throws BookingNotFoundException {
-        Optional.ofNullable(bookingPersistenceService.getBooking(bookingId))
-                .orElseThrow(() -> new BookingNotFoundException("BookingId: " + bookingId + " is not found"));
+    public ValidationResult validateBookingExists(Long bookingId) {
+        if (bookingPersistenceService.findBooking(bookingId) == null) {
+            return ValidationResult.invalid(BookingErrorCode.BOOKING_NOT_FOUND, "BookingId: " + bookingId + " is not found");
+        }
+        return ValidationResult.valid();
     }
 
-    public void validateBookingIsConfirmedAndNotInProgress(Long bookingId) throws BookingAlreadyCancelledException, BookingNotFoundException, BookingAlreadyInProgressException {
-        Booking booking = bookingPersistenceService.getBooking(bookingId);
-        Optional.ofNullable(booking)
-                .map(Booking::getBookingStatus)
-                .filter(Booking.BookingStatus.CONFIRMED::equals)
-                .orElseThrow(() -> new BookingAlreadyCancelledException("Only confirmed booking can be modified"));
-        Optional.of(booking)
-                .map(Booking::getFromDate)
-                .filter(LocalDate.now()::isBefore)
-                .orElseThrow(() -> new BookingAlreadyInProgressException("Booking is already in progress and cannot be modified"));
+    public ValidationResult validateBookingIsConfirmedAndNotInProgress(Long bookingId) {
+        return validateBookingIsConfirmedAndNotInProgress(bookingPersistenceService.findBooking(bookingId), bookingId);
     }
 
-    public void validateBookingRequestIsValid(BookingCreate bookingCreate) throws BookingValidationException {
-        try {
-            validateBookingDatesAreValid(bookingCreate.getFromDate(), bookingCreate.getToDate());
-        } catch (Exception e) {
-            throw new BookingValidationException(e);
+    public ValidationResult validateBookingIsConfirmedAndNotInProgress(Booking booking, Long bookingId) {
+        if (booking == null) {
+            return ValidationResult.invalid(BookingErrorCode.BOOKING_NOT_FOUND, "BookingId: " + bookingId + " cannot be found");
+        }
+        if (booking.getBookingStatus() != Booking.BookingStatus.CONFIRMED) {
+            return ValidationResult.invalid(BookingErrorCode.BOOKING_NOT_CONFIRMED);
+        }
+        if (booking.getFromDate() == null || !LocalDate.now().isBefore(booking.getFromDate())) {
+            return ValidationResult.invalid(BookingErrorCode.BOOKING_IN_PROGRESS);
         }
+        return ValidationResult.valid();
     }
 
-    private void validateBookingDatesAreValid(String fromDate, String toDate) throws BookingDatesInvalidException {
-        LocalDate toLocalDate, fromLocalDate;
-//        check if fromDate and toDate are in required format of yyyy-MM-dd
-        try {
-            fromLocalDate = Optional.ofNullable(fromDate).map(BookingUtils::convertStringToLocalDate).orElseThrow(RuntimeException::new);
-        } catch (Exception e) {
-            throw new BookingDatesInvalidException("FromDate format is not valid");
-        }
-        try {
-            toLocalDate = Optional.ofNullable(toDate).map(BookingUtils::convertStringToLocalDate).orElseThrow(RuntimeException::new);
-        } catch (Exception e) {
-            throw new BookingDatesInvalidException("ToDate format is not valid");
+    public ValidationResult validateBookingRequest(BookingCreate bookingCreate) {
+        ValidationResult validationResult = validateSite(bookingCreate.getSiteId());
+        if (!validationResult.isValid()) {
+            return validationResult;
         }
-//        check if fromDate is before toDate and number of days between is less than max duration
-//        check if fromDate is between minDaysInAdvance and maxDaysInAdvance
-        Optional.ofNullable(fromLocalDate)
-                .filter(date -> date.isBefore(toLocalDate) || date.isEqual(toLocalDate))
-                .filter(date -> date.until(toLocalDate).getDays() <= bookingConfigurationProperties.getMaxDuration() - 1)
-                .filter(date -> date.isAfter(LocalDate.now().plusDays(bookingConfigurationProperties.getMinDaysInAdvance())) || date.isEqual(LocalDate.now().plusDays(bookingConfigurationProperties.getMinDaysInAdvance())))
-                .filter(date -> date.isBefore(LocalDate.now().plusDays(bookingConfigurationProperties.getMaxDaysInAdvance())) || date.isEqual(LocalDate.now().plusDays(bookingConfigurationProperties.getMaxDaysInAdvance())))
-                .orElseThrow(() -> new BookingDatesInvalidException("Booking Dates not in range"));
+        return validateBookingDates(bookingCreate.getFromDate(), bookingCreate.getToDate());
     }
 
-    public void validateBookingRequestIsValid(BookingModify bookingModify, Long bookingId) throws BookingValidationException {
-        try {
-            if (bookingModify.getAction() == BookingModify.ActionType.CANCEL) {
-                if (StringUtils.isBlank(bookingModify.getReason()))
-                    throw new BookingValidationException("Cancellation reason is required for cancel request");
+    public ValidationResult validateBookingRequest(BookingModify bookingModify, Long bookingId) {
+        if (bookingModify.getAction() == BookingModify.ActionType.CANCEL && StringUtils.isBlank(bookingModify.getReason())) {
+            return ValidationResult.invalid(BookingErrorCode.CANCELLATION_REASON_REQUIRED);
+        }
+        if (bookingModify.getAction() == BookingModify.ActionType.MODIFY) {
+            if (StringUtils.isBlank(bookingModify.getFromDate()) || StringUtils.isBlank(bookingModify.getToDate())) {
+                return ValidationResult.invalid(BookingErrorCode.MODIFY_DATES_REQUIRED);
             }
-            if (bookingModify.getAction() == BookingModify.ActionType.MODIFY) {
-                if (StringUtils.isBlank(bookingModify.getFromDate()) || StringUtils.isBlank(bookingModify.getToDate()))
-                    throw new BookingValidationException("FromDate and ToDate are required for modify request");
-                validateBookingDatesAreValid(bookingModify.getFromDate(), bookingModify.getToDate());
+            ValidationResult validationResult = validateSite(bookingModify.getSiteId());
+            if (!validationResult.isValid()) {
+                return validationResult;
             }
-            validateBookingIsConfirmedAndNotInProgress(bookingId);
-        } catch (Exception e) {
-            throw new BookingValidationException(e);
+            return validateBookingDates(bookingModify.getFromDate(), bookingModify.getToDate());
+        }
+        return ValidationResult.valid();
+    }
+
+    /**
+     * Checks that the site is one of the {@code booking.config.sites} sites, no site means the default one.
+     */
+    public ValidationResult validateSite(Integer siteId) {
+        if (siteId != null && (siteId < 0 || siteId >= bookingConfigurationProperties.getSites())) {
+            return ValidationResult.invalid(BookingErrorCode.SITE_NOT_FOUND, "SiteId: " + siteId + " does not exist");
+        }
+        return ValidationResult.valid();
+    }
+
+    /**
+     * Checks that the stay of a valid request is at least {@code booking.config.min-interval-per-account} days
+     * away from the other stays of the account, including those of its requests in flight, and holds it until
+     * the returned reservation is closed, in one step. Nothing is held when the interval is not checked.
+     */
+    public StayReservation reserveAccountInterval(BookingCreate bookingCreate) {
+        if (!bookingAccountService.isEnabled() || StringUtils.isBlank(bookingCreate.getEmail())) {
+            return StayReservation.NONE;
+        }
+        return bookingAccountService.reserveStay(bookingCreate.getEmail(), null,
+                BookingUtils.parseLocalDate(bookingCreate.getFromDate()).toEpochDay(), BookingUtils.parseLocalDate(bookingCreate.getToDate()).toEpochDay());
+    }
+
+    /**
+     * Same for the new dates of a valid modify request, a modified booking is not compared with itself. The
+     * request does not name the account, so the booking is looked up for its email before the update; a booking
+     * that is not cached costs a read on top of the conditional update.
+     */
+    public StayReservation reserveAccountInterval(BookingModify bookingModify, Long bookingId) {
+        if (bookingModify.getAction() != BookingModify.ActionType.MODIFY || !bookingAccountService.isEnabled()) {
+            return StayReservation.NONE;
+        }
+        Booking booking = bookingPersistenceService.findBooking(bookingId);
+        if (booking == null || StringUtils.isBlank(booking.getEmail())) {
+            return StayReservation.NONE;
+        }
+        return bookingAccountService.reserveStay(booking.getEmail(), bookingId,
+                BookingUtils.parseLocalDate(bookingModify.getFromDate()).toEpochDay(), BookingUtils.parseLocalDate(bookingModify.getToDate()).toEpochDay());
+    }
+
+    public ValidationResult validateAccountInterval(StayReservation stayReservation) {
+        if (stayReservation.isReserved()) {
+            return ValidationResult.valid();
+        }
+        int minIntervalDays = bookingAccountService.getMinIntervalDays();
+        if (stayReservation.getConflict() < 0) {
+            return ValidationResult.invalid(BookingErrorCode.ACCOUNT_INTERVAL_NOT_MET,
+                    "Booking has to be at least " + minIntervalDays + " days apart from another booking of the same account in progress");
+        }
+        return ValidationResult.invalid(BookingErrorCode.ACCOUNT_INTERVAL_NOT_MET,
+                "Booking has to be at least " + minIntervalDays + " days apart from bookingId: " + stayReservation.getConflict() + " of the same account");
+    }
+
+    public ValidationResult validateBookingRequest(BookingCancel bookingCancel) {
+        if (StringUtils.isBlank(bookingCancel.getReason())) {
+            return ValidationResult.invalid(BookingErrorCode.CANCELLATION_REASON_REQUIRED);
+        }
+        return ValidationResult.valid();
+    }
+
+    private ValidationResult validateBookingDates(String fromDate, String toDate) {
+//        check if fromDate and toDate are in required format of yyyy-MM-dd
+        LocalDate fromLocalDate = BookingUtils.parseLocalDate(fromDate);
+        if (fromLocalDate == null) {
+            return ValidationResult.invalid(BookingErrorCode.FROM_DATE_FORMAT_INVALID);
+        }
+        LocalDate toLocalDate = BookingUtils.parseLocalDate(toDate);
+        if (toLocalDate == null) {
+            return ValidationResult.invalid(BookingErrorCode.TO_DATE_FORMAT_INVALID);
+        }
+//        check if fromDate is before toDate and number of days between is less than max duration
+//        check if fromDate is between minDaysInAdvance and maxDaysInAdvance
+        LocalDate today = LocalDate.now();
+        if (fromLocalDate.isAfter(toLocalDate)
+                || toLocalDate.toEpochDay() - fromLocalDate.toEpochDay() > bookingConfigurationProperties.getMaxDuration() - 1
+                || fromLocalDate.isBefore(today.plusDays(bookingConfigurationProperties.getMinDaysInAdvance()))
+                || fromLocalDate.isAfter(today.plusDays(bookingConfigurationProperties.getMaxDaysInAdvance()))) {
+            return ValidationResult.invalid(BookingErrorCode.DATES_NOT_IN_RANGE);
         }
+        return ValidationResult.valid();
     }
 }
@@ -0,0 +1,259 @@
+package com.sach429.booking.service;
+
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.sach429.booking.availability.AccountStays;
+import com.sach429.booking.availability.DateClaim;
+import com.sach429.booking.availability.StayReservation;
+import com.sach429.booking.exception.BookingCreationException;
+import com.sach429.booking.exception.BookingDateNotAvailableException;
+import com.sach429.booking.exception.BookingErrorCode;
+import com.sach429.booking.exception.BookingException;
+import com.sach429.booking.exception.BookingModifyException;
+import com.sach429.booking.exception.BookingNotFoundException;
+import com.sach429.booking.metrics.BookingMetrics;
+import com.sach429.booking.model.Availability;
+import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.BookingHistory;
+import com.sach429.booking.model.SiteAvailability;
+import com.sach429.booking.model.ValidationResult;
+import com.sach429.booking.repository.ReactiveBookingRepository;
+import com.sach429.booking.types.BookingCreate;
+import com.sach429.booking.types.BookingModify;
+import com.sach429.booking.utils.BookingUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import static com.sach429.booking.metrics.BookingMetrics.CANCEL;
+import static com.sach429.booking.metrics.BookingMetrics.CREATE;
+import static com.sach429.booking.metrics.BookingMetrics.MODIFY;
+import static com.sach429.booking.metrics.BookingMetrics.PERSISTENCE;
+import static com.sach429.booking.metrics.BookingMetrics.VALIDATION;
+
+/**
+ * Non blocking counterpart of {@link BookingService} for the {@code reactive} profile. Validation, date claims,
+ * availability and id blocks are in memory and shared with the servlet stack; every read and write of a
+ * booking goes through the reactive driver, so no request holds a thread while Mongo works on it. The stages
+ * are timed in the same metrics as on the servlet stack.
+ */
+@Service
+@Profile("reactive")
+@Log4j2
+@RequiredArgsConstructor
+public class ReactiveBookingService {
+    private final ReactiveBookingRepository reactiveBookingRepository;
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+    private final BookingService bookingService;
+    private final BookingPersistenceService bookingPersistenceService;
+    private final BookingValidationService bookingValidationService;
+    private final BookingAvailabilityService bookingAvailabilityService;
+    private final BookingCacheService bookingCacheService;
+    private final BookingAccountService bookingAccountService;
+    private final BookingMetrics bookingMetrics;
+
+    public Mono<Booking> getBooking(Long bookingId) {
+        return findBooking(bookingId)
+                .switchIfEmpty(Mono.defer(() -> Mono.error(new BookingNotFoundException("No matching booking Id: " + bookingId))));
+    }
+
+    public Flux<Booking> getBookings(String email, Integer siteId, String fromDate, String toDate, Booking.BookingStatus status, Long afterBookingId, Integer limit) {
+        Booking booking = bookingService.getBookingsCriteria(email, siteId, fromDate, toDate, status);
+        if (booking == null) {
+            return Flux.empty();
+        }
+        return reactiveMongoTemplate.find(bookingPersistenceService.getBookingsPageQuery(booking, afterBookingId, bookingService.getPageSize(limit)), Booking.class);
+    }
+
+    public Flux<Booking> streamBookings(String email, Integer siteId, String fromDate, String toDate, Booking.BookingStatus status) {
+        Booking booking = bookingService.getBookingsCriteria(email, siteId, fromDate, toDate, status);
+        if (booking == null) {
+            return Flux.empty();
+        }
+        return reactiveMongoTemplate.find(bookingPersistenceService.getBookingsQuery(booking).with(Sort.by(BookingPersistenceService.BOOKING_ID)), Booking.class);
+    }
+
+    public Mono<List<BookingHistory>> getBookingHistory(Long bookingId) {
+        return reactiveMongoTemplate.find(bookingPersistenceService.getBookingHistoryQuery(bookingId), BookingHistory.class)
+                .collectList()
+                .flatMap(bookingHistory -> bookingHistory.isEmpty() ? getBooking(bookingId).thenReturn(bookingHistory) : Mono.just(bookingHistory));
+    }
+
+    public Mono<Availability> getAvailability(Integer siteId, String fromDate, String toDate) {
+        return Mono.fromCallable(() -> bookingService.getAvailability(siteId, fromDate, toDate));
+    }
+
+    public Mono<SiteAvailability> getFreeSites(String fromDate, String toDate) {
+        return Mono.fromCallable(() -> bookingService.getFreeSites(fromDate, toDate));
+    }
+
+    public Mono<Booking> createBooking(BookingCreate bookingCreate) {
+        Mono<ValidationResult> validation = loadAccountStays(bookingCreate.getEmail())
+                .then(Mono.fromCallable(() -> bookingValidationService.validateBookingRequest(bookingCreate)));
+        return bookingMetrics.record(CREATE, VALIDATION, validation).flatMap(validationResult -> {
+            if (!validationResult.isValid()) {
+                return Mono.<Booking>error(new BookingCreationException(validationResult.getErrorCode(), validationResult.getMessage()));
+            }
+            return Mono.using(() -> bookingValidationService.reserveAccountInterval(bookingCreate),
+                    stayReservation -> persistBooking(bookingCreate, stayReservation),
+                    StayReservation::close);
+        }).onErrorMap(e -> toBookingException(CREATE, e, BookingCreationException.class, BookingCreationException::new, BookingCreationException::new));
+    }
+
+    public Mono<Booking> modifyBooking(BookingModify bookingModify, Long bookingId) {
+        String operation = bookingModify.getAction() == BookingModify.ActionType.CANCEL ? CANCEL : MODIFY;
+        return bookingMetrics.record(operation, VALIDATION, validateBookingRequest(bookingModify, bookingId))
+                .flatMap(validationResult -> validationResult.isValid() ? persistModification(operation, bookingModify, bookingId)
+                        : Mono.<Booking>error(new BookingModifyException(validationResult.getErrorCode(), validationResult.getMessage())))
+                .onErrorMap(e -> toBookingException(operation, e, BookingModifyException.class, BookingModifyException::new, BookingModifyException::new));
+    }
+
+    private Mono<Booking> persistBooking(BookingCreate bookingCreate, StayReservation stayReservation) {
+        ValidationResult validationResult = bookingValidationService.validateAccountInterval(stayReservation);
+        if (!validationResult.isValid()) {
+            return Mono.error(new BookingCreationException(validationResult.getErrorCode(), validationResult.getMessage()));
+        }
+        DateClaim dateClaim = bookingAvailabilityService.claimDates(BookingUtils.getSiteId(bookingCreate), BookingUtils.parseLocalDate(bookingCreate.getFromDate()), BookingUtils.parseLocalDate(bookingCreate.getToDate()));
+        if (dateClaim == null) {
+            return Mono.error(new BookingDateNotAvailableException(BookingErrorCode.DATES_NOT_AVAILABLE.getDescription()));
+        }
+        return Mono.using(() -> dateClaim,
+                claim -> bookingMetrics.record(CREATE, PERSISTENCE, newBooking(bookingCreate).flatMap(reactiveMongoTemplate::insert))
+                        .doOnNext(bookingPersistenceService::bookingCreated),
+                DateClaim::close);
+    }
+
+    private Mono<ValidationResult> validateBookingRequest(BookingModify bookingModify, Long bookingId) {
+        Mono<Void> accountStaysLoaded = Mono.empty();
+        if (bookingModify.getAction() == BookingModify.ActionType.MODIFY && bookingAccountService.isEnabled()) {
+//            the reservation compares the new dates with the other stays of the account, load both without blocking first
+            accountStaysLoaded = findBooking(bookingId)
+                    .switchIfEmpty(Mono.defer(() -> Mono.error(new BookingModifyException(BookingErrorCode.BOOKING_NOT_FOUND, "BookingId: " + bookingId + " cannot be found"))))
+                    .flatMap(booking -> loadAccountStays(booking.getEmail()).then());
+        }
+        return accountStaysLoaded.then(Mono.fromCallable(() -> bookingValidationService.validateBookingRequest(bookingModify, bookingId)));
+    }
+
+    private Mono<Booking> persistModification(String operation, BookingModify bookingModify, Long bookingId) {
+        return Mono.using(() -> bookingValidationService.reserveAccountInterval(bookingModify, bookingId),
+                stayReservation -> persistModification(operation, bookingModify, bookingId, stayReservation),
+                StayReservation::close);
+    }
+
+    private Mono<Booking> persistModification(String operation, BookingModify bookingModify, Long bookingId, StayReservation stayReservation) {
+        ValidationResult validationResult = bookingValidationService.validateAccountInterval(stayReservation);
+        if (!validationResult.isValid()) {
+            return Mono.error(new BookingModifyException(validationResult.getErrorCode(), validationResult.getMessage()));
+        }
+        Mono<Booking> modified;
+        if (bookingModify.getAction() == BookingModify.ActionType.MODIFY) {
+            modified = modifyConfirmedBookingWithHistory(bookingId, bookingPersistenceService.getUpdateChanges(bookingModify))
+                    .doOnNext(booking -> bookingPersistenceService.bookingUpdated(bookingId, booking));
+        } else if (bookingModify.getAction() == BookingModify.ActionType.CANCEL) {
+            modified = modifyConfirmedBookingWithHistory(bookingId, bookingPersistenceService.getCancelChanges(bookingModify))
+                    .doOnNext(booking -> bookingPersistenceService.bookingCancelled(bookingId, booking));
+        } else {
+            return Mono.empty();
+        }
+        return bookingMetrics.record(operation, PERSISTENCE, modified.flatMap(this::saveBookingHistory))
+                .switchIfEmpty(Mono.defer(() -> getModifyFailure(bookingId)));
+    }
+
+    public String getTransactionId() {
+        return bookingService.getTransactionId();
+    }
+
+    /**
+     * Builds the booking on a bounded elastic thread: its id comes from the block of reserved ids, and reserving
+     * the next block is a blocking {@code findAndModify} that must not run on the event loop.
+     */
+    private Mono<Booking> newBooking(BookingCreate bookingCreate) {
+        return Mono.fromCallable(() -> bookingPersistenceService.newBooking(bookingCreate)).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Mono<Booking> findBooking(Long bookingId) {
+        Booking cached = bookingCacheService.getCache().getIfPresent(bookingId);
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        return reactiveBookingRepository.getBookingByBookingId(bookingId).doOnNext(bookingCacheService::put);
+    }
+
+    /**
+     * Loads the stays of an account missing from the index through the reactive driver, so the reservation then
+     * finds them without blocking. Empty when the interval is not checked.
+     */
+    private Mono<AccountStays> loadAccountStays(String email) {
+        if (!bookingAccountService.isEnabled() || StringUtils.isBlank(email)) {
+            return Mono.empty();
+        }
+        AccountStays accountStays = bookingAccountService.getStaysIfPresent(email);
+        if (accountStays != null) {
+            return Mono.just(accountStays);
+        }
+        return reactiveMongoTemplate.find(bookingAccountService.getStaysQuery(email), Booking.class)
+                .collectList()
+                .map(bookingAccountService::toStays)
+                .doOnNext(stays -> bookingAccountService.putStays(email, stays));
+    }
+
+    private Mono<Booking> modifyConfirmedBookingWithHistory(Long bookingId, Document changes) {
+        return reactiveMongoTemplate.execute(Booking.class, collection -> collection
+                .findOneAndUpdate(bookingPersistenceService.getModifyFilter(bookingId), bookingPersistenceService.getModifyPipeline(changes),
+                        new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER)))
+                .next()
+                .map(bookingPersistenceService::readBooking);
+    }
+
+    /**
+     * Same as the servlet stack, a history entry that cannot be saved does not fail the committed change and is
+     * left to the history sweep on startup.
+     */
+    private Mono<Booking> saveBookingHistory(Booking booking) {
+        return Mono.justOrEmpty(bookingPersistenceService.newBookingHistory(booking))
+                .flatMap(reactiveMongoTemplate::insert)
+                .doOnError(e -> log.warn("Booking history of bookingId: {} could not be saved", booking.getBookingId(), e))
+                .onErrorResume(e -> Mono.empty())
+                .thenReturn(booking);
+    }
+
+    private Mono<Booking> getModifyFailure(Long bookingId) {
+//        the conditional update did not match, find out whether the booking is missing, cancelled or in progress
+        return reactiveBookingRepository.getBookingByBookingId(bookingId)
+                .map(booking -> bookingValidationService.validateBookingIsConfirmedAndNotInProgress(booking, bookingId))
+                .switchIfEmpty(Mono.fromCallable(() -> bookingValidationService.validateBookingIsConfirmedAndNotInProgress(null, bookingId)))
+                .flatMap(validationResult -> Mono.<Booking>error(validationResult.isValid()
+                        ? new BookingModifyException(BookingErrorCode.MODIFIED_CONCURRENTLY, "BookingId: " + bookingId + " was modified concurrently, please retry")
+                        : new BookingModifyException(validationResult.getErrorCode(), validationResult.getMessage())));
+    }
+
+    /**
+     * Same translation as the servlet stack: lost date races become {@link BookingErrorCode#DATES_NOT_AVAILABLE},
+     * anything else is wrapped in the operation's exception unless it already is one.
+     */
+    private Throwable toBookingException(String operation, Throwable throwable, Class<? extends BookingException> exceptionType,
+                                         BiFunction<BookingErrorCode, String, BookingException> codeExceptionFactory,
+                                         Function<Throwable, BookingException> causeExceptionFactory) {
+        if (throwable instanceof DuplicateKeyException || throwable instanceof BookingDateNotAvailableException) {
+            bookingMetrics.contention(operation);
+            return codeExceptionFactory.apply(BookingErrorCode.DATES_NOT_AVAILABLE, BookingErrorCode.DATES_NOT_AVAILABLE.getDescription());
+        }
+        if (exceptionType.isInstance(throwable)) {
+            return throwable;
+        }
+        return causeExceptionFactory.apply(throwable);
+    }
+}
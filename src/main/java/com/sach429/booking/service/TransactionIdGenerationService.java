@@ -0,0 +1,45 @@
+package com.sach429.booking.service;
+
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates time ordered transaction ids without any I/O. An id packs the milliseconds since
+ * {@link #EPOCH_MILLIS} (41 bits), the configured node id (10 bits) and a per millisecond sequence (12 bits).
+ * When the sequence of a millisecond is exhausted, or the clock moves backwards, the generator keeps
+ * counting on from the last issued value so ids stay unique and increasing on a node.
+ */
+@Component
+public class TransactionIdGenerationService {
+    public static final long EPOCH_MILLIS = 1577836800000L;
+    public static final int NODE_ID_BITS = 10;
+    public static final int SEQUENCE_BITS = 12;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final String TRANSACTION_ID_PREFIX = "T";
+
+    private final long nodeId;
+    private final AtomicLong lastState = new AtomicLong();
+
+    public TransactionIdGenerationService(BookingConfigurationProperties bookingConfigurationProperties) {
+        this.nodeId = bookingConfigurationProperties.getNodeId();
+    }
+
+    public String generateTransactionId() {
+        return TRANSACTION_ID_PREFIX + nextId();
+    }
+
+    long nextId() {
+        long state;
+        while (true) {
+            long last = lastState.get();
+            long timestamp = System.currentTimeMillis() - EPOCH_MILLIS;
+            state = timestamp > last >>> SEQUENCE_BITS ? timestamp << SEQUENCE_BITS : last + 1;
+            if (lastState.compareAndSet(last, state)) {
+                break;
+            }
+        }
+        return ((state >>> SEQUENCE_BITS) << (NODE_ID_BITS + SEQUENCE_BITS)) | (nodeId << SEQUENCE_BITS) | (state & SEQUENCE_MASK);
+    }
+}
@@ -1,12 +1,78 @@
 package com.sach429.booking.utils;
 
+import com.sach429.booking.model.Booking;
 import com.sach429.booking.service.BookingPersistenceService;
+import com.sach429.booking.types.BookingCreate;
 
+import java.text.ParsePosition;
 import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
 
 public class BookingUtils {
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern(BookingPersistenceService.YYYY_MM_DD);
+
     public static LocalDate convertStringToLocalDate(String stringDate) {
-        return LocalDate.parse(stringDate, DateTimeFormatter.ofPattern(BookingPersistenceService.YYYY_MM_DD));
+        return LocalDate.parse(stringDate, DATE_FORMATTER);
+    }
+
+    /**
+     * Parses a {@code yyyy-MM-dd} date like {@link #convertStringToLocalDate(String)}, including its smart
+     * resolution of day-of-month past the end of the month, but returns null instead of throwing when the
+     * text is not a valid date.
+     */
+    public static LocalDate parseLocalDate(String stringDate) {
+        if (stringDate == null) {
+            return null;
+        }
+        ParsePosition position = new ParsePosition(0);
+        TemporalAccessor parsed = DATE_FORMATTER.parseUnresolved(stringDate, position);
+        if (parsed == null || position.getErrorIndex() >= 0 || position.getIndex() != stringDate.length()) {
+            return null;
+        }
+        long year = parsed.getLong(ChronoField.YEAR_OF_ERA);
+        long month = parsed.getLong(ChronoField.MONTH_OF_YEAR);
+        long day = parsed.getLong(ChronoField.DAY_OF_MONTH);
+        if (year < 1 || year > Year.MAX_VALUE || month < 1 || month > 12 || day < 1 || day > 31) {
+            return null;
+        }
+        int lengthOfMonth = Month.of((int) month).length(Year.isLeap(year));
+        return LocalDate.of((int) year, (int) month, (int) Math.min(day, lengthOfMonth));
+    }
+
+    public static int[] getEpochDaysBetween(LocalDate fromDate, LocalDate toDate) {
+        int fromEpochDay = Math.toIntExact(fromDate.toEpochDay());
+        int[] days = new int[Math.max(0, Math.toIntExact(toDate.toEpochDay() - fromEpochDay) + 1)];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = fromEpochDay + i;
+        }
+        return days;
+    }
+
+    /**
+     * The days the booking holds, taken from its dates when it was read without them.
+     */
+    public static int[] getDays(Booking booking) {
+        if (booking.getDays() != null) {
+            return booking.getDays();
+        }
+        if (booking.getFromDate() == null || booking.getToDate() == null) {
+            return new int[0];
+        }
+        return getEpochDaysBetween(booking.getFromDate(), booking.getToDate());
+    }
+
+    /**
+     * The site of the booking, site 0 for bookings written before the site was stored.
+     */
+    public static int getSiteId(Booking booking) {
+        return booking.getSiteId() == null ? Booking.DEFAULT_SITE_ID : booking.getSiteId();
+    }
+
+    public static int getSiteId(BookingCreate bookingCreate) {
+        return bookingCreate.getSiteId() == null ? Booking.DEFAULT_SITE_ID : bookingCreate.getSiteId();
     }
 }
@@ -0,0 +1,89 @@
+package com.sach429.booking.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs at most one load per key at a time: callers asking for a key while its load is in flight wait for it and
+ * share its result or its failure instead of loading again. With a positive ttl a result is also kept for that
+ * many milliseconds after its load, so callers arriving just after it share it too; results are then up to the
+ * ttl old.
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentMap<K, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+    private final Cache<K, V> results;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    public SingleFlight(long ttlMillis, long maxResults) {
+        this.results = ttlMillis <= 0 ? null : Caffeine.newBuilder()
+                .maximumSize(maxResults)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public V get(K key, Supplier<V> loader) {
+        if (results != null) {
+            V result = results.getIfPresent(key);
+            if (result != null) {
+                return result;
+            }
+        }
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = flights.putIfAbsent(key, flight);
+        if (inFlight != null) {
+            waiting.incrementAndGet();
+            try {
+                return join(inFlight);
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+        try {
+            V result = loader.get();
+            if (results != null && result != null) {
+//                kept before the flight is removed, so no caller in between loads again
+                results.put(key, result);
+            }
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    public int getInFlight() {
+        return flights.size();
+    }
+
+    /**
+     * Callers waiting for a load of another caller.
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    private static <V> V join(CompletableFuture<V> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.sach429.booking;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.BookingEvent;
+import com.sach429.booking.model.CalendarDay;
+import com.sach429.booking.service.BookingPersistenceService;
+import com.sach429.booking.types.BookingCreate;
+import com.sach429.booking.types.BookingModify;
+import com.sach429.booking.utils.BookingUtils;
+import lombok.extern.log4j.Log4j2;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Boots the application against an embedded MongoDB and fires concurrent overlapping create and modify
+ * requests at it over HTTP. Asserts that no day ends up booked twice and logs throughput and latency
+ * percentiles. Excluded from the default build, run with {@code mvn -Pload-test test}. The 400 client threads
+ * by default outnumber Tomcat's 200 workers, so the pool is saturated; set them with
+ * {@code -Dbooking.load.threads}. {@link VirtualThreadBookingLoadTest} runs the same
+ * requests with the server on virtual threads and {@link CalendarBookingLoadTest} with the calendar conflict engine.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.mongodb.embedded.version=4.2.8",
+        "booking.config.booking-id-block-size=100"})
+@Log4j2
+public class BookingLoadTest {
+    private static final int THREADS = Integer.getInteger("booking.load.threads", 400);
+    private static final int REQUESTS = 4000;
+
+    @Autowired
+    public TestRestTemplate restTemplate;
+
+    @Autowired
+    public MongoTemplate mongoTemplate;
+
+    @Autowired
+    public BookingPersistenceService bookingPersistenceService;
+
+    @Autowired
+    public ApplicationEventPublisher applicationEventPublisher;
+
+    @Value("${booking.config.virtual-threads}")
+    public boolean virtualThreads;
+
+    @Value("${booking.config.conflict-engine}")
+    public String conflictEngine;
+
+    @Before
+    public void setup() {
+        mongoTemplate.remove(new Query(), Booking.class);
+        mongoTemplate.remove(new Query(), CalendarDay.class);
+//        the calendars, account stays and cached bookings of the previous test would outlive its documents
+        applicationEventPublisher.publishEvent(BookingEvent.reset());
+    }
+
+    @Test
+    public void testConcurrentOverlappingCreatesNeverDoubleBook() throws InterruptedException {
+        LatencyRecorder latencyRecorder = new LatencyRecorder(REQUESTS);
+        Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        run(REQUESTS, latencyRecorder, i -> statuses.computeIfAbsent(createBooking(i).getStatusCodeValue(), status -> new LongAdder()).increment());
+        latencyRecorder.report("POST /bookings" + threadMode(), statuses);
+        assertThat(statuses.keySet()).allMatch(status -> status == 200 || status == 400);
+        assertNoDayIsDoubleBooked();
+    }
+
+    @Test
+    public void testConcurrentCreatesAndModifiesNeverDoubleBook() throws InterruptedException {
+        List<Long> bookingIds = new CopyOnWriteArrayList<>();
+        run(REQUESTS / 4, new LatencyRecorder(REQUESTS / 4), i -> {
+            ResponseEntity<JsonNode> response = createBooking(i);
+            if (response.getStatusCodeValue() == 200) {
+                bookingIds.add(response.getBody().get("bookingId").asLong());
+            }
+        });
+        assertThat(bookingIds).isNotEmpty();
+        LatencyRecorder latencyRecorder = new LatencyRecorder(REQUESTS);
+        Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        run(REQUESTS, latencyRecorder, i -> {
+            int status = i % 4 == 0
+                    ? createBooking(i).getStatusCodeValue()
+                    : modifyBooking(bookingIds.get(ThreadLocalRandom.current().nextInt(bookingIds.size())), i % 16 == 1).getStatusCodeValue();
+            statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+        });
+        latencyRecorder.report("POST and PUT /bookings" + threadMode(), statuses);
+        assertThat(statuses.keySet()).allMatch(status -> status == 200 || status == 400 || status == 409);
+        assertNoDayIsDoubleBooked();
+    }
+
+    /**
+     * Every client books the same three nights straight through the persistence layer, as clients spread over
+     * many nodes would, so conflicts are found by the conflict engine rather than by the date claims of this
+     * node. Every other booking made is cancelled again to keep the nights changing hands.
+     */
+    @Test
+    public void testSameDateContentionNeverDoubleBooks() throws InterruptedException {
+        LatencyRecorder latencyRecorder = new LatencyRecorder(REQUESTS);
+        Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        BookingModify bookingCancel = new BookingModify();
+        bookingCancel.setAction(BookingModify.ActionType.CANCEL);
+        bookingCancel.setReason("reason");
+        run(REQUESTS, latencyRecorder, i -> {
+            LocalDate fromDate = LocalDate.now().plusDays(2 + i % 3);
+            int status = 200;
+            try {
+                Booking booking = bookingPersistenceService.createBooking(bookingCreate(i, fromDate, fromDate.plusDays(i % 2)));
+                if (i % 4 < 2) {
+                    bookingPersistenceService.cancelBooking(bookingCancel, booking.getBookingId());
+                }
+            } catch (DuplicateKeyException e) {
+                status = 400;
+            }
+            statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+        });
+        latencyRecorder.report("createBooking on the same dates" + threadMode(), statuses);
+        assertThat(statuses).containsKey(400);
+        assertNoDayIsDoubleBooked();
+    }
+
+    private void assertNoDayIsDoubleBooked() {
+        List<Booking> confirmed = mongoTemplate.find(new Query(Criteria.where("bookingStatus").is(Booking.BookingStatus.CONFIRMED)), Booking.class);
+        assertThat(confirmed).isNotEmpty();
+        Set<Integer> bookedDays = new HashSet<>();
+        for (Booking booking : confirmed) {
+            assertThat(booking.getDays()).containsExactly(BookingUtils.getEpochDaysBetween(booking.getFromDate(), booking.getToDate()));
+            for (int day : booking.getDays()) {
+                assertThat(bookedDays.add(day)).as("day %s booked twice", LocalDate.ofEpochDay(day)).isTrue();
+            }
+        }
+        log.info("{} confirmed bookings cover {} days", confirmed.size(), bookedDays.size());
+        if ("calendar".equalsIgnoreCase(conflictEngine)) {
+            for (Booking booking : confirmed) {
+                for (int day : booking.getDays()) {
+                    CalendarDay calendarDay = mongoTemplate.findById(new CalendarDay.SiteDay(BookingUtils.getSiteId(booking), day), CalendarDay.class);
+                    assertThat(calendarDay).isNotNull();
+                    assertThat(calendarDay.getBookingId()).as("holder of day %s", LocalDate.ofEpochDay(day)).isEqualTo(booking.getBookingId());
+                }
+            }
+        }
+    }
+
+    private String threadMode() {
+        return " on " + (virtualThreads ? "virtual" : "platform") + " threads with " + THREADS + " clients and the " + conflictEngine + " engine";
+    }
+
+    private ResponseEntity<JsonNode> createBooking(int i) {
+        LocalDate fromDate = randomFromDate();
+        return restTemplate.postForEntity("/bookings", bookingCreate(i, fromDate, fromDate.plusDays(ThreadLocalRandom.current().nextInt(3))), JsonNode.class);
+    }
+
+    private static BookingCreate bookingCreate(int i, LocalDate fromDate, LocalDate toDate) {
+        BookingCreate bookingCreate = new BookingCreate();
+        bookingCreate.setFirstName("fname");
+        bookingCreate.setLastName("lname");
+        bookingCreate.setEmail("email" + i);
+        bookingCreate.setFromDate(fromDate.toString());
+        bookingCreate.setToDate(toDate.toString());
+        return bookingCreate;
+    }
+
+    private ResponseEntity<JsonNode> modifyBooking(Long bookingId, boolean cancel) {
+        BookingModify bookingModify = new BookingModify();
+        if (cancel) {
+            bookingModify.setAction(BookingModify.ActionType.CANCEL);
+            bookingModify.setReason("reason");
+        } else {
+            LocalDate fromDate = randomFromDate();
+            bookingModify.setAction(BookingModify.ActionType.MODIFY);
+            bookingModify.setFromDate(fromDate.toString());
+            bookingModify.setToDate(fromDate.plusDays(ThreadLocalRandom.current().nextInt(3)).toString());
+        }
+        return restTemplate.exchange("/bookings/{bookingId}", HttpMethod.PUT, new HttpEntity<>(bookingModify), JsonNode.class, bookingId);
+    }
+
+    private static LocalDate randomFromDate() {
+        return LocalDate.now().plusDays(2 + ThreadLocalRandom.current().nextInt(26));
+    }
+
+    private static void run(int requests, LatencyRecorder latencyRecorder, Request request) throws InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        AtomicInteger next = new AtomicInteger();
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            executorService.execute(() -> {
+                for (int i = next.getAndIncrement(); i < requests; i = next.getAndIncrement()) {
+                    long requestStart = System.nanoTime();
+                    request.execute(i);
+                    latencyRecorder.record(System.nanoTime() - requestStart);
+                }
+            });
+        }
+        executorService.shutdown();
+        assertThat(executorService.awaitTermination(5, TimeUnit.MINUTES)).isTrue();
+        latencyRecorder.elapsed(System.nanoTime() - start);
+    }
+
+    private interface Request {
+        void execute(int i);
+    }
+
+    private static class LatencyRecorder {
+        private final long[] latencies;
+        private final AtomicInteger count = new AtomicInteger();
+        private long elapsedNanos;
+
+        LatencyRecorder(int capacity) {
+            this.latencies = new long[capacity];
+        }
+
+        void record(long nanos) {
+            int index = count.getAndIncrement();
+            if (index < latencies.length) {
+                latencies[index] = nanos;
+            }
+        }
+
+        void elapsed(long nanos) {
+            this.elapsedNanos = nanos;
+        }
+
+        void report(String name, Map<Integer, LongAdder> statuses) {
+            long[] sorted = Arrays.copyOf(latencies, Math.min(count.get(), latencies.length));
+            Arrays.sort(sorted);
+            List<String> statusCounts = new ArrayList<>();
+            statuses.forEach((status, adder) -> statusCounts.add(status + "=" + adder.sum()));
+            log.info("{}: {} requests in {} ms, {} req/s, p50={} us, p99={} us, p999={} us, statuses {}",
+                    name, sorted.length, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                    String.format("%.1f", sorted.length * 1e9 / elapsedNanos),
+                    percentileMicros(sorted, 0.50), percentileMicros(sorted, 0.99), percentileMicros(sorted, 0.999),
+                    statusCounts);
+        }
+
+        private static long percentileMicros(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+            return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(0, index)]);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.sach429.booking;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * {@link BookingLoadTest} with days claimed in the calendar collection instead of the unique index on the days of
+ * bookings, compare the logged throughput and latency percentiles, above all under same date contention, with
+ * the index engine run.
+ */
+@TestPropertySource(properties = "booking.config.conflict-engine=calendar")
+public class CalendarBookingLoadTest extends BookingLoadTest {
+}
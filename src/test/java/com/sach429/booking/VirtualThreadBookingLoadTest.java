@@ -0,0 +1,19 @@
+package com.sach429.booking;
+
+import com.sach429.booking.config.web.VirtualThreadConfig;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * {@link BookingLoadTest} with Tomcat serving requests on virtual threads, compare the logged throughput and
+ * latency percentiles with the platform thread run. Skipped on runtimes older than Java 21.
+ */
+@TestPropertySource(properties = "booking.config.virtual-threads=true")
+public class VirtualThreadBookingLoadTest extends BookingLoadTest {
+
+    @BeforeClass
+    public static void assumeVirtualThreads() {
+        Assume.assumeTrue("Virtual threads need a Java 21 or later runtime", VirtualThreadConfig.isSupported());
+    }
+}
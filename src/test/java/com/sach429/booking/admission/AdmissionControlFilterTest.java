@@ -0,0 +1,127 @@
+package com.sach429.booking.admission;
+
+import com.sach429.booking.metrics.BookingMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdmissionControlFilterTest {
+    private static final long NOW = 1_600_000_000_000L;
+    private static final String PROXY = "10.0.0.100";
+
+    public BookingMetrics bookingMetrics;
+
+    public AdmissionControlFilter admissionControlFilter;
+
+    @Before
+    public void setup() {
+        bookingMetrics = new BookingMetrics(new SimpleMeterRegistry());
+        admissionControlFilter = new AdmissionControlFilter(new TokenBucketTable(64, 2, 1, NOW), new TokenBucketTable(64, 1, 1, NOW), bookingMetrics, () -> NOW,
+                Collections.singleton(PROXY));
+    }
+
+    @Test
+    public void testWriteOverBudgetIsRejectedWithoutReachingController() throws ServletException, IOException {
+        assertThat(filter(request("POST", "10.0.0.1")).getStatus()).isEqualTo(HttpStatus.OK.value());
+        MockFilterChain filterChain = new MockFilterChain();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        admissionControlFilter.doFilter(request("POST", "10.0.0.1"), response, filterChain);
+        assertThat(filterChain.getRequest()).isNull();
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS.value());
+        assertThat(response.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+        assertThat(response.getContentAsString()).contains("TOO_MANY_REQUESTS");
+        assertThat(bookingMetrics.getMeterRegistry().get(BookingMetrics.ADMISSION_REJECTION_COUNTER)
+                .tags(BookingMetrics.BUDGET, AdmissionControlFilter.WRITE, BookingMetrics.CLIENT, AdmissionControlFilter.REMOTE_ADDRESS).counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void testReadsAndWritesHaveSeparateBudgets() throws ServletException, IOException {
+        assertThat(filter(request("POST", "10.0.0.1")).getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(filter(request("POST", "10.0.0.1")).getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS.value());
+        assertThat(filter(request("GET", "10.0.0.1")).getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(filter(request("GET", "10.0.0.1")).getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(filter(request("GET", "10.0.0.1")).getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS.value());
+    }
+
+    @Test
+    public void testChangingApiKeyDoesNotLiftLimitOfAddress() throws ServletException, IOException {
+        MockHttpServletRequest first = request("POST", "10.0.0.1");
+        first.addHeader(AdmissionControlFilter.API_KEY_HEADER, "first-key");
+        MockHttpServletRequest second = request("POST", "10.0.0.1");
+        second.addHeader(AdmissionControlFilter.API_KEY_HEADER, "second-key");
+        assertThat(filter(first).getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(filter(second).getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS.value());
+        assertThat(bookingMetrics.getMeterRegistry().get(BookingMetrics.ADMISSION_REJECTION_COUNTER)
+                .tags(BookingMetrics.BUDGET, AdmissionControlFilter.WRITE, BookingMetrics.CLIENT, AdmissionControlFilter.REMOTE_ADDRESS).counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void testApiKeyIsLimitedAcrossAddresses() throws ServletException, IOException {
+        for (String remoteAddress : new String[]{"10.0.0.1", "10.0.0.2"}) {
+            MockHttpServletRequest request = request("GET", remoteAddress);
+            request.addHeader(AdmissionControlFilter.API_KEY_HEADER, "key");
+            assertThat(filter(request).getStatus()).isEqualTo(HttpStatus.OK.value());
+        }
+        MockHttpServletRequest request = request("GET", "10.0.0.3");
+        request.addHeader(AdmissionControlFilter.API_KEY_HEADER, "key");
+        assertThat(filter(request).getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS.value());
+        assertThat(bookingMetrics.getMeterRegistry().get(BookingMetrics.ADMISSION_REJECTION_COUNTER)
+                .tags(BookingMetrics.BUDGET, AdmissionControlFilter.READ, BookingMetrics.CLIENT, AdmissionControlFilter.API_KEY).counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void testRejectionByApiKeyDoesNotSpendBudgetOfAddress() throws ServletException, IOException {
+        MockHttpServletRequest first = request("POST", "10.0.0.1");
+        first.addHeader(AdmissionControlFilter.API_KEY_HEADER, "key");
+        MockHttpServletRequest second = request("POST", "10.0.0.2");
+        second.addHeader(AdmissionControlFilter.API_KEY_HEADER, "key");
+        assertThat(filter(first).getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(filter(second).getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS.value());
+        assertThat(filter(request("POST", "10.0.0.2")).getStatus()).isEqualTo(HttpStatus.OK.value());
+    }
+
+    @Test
+    public void testClientsBehindTrustedProxyHaveSeparateBudgets() throws ServletException, IOException {
+        MockHttpServletRequest first = request("POST", PROXY);
+        first.addHeader(AdmissionControlFilter.FORWARDED_FOR_HEADER, "10.0.0.1");
+        MockHttpServletRequest second = request("POST", PROXY);
+        second.addHeader(AdmissionControlFilter.FORWARDED_FOR_HEADER, "10.0.0.2");
+        assertThat(filter(first).getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(filter(second).getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(filter(request("POST", "10.0.0.1")).getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS.value());
+    }
+
+    @Test
+    public void testForwardedAddressIsTakenFromTrustedProxiesOnly() {
+        MockHttpServletRequest spoofed = request("POST", PROXY);
+        spoofed.addHeader(AdmissionControlFilter.FORWARDED_FOR_HEADER, "10.0.0.9, 10.0.0.1, " + PROXY);
+        assertThat(admissionControlFilter.getClientAddress(spoofed)).isEqualTo("10.0.0.1");
+        MockHttpServletRequest untrusted = request("POST", "10.0.0.1");
+        untrusted.addHeader(AdmissionControlFilter.FORWARDED_FOR_HEADER, "10.0.0.9");
+        assertThat(admissionControlFilter.getClientAddress(untrusted)).isEqualTo("10.0.0.1");
+        assertThat(admissionControlFilter.getClientAddress(request("POST", PROXY))).isEqualTo(PROXY);
+    }
+
+    private MockHttpServletResponse filter(MockHttpServletRequest request) throws ServletException, IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        admissionControlFilter.doFilter(request, response, new MockFilterChain());
+        return response;
+    }
+
+    private static MockHttpServletRequest request(String method, String remoteAddress) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/bookings");
+        request.setRemoteAddr(remoteAddress);
+        return request;
+    }
+}
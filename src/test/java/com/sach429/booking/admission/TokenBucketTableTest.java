@@ -0,0 +1,106 @@
+package com.sach429.booking.admission;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TokenBucketTableTest {
+    private static final long NOW = 1_600_000_000_000L;
+
+    @Test
+    public void testBurstThenRetryAfterUntilRefilled() {
+        TokenBucketTable tokenBucketTable = new TokenBucketTable(16, 3, 2, NOW);
+        assertThat(tokenBucketTable.tryAcquire("client", NOW)).isZero();
+        assertThat(tokenBucketTable.tryAcquire("client", NOW)).isZero();
+        assertThat(tokenBucketTable.tryAcquire("client", NOW)).isZero();
+        assertThat(tokenBucketTable.tryAcquire("client", NOW)).isEqualTo(500L);
+        assertThat(tokenBucketTable.tryAcquire("client", NOW + 200L)).isEqualTo(300L);
+        assertThat(tokenBucketTable.tryAcquire("client", NOW + 500L)).isZero();
+        assertThat(tokenBucketTable.tryAcquire("client", NOW + 500L)).isEqualTo(500L);
+    }
+
+    @Test
+    public void testIdleBucketRefillsToCapacityOnly() {
+        TokenBucketTable tokenBucketTable = new TokenBucketTable(16, 2, 1, NOW);
+        tokenBucketTable.tryAcquire("client", NOW);
+        tokenBucketTable.tryAcquire("client", NOW);
+        long later = NOW + TimeUnit.HOURS.toMillis(1L);
+        assertThat(tokenBucketTable.tryAcquire("client", later)).isZero();
+        assertThat(tokenBucketTable.tryAcquire("client", later)).isZero();
+        assertThat(tokenBucketTable.tryAcquire("client", later)).isPositive();
+    }
+
+    @Test
+    public void testRefundGivesBackOneTokenUpToCapacity() {
+        TokenBucketTable tokenBucketTable = new TokenBucketTable(16, 2, 1, NOW);
+        tokenBucketTable.refund("client");
+        assertThat(tokenBucketTable.tryAcquire("client", NOW)).isZero();
+        assertThat(tokenBucketTable.tryAcquire("client", NOW)).isZero();
+        tokenBucketTable.refund("client");
+        assertThat(tokenBucketTable.tryAcquire("client", NOW)).isZero();
+        assertThat(tokenBucketTable.tryAcquire("client", NOW)).isPositive();
+        tokenBucketTable.refund("client");
+        tokenBucketTable.refund("client");
+        tokenBucketTable.refund("client");
+        assertThat(tokenBucketTable.tryAcquire("client", NOW)).isZero();
+        assertThat(tokenBucketTable.tryAcquire("client", NOW)).isZero();
+        assertThat(tokenBucketTable.tryAcquire("client", NOW)).isPositive();
+    }
+
+    @Test
+    public void testClientsHaveSeparateBudgets() {
+        TokenBucketTable tokenBucketTable = new TokenBucketTable(1024, 1, 1, NOW);
+        assertThat(tokenBucketTable.tryAcquire("first", NOW)).isZero();
+        assertThat(tokenBucketTable.tryAcquire("first", NOW)).isPositive();
+        assertThat(tokenBucketTable.tryAcquire("second", NOW)).isZero();
+    }
+
+    @Test
+    public void testClientsWithSameHashHaveSeparateBudgets() {
+        TokenBucketTable tokenBucketTable = new TokenBucketTable(1024, 1, 1, NOW);
+        assertThat("Aa".hashCode()).isEqualTo("BB".hashCode());
+        assertThat(tokenBucketTable.tryAcquire("Aa", NOW)).isZero();
+        assertThat(tokenBucketTable.tryAcquire("BB", NOW)).isZero();
+        assertThat(tokenBucketTable.tryAcquire("Aa", NOW)).isPositive();
+    }
+
+    @Test
+    public void testCapacityIsBounded() {
+        assertThatThrownBy(() -> new TokenBucketTable(16, TokenBucketTable.MAX_CAPACITY + 1, 1, NOW)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new TokenBucketTable(0, 1, 1, NOW)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testConcurrentRequestsNeverTakeMoreThanCapacity() throws InterruptedException {
+        TokenBucketTable tokenBucketTable = new TokenBucketTable(16, 100, 1, NOW);
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger admitted = new AtomicInteger();
+        for (int i = 0; i < 8; i++) {
+            executorService.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int j = 0; j < 100; j++) {
+                    if (tokenBucketTable.tryAcquire("client", NOW) == 0L) {
+                        admitted.incrementAndGet();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executorService.shutdown();
+        assertThat(executorService.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(admitted.get()).isEqualTo(100);
+    }
+}
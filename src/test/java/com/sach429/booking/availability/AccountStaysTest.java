@@ -0,0 +1,53 @@
+package com.sach429.booking.availability;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AccountStaysTest {
+    private static final long TODAY = 18620L;
+
+    @Test
+    public void testStayTooCloseOnEitherSideConflicts() {
+        AccountStays accountStays = AccountStays.EMPTY.with(1L, TODAY + 10, TODAY + 12);
+        assertThat(accountStays.findConflict(TODAY + 13, TODAY + 14, 5, AccountStays.NO_CONFLICT)).isEqualTo(1L);
+        assertThat(accountStays.findConflict(TODAY + 3, TODAY + 6, 5, AccountStays.NO_CONFLICT)).isEqualTo(1L);
+        assertThat(accountStays.findConflict(TODAY + 11, TODAY + 11, 5, AccountStays.NO_CONFLICT)).isEqualTo(1L);
+        assertThat(accountStays.findConflict(TODAY + 17, TODAY + 18, 5, AccountStays.NO_CONFLICT)).isEqualTo(AccountStays.NO_CONFLICT);
+        assertThat(accountStays.findConflict(TODAY + 3, TODAY + 5, 5, AccountStays.NO_CONFLICT)).isEqualTo(AccountStays.NO_CONFLICT);
+    }
+
+    @Test
+    public void testLongStayStartingEarlierIsFound() {
+        AccountStays accountStays = AccountStays.EMPTY
+                .with(1L, TODAY, TODAY + 20)
+                .with(2L, TODAY + 2, TODAY + 2)
+                .with(3L, TODAY + 4, TODAY + 4);
+        assertThat(accountStays.findConflict(TODAY + 21, TODAY + 21, 2, AccountStays.NO_CONFLICT)).isEqualTo(1L);
+        assertThat(accountStays.findConflict(TODAY + 22, TODAY + 22, 2, AccountStays.NO_CONFLICT)).isEqualTo(AccountStays.NO_CONFLICT);
+    }
+
+    @Test
+    public void testExcludedBookingIsNotAConflict() {
+        AccountStays accountStays = AccountStays.EMPTY.with(1L, TODAY + 10, TODAY + 12);
+        assertThat(accountStays.findConflict(TODAY + 11, TODAY + 13, 5, 1L)).isEqualTo(AccountStays.NO_CONFLICT);
+    }
+
+    @Test
+    public void testWithReplacesStayOfSameBooking() {
+        AccountStays accountStays = AccountStays.EMPTY.with(1L, TODAY + 10, TODAY + 12).with(1L, TODAY + 30, TODAY + 31);
+        assertThat(accountStays.size()).isEqualTo(1);
+        assertThat(accountStays.findConflict(TODAY + 10, TODAY + 12, 5, AccountStays.NO_CONFLICT)).isEqualTo(AccountStays.NO_CONFLICT);
+        assertThat(accountStays.findConflict(TODAY + 28, TODAY + 28, 5, AccountStays.NO_CONFLICT)).isEqualTo(1L);
+    }
+
+    @Test
+    public void testWithoutRemovesStayAndLeavesOriginalUnchanged() {
+        AccountStays accountStays = AccountStays.EMPTY.with(1L, TODAY + 10, TODAY + 12).with(2L, TODAY + 40, TODAY + 41);
+        AccountStays cancelled = accountStays.without(1L);
+        assertThat(cancelled.size()).isEqualTo(1);
+        assertThat(cancelled.findConflict(TODAY + 11, TODAY + 11, 5, AccountStays.NO_CONFLICT)).isEqualTo(AccountStays.NO_CONFLICT);
+        assertThat(accountStays.findConflict(TODAY + 11, TODAY + 11, 5, AccountStays.NO_CONFLICT)).isEqualTo(1L);
+        assertThat(cancelled.without(3L)).isSameAs(cancelled);
+    }
+}
@@ -0,0 +1,74 @@
+package com.sach429.booking.availability;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AvailabilityCalendarTest {
+    private static final long TODAY = 18620L;
+
+    @Test
+    public void testEmptyCalendarIsAvailable() {
+        AvailabilityCalendar availabilityCalendar = new AvailabilityCalendar(33, TODAY);
+        assertThat(availabilityCalendar.isAvailable(TODAY + 1, TODAY + 3)).isTrue();
+        assertThat(availabilityCalendar.isAvailable(TODAY + 30, TODAY + 33)).isTrue();
+    }
+
+    @Test
+    public void testBookedRangeIsNotAvailable() {
+        AvailabilityCalendar availabilityCalendar = new AvailabilityCalendar(33, TODAY);
+        availabilityCalendar.book(TODAY + 5, TODAY + 7);
+        assertThat(availabilityCalendar.isAvailable(TODAY + 5, TODAY + 5)).isFalse();
+        assertThat(availabilityCalendar.isAvailable(TODAY + 7, TODAY + 9)).isFalse();
+        assertThat(availabilityCalendar.isAvailable(TODAY + 2, TODAY + 5)).isFalse();
+        assertThat(availabilityCalendar.isAvailable(TODAY + 2, TODAY + 4)).isTrue();
+        assertThat(availabilityCalendar.isAvailable(TODAY + 8, TODAY + 10)).isTrue();
+    }
+
+    @Test
+    public void testBookedRangeAcrossWordBoundary() {
+        AvailabilityCalendar availabilityCalendar = new AvailabilityCalendar(33, TODAY);
+        long base = availabilityCalendar.getBaseEpochDay();
+        availabilityCalendar.book(base + 63, base + 64);
+        assertThat(availabilityCalendar.isAvailable(base + 60, base + 62)).isTrue();
+        assertThat(availabilityCalendar.isAvailable(base + 62, base + 63)).isFalse();
+        assertThat(availabilityCalendar.isAvailable(base + 64, base + 66)).isFalse();
+        assertThat(availabilityCalendar.isAvailable(base + 65, base + 67)).isTrue();
+    }
+
+    @Test
+    public void testReleasedRangeIsAvailable() {
+        AvailabilityCalendar availabilityCalendar = new AvailabilityCalendar(33, TODAY);
+        availabilityCalendar.book(TODAY + 5, TODAY + 7);
+        availabilityCalendar.release(TODAY + 5, TODAY + 7);
+        assertThat(availabilityCalendar.isAvailable(TODAY + 5, TODAY + 7)).isTrue();
+    }
+
+    @Test
+    public void testRebookMovesBookedRange() {
+        AvailabilityCalendar availabilityCalendar = new AvailabilityCalendar(33, TODAY);
+        availabilityCalendar.book(TODAY + 5, TODAY + 7);
+        availabilityCalendar.rebook(TODAY + 5, TODAY + 7, TODAY + 10, TODAY + 11);
+        assertThat(availabilityCalendar.isAvailable(TODAY + 5, TODAY + 7)).isTrue();
+        assertThat(availabilityCalendar.isAvailable(TODAY + 10, TODAY + 10)).isFalse();
+    }
+
+    @Test
+    public void testDaysOutsideWindowAreNotAvailable() {
+        AvailabilityCalendar availabilityCalendar = new AvailabilityCalendar(33, TODAY);
+        assertThat(availabilityCalendar.isAvailable(availabilityCalendar.getBaseEpochDay() - 1, TODAY)).isFalse();
+        assertThat(availabilityCalendar.isAvailable(TODAY, availabilityCalendar.getBaseEpochDay() + availabilityCalendar.getCapacityDays())).isFalse();
+    }
+
+    @Test
+    public void testAdvanceShiftsBookedDays() {
+        AvailabilityCalendar availabilityCalendar = new AvailabilityCalendar(33, TODAY);
+        availabilityCalendar.book(TODAY + 40, TODAY + 41);
+        availabilityCalendar.book(TODAY + 1, TODAY + 2);
+        availabilityCalendar.advanceTo(TODAY + 64);
+        assertThat(availabilityCalendar.getBaseEpochDay()).isGreaterThan(TODAY);
+        assertThat(availabilityCalendar.isAvailable(TODAY + 1, TODAY + 2)).isFalse();
+        assertThat(availabilityCalendar.isAvailable(TODAY + 40, TODAY + 40)).isFalse();
+        assertThat(availabilityCalendar.isAvailable(TODAY + 64, TODAY + 80)).isTrue();
+    }
+}
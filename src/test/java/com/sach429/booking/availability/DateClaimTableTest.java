@@ -0,0 +1,82 @@
+package com.sach429.booking.availability;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DateClaimTableTest {
+    private static final long TODAY = 18620L;
+
+    @Test
+    public void testOverlappingClaimIsRejected() {
+        DateClaimTable dateClaimTable = new DateClaimTable(64);
+        DateClaim dateClaim = dateClaimTable.claim(TODAY + 5, TODAY + 7);
+        assertThat(dateClaim).isNotNull();
+        assertThat(dateClaimTable.claim(TODAY + 7, TODAY + 9)).isNull();
+        assertThat(dateClaimTable.claim(TODAY + 3, TODAY + 5)).isNull();
+        assertThat(dateClaimTable.claim(TODAY + 8, TODAY + 10)).isNotNull();
+    }
+
+    @Test
+    public void testRejectedClaimReleasesDaysItClaimed() {
+        DateClaimTable dateClaimTable = new DateClaimTable(64);
+        dateClaimTable.claim(TODAY + 7, TODAY + 7);
+        assertThat(dateClaimTable.claim(TODAY + 5, TODAY + 7)).isNull();
+        assertThat(dateClaimTable.isClaimed(TODAY + 5)).isFalse();
+        assertThat(dateClaimTable.isClaimed(TODAY + 6)).isFalse();
+        assertThat(dateClaimTable.isClaimed(TODAY + 7)).isTrue();
+    }
+
+    @Test
+    public void testClosedClaimReleasesDays() {
+        DateClaimTable dateClaimTable = new DateClaimTable(64);
+        DateClaim dateClaim = dateClaimTable.claim(TODAY + 5, TODAY + 7);
+        dateClaim.close();
+        DateClaim nextClaim = dateClaimTable.claim(TODAY + 5, TODAY + 7);
+        assertThat(nextClaim).isNotNull();
+        dateClaim.close();
+        assertThat(dateClaimTable.isClaimed(TODAY + 6)).isTrue();
+    }
+
+    @Test
+    public void testDaySharingSlotWithOtherDayIsNotRejected() {
+        DateClaimTable dateClaimTable = new DateClaimTable(64);
+        DateClaim dateClaim = dateClaimTable.claim(TODAY, TODAY);
+        assertThat(dateClaimTable.claim(TODAY + 64, TODAY + 64)).isNotNull();
+        assertThat(dateClaimTable.isClaimed(TODAY + 64)).isFalse();
+        dateClaim.close();
+        assertThat(dateClaimTable.isClaimed(TODAY)).isFalse();
+    }
+
+    @Test
+    public void testOnlyOneConcurrentClaimWins() throws InterruptedException {
+        DateClaimTable dateClaimTable = new DateClaimTable(64);
+        AtomicInteger winners = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 8; i++) {
+            long from = TODAY + i % 3;
+            executorService.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (dateClaimTable.claim(from, from + 2) != null) {
+                    winners.incrementAndGet();
+                }
+            });
+        }
+        start.countDown();
+        executorService.shutdown();
+        assertThat(executorService.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+        assertThat(winners.get()).isEqualTo(1);
+    }
+}
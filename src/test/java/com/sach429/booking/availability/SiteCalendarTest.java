@@ -0,0 +1,78 @@
+package com.sach429.booking.availability;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SiteCalendarTest {
+    private static final long TODAY = 18620L;
+
+    @Test
+    public void testEmptyCalendarHasEverySiteFree() {
+        SiteCalendar siteCalendar = new SiteCalendar(3, 33, TODAY);
+        assertThat(siteCalendar.freeSites(TODAY, TODAY + 32)).containsExactly(0, 1, 2);
+    }
+
+    @Test
+    public void testBookedSiteIsNotFreeOnAnyDayOfStay() {
+        SiteCalendar siteCalendar = new SiteCalendar(3, 33, TODAY);
+        siteCalendar.book(1, TODAY + 5, TODAY + 6);
+        assertThat(siteCalendar.freeSites(TODAY + 3, TODAY + 5)).containsExactly(0, 2);
+        assertThat(siteCalendar.freeSites(TODAY + 6, TODAY + 8)).containsExactly(0, 2);
+        assertThat(siteCalendar.freeSites(TODAY + 7, TODAY + 8)).containsExactly(0, 1, 2);
+        siteCalendar.release(1, TODAY + 5, TODAY + 6);
+        assertThat(siteCalendar.freeSites(TODAY + 5, TODAY + 6)).containsExactly(0, 1, 2);
+    }
+
+    @Test
+    public void testSitesAcrossGroups() {
+        SiteCalendar siteCalendar = new SiteCalendar(130, 33, TODAY);
+        siteCalendar.book(0, TODAY + 1, TODAY + 1);
+        siteCalendar.book(63, TODAY + 1, TODAY + 1);
+        siteCalendar.book(64, TODAY + 1, TODAY + 1);
+        siteCalendar.book(129, TODAY + 2, TODAY + 2);
+        int[] freeSites = siteCalendar.freeSites(TODAY + 1, TODAY + 2);
+        assertThat(freeSites).hasSize(126).doesNotContain(0, 63, 64, 129).contains(1, 62, 65, 128);
+        assertThat(freeSites).isSorted();
+        assertThat(siteCalendar.freeSites(TODAY + 3, TODAY + 3)).hasSize(130);
+    }
+
+    @Test
+    public void testRebookMovesStayWithinAndAcrossGroups() {
+        SiteCalendar siteCalendar = new SiteCalendar(100, 33, TODAY);
+        siteCalendar.book(2, TODAY + 1, TODAY + 2);
+        siteCalendar.rebook(2, TODAY + 1, TODAY + 2, 3, TODAY + 2, TODAY + 3);
+        assertThat(siteCalendar.freeSites(TODAY + 1, TODAY + 1)).contains(2, 3);
+        assertThat(siteCalendar.freeSites(TODAY + 3, TODAY + 3)).contains(2).doesNotContain(3);
+        siteCalendar.rebook(3, TODAY + 2, TODAY + 3, 70, TODAY + 2, TODAY + 3);
+        assertThat(siteCalendar.freeSites(TODAY + 2, TODAY + 3)).contains(3).doesNotContain(70).hasSize(99);
+    }
+
+    @Test
+    public void testDaysOutsideWindowHaveNoFreeSite() {
+        SiteCalendar siteCalendar = new SiteCalendar(3, 33, TODAY);
+        assertThat(siteCalendar.freeSites(TODAY - 1, TODAY)).isEmpty();
+        assertThat(siteCalendar.freeSites(TODAY + 32, TODAY + 33)).isEmpty();
+        assertThat(siteCalendar.freeSites(TODAY + 2, TODAY + 1)).isEmpty();
+    }
+
+    @Test
+    public void testAdvanceDropsPassedDays() {
+        SiteCalendar siteCalendar = new SiteCalendar(3, 33, TODAY);
+        siteCalendar.book(0, TODAY + 1, TODAY + 1);
+        siteCalendar.book(1, TODAY + 3, TODAY + 3);
+        siteCalendar.advanceTo(TODAY + 2);
+        assertThat(siteCalendar.freeSites(TODAY + 1, TODAY + 1)).isEmpty();
+        assertThat(siteCalendar.freeSites(TODAY + 2, TODAY + 3)).containsExactly(0, 2);
+        assertThat(siteCalendar.freeSites(TODAY + 34, TODAY + 34)).containsExactly(0, 1, 2);
+        siteCalendar.advanceTo(TODAY + 100);
+        assertThat(siteCalendar.freeSites(TODAY + 100, TODAY + 132)).containsExactly(0, 1, 2);
+    }
+
+    @Test
+    public void testSiteCountIsBounded() {
+        assertThatThrownBy(() -> new SiteCalendar(0, 33, TODAY)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new SiteCalendar(SiteCalendar.MAX_SITES + 1, 33, TODAY)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
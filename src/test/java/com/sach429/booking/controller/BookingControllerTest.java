@@ -1,31 +1,54 @@
 package com.sach429.booking.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.sach429.booking.controller.exception.handler.BookingExceptionHandler;
 import com.sach429.booking.exception.*;
+import com.sach429.booking.metrics.BookingMetrics;
+import com.sach429.booking.model.Availability;
 import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.BookingBatchResult;
+import com.sach429.booking.model.BookingHistory;
+import com.sach429.booking.model.SiteAvailability;
 import com.sach429.booking.service.BookingService;
+import com.sach429.booking.types.BookingBatchCancel;
+import com.sach429.booking.types.BookingBatchCreate;
+import com.sach429.booking.types.BookingCancel;
 import com.sach429.booking.types.BookingCreate;
 import com.sach429.booking.types.BookingModify;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.logging.log4j.ThreadContext;
 import org.hamcrest.Matchers;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
@@ -40,12 +63,15 @@ public class BookingControllerTest {
     @Mock
     public BookingService bookingService;
 
+    @Spy
+    public ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules().disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
     @InjectMocks
     public BookingController bookingController;
 
     @Before
     public void setup() {
-        mockMvc = MockMvcBuilders.standaloneSetup(bookingController).setControllerAdvice(new BookingExceptionHandler()).build();
+        mockMvc = MockMvcBuilders.standaloneSetup(bookingController).setControllerAdvice(new BookingExceptionHandler(new BookingMetrics(new SimpleMeterRegistry()))).build();
     }
 
     @Test
@@ -223,6 +249,7 @@ public class BookingControllerTest {
                 .andDo(print())
                 .andExpect(status().isNotFound())
                 .andExpect(jsonPath("$.errors[0].description").value(Matchers.is("booking not found")))
+                .andExpect(jsonPath("$.errors[0].code").value(Matchers.is("BOOKING_NOT_FOUND")))
                 .andExpect(header().string(HttpHeaders.CONTENT_TYPE.toString(), MediaType.APPLICATION_JSON_VALUE));
     }
 
@@ -348,6 +375,25 @@ public class BookingControllerTest {
                 .andExpect(header().string(HttpHeaders.CONTENT_TYPE.toString(), MediaType.APPLICATION_JSON_VALUE));
     }
 
+    @Test
+    public void testCreateBookingWhenUnexpectedFailureHidesItsDetails() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        BookingCreate bookingCreate = new BookingCreate();
+        bookingCreate.setFromDate("2020-12-20");
+        bookingCreate.setToDate("2026-12-20");
+        bookingCreate.setFirstName("fname");
+        bookingCreate.setLastName("lname");
+        bookingCreate.setEmail("email");
+        when(bookingService.createBooking(any(BookingCreate.class))).thenThrow(new BookingCreationException(new IllegalStateException("connection to mongo-0:27017 refused")));
+        mockMvc.perform(post("/bookings")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(bookingCreate)))
+                .andDo(print())
+                .andExpect(status().isInternalServerError())
+                .andExpect(jsonPath("$.errors[0].code").value("CREATION_FAILED"))
+                .andExpect(jsonPath("$.errors[0].description").value("Booking cannot be created"));
+    }
+
     @Test
     public void testCreateBookingWhenEncounteredDatesNotAvailableException() throws Exception {
         ObjectMapper objectMapper = new ObjectMapper();
@@ -388,12 +434,194 @@ public class BookingControllerTest {
 
     @Test
     public void testGetBookingWhenNotFound() throws Exception {
+        when(bookingService.getTransactionId()).thenReturn("T1");
         when(bookingService.getBooking(anyLong())).thenThrow(new BookingNotFoundException("not found"));
         mockMvc.perform(MockMvcRequestBuilders.get("/bookings/1"))
                 .andDo(print())
                 .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.transactionId").value("T1"))
                 .andExpect(jsonPath("$.errors[0].description").value(Matchers.containsStringIgnoringCase("not found")))
                 .andExpect(header().string(HttpHeaders.CONTENT_TYPE.toString(), MediaType.APPLICATION_JSON_VALUE));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testGetBookingHistory() throws Exception {
+        Booking booking = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
+        when(bookingService.getBookingHistory(1L)).thenReturn(Collections.singletonList(new BookingHistory(1L, LocalDateTime.of(2020, 12, 1, 10, 0), booking)));
+        mockMvc.perform(MockMvcRequestBuilders.get("/bookings/1/history"))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].bookingId").value(1))
+                .andExpect(jsonPath("$[0].booking.bookingStatus").value("CONFIRMED"));
+    }
+
+    @Test
+    public void testGetBookingHistoryWhenNotFound() throws Exception {
+        when(bookingService.getBookingHistory(anyLong())).thenThrow(new BookingNotFoundException("not found"));
+        mockMvc.perform(MockMvcRequestBuilders.get("/bookings/1/history"))
+                .andDo(print())
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.errors[0].code").value("BOOKING_NOT_FOUND"));
+    }
+
+    @Test
+    public void testGetAllBookingsPage() throws Exception {
+        Booking booking = new Booking(11L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
+        when(bookingService.getBookings(eq("email"), isNull(), isNull(), isNull(), isNull(), eq(10L), eq(1))).thenReturn(Collections.singletonList(booking));
+        mockMvc.perform(MockMvcRequestBuilders.get("/bookings").param("email", "email").param("afterBookingId", "10").param("limit", "1"))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].bookingId").value(11));
+    }
+
+    @Test
+    public void testStreamAllBookings() throws Exception {
+        Booking first = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
+        Booking second = new Booking(2L, "fname", "lname", "email", LocalDate.of(2020, 12, 13), LocalDate.of(2020, 12, 14), Booking.BookingStatus.CANCELLED);
+        when(bookingService.streamBookings(isNull(), isNull(), isNull(), isNull(), eq(Booking.BookingStatus.CONFIRMED))).thenReturn(Stream.of(first, second));
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/bookings").param("stream", "true").param("status", "CONFIRMED"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].bookingId").value(1))
+                .andExpect(jsonPath("$[1].fromDate").value("2020-12-13"))
+                .andExpect(jsonPath("$[1].days").doesNotExist());
+    }
+
+    @Test
+    public void testStreamAllBookingsWhenStreamFailsLeavesArrayOpen() throws Exception {
+        Booking first = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
+        AtomicReference<String> loggedTransactionId = new AtomicReference<>();
+        when(bookingService.getTransactionId()).thenReturn("transaction-1");
+        when(bookingService.streamBookings(isNull(), isNull(), isNull(), isNull(), isNull())).thenReturn(Stream.of(first, null).map(booking -> {
+            loggedTransactionId.set(ThreadContext.get(BookingController.TRANSACTION_ID_LOG_KEY));
+            if (booking == null) {
+                throw new IllegalStateException("cursor lost");
+            }
+            return booking;
+        }));
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/bookings").param("stream", "true"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        assertThat(mvcResult.getAsyncResult(5000L)).isInstanceOf(IllegalStateException.class);
+        String content = mvcResult.getResponse().getContentAsString();
+        assertThat(content).startsWith("[{").contains("\"bookingId\":1").doesNotEndWith("]");
+        assertThat(loggedTransactionId.get()).isEqualTo("transaction-1");
+    }
+
+    @Test
+    public void testCreateBookingsBatch() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Booking booking = new Booking(1l, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
+        when(bookingService.createBookings(anyList())).thenReturn(Arrays.asList(BookingBatchResult.success(0, booking),
+                BookingBatchResult.failure(1, BookingErrorCode.DATES_NOT_AVAILABLE, null)));
+        BookingCreate bookingCreate = new BookingCreate();
+        bookingCreate.setToDate("2020-12-12");
+        bookingCreate.setFromDate("2020-12-10");
+        bookingCreate.setEmail("email");
+        bookingCreate.setLastName("lname");
+        bookingCreate.setFirstName("fname");
+        BookingBatchCreate bookingBatchCreate = new BookingBatchCreate();
+        bookingBatchCreate.setBookings(Arrays.asList(bookingCreate, bookingCreate));
+        mockMvc.perform(post("/bookings:batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(bookingBatchCreate)))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].booking.bookingId").value(1))
+                .andExpect(jsonPath("$[0].error").doesNotExist())
+                .andExpect(jsonPath("$[1].index").value(1))
+                .andExpect(jsonPath("$[1].error.code").value("DATES_NOT_AVAILABLE"));
+    }
+
+    @Test
+    public void testCreateBookingsBatchValidatesEveryBooking() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        BookingCreate bookingCreate = new BookingCreate();
+        bookingCreate.setToDate("2020-12-12");
+        bookingCreate.setFromDate("2020-12-10");
+        bookingCreate.setLastName("lname");
+        bookingCreate.setFirstName("fname");
+        BookingBatchCreate bookingBatchCreate = new BookingBatchCreate();
+        bookingBatchCreate.setBookings(Collections.singletonList(bookingCreate));
+        mockMvc.perform(post("/bookings:batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(bookingBatchCreate)))
+                .andDo(print())
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errors[0].description").value("bookings[0].email must not be null"));
+    }
+
+    @Test
+    public void testCancelBookingsBatchWhenTooLarge() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        when(bookingService.cancelBookings(anyList())).thenThrow(new BookingModifyException(BookingErrorCode.BATCH_TOO_LARGE, "Batch request cannot have more than 1 bookings"));
+        BookingCancel bookingCancel = new BookingCancel();
+        bookingCancel.setBookingId(1L);
+        bookingCancel.setReason("reason");
+        BookingBatchCancel bookingBatchCancel = new BookingBatchCancel();
+        bookingBatchCancel.setBookings(Arrays.asList(bookingCancel, bookingCancel));
+        mockMvc.perform(post("/bookings:cancel")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(bookingBatchCancel)))
+                .andDo(print())
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errors[0].code").value("BATCH_TOO_LARGE"));
+    }
+
+    @Test
+    public void testGetAvailability() throws Exception {
+        Availability availability = new Availability(LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Collections.singletonList(LocalDate.of(2020, 12, 11)), 7L, 1607558400000L);
+        when(bookingService.getAvailability(isNull(), isNull(), isNull())).thenReturn(availability);
+        mockMvc.perform(MockMvcRequestBuilders.get("/availability"))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"7-1607558400000\""))
+                .andExpect(header().exists(HttpHeaders.LAST_MODIFIED))
+                .andExpect(jsonPath("$.availableDates.length()").value(1));
+    }
+
+    @Test
+    public void testGetAvailabilityWhenNotModified() throws Exception {
+        Availability availability = new Availability(LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Collections.singletonList(LocalDate.of(2020, 12, 11)), 7L, 1607558400000L);
+        when(bookingService.getAvailability(isNull(), isNull(), isNull())).thenReturn(availability);
+        mockMvc.perform(MockMvcRequestBuilders.get("/availability").header(HttpHeaders.IF_NONE_MATCH, "\"7-1607558400000\""))
+                .andDo(print())
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    public void testGetAvailabilityWhenDatesInvalid() throws Exception {
+        when(bookingService.getAvailability(isNull(), eq("2020-12-12"), eq("2020-12-10"))).thenThrow(new BookingDatesInvalidException("Availability Dates not in range"));
+        mockMvc.perform(MockMvcRequestBuilders.get("/availability").param("fromDate", "2020-12-12").param("toDate", "2020-12-10"))
+                .andDo(print())
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errors[0].description").value(Matchers.is("Availability Dates not in range")));
+    }
+
+    @Test
+    public void testGetAvailabilityWhenSiteNotFound() throws Exception {
+        when(bookingService.getAvailability(eq(9), isNull(), isNull())).thenThrow(new BookingSiteNotFoundException("SiteId: 9 does not exist"));
+        mockMvc.perform(MockMvcRequestBuilders.get("/availability").param("siteId", "9"))
+                .andDo(print())
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errors[0].code").value("SITE_NOT_FOUND"));
+    }
+
+    @Test
+    public void testGetFreeSites() throws Exception {
+        when(bookingService.getFreeSites("2020-12-10", "2020-12-11")).thenReturn(new SiteAvailability(LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 11), new int[]{0, 2}));
+        mockMvc.perform(MockMvcRequestBuilders.get("/availability/sites").param("fromDate", "2020-12-10").param("toDate", "2020-12-11"))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.availableSiteIds.length()").value(2))
+                .andExpect(jsonPath("$.availableSiteIds[1]").value(2));
+    }
+
+}
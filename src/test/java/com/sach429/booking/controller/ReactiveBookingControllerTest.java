@@ -0,0 +1,187 @@
+package com.sach429.booking.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.sach429.booking.controller.exception.handler.ReactiveBookingExceptionHandler;
+import com.sach429.booking.exception.BookingCreationException;
+import com.sach429.booking.exception.BookingDatesInvalidException;
+import com.sach429.booking.exception.BookingErrorCode;
+import com.sach429.booking.exception.BookingNotFoundException;
+import com.sach429.booking.metrics.BookingMetrics;
+import com.sach429.booking.model.Availability;
+import com.sach429.booking.model.Booking;
+import com.sach429.booking.service.ReactiveBookingService;
+import com.sach429.booking.types.BookingCreate;
+import com.sach429.booking.types.BookingModify;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.Collections;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.when;
+
+public class ReactiveBookingControllerTest {
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    public WebTestClient webTestClient;
+
+    @Mock
+    public ReactiveBookingService reactiveBookingService;
+
+    @Spy
+    public ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules().disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    @InjectMocks
+    public ReactiveBookingController reactiveBookingController;
+
+    @Before
+    public void setup() {
+        when(reactiveBookingService.getTransactionId()).thenReturn("T1");
+        webTestClient = WebTestClient.bindToController(reactiveBookingController)
+                .controllerAdvice(new ReactiveBookingExceptionHandler(new BookingMetrics(new SimpleMeterRegistry())))
+                .build();
+    }
+
+    @Test
+    public void testCreateBooking() {
+        Booking booking = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
+        when(reactiveBookingService.createBooking(any(BookingCreate.class))).thenReturn(Mono.just(booking));
+        webTestClient.post().uri("/bookings")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(bookingCreate("2020-12-10", "2020-12-12"))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.bookingId").isEqualTo(1)
+                .jsonPath("$.fromDate").isEqualTo("2020-12-10");
+    }
+
+    @Test
+    public void testCreateBookingWhenDatesNotAvailable() {
+        when(reactiveBookingService.createBooking(any(BookingCreate.class)))
+                .thenReturn(Mono.error(new BookingCreationException(BookingErrorCode.DATES_NOT_AVAILABLE, "Booking dates not available")));
+        webTestClient.post().uri("/bookings")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(bookingCreate("2020-12-10", "2020-12-12"))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.transactionId").isEqualTo("T1")
+                .jsonPath("$.errors[0].code").isEqualTo("DATES_NOT_AVAILABLE")
+                .jsonPath("$.errors[0].description").isEqualTo("Booking dates not available");
+    }
+
+    @Test
+    public void testModifyBookingWhenMissingRequiredField() {
+        BookingModify bookingModify = new BookingModify();
+        bookingModify.setFromDate("2020-12-20");
+        bookingModify.setToDate("2020-12-21");
+        webTestClient.put().uri("/bookings/1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(bookingModify)
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.errors[0].code").isEqualTo("REQUEST_INVALID")
+                .jsonPath("$.errors[0].description").isEqualTo("action must not be null");
+    }
+
+    @Test
+    public void testGetBookingWhenNotFound() {
+        when(reactiveBookingService.getBooking(anyLong())).thenReturn(Mono.error(new BookingNotFoundException("not found")));
+        webTestClient.get().uri("/bookings/1")
+                .exchange()
+                .expectStatus().isNotFound()
+                .expectBody()
+                .jsonPath("$.errors[0].code").isEqualTo("BOOKING_NOT_FOUND")
+                .jsonPath("$.errors[0].description").isEqualTo("not found");
+    }
+
+    @Test
+    public void testGetAllBookingsPage() {
+        Booking booking = new Booking(11L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
+        when(reactiveBookingService.getBookings(eq("email"), isNull(), isNull(), isNull(), isNull(), eq(10L), eq(1))).thenReturn(Flux.just(booking));
+        webTestClient.get().uri("/bookings?email=email&afterBookingId=10&limit=1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(1)
+                .jsonPath("$[0].bookingId").isEqualTo(11);
+    }
+
+    @Test
+    public void testStreamAllBookings() {
+        Booking first = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
+        Booking second = new Booking(2L, "fname", "lname", "email", LocalDate.of(2020, 12, 13), LocalDate.of(2020, 12, 14), Booking.BookingStatus.CANCELLED);
+        when(reactiveBookingService.streamBookings(isNull(), isNull(), isNull(), isNull(), eq(Booking.BookingStatus.CONFIRMED))).thenReturn(Flux.just(first, second));
+        webTestClient.get().uri("/bookings?stream=true&status=CONFIRMED")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0].bookingId").isEqualTo(1)
+                .jsonPath("$[1].fromDate").isEqualTo("2020-12-13")
+                .jsonPath("$[1].days").doesNotExist();
+    }
+
+    @Test
+    public void testStreamAllBookingsWhenEmpty() {
+        when(reactiveBookingService.streamBookings(isNull(), isNull(), isNull(), isNull(), isNull())).thenReturn(Flux.empty());
+        webTestClient.get().uri("/bookings?stream=true")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo("[]");
+    }
+
+    @Test
+    public void testGetAvailabilityWhenNotModified() {
+        Availability availability = new Availability(LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Collections.singletonList(LocalDate.of(2020, 12, 11)), 7L, 1607558400000L);
+        when(reactiveBookingService.getAvailability(isNull(), isNull(), isNull())).thenReturn(Mono.just(availability));
+        webTestClient.get().uri("/availability")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"7-1607558400000\"");
+        webTestClient.get().uri("/availability")
+                .header(HttpHeaders.IF_NONE_MATCH, "\"7-1607558400000\"")
+                .exchange()
+                .expectStatus().isNotModified();
+    }
+
+    @Test
+    public void testGetAvailabilityWhenDatesInvalid() {
+        when(reactiveBookingService.getAvailability(isNull(), eq("2020-12-12"), eq("2020-12-10"))).thenReturn(Mono.error(new BookingDatesInvalidException("Availability Dates not in range")));
+        webTestClient.get().uri("/availability?fromDate=2020-12-12&toDate=2020-12-10")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.errors[0].description").isEqualTo("Availability Dates not in range");
+    }
+
+    private static BookingCreate bookingCreate(String fromDate, String toDate) {
+        BookingCreate bookingCreate = new BookingCreate();
+        bookingCreate.setFirstName("fname");
+        bookingCreate.setLastName("lname");
+        bookingCreate.setEmail("email");
+        bookingCreate.setFromDate(fromDate);
+        bookingCreate.setToDate(toDate);
+        return bookingCreate;
+    }
+}
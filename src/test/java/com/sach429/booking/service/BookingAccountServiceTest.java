@@ -0,0 +1,145 @@
+package com.sach429.booking.service;
+
+import com.sach429.booking.availability.AccountStays;
+import com.sach429.booking.availability.StayReservation;
+import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.BookingEvent;
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class BookingAccountServiceTest {
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    public MongoTemplate mongoTemplate;
+
+    @Mock
+    public BookingConfigurationProperties bookingConfigurationProperties;
+
+    public BookingAccountService bookingAccountService;
+
+    public LocalDate fromDate;
+
+    @Before
+    public void setup() {
+        when(bookingConfigurationProperties.getBookingCacheMaxSize()).thenReturn(100);
+        when(bookingConfigurationProperties.getBookingCacheExpireAfterWriteSeconds()).thenReturn(300);
+        when(bookingConfigurationProperties.getMinIntervalPerAccount()).thenReturn(30);
+        bookingAccountService = new BookingAccountService(mongoTemplate, bookingConfigurationProperties);
+        fromDate = LocalDate.now().plusDays(5L);
+    }
+
+    @Test
+    public void testStaysAreLoadedOncePerAccount() {
+        when(mongoTemplate.find(any(Query.class), eq(Booking.class))).thenReturn(Collections.singletonList(
+                new Booking(1L, null, null, null, fromDate, fromDate.plusDays(1L), null)));
+        assertThat(bookingAccountService.getStays("email").size()).isEqualTo(1);
+        assertThat(bookingAccountService.getStays("email").size()).isEqualTo(1);
+        verify(mongoTemplate, times(1)).find(any(Query.class), eq(Booking.class));
+    }
+
+    @Test
+    public void testStaysQueryCoversConfirmedStaysWithinInterval() {
+        Query query = bookingAccountService.getStaysQuery("email");
+        assertThat(query.getQueryObject()).containsKeys("email", "bookingStatus", "toDate");
+        assertThat(query.getFieldsObject()).containsOnlyKeys("bookingId", "fromDate", "toDate");
+    }
+
+    @Test
+    public void testChangesUpdateIndexedAccountsOnly() {
+        bookingAccountService.putStays("email", AccountStays.EMPTY);
+        Booking booking = new Booking(1L, "fname", "lname", "email", fromDate, fromDate.plusDays(1L), Booking.BookingStatus.CONFIRMED);
+        bookingAccountService.bookingConfirmed(booking);
+        bookingAccountService.bookingConfirmed(new Booking(2L, "fname", "lname", "other", fromDate, fromDate, Booking.BookingStatus.CONFIRMED));
+        assertThat(bookingAccountService.getStaysIfPresent("email").size()).isEqualTo(1);
+        assertThat(bookingAccountService.getStaysIfPresent("other")).isNull();
+        bookingAccountService.onBookingEvent(new BookingEvent(BookingEvent.Type.CANCELLED, 1L, booking, new int[0]));
+        assertThat(bookingAccountService.getStaysIfPresent("email").size()).isEqualTo(0);
+        bookingAccountService.onBookingEvent(BookingEvent.reset());
+        assertThat(bookingAccountService.getStaysIfPresent("email")).isNull();
+    }
+
+    @Test
+    public void testReservedStayIsCheckedUntilClosed() {
+        bookingAccountService.putStays("email", AccountStays.EMPTY);
+        long from = fromDate.toEpochDay();
+        StayReservation first = bookingAccountService.reserveStay("email", null, from, from + 1);
+        assertThat(first.isReserved()).isTrue();
+        StayReservation second = bookingAccountService.reserveStay("email", null, from + 10, from + 11);
+        assertThat(second.isReserved()).isFalse();
+        assertThat(second.getConflict()).isLessThan(AccountStays.NO_CONFLICT);
+        assertThat(bookingAccountService.reserveStay("other", null, from + 10, from + 11).isReserved()).isTrue();
+        first.close();
+        first.close();
+        assertThat(bookingAccountService.reserveStay("email", null, from + 10, from + 11).isReserved()).isTrue();
+    }
+
+    @Test
+    public void testReservedStayIsComparedWithIndexedStaysButNotItself() {
+        long from = fromDate.toEpochDay();
+        bookingAccountService.putStays("email", AccountStays.EMPTY.with(7L, from + 20, from + 21));
+        StayReservation refused = bookingAccountService.reserveStay("email", null, from, from + 1);
+        assertThat(refused.getConflict()).isEqualTo(7L);
+        assertThat(bookingAccountService.reserveStay("email", 7L, from, from + 1).isReserved()).isTrue();
+    }
+
+    @Test
+    public void testReservedStayOfAccountMissingFromIndexLoadsItOnce() {
+        long from = fromDate.toEpochDay();
+        when(mongoTemplate.find(any(Query.class), eq(Booking.class))).thenReturn(Collections.singletonList(
+                new Booking(7L, null, null, null, fromDate.plusDays(20L), fromDate.plusDays(21L), null)));
+        assertThat(bookingAccountService.reserveStay("email", null, from, from + 1).getConflict()).isEqualTo(7L);
+        assertThat(bookingAccountService.getStaysIfPresent("email").size()).isEqualTo(1);
+        assertThat(bookingAccountService.reserveStay("email", 7L, from, from + 1).isReserved()).isTrue();
+        verify(mongoTemplate, times(1)).find(any(Query.class), eq(Booking.class));
+    }
+
+    @Test
+    public void testConcurrentReservationsOfAccountAdmitOne() throws Exception {
+        bookingAccountService.putStays("email", AccountStays.EMPTY);
+        long from = fromDate.toEpochDay();
+        int threads = 8;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<StayReservation>> reservations = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                long offset = i;
+                reservations.add(executorService.submit(() -> {
+                    start.await();
+                    return bookingAccountService.reserveStay("email", null, from + offset, from + offset);
+                }));
+            }
+            start.countDown();
+            int reserved = 0;
+            for (Future<StayReservation> reservation : reservations) {
+                reserved += reservation.get().isReserved() ? 1 : 0;
+            }
+            assertThat(reserved).isEqualTo(1);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
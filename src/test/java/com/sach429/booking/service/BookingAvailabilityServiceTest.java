@@ -0,0 +1,120 @@
+package com.sach429.booking.service;
+
+import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.BookingEvent;
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import com.sach429.booking.utils.BookingUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.LocalDate;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class BookingAvailabilityServiceTest {
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    public MongoTemplate mongoTemplate;
+
+    @Mock
+    public BookingConfigurationProperties bookingConfigurationProperties;
+
+    public BookingAvailabilityService bookingAvailabilityService;
+
+    @Before
+    public void setup() {
+        when(bookingConfigurationProperties.getMaxDaysInAdvance()).thenReturn(30);
+        when(bookingConfigurationProperties.getMaxDuration()).thenReturn(3);
+        when(bookingConfigurationProperties.getMinDaysInAdvance()).thenReturn(1);
+        when(bookingConfigurationProperties.getSites()).thenReturn(3);
+        bookingAvailabilityService = new BookingAvailabilityService(mongoTemplate, bookingConfigurationProperties);
+    }
+
+    @Test
+    public void testEventsFromOtherNodesUpdateCalendar() {
+        LocalDate fromDate = LocalDate.now().plusDays(5L);
+        bookingAvailabilityService.onBookingEvent(event(BookingEvent.Type.CREATED, fromDate, fromDate.plusDays(1L)));
+        assertThat(bookingAvailabilityService.isAvailable(0, fromDate, fromDate.plusDays(1L))).isFalse();
+        bookingAvailabilityService.onBookingEvent(event(BookingEvent.Type.MODIFIED, fromDate.plusDays(3L), fromDate.plusDays(4L)));
+        assertThat(bookingAvailabilityService.isAvailable(0, fromDate, fromDate.plusDays(1L))).isTrue();
+        assertThat(bookingAvailabilityService.isAvailable(0, fromDate.plusDays(3L), fromDate.plusDays(3L))).isFalse();
+        bookingAvailabilityService.onBookingEvent(event(BookingEvent.Type.CANCELLED, fromDate.plusDays(3L), fromDate.plusDays(4L)));
+        assertThat(bookingAvailabilityService.isAvailable(0, fromDate, fromDate.plusDays(4L))).isTrue();
+    }
+
+    @Test
+    public void testReplayedModifyOfLocalChangeIsNoOp() {
+        LocalDate fromDate = LocalDate.now().plusDays(5L);
+        Booking oldBooking = new Booking(1L, "fname", "lname", "email", fromDate, fromDate.plusDays(1L), Booking.BookingStatus.CONFIRMED);
+        Booking newBooking = new Booking(1L, "fname", "lname", "email", fromDate.plusDays(3L), fromDate.plusDays(4L), Booking.BookingStatus.CONFIRMED);
+        bookingAvailabilityService.bookingConfirmed(oldBooking);
+        bookingAvailabilityService.bookingModified(oldBooking, newBooking);
+        bookingAvailabilityService.onBookingEvent(event(BookingEvent.Type.MODIFIED, fromDate.plusDays(3L), fromDate.plusDays(4L)));
+        assertThat(bookingAvailabilityService.isAvailable(0, fromDate, fromDate.plusDays(1L))).isTrue();
+        assertThat(bookingAvailabilityService.isAvailable(0, fromDate.plusDays(3L), fromDate.plusDays(3L))).isFalse();
+    }
+
+    @Test
+    public void testResetReloadsConfirmedBookings() {
+        LocalDate fromDate = LocalDate.now().plusDays(5L);
+        bookingAvailabilityService.onBookingEvent(event(BookingEvent.Type.CREATED, fromDate, fromDate.plusDays(1L)));
+        when(mongoTemplate.find(any(Query.class), eq(Booking.class))).thenReturn(Collections.singletonList(
+                new Booking(2L, null, null, null, fromDate.plusDays(7L), fromDate.plusDays(7L), null)));
+        bookingAvailabilityService.onBookingEvent(BookingEvent.reset());
+        assertThat(bookingAvailabilityService.isAvailable(0, fromDate, fromDate.plusDays(1L))).isTrue();
+        assertThat(bookingAvailabilityService.isAvailable(0, fromDate.plusDays(7L), fromDate.plusDays(7L))).isFalse();
+    }
+
+    @Test
+    public void testSitesAreBookedIndependently() {
+        LocalDate fromDate = LocalDate.now().plusDays(5L);
+        Booking booking = new Booking(1L, "fname", "lname", "email", fromDate, fromDate.plusDays(1L), Booking.BookingStatus.CONFIRMED);
+        booking.setSiteId(1);
+        bookingAvailabilityService.bookingConfirmed(booking);
+        assertThat(bookingAvailabilityService.isAvailable(0, fromDate, fromDate.plusDays(1L))).isTrue();
+        assertThat(bookingAvailabilityService.isAvailable(1, fromDate, fromDate.plusDays(1L))).isFalse();
+        assertThat(bookingAvailabilityService.isAvailable(3, fromDate, fromDate.plusDays(1L))).isFalse();
+        assertThat(bookingAvailabilityService.getAvailability(1, fromDate, fromDate.plusDays(2L)).getAvailableDates()).containsExactly(fromDate.plusDays(2L));
+        assertThat(bookingAvailabilityService.getFreeSites(fromDate.plusDays(1L), fromDate.plusDays(2L)).getAvailableSiteIds()).containsExactly(0, 2);
+        assertThat(bookingAvailabilityService.getFreeSites(fromDate.plusDays(2L), fromDate.plusDays(3L)).getAvailableSiteIds()).containsExactly(0, 1, 2);
+        bookingAvailabilityService.bookingCancelled(booking);
+        assertThat(bookingAvailabilityService.getFreeSites(fromDate, fromDate.plusDays(1L)).getAvailableSiteIds()).containsExactly(0, 1, 2);
+    }
+
+    @Test
+    public void testModifyEventMovesBookingToAnotherSite() {
+        LocalDate fromDate = LocalDate.now().plusDays(5L);
+        bookingAvailabilityService.onBookingEvent(event(BookingEvent.Type.CREATED, fromDate, fromDate.plusDays(1L)));
+        BookingEvent modified = event(BookingEvent.Type.MODIFIED, fromDate.plusDays(1L), fromDate.plusDays(2L));
+        modified.getBooking().setSiteId(2);
+        bookingAvailabilityService.onBookingEvent(modified);
+        assertThat(bookingAvailabilityService.isAvailable(0, fromDate, fromDate.plusDays(2L))).isTrue();
+        assertThat(bookingAvailabilityService.isAvailable(2, fromDate.plusDays(1L), fromDate.plusDays(1L))).isFalse();
+        assertThat(bookingAvailabilityService.getFreeSites(fromDate, fromDate.plusDays(1L)).getAvailableSiteIds()).containsExactly(0, 1);
+    }
+
+    @Test
+    public void testNoSiteIsFreeOutsideBookableWindow() {
+        LocalDate today = LocalDate.now();
+        assertThat(bookingAvailabilityService.getFreeSites(today, today.plusDays(1L)).getAvailableSiteIds()).isEmpty();
+        assertThat(bookingAvailabilityService.getFreeSites(today.plusDays(32L), today.plusDays(33L)).getAvailableSiteIds()).isEmpty();
+        assertThat(bookingAvailabilityService.getFreeSites(today.plusDays(31L), today.plusDays(32L)).getAvailableSiteIds()).containsExactly(0, 1, 2);
+    }
+
+    private static BookingEvent event(BookingEvent.Type type, LocalDate fromDate, LocalDate toDate) {
+        Booking booking = new Booking(1L, "fname", "lname", "email", fromDate, toDate, Booking.BookingStatus.CONFIRMED);
+        return new BookingEvent(type, 1L, booking, BookingUtils.getEpochDaysBetween(fromDate, toDate));
+    }
+}
@@ -0,0 +1,181 @@
+package com.sach429.booking.service;
+
+import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.BookingEvent;
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+public class BookingCacheServiceTest {
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    public BookingConfigurationProperties bookingConfigurationProperties;
+
+    public BookingCacheService bookingCacheService;
+
+    @Before
+    public void setup() {
+        when(bookingConfigurationProperties.getBookingCacheMaxSize()).thenReturn(100);
+        when(bookingConfigurationProperties.getBookingCacheExpireAfterWriteSeconds()).thenReturn(60);
+        bookingCacheService = new BookingCacheService(bookingConfigurationProperties);
+    }
+
+    @Test
+    public void testRepeatedLookupsAreServedFromCache() {
+        AtomicInteger loads = new AtomicInteger();
+        Booking booking = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
+        for (int i = 0; i < 5; i++) {
+            assertThat(bookingCacheService.get(1L, id -> {
+                loads.incrementAndGet();
+                return booking;
+            })).isEqualTo(booking);
+        }
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(bookingCacheService.getStats().missCount()).isEqualTo(1);
+        assertThat(bookingCacheService.getStats().hitCount()).isEqualTo(4);
+    }
+
+    @Test
+    public void testMissingBookingIsNotCached() {
+        assertThat(bookingCacheService.get(1L, id -> null)).isNull();
+        assertThat(bookingCacheService.getCache().getIfPresent(1L)).isNull();
+    }
+
+    @Test
+    public void testPutReplacesCachedBooking() {
+        Booking confirmed = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
+        Booking cancelled = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CANCELLED);
+        bookingCacheService.put(confirmed);
+        bookingCacheService.put(cancelled);
+        assertThat(bookingCacheService.get(1L, id -> confirmed)).isEqualTo(cancelled);
+        bookingCacheService.invalidate(1L);
+        assertThat(bookingCacheService.getCache().getIfPresent(1L)).isNull();
+    }
+
+    @Test
+    public void testIdenticalConcurrentQueriesShareOneLoad() throws InterruptedException {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Booking> page = Collections.singletonList(new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED));
+        List<Object> queryKey = Arrays.asList("email", null, null, null, Booking.BookingStatus.CONFIRMED, null, 100);
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        List<Future<List<Booking>>> results = new ArrayList<>();
+        results.add(executorService.submit(() -> bookingCacheService.getBookings(queryKey, () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            awaitUninterruptibly(release);
+            return page;
+        })));
+        assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 0; i < 3; i++) {
+            results.add(executorService.submit(() -> bookingCacheService.getBookings(Arrays.asList("email", null, null, null, Booking.BookingStatus.CONFIRMED, null, 100), () -> {
+                loads.incrementAndGet();
+                return page;
+            })));
+        }
+//        the flight lands only once every waiter has joined it
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5L);
+        while (bookingCacheService.getBookingsQueriesWaiting() < 3 && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+        assertThat(bookingCacheService.getBookingsQueriesWaiting()).isEqualTo(3);
+        release.countDown();
+        for (Future<List<Booking>> result : results) {
+            assertThat(getUninterruptibly(result)).isSameAs(page);
+        }
+        executorService.shutdown();
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(bookingCacheService.getBookingsQueriesWaiting()).isZero();
+    }
+
+    @Test
+    public void testFailedQueryIsNotShared() {
+        List<Object> queryKey = Arrays.asList("email", null, null, null, null, 100);
+        assertThatThrownBy(() -> bookingCacheService.getBookings(queryKey, () -> {
+            throw new IllegalStateException("query failed");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(bookingCacheService.getBookings(queryKey, Collections::emptyList)).isEmpty();
+    }
+
+    @Test
+    public void testQueryResultsAreKeptForTtl() {
+        when(bookingConfigurationProperties.getBookingsQueryTtlMillis()).thenReturn(60000);
+        BookingCacheService ttlBookingCacheService = new BookingCacheService(bookingConfigurationProperties);
+        List<Object> queryKey = Arrays.asList("email", null, null, null, null, 100);
+        AtomicInteger loads = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            ttlBookingCacheService.getBookings(queryKey, () -> {
+                loads.incrementAndGet();
+                return Collections.emptyList();
+            });
+        }
+        assertThat(loads.get()).isEqualTo(1);
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static <T> T getUninterruptibly(Future<T> future) {
+        try {
+            return future.get(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void testBookingEventsFromOtherNodesRefreshCache() {
+        Booking confirmed = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
+        confirmed.setLastUpdateTimestamp(LocalDateTime.of(2020, 12, 1, 10, 0));
+        Booking cancelled = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CANCELLED);
+        cancelled.setLastUpdateTimestamp(LocalDateTime.of(2020, 12, 1, 11, 0));
+        bookingCacheService.put(confirmed);
+        bookingCacheService.onBookingEvent(new BookingEvent(BookingEvent.Type.CANCELLED, 1L, cancelled, new int[0]));
+        assertThat(bookingCacheService.getCache().getIfPresent(1L)).isEqualTo(cancelled);
+        bookingCacheService.onBookingEvent(BookingEvent.reset());
+        assertThat(bookingCacheService.getCache().getIfPresent(1L)).isNull();
+    }
+
+    @Test
+    public void testDelayedBookingEventDoesNotReplaceLaterCachedVersion() {
+        Booking created = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
+        created.setLastUpdateTimestamp(LocalDateTime.of(2020, 12, 1, 10, 0));
+        Booking modified = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 14), LocalDate.of(2020, 12, 15), Booking.BookingStatus.CONFIRMED);
+        modified.setLastUpdateTimestamp(LocalDateTime.of(2020, 12, 1, 11, 0));
+        bookingCacheService.put(modified);
+        bookingCacheService.onBookingEvent(new BookingEvent(BookingEvent.Type.CREATED, 1L, created, new int[0]));
+        assertThat(bookingCacheService.getCache().getIfPresent(1L)).isEqualTo(modified);
+        bookingCacheService.onBookingEvent(new BookingEvent(BookingEvent.Type.MODIFIED, 2L,
+                new Booking(2L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED), new int[0]));
+        assertThat(bookingCacheService.getCache().getIfPresent(2L)).isNull();
+    }
+}
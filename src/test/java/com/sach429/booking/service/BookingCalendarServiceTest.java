@@ -0,0 +1,161 @@
+package com.sach429.booking.service;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.WriteRequest;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.CalendarDay;
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import com.sach429.booking.utils.BookingUtils;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.data.mongodb.core.CollectionCallback;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class BookingCalendarServiceTest {
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    public MongoTemplate mongoTemplate;
+
+    @Mock
+    public BookingConfigurationProperties bookingConfigurationProperties;
+
+    @Mock
+    public MongoCollection<Document> collection;
+
+    public BookingCalendarService bookingCalendarService;
+
+    public List<List<?>> bulkWrites;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        when(bookingConfigurationProperties.getConflictEngine()).thenReturn(BookingConfigurationProperties.ConflictEngine.CALENDAR);
+        when(mongoTemplate.execute(eq(CalendarDay.class), any(CollectionCallback.class)))
+                .thenAnswer(invocation -> ((CollectionCallback<?>) invocation.getArgument(1)).doInCollection(collection));
+        bulkWrites = new ArrayList<>();
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenAnswer(invocation -> {
+            bulkWrites.add(new ArrayList<>(invocation.getArgument(0)));
+            return null;
+        });
+        bookingCalendarService = new BookingCalendarService(mongoTemplate, bookingConfigurationProperties);
+    }
+
+    @Test
+    public void testIndexEngineClaimsAndReleasesNothing() {
+        when(bookingConfigurationProperties.getConflictEngine()).thenReturn(BookingConfigurationProperties.ConflictEngine.INDEX);
+        assertThat(bookingCalendarService.claimDays(1L, 0, new int[]{10, 11}, null)).isTrue();
+        assertThat(bookingCalendarService.claimDays(Collections.singletonList(booking(1L, 0, 10, 11)))).isEmpty();
+        bookingCalendarService.releaseDays(1L, 0, new int[]{10, 11});
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    public void testPastDaysArePrunedOncePerDay() {
+        int today = (int) LocalDate.now().toEpochDay();
+        bookingCalendarService.prunePastDays();
+        bookingCalendarService.claimDays(1L, 0, new int[]{today + 10}, null);
+        bookingCalendarService.claimDays(Collections.singletonList(booking(2L, 0, today + 12, today + 13)));
+        verify(collection, times(1)).deleteMany(new Document("_id.day", new Document("$lt", today)));
+    }
+
+    @Test
+    public void testDaysAreClaimedInOneBulkWriteOfConditionalUpserts() {
+        assertThat(bookingCalendarService.claimDays(1L, 2, new int[]{10, 11}, null)).isTrue();
+        assertThat(bulkWrites).hasSize(1);
+        assertThat(bulkWrites.get(0)).hasSize(2);
+        UpdateOneModel<?> claim = (UpdateOneModel<?>) bulkWrites.get(0).get(0);
+        assertThat(claim.getOptions().isUpsert()).isTrue();
+        assertThat((Document) claim.getFilter()).isEqualTo(new Document("_id", new Document("siteId", 2).append("day", 10)).append("bookingId", new Document("$in", Arrays.asList(null, 1L))));
+        assertThat((Document) claim.getUpdate()).isEqualTo(new Document("$set", new Document("bookingId", 1L)));
+    }
+
+    @Test
+    public void testBookingLosingADayReleasesTheDaysItGot() {
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+                .thenThrow(new MongoBulkWriteException(BulkWriteResult.acknowledged(WriteRequest.Type.UPDATE, 1, Collections.emptyList()),
+                        Collections.singletonList(new BulkWriteError(11000, "duplicate key", new BsonDocument(), 2)), null, new ServerAddress()))
+                .thenAnswer(invocation -> {
+                    bulkWrites.add(new ArrayList<>(invocation.getArgument(0)));
+                    return null;
+                });
+        assertThat(bookingCalendarService.claimDays(Arrays.asList(booking(1L, 0, 10, 11), booking(2L, 0, 11, 12)))).containsExactly(2L);
+        assertThat(bulkWrites).hasSize(1);
+        assertThat(bulkWrites.get(0)).hasSize(1);
+        UpdateManyModel<?> release = (UpdateManyModel<?>) bulkWrites.get(0).get(0);
+        assertThat((Document) release.getFilter()).isEqualTo(new Document("_id", new Document("$in", Arrays.asList(
+                new Document("siteId", 0).append("day", 11), new Document("siteId", 0).append("day", 12)))).append("bookingId", 2L));
+    }
+
+    @Test
+    public void testModifiedBookingLosingADayKeepsTheDaysItHeld() {
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+                .thenThrow(new MongoBulkWriteException(BulkWriteResult.acknowledged(WriteRequest.Type.UPDATE, 1, Collections.emptyList()),
+                        Collections.singletonList(new BulkWriteError(11000, "duplicate key", new BsonDocument(), 2)), null, new ServerAddress()))
+                .thenAnswer(invocation -> {
+                    bulkWrites.add(new ArrayList<>(invocation.getArgument(0)));
+                    return null;
+                });
+        assertThat(bookingCalendarService.claimDays(1L, 0, new int[]{11, 12, 13}, new int[]{10, 11})).isFalse();
+        UpdateManyModel<?> release = (UpdateManyModel<?>) bulkWrites.get(0).get(0);
+        assertThat((Document) release.getFilter()).isEqualTo(new Document("_id", new Document("$in", Arrays.asList(
+                new Document("siteId", 0).append("day", 12), new Document("siteId", 0).append("day", 13)))).append("bookingId", 1L));
+    }
+
+    @Test
+    public void testSameDaysOfDifferentSitesAreDifferentDocuments() {
+        assertThat(bookingCalendarService.claimDays(Arrays.asList(booking(1L, 0, 10, 10), booking(2L, 1, 10, 10)))).isEmpty();
+        assertThat(bulkWrites.get(0)).extracting(claim -> ((UpdateOneModel<?>) claim).getFilter())
+                .containsExactly(new Document("_id", new Document("siteId", 0).append("day", 10)).append("bookingId", new Document("$in", Arrays.asList(null, 1L))),
+                        new Document("_id", new Document("siteId", 1).append("day", 10)).append("bookingId", new Document("$in", Arrays.asList(null, 2L))));
+    }
+
+    @Test
+    public void testDaysOfBookingsReadWithoutThemAreTakenFromDates() {
+        Booking booking = new Booking(1L, null, null, null, LocalDate.ofEpochDay(10), LocalDate.ofEpochDay(11), Booking.BookingStatus.CANCELLED);
+        booking.setSiteId(3);
+        bookingCalendarService.releaseDays(Collections.singletonList(booking));
+        UpdateManyModel<?> release = (UpdateManyModel<?>) bulkWrites.get(0).get(0);
+        assertThat((Document) release.getFilter()).isEqualTo(new Document("_id", new Document("$in", Arrays.asList(
+                new Document("siteId", 3).append("day", 10), new Document("siteId", 3).append("day", 11)))).append("bookingId", 1L));
+    }
+
+    @Test
+    public void testDaysNotIn() {
+        assertThat(BookingCalendarService.daysNotIn(new int[]{10, 11, 12}, new int[]{12, 10})).containsExactly(11);
+        assertThat(BookingCalendarService.daysNotIn(new int[]{10, 11}, null)).containsExactly(10, 11);
+    }
+
+    private static Booking booking(Long bookingId, int siteId, int fromEpochDay, int toEpochDay) {
+        Booking booking = new Booking(bookingId, "fname", "lname", "email", LocalDate.ofEpochDay(fromEpochDay), LocalDate.ofEpochDay(toEpochDay), Booking.BookingStatus.CONFIRMED);
+        booking.setSiteId(siteId);
+        booking.setDays(BookingUtils.getEpochDaysBetween(booking.getFromDate(), booking.getToDate()));
+        return booking;
+    }
+}
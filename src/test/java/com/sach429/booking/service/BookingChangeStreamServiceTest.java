@@ -0,0 +1,141 @@
+package com.sach429.booking.service;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.changestream.OperationType;
+import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.BookingEvent;
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class BookingChangeStreamServiceTest {
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    public MongoTemplate mongoTemplate;
+
+    @Mock
+    public MongoConverter mongoConverter;
+
+    @Mock
+    public MongoCollection<Document> resumeTokenCollection;
+
+    @Mock
+    public ApplicationEventPublisher applicationEventPublisher;
+
+    @Mock
+    public BookingConfigurationProperties bookingConfigurationProperties;
+
+    public BookingChangeStreamService bookingChangeStreamService;
+
+    public Booking booking;
+
+    @Before
+    public void setup() {
+        booking = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 11), Booking.BookingStatus.CONFIRMED);
+        when(bookingConfigurationProperties.getNodeId()).thenReturn(3);
+        when(bookingConfigurationProperties.getResumeTokenFlushMillis()).thenReturn(60000);
+        when(mongoTemplate.getConverter()).thenReturn(mongoConverter);
+        when(mongoConverter.read(eq(Booking.class), any(Document.class))).thenReturn(booking);
+        when(mongoTemplate.getCollection(BookingChangeStreamService.RESUME_TOKEN_COLLECTION)).thenReturn(resumeTokenCollection);
+        bookingChangeStreamService = new BookingChangeStreamService(mongoTemplate, applicationEventPublisher, bookingConfigurationProperties);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        bookingChangeStreamService.shutdown();
+    }
+
+    @Test
+    public void testInsertIsCreatedEventWithBookedDays() {
+        BookingEvent bookingEvent = bookingChangeStreamService.toEvent(OperationType.INSERT, new Document(), null);
+        assertThat(bookingEvent.getType()).isEqualTo(BookingEvent.Type.CREATED);
+        assertThat(bookingEvent.getBookingId()).isEqualTo(1L);
+        assertThat(bookingEvent.getDays()).containsExactly((int) LocalDate.of(2020, 12, 10).toEpochDay(), (int) LocalDate.of(2020, 12, 11).toEpochDay());
+    }
+
+    @Test
+    public void testUpdateOfDaysIsModifiedEventWithNewDays() {
+        BsonDocument updatedFields = new BsonDocument(BookingPersistenceService.DAYS, new BsonArray(Arrays.asList(new BsonInt32(18610), new BsonInt32(18611))));
+        BookingEvent bookingEvent = bookingChangeStreamService.toEvent(OperationType.UPDATE, new Document(), updatedFields);
+        assertThat(bookingEvent.getType()).isEqualTo(BookingEvent.Type.MODIFIED);
+        assertThat(bookingEvent.getDays()).containsExactly(18610, 18611);
+    }
+
+    @Test
+    public void testUpdateOfSiteOnlyIsModifiedEventWithCurrentDays() {
+        BsonDocument updatedFields = new BsonDocument(BookingPersistenceService.SITE_ID, new BsonInt32(2));
+        BookingEvent bookingEvent = bookingChangeStreamService.toEvent(OperationType.UPDATE, new Document(), updatedFields);
+        assertThat(bookingEvent.getType()).isEqualTo(BookingEvent.Type.MODIFIED);
+        assertThat(bookingEvent.getBooking().getSiteId()).isEqualTo(2);
+        assertThat(bookingEvent.getDays()).containsExactly((int) LocalDate.of(2020, 12, 10).toEpochDay(), (int) LocalDate.of(2020, 12, 11).toEpochDay());
+    }
+
+    @Test
+    public void testUpdateOfStatusIsCancelledEvent() {
+        BsonDocument updatedFields = new BsonDocument(BookingPersistenceService.BOOKING_STATUS, new BsonString(Booking.BookingStatus.CANCELLED.name()));
+        BookingEvent bookingEvent = bookingChangeStreamService.toEvent(OperationType.UPDATE, new Document(), updatedFields);
+        assertThat(bookingEvent.getType()).isEqualTo(BookingEvent.Type.CANCELLED);
+        assertThat(bookingEvent.getDays()).hasSize(2);
+    }
+
+    @Test
+    public void testUnrelatedChangesAreNotPublished() {
+        BsonDocument updatedFields = new BsonDocument(BookingPersistenceService.CANCELLATION_REASON, new BsonString("reason"));
+        assertThat(bookingChangeStreamService.toEvent(OperationType.UPDATE, new Document(), updatedFields)).isNull();
+        assertThat(bookingChangeStreamService.toEvent(OperationType.UPDATE, null, updatedFields)).isNull();
+        assertThat(bookingChangeStreamService.toEvent(OperationType.DELETE, new Document(), null)).isNull();
+    }
+
+    @Test
+    public void testResumeTokenSavesAreThrottledPerNode() {
+        bookingChangeStreamService.setResumeToken(new BsonDocument("_data", new BsonString("1")));
+        bookingChangeStreamService.saveResumeToken(false);
+        bookingChangeStreamService.setResumeToken(new BsonDocument("_data", new BsonString("2")));
+        bookingChangeStreamService.saveResumeToken(false);
+        ArgumentCaptor<Document> tokenArgumentCaptor = ArgumentCaptor.forClass(Document.class);
+        verify(resumeTokenCollection, times(1)).replaceOne(eq(new Document("_id", "bookings-node-3")), tokenArgumentCaptor.capture(), any(ReplaceOptions.class));
+        assertThat(tokenArgumentCaptor.getValue().get(BookingChangeStreamService.RESUME_TOKEN)).isEqualTo(new BsonDocument("_data", new BsonString("1")));
+        bookingChangeStreamService.saveResumeToken(true);
+        verify(resumeTokenCollection, times(2)).replaceOne(any(Bson.class), any(Document.class), any(ReplaceOptions.class));
+        bookingChangeStreamService.saveResumeToken(true);
+        verify(resumeTokenCollection, times(2)).replaceOne(any(Bson.class), any(Document.class), any(ReplaceOptions.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLoadResumeToken() {
+        MongoCollection<BsonDocument> bsonCollection = mock(MongoCollection.class);
+        FindIterable<BsonDocument> findIterable = mock(FindIterable.class);
+        when(resumeTokenCollection.withDocumentClass(BsonDocument.class)).thenReturn(bsonCollection);
+        when(bsonCollection.find(any(Bson.class))).thenReturn(findIterable);
+        when(findIterable.first()).thenReturn(new BsonDocument(BookingChangeStreamService.RESUME_TOKEN, new BsonDocument("_data", new BsonString("1"))));
+        assertThat(bookingChangeStreamService.loadResumeToken()).isEqualTo(new BsonDocument("_data", new BsonString("1")));
+    }
+}
@@ -0,0 +1,93 @@
+package com.sach429.booking.service;
+
+import com.sach429.booking.metrics.BookingMetrics;
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class BookingIdGenerationServiceTest {
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    public MongoTemplate mongoTemplate;
+
+    @Mock
+    public BookingConfigurationProperties bookingConfigurationProperties;
+
+    public BookingIdGenerationService bookingIdGenerationService;
+
+    @Before
+    public void setup() {
+        when(bookingConfigurationProperties.getBookingIdBlockSize()).thenReturn(4);
+        bookingIdGenerationService = new BookingIdGenerationService(mongoTemplate, bookingConfigurationProperties, new BookingMetrics(new SimpleMeterRegistry()));
+    }
+
+    @After
+    public void tearDown() {
+        bookingIdGenerationService.shutdown();
+    }
+
+    @Test
+    public void testGenerateBookingIdsFromReservedBlocks() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Document.class), eq(BookingIdGenerationService.BOOKING_SEQUENCE)))
+                .thenReturn(new Document(BookingIdGenerationService.BOOKING_ID, 4L), new Document(BookingIdGenerationService.BOOKING_ID, 8L));
+        List<Long> bookingIds = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            bookingIds.add(bookingIdGenerationService.generateBookingId());
+        }
+        assertThat(bookingIds).containsExactly(1L, 2L, 3L, 4L, 5L, 6L);
+        verify(mongoTemplate, times(2)).findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Document.class), eq(BookingIdGenerationService.BOOKING_SEQUENCE));
+    }
+
+    @Test
+    public void testReserveBlockIncrementsSequenceByBlockSize() {
+        ArgumentCaptor<Update> updateArgumentCaptor = ArgumentCaptor.forClass(Update.class);
+        when(mongoTemplate.findAndModify(any(Query.class), updateArgumentCaptor.capture(), any(FindAndModifyOptions.class), eq(Document.class), eq(BookingIdGenerationService.BOOKING_SEQUENCE)))
+                .thenReturn(new Document(BookingIdGenerationService.BOOKING_ID, 4L));
+        assertThat(bookingIdGenerationService.generateBookingId()).isEqualTo(1L);
+        assertThat(updateArgumentCaptor.getValue().getUpdateObject().get("$inc", Document.class).get(BookingIdGenerationService.BOOKING_ID)).isEqualTo(4L);
+    }
+
+    @Test
+    public void testGenerateBookingIdsReservesRangeWithSingleIncrement() {
+        ArgumentCaptor<Update> updateArgumentCaptor = ArgumentCaptor.forClass(Update.class);
+        when(mongoTemplate.findAndModify(any(Query.class), updateArgumentCaptor.capture(), any(FindAndModifyOptions.class), eq(Document.class), eq(BookingIdGenerationService.BOOKING_SEQUENCE)))
+                .thenReturn(new Document(BookingIdGenerationService.BOOKING_ID, 10L), new Document(BookingIdGenerationService.BOOKING_ID, 14L));
+        assertThat(bookingIdGenerationService.generateBookingIds(10)).isEqualTo(1L);
+        assertThat(updateArgumentCaptor.getValue().getUpdateObject().get("$inc", Document.class).get(BookingIdGenerationService.BOOKING_ID)).isEqualTo(10L);
+        assertThat(bookingIdGenerationService.generateBookingId()).isEqualTo(11L);
+    }
+
+    @Test
+    public void testFallsBackToSynchronousAllocationWhenPrefetchFails() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Document.class), eq(BookingIdGenerationService.BOOKING_SEQUENCE)))
+                .thenReturn(new Document(BookingIdGenerationService.BOOKING_ID, 4L))
+                .thenThrow(new RuntimeException("prefetch failed"))
+                .thenReturn(new Document(BookingIdGenerationService.BOOKING_ID, 12L));
+        for (int i = 0; i < 4; i++) {
+            bookingIdGenerationService.generateBookingId();
+        }
+        assertThat(bookingIdGenerationService.generateBookingId()).isEqualTo(9L);
+    }
+}
@@ -0,0 +1,199 @@
+package com.sach429.booking.service;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.sach429.booking.availability.StayReservation;
+import com.sach429.booking.exception.BookingModifyException;
+import com.sach429.booking.metrics.BookingMetrics;
+import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.BookingHistory;
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import com.sach429.booking.repository.BookingRepository;
+import com.sach429.booking.types.BookingModify;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.data.mongodb.core.CollectionCallback;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * Wires the real service, validation and persistence layers over mocked Mongo access and counts
+ * the database operations issued for a single modify or cancel request.
+ */
+public class BookingModifyRoundTripTest {
+    public static final String YYYY_MM_DD = "yyyy-MM-dd";
+    private static final List<String> TEMPLATE_CALLS_WITHOUT_IO = Arrays.asList("execute", "getConverter");
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    public BookingRepository bookingRepository;
+
+    @Mock
+    public MongoTemplate mongoTemplate;
+
+    @Mock
+    public MongoCollection<Document> collection;
+
+    @Mock
+    public MongoConverter mongoConverter;
+
+    @Mock
+    public BookingConfigurationProperties bookingConfigurationProperties;
+
+    @Mock
+    public BookingIdGenerationService bookingIdGenerationService;
+
+    @Mock
+    public BookingAvailabilityService bookingAvailabilityService;
+
+    @Mock
+    public BookingCacheService bookingCacheService;
+
+    @Mock
+    public BookingAccountService bookingAccountService;
+
+    @Mock
+    public BookingCalendarService bookingCalendarService;
+
+    @Mock
+    public TransactionIdGenerationService transactionIdGenerationService;
+
+    public BookingService bookingService;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        when(bookingConfigurationProperties.getMinDaysInAdvance()).thenReturn(1);
+        when(bookingConfigurationProperties.getMaxDaysInAdvance()).thenReturn(30);
+        when(bookingConfigurationProperties.getMaxDuration()).thenReturn(3);
+        when(bookingConfigurationProperties.getSites()).thenReturn(1);
+        when(mongoTemplate.getConverter()).thenReturn(mongoConverter);
+        when(mongoConverter.convertToMongoType(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(mongoTemplate.execute(eq(Booking.class), any(CollectionCallback.class)))
+                .thenAnswer(invocation -> ((CollectionCallback<?>) invocation.getArgument(1)).doInCollection(collection));
+        when(bookingCacheService.get(anyLong(), any(Function.class)))
+                .thenAnswer(invocation -> ((Function<Long, Booking>) invocation.getArgument(1)).apply(invocation.getArgument(0)));
+        BookingPersistenceService bookingPersistenceService = new BookingPersistenceService(bookingRepository, mongoTemplate, bookingIdGenerationService, bookingAvailabilityService, bookingCacheService, bookingAccountService, bookingCalendarService);
+        BookingValidationService bookingValidationService = new BookingValidationService(bookingPersistenceService, bookingConfigurationProperties, bookingAccountService);
+        bookingService = new BookingService(bookingPersistenceService, bookingValidationService, bookingAvailabilityService, transactionIdGenerationService, bookingConfigurationProperties, new BookingMetrics(new SimpleMeterRegistry()));
+    }
+
+    @Test
+    public void testModifyBookingIssuesUpdateAndHistoryInsert() throws BookingModifyException {
+        Booking booking = newChangedBooking(Booking.BookingStatus.CONFIRMED);
+        when(collection.findOneAndUpdate(any(Bson.class), anyList(), any(FindOneAndUpdateOptions.class))).thenReturn(new Document());
+        when(mongoConverter.read(eq(Booking.class), any(Document.class))).thenReturn(booking);
+        assertThat(bookingService.modifyBooking(newBookingModify(), 1L)).isEqualTo(booking);
+//        the conditional update and the insert of the replaced version into the history
+        assertThat(countDatabaseOperations()).isEqualTo(2);
+        verify(mongoTemplate).insert(anyList(), eq(BookingHistory.class));
+    }
+
+    @Test
+    public void testModifyBookingWithAccountIntervalReadsBookingOnCacheMiss() throws BookingModifyException {
+        Booking booking = newChangedBooking(Booking.BookingStatus.CONFIRMED);
+        when(bookingAccountService.isEnabled()).thenReturn(true);
+        when(bookingAccountService.reserveStay(eq("email"), eq(1L), anyLong(), anyLong())).thenReturn(StayReservation.reserved(() -> {
+        }));
+        when(bookingRepository.getBookingByBookingId(1L)).thenReturn(booking.getPreviousVersion());
+        when(collection.findOneAndUpdate(any(Bson.class), anyList(), any(FindOneAndUpdateOptions.class))).thenReturn(new Document());
+        when(mongoConverter.read(eq(Booking.class), any(Document.class))).thenReturn(booking);
+        assertThat(bookingService.modifyBooking(newBookingModify(), 1L)).isEqualTo(booking);
+//        the email of the account is read before the update, then the update and the history insert
+        assertThat(countDatabaseOperations()).isEqualTo(3);
+    }
+
+    @Test
+    public void testModifyBookingWithAccountIntervalOfCachedBookingReadsNothing() throws BookingModifyException {
+        Booking booking = newChangedBooking(Booking.BookingStatus.CONFIRMED);
+        when(bookingAccountService.isEnabled()).thenReturn(true);
+        when(bookingAccountService.reserveStay(eq("email"), eq(1L), anyLong(), anyLong())).thenReturn(StayReservation.reserved(() -> {
+        }));
+        when(bookingCacheService.get(eq(1L), any())).thenReturn(booking.getPreviousVersion());
+        when(collection.findOneAndUpdate(any(Bson.class), anyList(), any(FindOneAndUpdateOptions.class))).thenReturn(new Document());
+        when(mongoConverter.read(eq(Booking.class), any(Document.class))).thenReturn(booking);
+        assertThat(bookingService.modifyBooking(newBookingModify(), 1L)).isEqualTo(booking);
+        assertThat(countDatabaseOperations()).isEqualTo(2);
+    }
+
+    @Test
+    public void testCancelBookingIssuesUpdateAndHistoryInsert() throws BookingModifyException {
+        Booking booking = newChangedBooking(Booking.BookingStatus.CANCELLED);
+        when(collection.findOneAndUpdate(any(Bson.class), anyList(), any(FindOneAndUpdateOptions.class))).thenReturn(new Document());
+        when(mongoConverter.read(eq(Booking.class), any(Document.class))).thenReturn(booking);
+        BookingModify bookingModify = new BookingModify();
+        bookingModify.setAction(BookingModify.ActionType.CANCEL);
+        bookingModify.setReason("reason");
+        assertThat(bookingService.modifyBooking(bookingModify, 1L)).isEqualTo(booking);
+        assertThat(countDatabaseOperations()).isEqualTo(2);
+        verify(mongoTemplate).insert(anyList(), eq(BookingHistory.class));
+    }
+
+    @Test
+    public void testRejectedModifyLoadsBookingOnlyToExplainFailure() {
+        Booking booking = new Booking(1L, "fname", "lname", "email", LocalDate.now().plusDays(3L), LocalDate.now().plusDays(4L), Booking.BookingStatus.CANCELLED);
+        when(collection.findOneAndUpdate(any(Bson.class), anyList(), any(FindOneAndUpdateOptions.class))).thenReturn(null);
+        when(bookingRepository.getBookingByBookingId(1L)).thenReturn(booking);
+        BookingModify bookingModify = new BookingModify();
+        bookingModify.setAction(BookingModify.ActionType.CANCEL);
+        bookingModify.setReason("reason");
+        assertThatThrownBy(() -> bookingService.modifyBooking(bookingModify, 1L))
+                .isInstanceOf(BookingModifyException.class)
+                .hasMessage("Only confirmed booking can be modified");
+        assertThat(countDatabaseOperations()).isEqualTo(2);
+    }
+
+    /**
+     * A booking as the conditional update returns it, carrying the version it replaced.
+     */
+    private static Booking newChangedBooking(Booking.BookingStatus bookingStatus) {
+        Booking previousVersion = new Booking(1L, "fname", "lname", "email", LocalDate.now().plusDays(5L), LocalDate.now().plusDays(6L), Booking.BookingStatus.CONFIRMED);
+        Booking booking = new Booking(1L, "fname", "lname", "email", LocalDate.now().plusDays(3L), LocalDate.now().plusDays(4L), bookingStatus);
+        booking.setPreviousVersion(previousVersion);
+        booking.setLastUpdateTimestamp(LocalDateTime.now());
+        return booking;
+    }
+
+    private static BookingModify newBookingModify() {
+        BookingModify bookingModify = new BookingModify();
+        bookingModify.setAction(BookingModify.ActionType.MODIFY);
+        bookingModify.setFromDate(LocalDate.now().plusDays(3L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
+        bookingModify.setToDate(LocalDate.now().plusDays(4L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
+        return bookingModify;
+    }
+
+    /**
+     * Every call reaching Mongo, whichever of the collection, the repository or the template it goes through. The
+     * template only hands the collection to callbacks in {@code execute} and the converter does no I/O, those
+     * calls are not counted twice.
+     */
+    private long countDatabaseOperations() {
+        long templateOperations = mockingDetails(mongoTemplate).getInvocations().stream()
+                .filter(invocation -> !TEMPLATE_CALLS_WITHOUT_IO.contains(invocation.getMethod().getName()))
+                .count();
+        return mockingDetails(collection).getInvocations().size() + mockingDetails(bookingRepository).getInvocations().size() + templateOperations;
+    }
+}
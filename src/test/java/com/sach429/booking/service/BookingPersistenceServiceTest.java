@@ -1,9 +1,27 @@
 package com.sach429.booking.service;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.WriteRequest;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.sach429.booking.exception.BookingErrorCode;
 import com.sach429.booking.exception.BookingNotFoundException;
 import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.BookingBatchResult;
+import com.sach429.booking.model.BookingHistory;
 import com.sach429.booking.repository.BookingRepository;
+import com.sach429.booking.types.BookingCancel;
 import com.sach429.booking.types.BookingCreate;
+import com.sach429.booking.types.BookingModify;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -11,14 +29,28 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.CollectionCallback;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
 import org.springframework.data.mongodb.core.query.Query;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.*;
 
@@ -38,6 +70,25 @@ public class BookingPersistenceServiceTest {
     @Mock
     BookingIdGenerationService bookingIdGenerationService;
 
+    @Mock
+    BookingAvailabilityService bookingAvailabilityService;
+
+    @Mock
+    BookingCacheService bookingCacheService;
+
+    @Mock
+    BookingAccountService bookingAccountService;
+
+    @Mock
+    BookingCalendarService bookingCalendarService;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        when(bookingCacheService.get(anyLong(), any(Function.class)))
+                .thenAnswer(invocation -> ((Function<Long, Booking>) invocation.getArgument(1)).apply(invocation.getArgument(0)));
+    }
+
     @Test
     public void testRetrieveSingleBookingWhenNotFound() {
         when(bookingRepository.getBookingByBookingId(anyLong())).thenReturn(null);
@@ -50,13 +101,59 @@ public class BookingPersistenceServiceTest {
         assertThat(bookingPersistenceService.getBooking(1l)).isInstanceOf(Booking.class);
     }
 
+    @Test
+    public void testRetrieveSingleBookingWhenCached() throws BookingNotFoundException {
+        Booking booking = mock(Booking.class);
+        when(bookingCacheService.get(anyLong(), any(Function.class))).thenReturn(booking);
+        assertThat(bookingPersistenceService.getBooking(1l)).isEqualTo(booking);
+        verifyNoInteractions(bookingRepository);
+    }
+
     @Test
     public void testRetrieveMultipleBookingsWhenFromDateInvalid() throws BookingNotFoundException {
         Booking booking = new Booking(null, null, null, "email", LocalDate.now(), LocalDate.now(), Booking.BookingStatus.CONFIRMED);
-        bookingPersistenceService.getBookings(booking);
+        bookingPersistenceService.getBookings(booking, null, 10);
         verify(mongoTemplate, atMostOnce()).find(any(Query.class), eq(Booking.class));
     }
 
+    @Test
+    public void testGetBookingsPageIsKeyedOnBookingId() {
+        ArgumentCaptor<Query> queryArgumentCaptor = ArgumentCaptor.forClass(Query.class);
+        bookingPersistenceService.getBookings(new Booking(null, null, null, "email", null, null, null), 5L, 10);
+        verify(mongoTemplate).find(queryArgumentCaptor.capture(), eq(Booking.class));
+        Query query = queryArgumentCaptor.getValue();
+        assertThat(query.getQueryObject()).containsExactly(entry("email", "email"), entry("bookingId", new Document("$gt", 5L)));
+        assertThat(query.getSortObject()).containsExactly(entry("bookingId", 1));
+        assertThat(query.getLimit()).isEqualTo(10);
+    }
+
+    @Test
+    public void testBookingsQueryComposesAllFilters() {
+        Booking booking = new Booking(null, null, null, "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
+        Query query = bookingPersistenceService.getBookingsQuery(booking);
+        assertThat(query.getQueryObject()).containsExactly(
+                entry("email", "email"),
+                entry("bookingStatus", Booking.BookingStatus.CONFIRMED),
+                entry("fromDate", new Document("$gte", LocalDate.of(2020, 12, 10))),
+                entry("toDate", new Document("$lte", LocalDate.of(2020, 12, 12))));
+        assertThat(query.getFieldsObject()).containsOnly(entry("previousVersion", 0), entry("days", 0));
+    }
+
+    @Test
+    public void testBookingsQueryFiltersOnSite() {
+        Booking booking = new Booking(null, null, null, "email", null, null, null);
+        booking.setSiteId(2);
+        assertThat(bookingPersistenceService.getBookingsQuery(booking).getQueryObject())
+                .containsExactly(entry("email", "email"), entry("siteId", 2));
+    }
+
+    @Test
+    public void testBookingsQueryGatesDateFiltersOnDates() {
+        Booking booking = new Booking(null, null, null, null, null, LocalDate.of(2020, 12, 12), null);
+        assertThat(bookingPersistenceService.getBookingsQuery(booking).getQueryObject())
+                .containsOnly(entry("toDate", new Document("$lte", LocalDate.of(2020, 12, 12))));
+    }
+
     @Test
     public void testCreateBooking() throws BookingNotFoundException {
         when(bookingIdGenerationService.generateBookingId()).thenReturn(1l);
@@ -67,11 +164,329 @@ public class BookingPersistenceServiceTest {
         bookingCreate.setLastName("lname");
         bookingCreate.setFromDate("2020-12-10");
         bookingCreate.setToDate("2020-12-12");
+        when(bookingCalendarService.claimDays(anyLong(), anyInt(), any(int[].class), any())).thenReturn(true);
         bookingPersistenceService.createBooking(bookingCreate);
         verify(bookingRepository, atMostOnce()).save(bookingArgumentCaptor.capture());
         assertThat(bookingArgumentCaptor.getValue())
                 .extracting("bookingId", "firstName", "lastName", "email", "fromDate", "toDate", "bookingStatus")
                 .containsExactly(1l, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
-        assertThat(bookingArgumentCaptor.getValue().getDays()).containsExactlyInAnyOrder("2020-12-10", "2020-12-11", "2020-12-12");
+        assertThat(bookingArgumentCaptor.getValue().getDays()).containsExactly(
+                (int) LocalDate.of(2020, 12, 10).toEpochDay(), (int) LocalDate.of(2020, 12, 11).toEpochDay(), (int) LocalDate.of(2020, 12, 12).toEpochDay());
+        verify(bookingAvailabilityService).bookingConfirmed(bookingArgumentCaptor.getValue());
+        verify(bookingCacheService).put(bookingArgumentCaptor.getValue());
+    }
+
+    @Test
+    public void testCreateBookingWithDaysHeldByAnotherBookingIsNotSaved() {
+        when(bookingIdGenerationService.generateBookingId()).thenReturn(1L);
+        when(bookingCalendarService.claimDays(anyLong(), anyInt(), any(int[].class), any())).thenReturn(false);
+        assertThatThrownBy(() -> bookingPersistenceService.createBooking(newBookingCreate("2020-12-10", "2020-12-12"))).isInstanceOf(DuplicateKeyException.class);
+        verifyNoInteractions(bookingRepository);
+        verify(bookingCalendarService, never()).releaseDays(anyLong(), anyInt(), any(int[].class));
+    }
+
+    @Test
+    public void testCreateBookingReleasesDaysWhenNotSaved() {
+        when(bookingIdGenerationService.generateBookingId()).thenReturn(1L);
+        when(bookingCalendarService.claimDays(anyLong(), anyInt(), any(int[].class), any())).thenReturn(true);
+        when(bookingRepository.save(any(Booking.class))).thenThrow(new IllegalStateException("write failed"));
+        assertThatThrownBy(() -> bookingPersistenceService.createBooking(newBookingCreate("2020-12-10", "2020-12-11"))).isInstanceOf(IllegalStateException.class);
+        verify(bookingCalendarService).releaseDays(1L, 0, new int[]{(int) LocalDate.of(2020, 12, 10).toEpochDay(), (int) LocalDate.of(2020, 12, 11).toEpochDay()});
+        verifyNoInteractions(bookingAvailabilityService);
+    }
+
+    @Test
+    public void testUpdateBookingOnCalendarClaimsNewDaysAndReleasesDroppedDays() {
+        MongoCollection<Document> collection = mockBookingsCollection();
+        LocalDate fromDate = LocalDate.now().plusDays(10L);
+        int day = (int) fromDate.toEpochDay();
+        Booking storedBooking = new Booking(1L, "fname", "lname", "email", fromDate, fromDate.plusDays(1L), Booking.BookingStatus.CONFIRMED);
+        Booking oldBooking = new Booking(1L, "fname", "lname", "email", fromDate, fromDate.plusDays(1L), Booking.BookingStatus.CONFIRMED);
+        oldBooking.setDays(new int[]{day, day + 1});
+        Booking newBooking = new Booking(1L, "fname", "lname", "email", fromDate.plusDays(1L), fromDate.plusDays(2L), Booking.BookingStatus.CONFIRMED);
+        newBooking.setDays(new int[]{day + 1, day + 2});
+        newBooking.setPreviousVersion(oldBooking);
+        when(bookingCalendarService.isEnabled()).thenReturn(true);
+        when(bookingCalendarService.claimDays(anyLong(), anyInt(), any(int[].class), any())).thenReturn(true);
+        when(bookingRepository.getBookingByBookingId(1L)).thenReturn(storedBooking);
+        when(collection.findOneAndUpdate(any(Bson.class), anyList(), any(FindOneAndUpdateOptions.class))).thenReturn(new Document());
+        when(mongoTemplate.getConverter().read(eq(Booking.class), any(Document.class))).thenReturn(newBooking);
+        assertThat(bookingPersistenceService.updateBooking(newBookingModify(fromDate.plusDays(1L), fromDate.plusDays(2L)), 1L)).isEqualTo(newBooking);
+        verify(bookingCalendarService).claimDays(1L, 0, new int[]{day + 1, day + 2}, new int[]{day, day + 1});
+        verify(bookingCalendarService).releaseDays(1L, 0, new int[]{day});
+    }
+
+    @Test
+    public void testUpdateBookingOnCalendarMovingSiteClaimsAllDaysAndReleasesOldSite() {
+        MongoCollection<Document> collection = mockBookingsCollection();
+        LocalDate fromDate = LocalDate.now().plusDays(10L);
+        int day = (int) fromDate.toEpochDay();
+        Booking storedBooking = new Booking(1L, "fname", "lname", "email", fromDate, fromDate.plusDays(1L), Booking.BookingStatus.CONFIRMED);
+        storedBooking.setSiteId(0);
+        Booking oldBooking = new Booking(1L, "fname", "lname", "email", fromDate, fromDate.plusDays(1L), Booking.BookingStatus.CONFIRMED);
+        oldBooking.setSiteId(0);
+        oldBooking.setDays(new int[]{day, day + 1});
+        Booking newBooking = new Booking(1L, "fname", "lname", "email", fromDate, fromDate.plusDays(1L), Booking.BookingStatus.CONFIRMED);
+        newBooking.setSiteId(2);
+        newBooking.setDays(new int[]{day, day + 1});
+        newBooking.setPreviousVersion(oldBooking);
+        when(bookingCalendarService.isEnabled()).thenReturn(true);
+        when(bookingCalendarService.claimDays(anyLong(), anyInt(), any(int[].class), any())).thenReturn(true);
+        when(bookingRepository.getBookingByBookingId(1L)).thenReturn(storedBooking);
+        when(collection.findOneAndUpdate(any(Bson.class), anyList(), any(FindOneAndUpdateOptions.class))).thenReturn(new Document());
+        when(mongoTemplate.getConverter().read(eq(Booking.class), any(Document.class))).thenReturn(newBooking);
+        BookingModify bookingModify = newBookingModify(fromDate, fromDate.plusDays(1L));
+        bookingModify.setSiteId(2);
+        assertThat(bookingPersistenceService.updateBooking(bookingModify, 1L)).isEqualTo(newBooking);
+        verify(bookingCalendarService).claimDays(1L, 2, new int[]{day, day + 1}, null);
+        verify(bookingCalendarService).releaseDays(1L, 0, new int[]{day, day + 1});
+    }
+
+    @Test
+    public void testUpdateBookingOnCalendarWithDaysHeldByAnotherBookingIsNotModified() {
+        LocalDate fromDate = LocalDate.now().plusDays(10L);
+        int day = (int) fromDate.toEpochDay();
+        Booking oldBooking = new Booking(1L, "fname", "lname", "email", fromDate, fromDate.plusDays(1L), Booking.BookingStatus.CONFIRMED);
+        when(bookingCalendarService.isEnabled()).thenReturn(true);
+        when(bookingCalendarService.claimDays(anyLong(), anyInt(), any(int[].class), any())).thenReturn(false);
+        when(bookingRepository.getBookingByBookingId(1L)).thenReturn(oldBooking);
+        assertThatThrownBy(() -> bookingPersistenceService.updateBooking(newBookingModify(fromDate.plusDays(1L), fromDate.plusDays(2L)), 1L)).isInstanceOf(DuplicateKeyException.class);
+//        the repository reads the booking without its days, the days it holds still have to reach the calendar so it keeps them
+        verify(bookingCalendarService).claimDays(1L, 0, new int[]{day + 1, day + 2}, new int[]{day, day + 1});
+        verify(mongoTemplate, never()).execute(eq(Booking.class), any());
+    }
+
+    @Test
+    public void testUpdateCancelledBookingOnCalendarClaimsNoDays() {
+        MongoCollection<Document> collection = mockBookingsCollection();
+        LocalDate fromDate = LocalDate.now().plusDays(10L);
+        Booking cancelledBooking = new Booking(1L, "fname", "lname", "email", fromDate, fromDate.plusDays(1L), Booking.BookingStatus.CANCELLED);
+        when(bookingCalendarService.isEnabled()).thenReturn(true);
+        when(bookingRepository.getBookingByBookingId(1L)).thenReturn(cancelledBooking);
+        assertThat(bookingPersistenceService.updateBooking(newBookingModify(fromDate.plusDays(1L), fromDate.plusDays(2L)), 1L)).isNull();
+        verify(collection).findOneAndUpdate(any(Bson.class), anyList(), any(FindOneAndUpdateOptions.class));
+        verify(bookingCalendarService, never()).claimDays(anyLong(), anyInt(), any(int[].class), any());
+        verify(bookingCalendarService, never()).releaseDays(anyLong(), anyInt(), any(int[].class));
+    }
+
+    @Test
+    public void testUpdateBookingOnCalendarCancelledMeanwhileReleasesAllClaimedDays() {
+        MongoCollection<Document> collection = mockBookingsCollection();
+        LocalDate fromDate = LocalDate.now().plusDays(10L);
+        int day = (int) fromDate.toEpochDay();
+        Booking oldBooking = new Booking(1L, "fname", "lname", "email", fromDate, fromDate.plusDays(1L), Booking.BookingStatus.CONFIRMED);
+        Booking cancelledBooking = new Booking(1L, "fname", "lname", "email", fromDate, fromDate.plusDays(1L), Booking.BookingStatus.CANCELLED);
+        when(bookingCalendarService.isEnabled()).thenReturn(true);
+        when(bookingCalendarService.claimDays(anyLong(), anyInt(), any(int[].class), any())).thenReturn(true);
+        when(bookingRepository.getBookingByBookingId(1L)).thenReturn(oldBooking, cancelledBooking);
+        assertThat(bookingPersistenceService.updateBooking(newBookingModify(fromDate.plusDays(1L), fromDate.plusDays(2L)), 1L)).isNull();
+        verify(collection).findOneAndUpdate(any(Bson.class), anyList(), any(FindOneAndUpdateOptions.class));
+        verify(bookingCalendarService).releaseDays(1L, 0, new int[]{day + 1, day + 2});
+    }
+
+    @Test
+    public void testFailedUpdateBookingOnCalendarKeepsDaysStillHeld() {
+        MongoCollection<Document> collection = mockBookingsCollection();
+        LocalDate fromDate = LocalDate.now().plusDays(10L);
+        int day = (int) fromDate.toEpochDay();
+        Booking oldBooking = new Booking(1L, "fname", "lname", "email", fromDate, fromDate.plusDays(1L), Booking.BookingStatus.CONFIRMED);
+        when(bookingCalendarService.isEnabled()).thenReturn(true);
+        when(bookingCalendarService.claimDays(anyLong(), anyInt(), any(int[].class), any())).thenReturn(true);
+        when(bookingRepository.getBookingByBookingId(1L)).thenReturn(oldBooking);
+        when(collection.findOneAndUpdate(any(Bson.class), anyList(), any(FindOneAndUpdateOptions.class))).thenThrow(new IllegalStateException("write failed"));
+        assertThatThrownBy(() -> bookingPersistenceService.updateBooking(newBookingModify(fromDate.plusDays(1L), fromDate.plusDays(2L)), 1L)).isInstanceOf(IllegalStateException.class);
+        verify(bookingCalendarService).claimDays(1L, 0, new int[]{day + 1, day + 2}, new int[]{day, day + 1});
+        verify(bookingCalendarService).releaseDays(1L, 0, new int[]{day + 2});
+        verify(bookingCalendarService, never()).releaseDays(1L, 0, new int[]{day + 1, day + 2});
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testUpdateBookingIsSingleRoundTrip() {
+        MongoCollection<Document> collection = mockBookingsCollection();
+        Booking oldBooking = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
+        Booking newBooking = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 14), LocalDate.of(2020, 12, 15), Booking.BookingStatus.CONFIRMED);
+        newBooking.setPreviousVersion(oldBooking);
+        newBooking.setLastUpdateTimestamp(LocalDateTime.of(2020, 12, 1, 10, 0));
+        when(collection.findOneAndUpdate(any(Bson.class), anyList(), any(FindOneAndUpdateOptions.class))).thenReturn(new Document());
+        when(mongoTemplate.getConverter().read(eq(Booking.class), any(Document.class))).thenReturn(newBooking);
+        BookingModify bookingModify = new BookingModify();
+        bookingModify.setAction(BookingModify.ActionType.MODIFY);
+        bookingModify.setFromDate("2020-12-14");
+        bookingModify.setToDate("2020-12-15");
+        assertThat(bookingPersistenceService.updateBooking(bookingModify, 1L)).isEqualTo(newBooking);
+        ArgumentCaptor<List> pipelineArgumentCaptor = ArgumentCaptor.forClass(List.class);
+        verify(collection, times(1)).findOneAndUpdate(any(Bson.class), pipelineArgumentCaptor.capture(), any(FindOneAndUpdateOptions.class));
+        assertThat(pipelineArgumentCaptor.getValue()).hasSize(2);
+        assertThat(((Document) pipelineArgumentCaptor.getValue().get(0)).get("$set", Document.class)).containsKey("previousVersion");
+        assertThat(((Document) pipelineArgumentCaptor.getValue().get(1)).get("$set", Document.class)).containsKeys("fromDate", "toDate", "days", "lastUpdateTimestamp");
+        verifyNoMoreInteractions(collection);
+        verify(bookingAvailabilityService).bookingModified(oldBooking, newBooking);
+        verify(bookingCacheService).put(newBooking);
+        ArgumentCaptor<List> historyArgumentCaptor = ArgumentCaptor.forClass(List.class);
+        verify(mongoTemplate).insert(historyArgumentCaptor.capture(), eq(BookingHistory.class));
+        assertThat(historyArgumentCaptor.getValue()).containsExactly(new BookingHistory(1L, LocalDateTime.of(2020, 12, 1, 10, 0), oldBooking));
+    }
+
+    @Test
+    public void testBookingHistoryFailureDoesNotFailModify() {
+        MongoCollection<Document> collection = mockBookingsCollection();
+        Booking oldBooking = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
+        Booking cancelledBooking = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CANCELLED);
+        cancelledBooking.setPreviousVersion(oldBooking);
+        when(collection.findOneAndUpdate(any(Bson.class), anyList(), any(FindOneAndUpdateOptions.class))).thenReturn(new Document());
+        when(mongoTemplate.getConverter().read(eq(Booking.class), any(Document.class))).thenReturn(cancelledBooking);
+        when(mongoTemplate.insert(anyList(), eq(BookingHistory.class))).thenThrow(new RuntimeException("history unavailable"));
+        BookingModify bookingModify = new BookingModify();
+        bookingModify.setAction(BookingModify.ActionType.CANCEL);
+        bookingModify.setReason("reason");
+        assertThat(bookingPersistenceService.cancelBooking(bookingModify, 1L)).isEqualTo(cancelledBooking);
+        verify(bookingAvailabilityService).bookingCancelled(cancelledBooking);
+    }
+
+    @Test
+    public void testBookingHistoryQuerySortsByChange() {
+        Query query = bookingPersistenceService.getBookingHistoryQuery(1L);
+        assertThat(query.getQueryObject()).containsOnly(entry("bookingId", 1L));
+        assertThat(query.getSortObject()).containsOnly(entry("changedAt", 1));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCancelBookingIsSingleRoundTrip() {
+        MongoCollection<Document> collection = mockBookingsCollection();
+        Booking cancelledBooking = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CANCELLED);
+        when(collection.findOneAndUpdate(any(Bson.class), anyList(), any(FindOneAndUpdateOptions.class))).thenReturn(new Document());
+        when(mongoTemplate.getConverter().read(eq(Booking.class), any(Document.class))).thenReturn(cancelledBooking);
+        BookingModify bookingModify = new BookingModify();
+        bookingModify.setAction(BookingModify.ActionType.CANCEL);
+        bookingModify.setReason("reason");
+        assertThat(bookingPersistenceService.cancelBooking(bookingModify, 1L)).isEqualTo(cancelledBooking);
+        verify(collection, times(1)).findOneAndUpdate(any(Bson.class), anyList(), any(FindOneAndUpdateOptions.class));
+        verifyNoMoreInteractions(collection);
+        verify(bookingAvailabilityService).bookingCancelled(cancelledBooking);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testUpdateBookingWhenNotConfirmed() {
+        MongoCollection<Document> collection = mockBookingsCollection();
+        when(collection.findOneAndUpdate(any(Bson.class), anyList(), any(FindOneAndUpdateOptions.class))).thenReturn(null);
+        BookingModify bookingModify = new BookingModify();
+        bookingModify.setAction(BookingModify.ActionType.MODIFY);
+        bookingModify.setFromDate("2020-12-14");
+        bookingModify.setToDate("2020-12-15");
+        assertThat(bookingPersistenceService.updateBooking(bookingModify, 1L)).isNull();
+        verify(bookingCacheService).invalidate(1L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCreateBookingsIsSingleBulkWriteWithPerItemResults() {
+        MongoCollection<Document> collection = mockBookingsCollection();
+        when(bookingIdGenerationService.generateBookingIds(2)).thenReturn(7L);
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenThrow(new MongoBulkWriteException(
+                BulkWriteResult.acknowledged(WriteRequest.Type.INSERT, 1, Collections.emptyList()),
+                Collections.singletonList(new BulkWriteError(11000, "duplicate key", new BsonDocument(), 1)), null, new ServerAddress()));
+        Map<Integer, BookingCreate> bookingCreates = new LinkedHashMap<>();
+        bookingCreates.put(0, newBookingCreate("2020-12-10", "2020-12-12"));
+        bookingCreates.put(2, newBookingCreate("2020-12-14", "2020-12-15"));
+        List<BookingBatchResult> results = bookingPersistenceService.createBookings(bookingCreates);
+        assertThat(results).extracting(BookingBatchResult::getIndex).containsExactly(0, 2);
+        assertThat(results.get(0).getBooking().getBookingId()).isEqualTo(7L);
+        assertThat(results.get(1).getError().getCode()).isEqualTo(BookingErrorCode.DATES_NOT_AVAILABLE.name());
+        ArgumentCaptor<BulkWriteOptions> optionsArgumentCaptor = ArgumentCaptor.forClass(BulkWriteOptions.class);
+        verify(collection, times(1)).bulkWrite(anyList(), optionsArgumentCaptor.capture());
+        assertThat(optionsArgumentCaptor.getValue().isOrdered()).isFalse();
+        verify(bookingIdGenerationService, never()).generateBookingId();
+        verify(bookingAvailabilityService, times(1)).bookingConfirmed(results.get(0).getBooking());
+        verify(bookingCacheService, times(1)).put(results.get(0).getBooking());
+        ArgumentCaptor<List<Booking>> releasesArgumentCaptor = ArgumentCaptor.forClass(List.class);
+        verify(bookingCalendarService).releaseDays(releasesArgumentCaptor.capture());
+        assertThat(releasesArgumentCaptor.getValue()).extracting(Booking::getBookingId).containsExactly(8L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCreateBookingsOnCalendarInsertsOnlyBookingsHoldingAllTheirDays() {
+        MongoCollection<Document> collection = mockBookingsCollection();
+        when(bookingIdGenerationService.generateBookingIds(2)).thenReturn(7L);
+        when(bookingCalendarService.claimDays(anyList())).thenReturn(Collections.singleton(7L));
+        Map<Integer, BookingCreate> bookingCreates = new LinkedHashMap<>();
+        bookingCreates.put(0, newBookingCreate("2020-12-10", "2020-12-12"));
+        bookingCreates.put(1, newBookingCreate("2020-12-14", "2020-12-15"));
+        List<BookingBatchResult> results = bookingPersistenceService.createBookings(bookingCreates);
+        assertThat(results).extracting(BookingBatchResult::isSuccess).containsExactly(false, true);
+        assertThat(results.get(0).getError().getCode()).isEqualTo(BookingErrorCode.DATES_NOT_AVAILABLE.name());
+        assertThat(results.get(1).getBooking().getBookingId()).isEqualTo(8L);
+        ArgumentCaptor<List> insertsArgumentCaptor = ArgumentCaptor.forClass(List.class);
+        verify(collection, times(1)).bulkWrite(insertsArgumentCaptor.capture(), any(BulkWriteOptions.class));
+        assertThat(insertsArgumentCaptor.getValue()).hasSize(1);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCancelBookingsReportsOnlyBookingsCancelledByBatch() {
+        MongoCollection<Document> collection = mockBookingsCollection();
+        List<UpdateOneModel<Document>> updates = new ArrayList<>();
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenAnswer(invocation -> {
+            updates.addAll(invocation.getArgument(0));
+            return null;
+        });
+        when(mongoTemplate.find(any(Query.class), eq(Booking.class))).thenAnswer(invocation -> {
+            Document applyChanges = ((Document) updates.get(0).getUpdatePipeline().get(1)).get("$set", Document.class);
+            LocalDateTime cancelTimestamp = (LocalDateTime) applyChanges.get("lastUpdateTimestamp", Document.class).get("$literal");
+            Booking cancelledByBatch = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CANCELLED);
+            cancelledByBatch.setLastUpdateTimestamp(cancelTimestamp);
+            Booking cancelledBefore = new Booking(2L, "fname", "lname", "email", LocalDate.of(2020, 12, 14), LocalDate.of(2020, 12, 15), Booking.BookingStatus.CANCELLED);
+            cancelledBefore.setLastUpdateTimestamp(cancelTimestamp.minusSeconds(1L));
+            return Arrays.asList(cancelledByBatch, cancelledBefore);
+        });
+        Map<Integer, BookingCancel> bookingCancels = new LinkedHashMap<>();
+        bookingCancels.put(0, newBookingCancel(1L));
+        bookingCancels.put(1, newBookingCancel(2L));
+        List<BookingBatchResult> results = bookingPersistenceService.cancelBookings(bookingCancels);
+        assertThat(results).extracting(BookingBatchResult::isSuccess).containsExactly(true, false);
+        assertThat(results.get(1).getError().getCode()).isEqualTo(BookingErrorCode.BOOKING_NOT_CONFIRMED.name());
+        verify(collection, times(1)).bulkWrite(anyList(), any(BulkWriteOptions.class));
+        verify(mongoTemplate, times(1)).find(any(Query.class), eq(Booking.class));
+        verify(bookingAvailabilityService, times(1)).bookingCancelled(any(Booking.class));
+        verify(bookingAvailabilityService).bookingCancelled(results.get(0).getBooking());
+    }
+
+    private static BookingCreate newBookingCreate(String fromDate, String toDate) {
+        BookingCreate bookingCreate = new BookingCreate();
+        bookingCreate.setEmail("email");
+        bookingCreate.setFirstName("fname");
+        bookingCreate.setLastName("lname");
+        bookingCreate.setFromDate(fromDate);
+        bookingCreate.setToDate(toDate);
+        return bookingCreate;
+    }
+
+    private static BookingModify newBookingModify(LocalDate fromDate, LocalDate toDate) {
+        BookingModify bookingModify = new BookingModify();
+        bookingModify.setAction(BookingModify.ActionType.MODIFY);
+        bookingModify.setFromDate(fromDate.toString());
+        bookingModify.setToDate(toDate.toString());
+        return bookingModify;
+    }
+
+    private static BookingCancel newBookingCancel(Long bookingId) {
+        BookingCancel bookingCancel = new BookingCancel();
+        bookingCancel.setBookingId(bookingId);
+        bookingCancel.setReason("reason");
+        return bookingCancel;
+    }
+
+    @SuppressWarnings("unchecked")
+    private MongoCollection<Document> mockBookingsCollection() {
+        MongoCollection<Document> collection = mock(MongoCollection.class);
+        MongoConverter mongoConverter = mock(MongoConverter.class);
+        when(mongoTemplate.getConverter()).thenReturn(mongoConverter);
+        when(mongoConverter.convertToMongoType(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(mongoTemplate.execute(eq(Booking.class), any(CollectionCallback.class)))
+                .thenAnswer(invocation -> ((CollectionCallback<?>) invocation.getArgument(1)).doInCollection(collection));
+        return collection;
     }
-}
\ No newline at end of file
+}
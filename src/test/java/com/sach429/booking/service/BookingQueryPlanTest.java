@@ -0,0 +1,87 @@
+package com.sach429.booking.service;
+
+import com.sach429.booking.model.Booking;
+import com.sach429.booking.repository.BookingRepository;
+import com.sach429.booking.utils.BookingUtils;
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the bookings search queries against an embedded MongoDB with the application indexes and
+ * checks the winning plan of each is an index scan.
+ */
+@RunWith(SpringRunner.class)
+@DataMongoTest(properties = "spring.mongodb.embedded.version=4.2.8")
+public class BookingQueryPlanTest {
+
+    @Autowired
+    public MongoTemplate mongoTemplate;
+
+    @Autowired
+    public BookingRepository bookingRepository;
+
+    public BookingPersistenceService bookingPersistenceService;
+
+    @Before
+    public void setup() {
+        bookingPersistenceService = new BookingPersistenceService(bookingRepository, mongoTemplate, null, null, null, null, null);
+        mongoTemplate.remove(new Query(), Booking.class);
+        for (long i = 0; i < 50; i++) {
+            LocalDate fromDate = LocalDate.of(2020, 12, 1).plusDays(i * 3);
+            Booking booking = new Booking(i, "fname", "lname", "email" + (i % 5), fromDate, fromDate.plusDays(2L), i % 2 == 0 ? Booking.BookingStatus.CONFIRMED : Booking.BookingStatus.CANCELLED);
+            booking.setSiteId((int) (i % 3));
+            booking.setDays(BookingUtils.getEpochDaysBetween(booking.getFromDate(), booking.getToDate()));
+            mongoTemplate.save(booking);
+        }
+    }
+
+    @Test
+    public void testEmailQueryUsesIndex() {
+        assertUsesIndex(new Booking(null, null, null, "email1", null, null, null));
+    }
+
+    @Test
+    public void testStatusAndDatesQueryUsesIndex() {
+        assertUsesIndex(new Booking(null, null, null, null, LocalDate.of(2020, 12, 10), LocalDate.of(2021, 1, 10), Booking.BookingStatus.CONFIRMED));
+    }
+
+    @Test
+    public void testDatesQueryUsesIndex() {
+        assertUsesIndex(new Booking(null, null, null, null, LocalDate.of(2020, 12, 10), LocalDate.of(2021, 1, 10), null));
+    }
+
+    @Test
+    public void testAllFiltersQueryUsesIndex() {
+        assertUsesIndex(new Booking(null, null, null, "email2", LocalDate.of(2020, 12, 10), LocalDate.of(2021, 1, 10), Booking.BookingStatus.CONFIRMED));
+    }
+
+    @Test
+    public void testSiteAndDatesQueryUsesIndex() {
+        Booking booking = new Booking(null, null, null, null, LocalDate.of(2020, 12, 10), LocalDate.of(2021, 1, 10), null);
+        booking.setSiteId(1);
+        assertUsesIndex(booking);
+    }
+
+    private void assertUsesIndex(Booking booking) {
+        Query query = bookingPersistenceService.getBookingsQuery(booking);
+        assertThat(mongoTemplate.find(query, Booking.class)).allSatisfy(found -> assertThat(found.getPreviousVersion()).isNull());
+        Document filter = new QueryMapper(mongoTemplate.getConverter())
+                .getMappedObject(query.getQueryObject(), mongoTemplate.getConverter().getMappingContext().getPersistentEntity(Booking.class));
+        Document explain = mongoTemplate.getDb().runCommand(new Document("explain",
+                new Document("find", mongoTemplate.getCollectionName(Booking.class)).append("filter", filter)));
+        String winningPlan = explain.get("queryPlanner", Document.class).get("winningPlan", Document.class).toJson();
+        assertThat(winningPlan).contains("IXSCAN").doesNotContain("COLLSCAN");
+    }
+}
@@ -1,27 +1,53 @@
 package com.sach429.booking.service;
 
+import com.sach429.booking.availability.DateClaim;
+import com.sach429.booking.availability.DateClaimTable;
+import com.sach429.booking.availability.StayReservation;
 import com.sach429.booking.exception.BookingCreationException;
+import com.sach429.booking.exception.BookingDatesInvalidException;
+import com.sach429.booking.exception.BookingErrorCode;
 import com.sach429.booking.exception.BookingModifyException;
 import com.sach429.booking.exception.BookingNotFoundException;
-import com.sach429.booking.exception.BookingValidationException;
+import com.sach429.booking.exception.BookingSiteNotFoundException;
+import com.sach429.booking.metrics.BookingMetrics;
+import com.sach429.booking.model.Availability;
 import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.BookingBatchResult;
+import com.sach429.booking.model.SiteAvailability;
+import com.sach429.booking.model.ValidationResult;
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import com.sach429.booking.types.BookingCancel;
 import com.sach429.booking.types.BookingCreate;
 import com.sach429.booking.types.BookingModify;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 import org.springframework.dao.DuplicateKeyException;
 
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.*;
 
 public class BookingServiceTest {
@@ -37,6 +63,32 @@ public class BookingServiceTest {
     @Mock
     public BookingValidationService bookingValidationService;
 
+    @Mock
+    public BookingAvailabilityService bookingAvailabilityService;
+
+    @Mock
+    public TransactionIdGenerationService transactionIdGenerationService;
+
+    @Mock
+    public BookingConfigurationProperties bookingConfigurationProperties;
+
+    @Spy
+    public BookingMetrics bookingMetrics = new BookingMetrics(new SimpleMeterRegistry());
+
+    @Before
+    public void setup() {
+        when(bookingConfigurationProperties.getMaxBookingsPageSize()).thenReturn(100);
+        when(bookingConfigurationProperties.getMaxBatchSize()).thenReturn(10);
+        when(bookingValidationService.validateBookingRequest(any(BookingCreate.class))).thenReturn(ValidationResult.valid());
+        when(bookingValidationService.validateBookingRequest(any(BookingModify.class), anyLong())).thenReturn(ValidationResult.valid());
+        when(bookingValidationService.validateBookingIsConfirmedAndNotInProgress(anyLong())).thenReturn(ValidationResult.valid());
+        when(bookingValidationService.reserveAccountInterval(any(BookingCreate.class))).thenReturn(StayReservation.NONE);
+        when(bookingValidationService.reserveAccountInterval(any(BookingModify.class), anyLong())).thenReturn(StayReservation.NONE);
+        when(bookingValidationService.validateAccountInterval(any(StayReservation.class))).thenReturn(ValidationResult.valid());
+        when(bookingValidationService.validateSite(any())).thenReturn(ValidationResult.valid());
+        when(bookingAvailabilityService.claimDates(anyInt(), any(), any())).thenReturn(DateClaim.NONE);
+    }
+
     @Test
     public void testGetBookingWhenNotFound() throws BookingNotFoundException {
         when(bookingPersistenceService.getBooking(anyLong())).thenThrow(new BookingNotFoundException("Booking not found"));
@@ -51,25 +103,38 @@ public class BookingServiceTest {
         assertThat(bookingService.getBooking(1l)).isEqualTo(booking);
     }
 
+    @Test
+    public void testGetBookingHistoryOfUnchangedBooking() throws BookingNotFoundException {
+        when(bookingPersistenceService.getBookingHistory(anyLong())).thenReturn(Collections.emptyList());
+        when(bookingPersistenceService.findBooking(anyLong())).thenReturn(mock(Booking.class));
+        assertThat(bookingService.getBookingHistory(1l)).isEmpty();
+    }
+
+    @Test
+    public void testGetBookingHistoryWhenNotFound() {
+        when(bookingPersistenceService.getBookingHistory(anyLong())).thenReturn(Collections.emptyList());
+        assertThatThrownBy(() -> bookingService.getBookingHistory(1l)).isInstanceOf(BookingNotFoundException.class);
+    }
+
     @Test
     public void testGetBookingsWhenInvalidFromDate() {
-        assertThat(bookingService.getBookings("email", "2020-12-33", "2020-12-10", Booking.BookingStatus.CONFIRMED).size()).isEqualTo(0);
-        verify(bookingPersistenceService, atMost(0)).getBookings(any(Booking.class));
+        assertThat(bookingService.getBookings("email", null, "2020-12-33", "2020-12-10", Booking.BookingStatus.CONFIRMED, null, null).size()).isEqualTo(0);
+        verify(bookingPersistenceService, atMost(0)).getBookings(any(Booking.class), isNull(), anyInt());
     }
 
     @Test
     public void testGetBookingsWhenInvalidToDate() {
-        assertThat(bookingService.getBookings("email", "2020-12-10", "2020-12-33", Booking.BookingStatus.CONFIRMED).size()).isEqualTo(0);
-        verify(bookingPersistenceService, atMost(0)).getBookings(any(Booking.class));
+        assertThat(bookingService.getBookings("email", null, "2020-12-10", "2020-12-33", Booking.BookingStatus.CONFIRMED, null, null).size()).isEqualTo(0);
+        verify(bookingPersistenceService, atMost(0)).getBookings(any(Booking.class), isNull(), anyInt());
     }
 
     @Test
     public void testGetBookingsWhenNullReturned() {
         ArgumentCaptor<Booking> bookingArgumentCaptor = ArgumentCaptor.forClass(Booking.class);
         Booking booking = mock(Booking.class);
-        when(bookingPersistenceService.getBookings(any(Booking.class))).thenReturn(null);
-        assertThat(bookingService.getBookings("email", "2020-12-10", "2020-12-12", Booking.BookingStatus.CONFIRMED).size()).isEqualTo(0);
-        verify(bookingPersistenceService, atMost(1)).getBookings(bookingArgumentCaptor.capture());
+        when(bookingPersistenceService.getBookings(any(Booking.class), isNull(), anyInt())).thenReturn(null);
+        assertThat(bookingService.getBookings("email", null, "2020-12-10", "2020-12-12", Booking.BookingStatus.CONFIRMED, null, null).size()).isEqualTo(0);
+        verify(bookingPersistenceService, atMost(1)).getBookings(bookingArgumentCaptor.capture(), isNull(), eq(100));
         assertThat(bookingArgumentCaptor.getValue())
                 .extracting("email", "fromDate", "toDate", "bookingStatus")
                 .containsExactly("email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
@@ -79,78 +144,329 @@ public class BookingServiceTest {
     public void testGetBookingsWhenNonNullReturned() {
         ArgumentCaptor<Booking> bookingArgumentCaptor = ArgumentCaptor.forClass(Booking.class);
         Booking booking = mock(Booking.class);
-        when(bookingPersistenceService.getBookings(any(Booking.class))).thenReturn(Collections.singletonList(booking));
-        assertThat(bookingService.getBookings("email", "2020-12-10", "2020-12-12", Booking.BookingStatus.CONFIRMED).size()).isEqualTo(1);
-        verify(bookingPersistenceService, atMost(1)).getBookings(bookingArgumentCaptor.capture());
+        when(bookingPersistenceService.getBookings(any(Booking.class), isNull(), anyInt())).thenReturn(Collections.singletonList(booking));
+        assertThat(bookingService.getBookings("email", 2, "2020-12-10", "2020-12-12", Booking.BookingStatus.CONFIRMED, null, null).size()).isEqualTo(1);
+        verify(bookingPersistenceService, atMost(1)).getBookings(bookingArgumentCaptor.capture(), isNull(), eq(100));
         assertThat(bookingArgumentCaptor.getValue())
-                .extracting("email", "fromDate", "toDate", "bookingStatus")
-                .containsExactly("email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
+                .extracting("email", "siteId", "fromDate", "toDate", "bookingStatus")
+                .containsExactly("email", 2, LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
+    }
+
+    @Test
+    public void testGetBookingsPageSizeIsCapped() {
+        when(bookingPersistenceService.getBookings(any(Booking.class), anyLong(), anyInt())).thenReturn(Collections.emptyList());
+        bookingService.getBookings("email", null, null, null, null, 10L, 1000);
+        verify(bookingPersistenceService).getBookings(any(Booking.class), eq(10L), eq(100));
+        bookingService.getBookings("email", null, null, null, null, 10L, 20);
+        verify(bookingPersistenceService).getBookings(any(Booking.class), eq(10L), eq(20));
+    }
+
+    @Test
+    public void testStreamBookingsWhenInvalidFromDate() {
+        assertThat(bookingService.streamBookings("email", null, "2020-12-33", null, null)).isEmpty();
+        verify(bookingPersistenceService, never()).streamBookings(any(Booking.class));
     }
 
     @Test
-    public void testModifyBookingWhenInvalidRequest() throws BookingValidationException {
-        doThrow(new RuntimeException()).when(bookingValidationService).validateBookingRequestIsValid(any(BookingModify.class), anyLong());
+    public void testGetAvailabilityWhenInvalidFromDate() {
+        assertThatThrownBy(() -> bookingService.getAvailability(null, "2020-12-33", "2020-12-10")).isInstanceOf(BookingDatesInvalidException.class).hasMessage("FromDate format is not valid");
+        verify(bookingAvailabilityService, never()).getAvailability(anyInt(), any(LocalDate.class), any(LocalDate.class));
+    }
+
+    @Test
+    public void testGetAvailabilityWhenFromDateAfterToDate() {
+        assertThatThrownBy(() -> bookingService.getAvailability(null, "2020-12-12", "2020-12-10")).isInstanceOf(BookingDatesInvalidException.class).hasMessage("Availability Dates not in range");
+    }
+
+    @Test
+    public void testGetAvailabilityDefaultsToOneMonth() throws BookingDatesInvalidException, BookingSiteNotFoundException {
+        Availability availability = mock(Availability.class);
+        when(bookingAvailabilityService.getAvailability(anyInt(), any(LocalDate.class), any(LocalDate.class))).thenReturn(availability);
+        assertThat(bookingService.getAvailability(null, null, null)).isEqualTo(availability);
+        verify(bookingAvailabilityService).getAvailability(Booking.DEFAULT_SITE_ID, LocalDate.now(), LocalDate.now().plusMonths(1));
+    }
+
+    @Test
+    public void testGetAvailabilityOfSite() throws BookingDatesInvalidException, BookingSiteNotFoundException {
+        Availability availability = mock(Availability.class);
+        when(bookingAvailabilityService.getAvailability(anyInt(), any(LocalDate.class), any(LocalDate.class))).thenReturn(availability);
+        assertThat(bookingService.getAvailability(3, "2020-12-10", "2020-12-12")).isEqualTo(availability);
+        verify(bookingAvailabilityService).getAvailability(3, LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12));
+    }
+
+    @Test
+    public void testGetAvailabilityOfUnknownSite() {
+        when(bookingValidationService.validateSite(7)).thenReturn(ValidationResult.invalid(BookingErrorCode.SITE_NOT_FOUND, "SiteId: 7 does not exist"));
+        assertThatThrownBy(() -> bookingService.getAvailability(7, null, null)).isInstanceOf(BookingSiteNotFoundException.class).hasMessage("SiteId: 7 does not exist");
+        verify(bookingAvailabilityService, never()).getAvailability(anyInt(), any(LocalDate.class), any(LocalDate.class));
+    }
+
+    @Test
+    public void testGetFreeSites() throws BookingDatesInvalidException {
+        SiteAvailability siteAvailability = new SiteAvailability(LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 11), new int[]{0, 2});
+        when(bookingAvailabilityService.getFreeSites(any(LocalDate.class), any(LocalDate.class))).thenReturn(siteAvailability);
+        assertThat(bookingService.getFreeSites("2020-12-10", "2020-12-11")).isEqualTo(siteAvailability);
+        assertThatThrownBy(() -> bookingService.getFreeSites(null, "2020-12-11")).isInstanceOf(BookingDatesInvalidException.class).hasMessage("FromDate format is not valid");
+        assertThatThrownBy(() -> bookingService.getFreeSites("2020-12-12", "2020-12-11")).isInstanceOf(BookingDatesInvalidException.class).hasMessage("Availability Dates not in range");
+        verify(bookingAvailabilityService).getFreeSites(LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 11));
+    }
+
+    @Test
+    public void testModifyBookingWhenInvalidRequest() {
+        when(bookingValidationService.validateBookingRequest(any(BookingModify.class), anyLong())).thenReturn(ValidationResult.invalid(BookingErrorCode.MODIFY_DATES_REQUIRED));
+        assertThatThrownBy(() -> bookingService.modifyBooking(mock(BookingModify.class), 1L))
+                .isInstanceOf(BookingModifyException.class)
+                .hasNoCause()
+                .hasMessage("FromDate and ToDate are required for modify request")
+                .extracting("errorCode").isEqualTo(BookingErrorCode.MODIFY_DATES_REQUIRED);
+        verifyNoInteractions(bookingPersistenceService);
+    }
+
+    @Test
+    public void testModifyBookingWhenValidationFails() {
+        when(bookingValidationService.validateBookingRequest(any(BookingModify.class), anyLong())).thenThrow(new RuntimeException());
         assertThatThrownBy(() -> bookingService.modifyBooking(mock(BookingModify.class), 1L)).isInstanceOf(BookingModifyException.class);
     }
 
     @Test
-    public void testCreateBookingWhenInvalidRequest() throws BookingValidationException {
-        doThrow(new RuntimeException()).when(bookingValidationService).validateBookingRequestIsValid(any(BookingCreate.class));
+    public void testCreateBookingWhenInvalidRequest() {
+        when(bookingValidationService.validateBookingRequest(any(BookingCreate.class))).thenReturn(ValidationResult.invalid(BookingErrorCode.DATES_NOT_IN_RANGE));
+        assertThatThrownBy(() -> bookingService.createBooking(mock(BookingCreate.class)))
+                .isInstanceOf(BookingCreationException.class)
+                .hasNoCause()
+                .hasMessage("Booking Dates not in range")
+                .extracting("errorCode").isEqualTo(BookingErrorCode.DATES_NOT_IN_RANGE);
+        verifyNoInteractions(bookingPersistenceService);
+    }
+
+    @Test
+    public void testCreateBookingWhenValidationFails() {
+        when(bookingValidationService.validateBookingRequest(any(BookingCreate.class))).thenThrow(new RuntimeException());
         assertThatThrownBy(() -> bookingService.createBooking(mock(BookingCreate.class))).isInstanceOf(BookingCreationException.class);
     }
 
     @Test
-    public void testModifyBookingWhenDateNotAvailable() throws BookingValidationException {
-        doThrow(new DuplicateKeyException("duplicate key")).when(bookingValidationService).validateBookingRequestIsValid(any(BookingModify.class), anyLong());
-        assertThatThrownBy(() -> bookingService.modifyBooking(mock(BookingModify.class), 1L)).extracting("cause").extracting("message").isEqualTo("Booking dates not available");
+    public void testModifyBookingWhenDateNotAvailable() {
+        BookingModify bookingModify = new BookingModify();
+        bookingModify.setAction(BookingModify.ActionType.MODIFY);
+        when(bookingPersistenceService.updateBooking(bookingModify, 1L)).thenThrow(new DuplicateKeyException("duplicate key"));
+        assertThatThrownBy(() -> bookingService.modifyBooking(bookingModify, 1L))
+                .hasMessage("Booking dates not available")
+                .extracting("errorCode").isEqualTo(BookingErrorCode.DATES_NOT_AVAILABLE);
     }
 
     @Test
-    public void testCreateBookingWhenDateNotAvailable() throws BookingValidationException {
-        doThrow(new DuplicateKeyException("duplicate key")).when(bookingValidationService).validateBookingRequestIsValid(any(BookingCreate.class));
-        assertThatThrownBy(() -> bookingService.createBooking(mock(BookingCreate.class))).extracting("cause").extracting("message").isEqualTo("Booking dates not available");
+    public void testCreateBookingWhenDateNotAvailable() {
+        when(bookingPersistenceService.createBooking(any(BookingCreate.class))).thenThrow(new DuplicateKeyException("duplicate key"));
+        assertThatThrownBy(() -> bookingService.createBooking(mock(BookingCreate.class)))
+                .hasMessage("Booking dates not available")
+                .extracting("errorCode").isEqualTo(BookingErrorCode.DATES_NOT_AVAILABLE);
+        MeterRegistry meterRegistry = bookingMetrics.getMeterRegistry();
+        assertThat(meterRegistry.get(BookingMetrics.CONTENTION_COUNTER).tag(BookingMetrics.OPERATION, BookingMetrics.CREATE).counter().count()).isEqualTo(1.0);
+        assertThat(meterRegistry.get(BookingMetrics.STAGE_TIMER).tags(BookingMetrics.OPERATION, BookingMetrics.CREATE, BookingMetrics.STAGE, BookingMetrics.PERSISTENCE, BookingMetrics.OUTCOME, "error").timer().count()).isEqualTo(1L);
     }
 
     @Test
-    public void testModifyBooking() throws BookingValidationException, BookingModifyException {
+    public void testCreateBookingWhenDatesClaimedByRequestInFlight() {
+        when(bookingAvailabilityService.claimDates(anyInt(), any(), any())).thenReturn(null);
+        assertThatThrownBy(() -> bookingService.createBooking(mock(BookingCreate.class)))
+                .hasMessage("Booking dates not available")
+                .extracting("errorCode").isEqualTo(BookingErrorCode.DATES_NOT_AVAILABLE);
+        verify(bookingPersistenceService, never()).createBooking(any(BookingCreate.class));
+        assertThat(bookingMetrics.getMeterRegistry().get(BookingMetrics.CONTENTION_COUNTER).tag(BookingMetrics.OPERATION, BookingMetrics.CREATE).counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void testCreateBookingReleasesDatesClaimWhenPersistenceFails() {
+        DateClaimTable dateClaimTable = new DateClaimTable(64);
+        when(bookingAvailabilityService.claimDates(anyInt(), any(), any())).thenAnswer(invocation -> dateClaimTable.claim(100L, 102L));
+        when(bookingPersistenceService.createBooking(any(BookingCreate.class))).thenThrow(new DuplicateKeyException("duplicate key"));
+        assertThatThrownBy(() -> bookingService.createBooking(mock(BookingCreate.class))).isInstanceOf(BookingCreationException.class);
+        assertThat(dateClaimTable.isClaimed(100L)).isFalse();
+        assertThat(dateClaimTable.isClaimed(102L)).isFalse();
+    }
+
+    @Test
+    public void testCreateBookingWhenAccountIntervalNotMet() {
+        StayReservation refused = StayReservation.refused(7L);
+        when(bookingValidationService.reserveAccountInterval(any(BookingCreate.class))).thenReturn(refused);
+        when(bookingValidationService.validateAccountInterval(refused)).thenReturn(ValidationResult.invalid(BookingErrorCode.ACCOUNT_INTERVAL_NOT_MET, "too close"));
+        assertThatThrownBy(() -> bookingService.createBooking(mock(BookingCreate.class)))
+                .hasMessage("too close")
+                .extracting("errorCode").isEqualTo(BookingErrorCode.ACCOUNT_INTERVAL_NOT_MET);
+        verify(bookingAvailabilityService, never()).claimDates(anyInt(), any(), any());
+        verifyNoInteractions(bookingPersistenceService);
+    }
+
+    @Test
+    public void testCreateBookingReleasesStayReservationWhenPersistenceFails() {
+        AtomicInteger released = new AtomicInteger();
+        when(bookingValidationService.reserveAccountInterval(any(BookingCreate.class))).thenReturn(StayReservation.reserved(released::incrementAndGet));
+        when(bookingPersistenceService.createBooking(any(BookingCreate.class))).thenThrow(new RuntimeException());
+        assertThatThrownBy(() -> bookingService.createBooking(mock(BookingCreate.class))).isInstanceOf(BookingCreationException.class);
+        assertThat(released.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testModifyBookingReleasesStayReservationOnceWritten() throws BookingModifyException {
+        AtomicInteger released = new AtomicInteger();
+        BookingModify bookingModify = new BookingModify();
+        bookingModify.setAction(BookingModify.ActionType.MODIFY);
+        when(bookingValidationService.reserveAccountInterval(bookingModify, 1L)).thenReturn(StayReservation.reserved(released::incrementAndGet));
+        when(bookingPersistenceService.updateBooking(bookingModify, 1L)).thenAnswer(invocation -> {
+            assertThat(released.get()).isEqualTo(0);
+            return mock(Booking.class);
+        });
+        bookingService.modifyBooking(bookingModify, 1L);
+        assertThat(released.get()).isEqualTo(1);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCreateBookingsRejectsOverlapWithinBatch() throws BookingCreationException {
+        DateClaimTable dateClaimTable = new DateClaimTable(64);
+        when(bookingAvailabilityService.claimDates(anyInt(), any(), any())).thenAnswer(invocation -> {
+            LocalDate fromDate = invocation.getArgument(1);
+            LocalDate toDate = invocation.getArgument(2);
+            return dateClaimTable.claim(fromDate.toEpochDay(), toDate.toEpochDay());
+        });
+        when(bookingValidationService.validateBookingRequest(argThat((BookingCreate bookingCreate) -> bookingCreate != null && "invalid".equals(bookingCreate.getEmail()))))
+                .thenReturn(ValidationResult.invalid(BookingErrorCode.DATES_NOT_IN_RANGE));
+        Booking booking = mock(Booking.class);
+        when(bookingPersistenceService.createBookings(anyMap())).thenAnswer(invocation -> ((Map<Integer, BookingCreate>) invocation.getArgument(0)).keySet().stream()
+                .map(index -> BookingBatchResult.success(index, booking))
+                .collect(Collectors.toList()));
+        List<BookingBatchResult> results = bookingService.createBookings(Arrays.asList(
+                newBookingCreate("first", "2020-12-10", "2020-12-12"),
+                newBookingCreate("invalid", "2020-12-20", "2020-12-21"),
+                newBookingCreate("overlapping", "2020-12-12", "2020-12-13"),
+                newBookingCreate("second", "2020-12-14", "2020-12-15")));
+        assertThat(results).extracting(BookingBatchResult::getIndex).containsExactly(0, 1, 2, 3);
+        assertThat(results).extracting(BookingBatchResult::isSuccess).containsExactly(true, false, false, true);
+        assertThat(results.get(1).getError().getCode()).isEqualTo(BookingErrorCode.DATES_NOT_IN_RANGE.name());
+        assertThat(results.get(2).getError().getCode()).isEqualTo(BookingErrorCode.DATES_NOT_AVAILABLE.name());
+        ArgumentCaptor<Map<Integer, BookingCreate>> acceptedCaptor = ArgumentCaptor.forClass(Map.class);
+        verify(bookingPersistenceService, times(1)).createBookings(acceptedCaptor.capture());
+        assertThat(acceptedCaptor.getValue()).containsOnlyKeys(0, 3);
+        assertThat(dateClaimTable.isClaimed(LocalDate.of(2020, 12, 10).toEpochDay())).isFalse();
+        assertThat(bookingMetrics.getMeterRegistry().get(BookingMetrics.CONTENTION_COUNTER).tag(BookingMetrics.OPERATION, BookingMetrics.BATCH_CREATE).counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void testCreateBookingsWhenBatchTooLarge() {
+        assertThatThrownBy(() -> bookingService.createBookings(Collections.nCopies(11, mock(BookingCreate.class))))
+                .isInstanceOf(BookingCreationException.class)
+                .extracting("errorCode").isEqualTo(BookingErrorCode.BATCH_TOO_LARGE);
+        verifyNoInteractions(bookingPersistenceService);
+    }
+
+    @Test
+    public void testCancelBookingsValidatesAgainstSingleLookup() throws BookingModifyException {
+        Booking confirmed = new Booking(1L, "fname", "lname", "email", LocalDate.now().plusDays(3L), LocalDate.now().plusDays(4L), Booking.BookingStatus.CONFIRMED);
+        Map<Long, Booking> bookings = new HashMap<>();
+        bookings.put(1L, confirmed);
+        when(bookingPersistenceService.findBookings(anyCollection())).thenReturn(bookings);
+        when(bookingValidationService.validateBookingRequest(any(BookingCancel.class))).thenReturn(ValidationResult.valid());
+        when(bookingValidationService.validateBookingIsConfirmedAndNotInProgress(eq(confirmed), eq(1L))).thenReturn(ValidationResult.valid());
+        when(bookingValidationService.validateBookingIsConfirmedAndNotInProgress(isNull(), eq(2L))).thenReturn(ValidationResult.invalid(BookingErrorCode.BOOKING_NOT_FOUND));
+        when(bookingPersistenceService.cancelBookings(anyMap())).thenReturn(Collections.singletonList(BookingBatchResult.success(0, confirmed)));
+        List<BookingBatchResult> results = bookingService.cancelBookings(Arrays.asList(newBookingCancel(1L), newBookingCancel(2L), newBookingCancel(1L)));
+        assertThat(results).extracting(BookingBatchResult::isSuccess).containsExactly(true, false, false);
+        assertThat(results.get(1).getError().getCode()).isEqualTo(BookingErrorCode.BOOKING_NOT_FOUND.name());
+        assertThat(results.get(2).getError().getCode()).isEqualTo(BookingErrorCode.REQUEST_INVALID.name());
+        verify(bookingPersistenceService, times(1)).findBookings(anyCollection());
+        verify(bookingPersistenceService, never()).findBooking(anyLong());
+    }
+
+    @Test
+    public void testCreateBookingRecordsStageTimers() throws BookingCreationException {
+        Booking booking = mock(Booking.class);
+        when(bookingPersistenceService.createBooking(any(BookingCreate.class))).thenReturn(booking);
+        assertThat(bookingService.createBooking(mock(BookingCreate.class))).isEqualTo(booking);
+        MeterRegistry meterRegistry = bookingMetrics.getMeterRegistry();
+        assertThat(meterRegistry.get(BookingMetrics.STAGE_TIMER).tags(BookingMetrics.OPERATION, BookingMetrics.CREATE, BookingMetrics.OUTCOME, "success").timers())
+                .extracting(timer -> timer.getId().getTag(BookingMetrics.STAGE))
+                .containsExactlyInAnyOrder(BookingMetrics.VALIDATION, BookingMetrics.PERSISTENCE);
+    }
+
+    @Test
+    public void testModifyBooking() throws BookingModifyException {
         BookingModify bookingModify = new BookingModify();
         bookingModify.setAction(BookingModify.ActionType.MODIFY);
-        doNothing().when(bookingValidationService).validateBookingRequestIsValid(any(BookingModify.class), anyLong());
         Booking mockedBooking = mock(Booking.class);
         when(bookingPersistenceService.updateBooking(bookingModify, 1L)).thenReturn(mockedBooking);
         assertThat(bookingService.modifyBooking(bookingModify, 1L)).isEqualTo(mockedBooking);
-        verify(bookingValidationService, atMostOnce()).validateBookingRequestIsValid(bookingModify, 1L);
+        verify(bookingValidationService, atMostOnce()).validateBookingRequest(bookingModify, 1L);
         verify(bookingPersistenceService, atMostOnce()).updateBooking(bookingModify, 1L);
     }
 
     @Test
-    public void testCancelBooking() throws BookingValidationException, BookingModifyException {
+    public void testCancelBooking() throws BookingModifyException {
         BookingModify bookingModify = new BookingModify();
         bookingModify.setAction(BookingModify.ActionType.CANCEL);
-        doNothing().when(bookingValidationService).validateBookingRequestIsValid(any(BookingModify.class), anyLong());
         Booking mockedBooking = mock(Booking.class);
         when(bookingPersistenceService.cancelBooking(bookingModify, 1L)).thenReturn(mockedBooking);
         assertThat(bookingService.modifyBooking(bookingModify, 1L)).isEqualTo(mockedBooking);
-        verify(bookingValidationService, atMostOnce()).validateBookingRequestIsValid(bookingModify, 1L);
+        verify(bookingValidationService, atMostOnce()).validateBookingRequest(bookingModify, 1L);
         verify(bookingPersistenceService, atMostOnce()).cancelBooking(bookingModify, 1L);
     }
 
     @Test
-    public void testCreateBooking() throws BookingValidationException, BookingCreationException {
+    public void testModifyBookingWhenConditionalUpdateDoesNotMatch() throws Exception {
+        BookingModify bookingModify = new BookingModify();
+        bookingModify.setAction(BookingModify.ActionType.CANCEL);
+        when(bookingPersistenceService.cancelBooking(bookingModify, 1L)).thenReturn(null);
+        when(bookingValidationService.validateBookingIsConfirmedAndNotInProgress(1L)).thenReturn(ValidationResult.invalid(BookingErrorCode.BOOKING_NOT_CONFIRMED));
+        assertThatThrownBy(() -> bookingService.modifyBooking(bookingModify, 1L))
+                .isInstanceOf(BookingModifyException.class)
+                .hasMessage("Only confirmed booking can be modified")
+                .extracting("errorCode").isEqualTo(BookingErrorCode.BOOKING_NOT_CONFIRMED);
+    }
+
+    @Test
+    public void testModifyBookingWhenModifiedConcurrently() {
+        BookingModify bookingModify = new BookingModify();
+        bookingModify.setAction(BookingModify.ActionType.MODIFY);
+        when(bookingPersistenceService.updateBooking(bookingModify, 1L)).thenReturn(null);
+        assertThatThrownBy(() -> bookingService.modifyBooking(bookingModify, 1L))
+                .isInstanceOf(BookingModifyException.class)
+                .hasMessage("BookingId: 1 was modified concurrently, please retry")
+                .extracting("errorCode").isEqualTo(BookingErrorCode.MODIFIED_CONCURRENTLY);
+    }
+
+    @Test
+    public void testCreateBooking() throws BookingCreationException {
         BookingCreate bookingCreate = new BookingCreate();
-        doNothing().when(bookingValidationService).validateBookingRequestIsValid(any(BookingModify.class), anyLong());
         Booking mockedBooking = mock(Booking.class);
         when(bookingPersistenceService.createBooking(bookingCreate)).thenReturn(mockedBooking);
         assertThat(bookingService.createBooking(bookingCreate)).isEqualTo(mockedBooking);
-        verify(bookingValidationService, atMostOnce()).validateBookingRequestIsValid(bookingCreate);
+        verify(bookingValidationService, atMostOnce()).validateBookingRequest(bookingCreate);
         verify(bookingPersistenceService, atMostOnce()).createBooking(bookingCreate);
     }
 
     @Test
-    public void testGetTransactionId() throws BookingValidationException, BookingModifyException {
-        when(bookingPersistenceService.getTransactionId()).thenReturn("T1");
+    public void testGetTransactionId() {
+        when(transactionIdGenerationService.generateTransactionId()).thenReturn("T1");
         assertThat(bookingService.getTransactionId()).isEqualTo("T1");
-        verify(bookingPersistenceService, atMostOnce()).getTransactionId();
+        verify(transactionIdGenerationService, atMostOnce()).generateTransactionId();
+        verifyNoInteractions(bookingPersistenceService);
+    }
+
+
+    private static BookingCreate newBookingCreate(String email, String fromDate, String toDate) {
+        BookingCreate bookingCreate = new BookingCreate();
+        bookingCreate.setFirstName("fname");
+        bookingCreate.setLastName("lname");
+        bookingCreate.setEmail(email);
+        bookingCreate.setFromDate(fromDate);
+        bookingCreate.setToDate(toDate);
+        return bookingCreate;
     }
 
-}
\ No newline at end of file
+    private static BookingCancel newBookingCancel(Long bookingId) {
+        BookingCancel bookingCancel = new BookingCancel();
+        bookingCancel.setBookingId(bookingId);
+        bookingCancel.setReason("reason");
+        return bookingCancel;
+    }
+}
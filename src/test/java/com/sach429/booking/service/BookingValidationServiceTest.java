@@ -1,7 +1,9 @@
 package com.sach429.booking.service;
 
-import com.sach429.booking.exception.BookingNotFoundException;
+import com.sach429.booking.availability.StayReservation;
+import com.sach429.booking.exception.BookingErrorCode;
 import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.ValidationResult;
 import com.sach429.booking.properties.BookingConfigurationProperties;
 import com.sach429.booking.types.BookingCreate;
 import com.sach429.booking.types.BookingModify;
@@ -16,8 +18,9 @@ import org.mockito.junit.MockitoRule;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 
-import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 public class BookingValidationServiceTest {
@@ -35,18 +38,22 @@ public class BookingValidationServiceTest {
     @Mock
     public BookingConfigurationProperties bookingConfigurationProperties;
 
+    @Mock
+    public BookingAccountService bookingAccountService;
+
     @Before
     public void setup() {
         when(bookingConfigurationProperties.getMinDaysInAdvance()).thenReturn(1);
         when(bookingConfigurationProperties.getMaxDaysInAdvance()).thenReturn(30);
         when(bookingConfigurationProperties.getMaxDuration()).thenReturn(3);
+        when(bookingConfigurationProperties.getSites()).thenReturn(1);
     }
 
     @Test
     public void testWhenBookingCancelWhenMissingReason() {
         BookingModify bookingModify = new BookingModify();
         bookingModify.setAction(BookingModify.ActionType.CANCEL);
-        assertThatThrownBy(() -> bookingValidationService.validateBookingRequestIsValid(bookingModify, 1L)).extracting("cause").extracting("message").isEqualTo("Cancellation reason is required for cancel request");
+        assertThat(bookingValidationService.validateBookingRequest(bookingModify, 1L)).extracting("errorCode", "message").containsExactly(BookingErrorCode.CANCELLATION_REASON_REQUIRED, "Cancellation reason is required for cancel request");
     }
 
     @Test
@@ -54,7 +61,7 @@ public class BookingValidationServiceTest {
         BookingModify bookingModify = new BookingModify();
         bookingModify.setAction(BookingModify.ActionType.MODIFY);
         bookingModify.setFromDate("2020-12-10");
-        assertThatThrownBy(() -> bookingValidationService.validateBookingRequestIsValid(bookingModify, 1L)).extracting("cause").extracting("message").isEqualTo("FromDate and ToDate are required for modify request");
+        assertThat(bookingValidationService.validateBookingRequest(bookingModify, 1L)).extracting("errorCode", "message").containsExactly(BookingErrorCode.MODIFY_DATES_REQUIRED, "FromDate and ToDate are required for modify request");
     }
 
     @Test
@@ -62,7 +69,7 @@ public class BookingValidationServiceTest {
         BookingModify bookingModify = new BookingModify();
         bookingModify.setAction(BookingModify.ActionType.MODIFY);
         bookingModify.setToDate("2020-12-10");
-        assertThatThrownBy(() -> bookingValidationService.validateBookingRequestIsValid(bookingModify, 1L)).extracting("cause").extracting("message").isEqualTo("FromDate and ToDate are required for modify request");
+        assertThat(bookingValidationService.validateBookingRequest(bookingModify, 1L)).extracting("errorCode", "message").containsExactly(BookingErrorCode.MODIFY_DATES_REQUIRED, "FromDate and ToDate are required for modify request");
     }
 
     @Test
@@ -71,7 +78,7 @@ public class BookingValidationServiceTest {
         bookingModify.setAction(BookingModify.ActionType.MODIFY);
         bookingModify.setFromDate("20210-12-10");
         bookingModify.setToDate("20210-12-11");
-        assertThatThrownBy(() -> bookingValidationService.validateBookingRequestIsValid(bookingModify, 1L)).extracting("cause").extracting("message").isEqualTo("FromDate format is not valid");
+        assertThat(bookingValidationService.validateBookingRequest(bookingModify, 1L)).extracting("errorCode", "message").containsExactly(BookingErrorCode.FROM_DATE_FORMAT_INVALID, "FromDate format is not valid");
     }
 
     @Test
@@ -80,7 +87,7 @@ public class BookingValidationServiceTest {
         bookingModify.setAction(BookingModify.ActionType.MODIFY);
         bookingModify.setToDate("20210-12-10");
         bookingModify.setFromDate("2020-12-10");
-        assertThatThrownBy(() -> bookingValidationService.validateBookingRequestIsValid(bookingModify, 1L)).extracting("cause").extracting("message").isEqualTo("ToDate format is not valid");
+        assertThat(bookingValidationService.validateBookingRequest(bookingModify, 1L)).extracting("errorCode", "message").containsExactly(BookingErrorCode.TO_DATE_FORMAT_INVALID, "ToDate format is not valid");
     }
 
     @Test
@@ -89,7 +96,7 @@ public class BookingValidationServiceTest {
         bookingModify.setAction(BookingModify.ActionType.MODIFY);
         bookingModify.setToDate("2020-12-10");
         bookingModify.setFromDate("2020-12-11");
-        assertThatThrownBy(() -> bookingValidationService.validateBookingRequestIsValid(bookingModify, 1L)).extracting("cause").extracting("message").isEqualTo("Booking Dates not in range");
+        assertThat(bookingValidationService.validateBookingRequest(bookingModify, 1L)).extracting("errorCode", "message").containsExactly(BookingErrorCode.DATES_NOT_IN_RANGE, "Booking Dates not in range");
     }
 
     @Test
@@ -98,7 +105,7 @@ public class BookingValidationServiceTest {
         bookingModify.setAction(BookingModify.ActionType.MODIFY);
         bookingModify.setFromDate(LocalDate.now().minusDays(1L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
         bookingModify.setToDate(LocalDate.now().format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
-        assertThatThrownBy(() -> bookingValidationService.validateBookingRequestIsValid(bookingModify, 1L)).extracting("cause").extracting("message").isEqualTo("Booking Dates not in range");
+        assertThat(bookingValidationService.validateBookingRequest(bookingModify, 1L)).extracting("errorCode", "message").containsExactly(BookingErrorCode.DATES_NOT_IN_RANGE, "Booking Dates not in range");
     }
 
     @Test
@@ -107,7 +114,7 @@ public class BookingValidationServiceTest {
         bookingModify.setAction(BookingModify.ActionType.MODIFY);
         bookingModify.setFromDate(LocalDate.now().plusDays(31L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
         bookingModify.setToDate(LocalDate.now().format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
-        assertThatThrownBy(() -> bookingValidationService.validateBookingRequestIsValid(bookingModify, 1L)).extracting("cause").extracting("message").isEqualTo("Booking Dates not in range");
+        assertThat(bookingValidationService.validateBookingRequest(bookingModify, 1L)).extracting("errorCode", "message").containsExactly(BookingErrorCode.DATES_NOT_IN_RANGE, "Booking Dates not in range");
     }
 
     @Test
@@ -116,7 +123,7 @@ public class BookingValidationServiceTest {
         bookingModify.setAction(BookingModify.ActionType.MODIFY);
         bookingModify.setFromDate(LocalDate.now().plusDays(2L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
         bookingModify.setToDate(LocalDate.now().plusDays(5L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
-        assertThatThrownBy(() -> bookingValidationService.validateBookingRequestIsValid(bookingModify, 1L)).extracting("cause").extracting("message").isEqualTo("Booking Dates not in range");
+        assertThat(bookingValidationService.validateBookingRequest(bookingModify, 1L)).extracting("errorCode", "message").containsExactly(BookingErrorCode.DATES_NOT_IN_RANGE, "Booking Dates not in range");
     }
 
     @Test
@@ -124,7 +131,7 @@ public class BookingValidationServiceTest {
         BookingCreate bookingCreate = new BookingCreate();
         bookingCreate.setFromDate("20210-12-10");
         bookingCreate.setToDate("20210-12-11");
-        assertThatThrownBy(() -> bookingValidationService.validateBookingRequestIsValid(bookingCreate)).extracting("cause").extracting("message").isEqualTo("FromDate format is not valid");
+        assertThat(bookingValidationService.validateBookingRequest(bookingCreate)).extracting("errorCode", "message").containsExactly(BookingErrorCode.FROM_DATE_FORMAT_INVALID, "FromDate format is not valid");
     }
 
     @Test
@@ -132,7 +139,7 @@ public class BookingValidationServiceTest {
         BookingCreate bookingCreate = new BookingCreate();
         bookingCreate.setToDate("20210-12-10");
         bookingCreate.setFromDate("2020-12-10");
-        assertThatThrownBy(() -> bookingValidationService.validateBookingRequestIsValid(bookingCreate)).extracting("cause").extracting("message").isEqualTo("ToDate format is not valid");
+        assertThat(bookingValidationService.validateBookingRequest(bookingCreate)).extracting("errorCode", "message").containsExactly(BookingErrorCode.TO_DATE_FORMAT_INVALID, "ToDate format is not valid");
     }
 
     @Test
@@ -140,7 +147,7 @@ public class BookingValidationServiceTest {
         BookingCreate bookingCreate = new BookingCreate();
         bookingCreate.setToDate("2020-12-10");
         bookingCreate.setFromDate("2020-12-11");
-        assertThatThrownBy(() -> bookingValidationService.validateBookingRequestIsValid(bookingCreate)).extracting("cause").extracting("message").isEqualTo("Booking Dates not in range");
+        assertThat(bookingValidationService.validateBookingRequest(bookingCreate)).extracting("errorCode", "message").containsExactly(BookingErrorCode.DATES_NOT_IN_RANGE, "Booking Dates not in range");
     }
 
     @Test
@@ -148,7 +155,7 @@ public class BookingValidationServiceTest {
         BookingCreate bookingCreate = new BookingCreate();
         bookingCreate.setFromDate(LocalDate.now().minusDays(1L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
         bookingCreate.setToDate(LocalDate.now().format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
-        assertThatThrownBy(() -> bookingValidationService.validateBookingRequestIsValid(bookingCreate)).extracting("cause").extracting("message").isEqualTo("Booking Dates not in range");
+        assertThat(bookingValidationService.validateBookingRequest(bookingCreate)).extracting("errorCode", "message").containsExactly(BookingErrorCode.DATES_NOT_IN_RANGE, "Booking Dates not in range");
     }
 
     @Test
@@ -156,7 +163,7 @@ public class BookingValidationServiceTest {
         BookingCreate bookingCreate = new BookingCreate();
         bookingCreate.setFromDate(LocalDate.now().plusDays(31L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
         bookingCreate.setToDate(LocalDate.now().format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
-        assertThatThrownBy(() -> bookingValidationService.validateBookingRequestIsValid(bookingCreate)).extracting("cause").extracting("message").isEqualTo("Booking Dates not in range");
+        assertThat(bookingValidationService.validateBookingRequest(bookingCreate)).extracting("errorCode", "message").containsExactly(BookingErrorCode.DATES_NOT_IN_RANGE, "Booking Dates not in range");
     }
 
     @Test
@@ -164,35 +171,124 @@ public class BookingValidationServiceTest {
         BookingCreate bookingCreate = new BookingCreate();
         bookingCreate.setFromDate(LocalDate.now().plusDays(2L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
         bookingCreate.setToDate(LocalDate.now().plusDays(5L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
-        assertThatThrownBy(() -> bookingValidationService.validateBookingRequestIsValid(bookingCreate)).extracting("cause").extracting("message").isEqualTo("Booking Dates not in range");
+        assertThat(bookingValidationService.validateBookingRequest(bookingCreate)).extracting("errorCode", "message").containsExactly(BookingErrorCode.DATES_NOT_IN_RANGE, "Booking Dates not in range");
     }
 
     @Test
-    public void testWhenModifyBookingAlreadyInProgress() throws BookingNotFoundException {
+    public void testWhenModifyBookingAlreadyInProgress() {
         Booking booking = new Booking(1L, "", "", "", LocalDate.now(), LocalDate.now(), Booking.BookingStatus.CONFIRMED);
-        when(bookingPersistenceService.getBooking(anyLong())).thenReturn(booking);
+        when(bookingPersistenceService.findBooking(anyLong())).thenReturn(booking);
+        assertThat(bookingValidationService.validateBookingIsConfirmedAndNotInProgress(1L)).extracting("errorCode", "message").containsExactly(BookingErrorCode.BOOKING_IN_PROGRESS, "Booking is already in progress and cannot be modified");
+    }
+
+    @Test
+    public void testWhenModifyBookingAlreadyCancelled() {
+        Booking booking = new Booking(1L, "", "", "", LocalDate.now().plusDays(2L), LocalDate.now().plusDays(3L), Booking.BookingStatus.CANCELLED);
+        when(bookingPersistenceService.findBooking(anyLong())).thenReturn(booking);
+        assertThat(bookingValidationService.validateBookingIsConfirmedAndNotInProgress(1L)).extracting("errorCode", "message").containsExactly(BookingErrorCode.BOOKING_NOT_CONFIRMED, "Only confirmed booking can be modified");
+    }
+
+    @Test
+    public void testModifyRequestValidationDoesNotLoadBooking() {
         BookingModify bookingModify = new BookingModify();
         bookingModify.setAction(BookingModify.ActionType.MODIFY);
         bookingModify.setFromDate(LocalDate.now().plusDays(2L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
         bookingModify.setToDate(LocalDate.now().plusDays(4L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
-        assertThatThrownBy(() -> bookingValidationService.validateBookingRequestIsValid(bookingModify, 1L)).extracting("cause").extracting("message").isEqualTo("Booking is already in progress and cannot be modified");
+        assertThat(bookingValidationService.validateBookingRequest(bookingModify, 1L).isValid()).isTrue();
+        verifyNoInteractions(bookingPersistenceService);
     }
 
     @Test
-    public void testWhenModifyBookingAlreadyCancelled() throws BookingNotFoundException {
-        Booking booking = new Booking(1L, "", "", "", LocalDate.now().plusDays(2L), LocalDate.now().plusDays(3L), Booking.BookingStatus.CANCELLED);
-        when(bookingPersistenceService.getBooking(anyLong())).thenReturn(booking);
+    public void testWhenBookingNotFound() {
+        when(bookingPersistenceService.findBooking(anyLong())).thenReturn(null);
+        assertThat(bookingValidationService.validateBookingExists(1L)).extracting("errorCode", "message").containsExactly(BookingErrorCode.BOOKING_NOT_FOUND, "BookingId: 1 is not found");
+    }
+
+    @Test
+    public void testWhenModifyBookingNotFound() {
+        when(bookingPersistenceService.findBooking(anyLong())).thenReturn(null);
+        assertThat(bookingValidationService.validateBookingIsConfirmedAndNotInProgress(1L).getErrorCode()).isEqualTo(BookingErrorCode.BOOKING_NOT_FOUND);
+    }
+
+    @Test
+    public void testWhenBookingDurationSpansMonthEnd() {
+        BookingCreate bookingCreate = new BookingCreate();
+        bookingCreate.setFromDate(LocalDate.now().plusDays(2L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
+        bookingCreate.setToDate(LocalDate.now().plusDays(2L).plusMonths(1L).plusDays(1L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
+        assertThat(bookingValidationService.validateBookingRequest(bookingCreate).getErrorCode()).isEqualTo(BookingErrorCode.DATES_NOT_IN_RANGE);
+    }
+
+    @Test
+    public void testValidBookingRequest() {
+        BookingCreate bookingCreate = new BookingCreate();
+        bookingCreate.setFromDate(LocalDate.now().plusDays(2L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
+        bookingCreate.setToDate(LocalDate.now().plusDays(4L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
+        assertThat(bookingValidationService.validateBookingRequest(bookingCreate)).isSameAs(ValidationResult.valid());
+    }
+
+    @Test
+    public void testBookingTooCloseToOtherStayOfAccount() {
+        long today = LocalDate.now().toEpochDay();
+        when(bookingAccountService.isEnabled()).thenReturn(true);
+        when(bookingAccountService.getMinIntervalDays()).thenReturn(30);
+        when(bookingAccountService.reserveStay("email", null, today + 2, today + 4)).thenReturn(StayReservation.refused(7L));
+        BookingCreate bookingCreate = new BookingCreate();
+        bookingCreate.setEmail("email");
+        bookingCreate.setFromDate(LocalDate.now().plusDays(2L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
+        bookingCreate.setToDate(LocalDate.now().plusDays(4L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
+        assertThat(bookingValidationService.validateBookingRequest(bookingCreate)).isSameAs(ValidationResult.valid());
+        assertThat(bookingValidationService.validateAccountInterval(bookingValidationService.reserveAccountInterval(bookingCreate))).extracting("errorCode", "message")
+                .containsExactly(BookingErrorCode.ACCOUNT_INTERVAL_NOT_MET, "Booking has to be at least 30 days apart from bookingId: 7 of the same account");
+    }
+
+    @Test
+    public void testModifiedBookingReservesStayOfItsAccount() {
+        long today = LocalDate.now().toEpochDay();
+        StayReservation reserved = StayReservation.reserved(() -> {
+        });
+        when(bookingAccountService.isEnabled()).thenReturn(true);
+        when(bookingAccountService.reserveStay("email", 7L, today + 2, today + 4)).thenReturn(reserved);
+        when(bookingPersistenceService.findBooking(7L)).thenReturn(new Booking(7L, "fname", "lname", "email", LocalDate.now().plusDays(20L), LocalDate.now().plusDays(21L), Booking.BookingStatus.CONFIRMED));
         BookingModify bookingModify = new BookingModify();
         bookingModify.setAction(BookingModify.ActionType.MODIFY);
         bookingModify.setFromDate(LocalDate.now().plusDays(2L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
         bookingModify.setToDate(LocalDate.now().plusDays(4L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
-        assertThatThrownBy(() -> bookingValidationService.validateBookingRequestIsValid(bookingModify, 1L)).extracting("cause").extracting("message").isEqualTo("Only confirmed booking can be modified");
+        assertThat(bookingValidationService.reserveAccountInterval(bookingModify, 7L)).isSameAs(reserved);
+        assertThat(bookingValidationService.validateAccountInterval(reserved)).isSameAs(ValidationResult.valid());
+    }
+
+    @Test
+    public void testStayReservedByRequestInFlight() {
+        when(bookingAccountService.getMinIntervalDays()).thenReturn(30);
+        assertThat(bookingValidationService.validateAccountInterval(StayReservation.refused(-2L))).extracting("errorCode", "message")
+                .containsExactly(BookingErrorCode.ACCOUNT_INTERVAL_NOT_MET, "Booking has to be at least 30 days apart from another booking of the same account in progress");
+    }
+
+    @Test
+    public void testNothingReservedWhenAccountIntervalIsOff() {
+        BookingCreate bookingCreate = new BookingCreate();
+        bookingCreate.setEmail("email");
+        assertThat(bookingValidationService.reserveAccountInterval(bookingCreate)).isSameAs(StayReservation.NONE);
     }
 
     @Test
-    public void testWhenBookingNotFound() throws BookingNotFoundException {
-        when(bookingPersistenceService.getBooking(anyLong())).thenReturn(null);
-        assertThatThrownBy(() -> bookingValidationService.validateBookingExists(1L)).extracting("message").isEqualTo("BookingId: 1 is not found");
+    public void testRejectionsWithDefaultMessageAreShared() {
+        BookingCreate bookingCreate = new BookingCreate();
+        bookingCreate.setFromDate("2020-12-33");
+        bookingCreate.setToDate("2020-12-34");
+        assertThat(bookingValidationService.validateBookingRequest(bookingCreate)).isSameAs(bookingValidationService.validateBookingRequest(bookingCreate));
+    }
+
+    @Test
+    public void testBookingOfUnknownSite() {
+        BookingCreate bookingCreate = new BookingCreate();
+        bookingCreate.setSiteId(1);
+        bookingCreate.setFromDate(LocalDate.now().plusDays(2L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
+        bookingCreate.setToDate(LocalDate.now().plusDays(4L).format(DateTimeFormatter.ofPattern(YYYY_MM_DD)));
+        assertThat(bookingValidationService.validateBookingRequest(bookingCreate)).extracting("errorCode", "message")
+                .containsExactly(BookingErrorCode.SITE_NOT_FOUND, "SiteId: 1 does not exist");
+        assertThat(bookingValidationService.validateSite(null).isValid()).isTrue();
+        assertThat(bookingValidationService.validateSite(0).isValid()).isTrue();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,174 @@
+package com.sach429.booking.service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sach429.booking.availability.DateClaimTable;
+import com.sach429.booking.availability.StayReservation;
+import com.sach429.booking.exception.BookingCreationException;
+import com.sach429.booking.exception.BookingErrorCode;
+import com.sach429.booking.exception.BookingModifyException;
+import com.sach429.booking.exception.BookingNotFoundException;
+import com.sach429.booking.metrics.BookingMetrics;
+import com.sach429.booking.model.Booking;
+import com.sach429.booking.model.ValidationResult;
+import com.sach429.booking.repository.ReactiveBookingRepository;
+import com.sach429.booking.types.BookingCreate;
+import com.sach429.booking.types.BookingModify;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveCollectionCallback;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+public class ReactiveBookingServiceTest {
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @InjectMocks
+    public ReactiveBookingService reactiveBookingService;
+
+    @Mock
+    public ReactiveBookingRepository reactiveBookingRepository;
+
+    @Mock
+    public ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Mock
+    public BookingService bookingService;
+
+    @Mock
+    public BookingPersistenceService bookingPersistenceService;
+
+    @Mock
+    public BookingValidationService bookingValidationService;
+
+    @Mock
+    public BookingAvailabilityService bookingAvailabilityService;
+
+    @Mock
+    public BookingCacheService bookingCacheService;
+
+    @Mock
+    public BookingAccountService bookingAccountService;
+
+    @Spy
+    public BookingMetrics bookingMetrics = new BookingMetrics(new SimpleMeterRegistry());
+
+    @Before
+    public void setup() {
+        when(bookingCacheService.getCache()).thenReturn(Caffeine.newBuilder().build());
+        when(bookingValidationService.validateBookingRequest(any(BookingCreate.class))).thenReturn(ValidationResult.valid());
+        when(bookingValidationService.validateBookingRequest(any(BookingModify.class), anyLong())).thenReturn(ValidationResult.valid());
+        when(bookingValidationService.reserveAccountInterval(any(BookingCreate.class))).thenReturn(StayReservation.NONE);
+        when(bookingValidationService.reserveAccountInterval(any(BookingModify.class), anyLong())).thenReturn(StayReservation.NONE);
+        when(bookingValidationService.validateAccountInterval(any(StayReservation.class))).thenReturn(ValidationResult.valid());
+    }
+
+    @Test
+    public void testGetBookingWhenNotFound() {
+        when(reactiveBookingRepository.getBookingByBookingId(1L)).thenReturn(Mono.empty());
+        StepVerifier.create(reactiveBookingService.getBooking(1L))
+                .expectError(BookingNotFoundException.class)
+                .verify();
+    }
+
+    @Test
+    public void testGetBookingIsCached() {
+        Booking booking = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
+        when(reactiveBookingRepository.getBookingByBookingId(1L)).thenReturn(Mono.just(booking));
+        StepVerifier.create(reactiveBookingService.getBooking(1L)).expectNext(booking).verifyComplete();
+        verify(bookingCacheService).put(booking);
+    }
+
+    @Test
+    public void testCreateBookingWhenRequestInvalid() {
+        when(bookingValidationService.validateBookingRequest(any(BookingCreate.class))).thenReturn(ValidationResult.invalid(BookingErrorCode.DATES_NOT_IN_RANGE));
+        StepVerifier.create(reactiveBookingService.createBooking(new BookingCreate()))
+                .expectErrorSatisfies(e -> assertThat(e).isInstanceOf(BookingCreationException.class)
+                        .extracting("errorCode").isEqualTo(BookingErrorCode.DATES_NOT_IN_RANGE))
+                .verify();
+        verifyNoInteractions(reactiveMongoTemplate);
+    }
+
+    @Test
+    public void testCreateBookingWhenDatesClaimedByRequestInFlight() {
+        when(bookingAvailabilityService.claimDates(anyInt(), any(), any())).thenReturn(null);
+        StepVerifier.create(reactiveBookingService.createBooking(new BookingCreate()))
+                .expectErrorSatisfies(e -> assertThat(e).isInstanceOf(BookingCreationException.class)
+                        .hasMessage("Booking dates not available")
+                        .extracting("errorCode").isEqualTo(BookingErrorCode.DATES_NOT_AVAILABLE))
+                .verify();
+        verifyNoInteractions(reactiveMongoTemplate);
+        assertThat(bookingMetrics.getMeterRegistry().get(BookingMetrics.CONTENTION_COUNTER).tag(BookingMetrics.OPERATION, BookingMetrics.CREATE).counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void testCreateBookingReleasesDatesClaimWhenInsertFails() {
+        DateClaimTable dateClaimTable = new DateClaimTable(64);
+        Booking booking = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
+        when(bookingAvailabilityService.claimDates(anyInt(), any(), any())).thenAnswer(invocation -> dateClaimTable.claim(100L, 102L));
+        when(bookingPersistenceService.newBooking(any(BookingCreate.class))).thenReturn(booking);
+        when(reactiveMongoTemplate.insert(booking)).thenReturn(Mono.error(new DuplicateKeyException("duplicate key")));
+        StepVerifier.create(reactiveBookingService.createBooking(new BookingCreate()))
+                .expectErrorSatisfies(e -> assertThat(e).extracting("errorCode").isEqualTo(BookingErrorCode.DATES_NOT_AVAILABLE))
+                .verify();
+        assertThat(dateClaimTable.isClaimed(100L)).isFalse();
+        verify(bookingPersistenceService, never()).bookingCreated(any(Booking.class));
+    }
+
+    @Test
+    public void testCreateBooking() {
+        Booking booking = new Booking(1L, "fname", "lname", "email", LocalDate.of(2020, 12, 10), LocalDate.of(2020, 12, 12), Booking.BookingStatus.CONFIRMED);
+        when(bookingAvailabilityService.claimDates(anyInt(), any(), any())).thenReturn(new DateClaimTable(64).claim(100L, 102L));
+        List<String> idThreads = new ArrayList<>();
+        when(bookingPersistenceService.newBooking(any(BookingCreate.class))).thenAnswer(invocation -> {
+            idThreads.add(Thread.currentThread().getName());
+            return booking;
+        });
+        when(reactiveMongoTemplate.insert(booking)).thenReturn(Mono.just(booking));
+        StepVerifier.create(reactiveBookingService.createBooking(new BookingCreate())).expectNext(booking).verifyComplete();
+        verify(bookingPersistenceService).bookingCreated(booking);
+        assertThat(idThreads).hasSize(1).allSatisfy(idThread -> assertThat(idThread).startsWith("boundedElastic"));
+        for (String stage : new String[]{BookingMetrics.VALIDATION, BookingMetrics.PERSISTENCE}) {
+            assertThat(bookingMetrics.getMeterRegistry().get(BookingMetrics.STAGE_TIMER)
+                    .tags(BookingMetrics.OPERATION, BookingMetrics.CREATE, BookingMetrics.STAGE, stage).timer().count()).isEqualTo(1L);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCancelBookingWhenNotConfirmed() {
+        Booking booking = new Booking(1L, "fname", "lname", "email", LocalDate.now().plusDays(3L), LocalDate.now().plusDays(4L), Booking.BookingStatus.CANCELLED);
+        when(bookingPersistenceService.getCancelChanges(any(BookingModify.class))).thenReturn(new Document());
+        when(reactiveMongoTemplate.execute(eq(Booking.class), any(ReactiveCollectionCallback.class))).thenReturn(Flux.empty());
+        when(reactiveBookingRepository.getBookingByBookingId(1L)).thenReturn(Mono.just(booking));
+        when(bookingValidationService.validateBookingIsConfirmedAndNotInProgress(booking, 1L)).thenReturn(ValidationResult.invalid(BookingErrorCode.BOOKING_NOT_CONFIRMED));
+        BookingModify bookingModify = new BookingModify();
+        bookingModify.setAction(BookingModify.ActionType.CANCEL);
+        bookingModify.setReason("reason");
+        StepVerifier.create(reactiveBookingService.modifyBooking(bookingModify, 1L))
+                .expectErrorSatisfies(e -> assertThat(e).isInstanceOf(BookingModifyException.class)
+                        .hasMessage("Only confirmed booking can be modified"))
+                .verify();
+        verify(bookingPersistenceService, never()).bookingCancelled(anyLong(), any(Booking.class));
+    }
+}
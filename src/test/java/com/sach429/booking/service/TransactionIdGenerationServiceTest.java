@@ -0,0 +1,67 @@
+package com.sach429.booking.service;
+
+import com.sach429.booking.properties.BookingConfigurationProperties;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+public class TransactionIdGenerationServiceTest {
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    public BookingConfigurationProperties bookingConfigurationProperties;
+
+    public TransactionIdGenerationService transactionIdGenerationService;
+
+    @Before
+    public void setup() {
+        when(bookingConfigurationProperties.getNodeId()).thenReturn(5);
+        transactionIdGenerationService = new TransactionIdGenerationService(bookingConfigurationProperties);
+    }
+
+    @Test
+    public void testTransactionIdContainsNodeId() {
+        long id = transactionIdGenerationService.nextId();
+        assertThat((id >>> TransactionIdGenerationService.SEQUENCE_BITS) & ((1L << TransactionIdGenerationService.NODE_ID_BITS) - 1)).isEqualTo(5L);
+        assertThat(transactionIdGenerationService.generateTransactionId()).startsWith("T");
+    }
+
+    @Test
+    public void testTransactionIdsAreIncreasing() {
+        long previous = transactionIdGenerationService.nextId();
+        for (int i = 0; i < 10000; i++) {
+            long next = transactionIdGenerationService.nextId();
+            assertThat(next).isGreaterThan(previous);
+            previous = next;
+        }
+    }
+
+    @Test
+    public void testTransactionIdsAreUniqueAcrossThreads() throws InterruptedException {
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 8; i++) {
+            executorService.execute(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    ids.add(transactionIdGenerationService.nextId());
+                }
+            });
+        }
+        executorService.shutdown();
+        assertThat(executorService.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+        assertThat(ids).hasSize(80000);
+    }
+}